@@ -21,6 +21,7 @@ import com.microsoft.appcenter.analytics.ingestion.models.one.json.CommonSchemaE
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.UUIDUtils;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
@@ -342,6 +343,11 @@ public class Analytics extends AbstractAppCenterService {
         return LOG_TAG;
     }
 
+    @Override
+    protected int getEvictionPriority() {
+        return EvictionPolicy.PRIORITY_LOW;
+    }
+
     @Override
     public Map<String, LogFactory> getLogFactories() {
         return mFactories;
@@ -400,7 +406,12 @@ public class Analytics extends AbstractAppCenterService {
 
     @Override
     protected Channel.GroupListener getChannelListener() {
-        return new Channel.GroupListener() {
+        return new Channel.OptionalGroupListener() {
+
+            @Override
+            public boolean hasCallbacks() {
+                return mAnalyticsListener != null;
+            }
 
             @Override
             public void onBeforeSending(Log log) {
@@ -1,10 +1,10 @@
 package com.microsoft.appcenter.assets.apirequests;
 
-import android.os.AsyncTask;
-
 import com.microsoft.appcenter.assets.exceptions.AssetsApiHttpRequestException;
+import com.microsoft.appcenter.http.HttpExecutor;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Represents request to CodePush server.
@@ -34,11 +34,11 @@ public class ApiHttpRequest<T> {
      * @throws AssetsApiHttpRequestException if there was error during the execution of request.
      */
     public T makeRequest() throws AssetsApiHttpRequestException {
-        mRequestTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         T taskResult;
         try {
+            mRequestTask.executeOnExecutor(HttpExecutor.getSharedInstance());
             taskResult = mRequestTask.get();
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (InterruptedException | ExecutionException | RejectedExecutionException e) {
             throw new AssetsApiHttpRequestException(e);
         }
         AssetsApiHttpRequestException innerException = mRequestTask.getInnerException();
@@ -299,7 +299,7 @@ public class CrashesAndroidTest {
                 return o instanceof ManagedErrorLog;
             }
         };
-        verify(mChannel, never()).enqueue(argThat(matchCrashLog), anyString());
+        verify(mChannel, never()).enqueue(argThat(matchCrashLog), anyString(), anyInt());
         assertEquals(2, ErrorLogHelper.getErrorStorageDirectory().listFiles(mMinidumpFilter).length);
         verify(crashesListener).shouldProcess(any(ErrorReport.class));
         verify(crashesListener).shouldAwaitUserConfirmation();
@@ -314,10 +314,10 @@ public class CrashesAndroidTest {
                 log.set((Log) invocationOnMock.getArguments()[0]);
                 return null;
             }
-        }).when(mChannel).enqueue(argThat(matchCrashLog), anyString());
+        }).when(mChannel).enqueue(argThat(matchCrashLog), anyString(), anyInt());
         Crashes.notifyUserConfirmation(Crashes.ALWAYS_SEND);
         assertTrue(Crashes.isEnabled().get());
-        verify(mChannel).enqueue(argThat(matchCrashLog), anyString());
+        verify(mChannel).enqueue(argThat(matchCrashLog), anyString(), anyInt());
         assertNotNull(log.get());
         assertEquals(1, ErrorLogHelper.getErrorStorageDirectory().listFiles(mMinidumpFilter).length);
 
@@ -329,7 +329,7 @@ public class CrashesAndroidTest {
         mChannel = mock(Channel.class);
         ArgumentCaptor<Channel.GroupListener> groupListener = ArgumentCaptor.forClass(Channel.GroupListener.class);
         startFresh(crashesListener);
-        verify(mChannel).addGroup(anyString(), anyInt(), anyInt(), anyInt(), isNull(Ingestion.class), groupListener.capture());
+        verify(mChannel).addGroup(anyString(), anyInt(), anyInt(), anyInt(), isNull(Ingestion.class), groupListener.capture(), anyInt(), anyInt());
         groupListener.getValue().onBeforeSending(log.get());
         groupListener.getValue().onSuccess(log.get());
 
@@ -354,7 +354,7 @@ public class CrashesAndroidTest {
         semaphore.acquire();
 
         assertEquals(0, ErrorLogHelper.getErrorStorageDirectory().listFiles(mMinidumpFilter).length);
-        verify(mChannel, never()).enqueue(argThat(matchCrashLog), anyString());
+        verify(mChannel, never()).enqueue(argThat(matchCrashLog), anyString(), anyInt());
         verify(crashesListener).onBeforeSending(any(ErrorReport.class));
         verify(crashesListener).onSendingSucceeded(any(ErrorReport.class));
         verifyNoMoreInteractions(crashesListener);
@@ -405,7 +405,7 @@ public class CrashesAndroidTest {
                 return o instanceof ManagedErrorLog;
             }
         };
-        verify(mChannel, never()).enqueue(argThat(matchCrashLog), anyString());
+        verify(mChannel, never()).enqueue(argThat(matchCrashLog), anyString(), anyInt());
         assertEquals(2, ErrorLogHelper.getErrorStorageDirectory().listFiles(mMinidumpFilter).length);
         verify(crashesListener).shouldProcess(any(ErrorReport.class));
         verify(crashesListener).shouldAwaitUserConfirmation();
@@ -420,10 +420,10 @@ public class CrashesAndroidTest {
                 log.set((Log) invocationOnMock.getArguments()[0]);
                 return null;
             }
-        }).when(mChannel).enqueue(argThat(matchCrashLog), anyString());
+        }).when(mChannel).enqueue(argThat(matchCrashLog), anyString(), anyInt());
         Crashes.notifyUserConfirmation(Crashes.SEND);
         assertTrue(Crashes.isEnabled().get());
-        verify(mChannel).enqueue(argThat(matchCrashLog), anyString());
+        verify(mChannel).enqueue(argThat(matchCrashLog), anyString(), anyInt());
         assertNotNull(log.get());
         assertEquals(1, ErrorLogHelper.getErrorStorageDirectory().listFiles(mMinidumpFilter).length);
         verify(crashesListener).getErrorAttachments(any(ErrorReport.class));
@@ -440,10 +440,10 @@ public class CrashesAndroidTest {
                 }
                 return false;
             }
-        }), anyString());
+        }), anyString(), anyInt());
 
         /* Verify custom text attachment. */
-        verify(mChannel).enqueue(eq(textAttachment), anyString());
+        verify(mChannel).enqueue(eq(textAttachment), anyString(), anyInt());
     }
 
     @Test
@@ -8,6 +8,7 @@ import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.AbstractAppCenterService;
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.SessionContext;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog;
@@ -25,6 +26,7 @@ import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.HandlerUtils;
@@ -397,6 +399,11 @@ public class Crashes extends AbstractAppCenterService {
         return 1;
     }
 
+    @Override
+    protected int getEvictionPriority() {
+        return EvictionPolicy.PRIORITY_HIGH;
+    }
+
     @Override
     protected Channel.GroupListener getChannelListener() {
         return new Channel.GroupListener() {
@@ -537,7 +544,7 @@ public class Crashes extends AbstractAppCenterService {
                 errorLog.setId(UUID.randomUUID());
                 errorLog.setException(exceptionModelBuilder.buildExceptionModel());
                 errorLog.setProperties(properties);
-                mChannel.enqueue(errorLog, ERROR_GROUP);
+                mChannel.enqueue(errorLog, ERROR_GROUP, Flags.CRITICAL);
             }
         });
     }
@@ -821,7 +828,7 @@ public class Crashes extends AbstractAppCenterService {
                         }
 
                         /* Send report. */
-                        mChannel.enqueue(errorLogReport.log, ERROR_GROUP);
+                        mChannel.enqueue(errorLogReport.log, ERROR_GROUP, Flags.CRITICAL);
 
                         /* Send dump attachment and remove file. */
                         if (dumpAttachment != null) {
@@ -860,7 +867,7 @@ public class Crashes extends AbstractAppCenterService {
                     attachment.setErrorId(errorId);
                     if (attachment.isValid()) {
                         ++totalErrorAttachments;
-                        mChannel.enqueue(attachment, ERROR_GROUP);
+                        mChannel.enqueue(attachment, ERROR_GROUP, Flags.CRITICAL);
                     } else {
                         AppCenterLog.error(LOG_TAG, "Not all required fields are present in ErrorAttachmentLog.");
                     }
@@ -7,6 +7,7 @@ import android.os.SystemClock;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.AppCenterHandler;
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.SessionContext;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog;
@@ -25,6 +26,7 @@ import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.HandlerUtils;
@@ -251,7 +253,7 @@ public class CrashesTest {
         crashes.onStarting(mAppCenterHandler);
         crashes.onStarted(mock(Context.class), "", null, mockChannel);
         verify(mockChannel).removeGroup(eq(crashes.getGroupName()));
-        verify(mockChannel).addGroup(eq(crashes.getGroupName()), anyInt(), anyInt(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(mockChannel).addGroup(eq(crashes.getGroupName()), anyInt(), anyInt(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class), eq(EvictionPolicy.PRIORITY_HIGH), anyInt());
 
         /* Test. */
         assertTrue(Crashes.isEnabled().get());
@@ -276,9 +278,9 @@ public class CrashesTest {
         assertTrue(Thread.getDefaultUncaughtExceptionHandler() instanceof UncaughtExceptionHandler);
         Crashes.setEnabled(true);
         assertTrue(Crashes.isEnabled().get());
-        verify(mockChannel, times(2)).addGroup(eq(crashes.getGroupName()), anyInt(), anyInt(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(mockChannel, times(2)).addGroup(eq(crashes.getGroupName()), anyInt(), anyInt(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class), eq(EvictionPolicy.PRIORITY_HIGH), anyInt());
         Crashes.trackException(EXCEPTION);
-        verify(mockChannel, times(1)).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()));
+        verify(mockChannel, times(1)).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
     }
 
     @Test
@@ -341,8 +343,8 @@ public class CrashesTest {
             public boolean matches(Object log) {
                 return log.equals(mErrorLog);
             }
-        }), eq(crashes.getGroupName()));
-        verify(mockChannel, times(errorAttachmentLogList.size() - skipAttachmentLogsCount)).enqueue(mockAttachment, crashes.getGroupName());
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
+        verify(mockChannel, times(errorAttachmentLogList.size() - skipAttachmentLogsCount)).enqueue(mockAttachment, crashes.getGroupName(), Flags.CRITICAL);
     }
 
     @Test
@@ -376,7 +378,7 @@ public class CrashesTest {
         verify(mockListener, never()).shouldAwaitUserConfirmation();
 
         verify(mockListener, never()).getErrorAttachments(report);
-        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
     }
 
     @Test
@@ -430,9 +432,9 @@ public class CrashesTest {
             public boolean matches(Object log) {
                 return log.equals(mErrorLog);
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
-        verify(mockChannel, times(errorAttachmentLogList.size())).enqueue(mockAttachment, crashes.getGroupName());
+        verify(mockChannel, times(errorAttachmentLogList.size())).enqueue(mockAttachment, crashes.getGroupName(), Flags.CRITICAL);
     }
 
     @Test
@@ -455,7 +457,7 @@ public class CrashesTest {
         crashes.onStarting(mAppCenterHandler);
         crashes.onStarted(mock(Context.class), "", null, channel);
         verifyZeroInteractions(listener);
-        verify(channel, never()).enqueue(any(Log.class), anyString());
+        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
     }
 
     @Test
@@ -467,7 +469,7 @@ public class CrashesTest {
         Crashes crashes = Crashes.getInstance();
         crashes.onStarting(mAppCenterHandler);
         crashes.onStarted(mock(Context.class), "", null, channel);
-        verify(channel, never()).enqueue(any(Log.class), anyString());
+        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
     }
 
     @Test
@@ -487,7 +489,7 @@ public class CrashesTest {
         crashes.onStarting(mAppCenterHandler);
         crashes.onStarted(mockContext, "", null, mockChannel);
 
-        verify(mockChannel, never()).enqueue(any(Log.class), anyString());
+        verify(mockChannel, never()).enqueue(any(Log.class), anyString(), anyInt());
     }
 
     @Test
@@ -509,7 +511,7 @@ public class CrashesTest {
         crashes.onStarting(mAppCenterHandler);
         crashes.onStarted(mockContext, "", null, mockChannel);
 
-        verify(mockChannel, never()).enqueue(any(Log.class), anyString());
+        verify(mockChannel, never()).enqueue(any(Log.class), anyString(), anyInt());
 
         verifyStatic();
         AppCenterLog.error(eq(Crashes.LOG_TAG), anyString(), eq(jsonException));
@@ -541,7 +543,7 @@ public class CrashesTest {
             public boolean matches(Object item) {
                 return item instanceof HandledErrorLog && EXCEPTION.getMessage().equals(((HandledErrorLog) item).getException().getMessage());
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
         reset(mockChannel);
         Crashes.trackException(EXCEPTION, new HashMap<String, String>() {{
             put(null, null);
@@ -556,7 +558,7 @@ public class CrashesTest {
                 return item instanceof HandledErrorLog && EXCEPTION.getMessage().equals(((HandledErrorLog) item).getException().getMessage())
                         && ((HandledErrorLog) item).getProperties().size() == 0;
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
         reset(mockChannel);
         Crashes.trackException(EXCEPTION, new HashMap<String, String>() {{
             for (int i = 0; i < 30; i++) {
@@ -570,7 +572,7 @@ public class CrashesTest {
                 return item instanceof HandledErrorLog && EXCEPTION.getMessage().equals(((HandledErrorLog) item).getException().getMessage())
                         && ((HandledErrorLog) item).getProperties().size() == 20;
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
         reset(mockChannel);
         final String longerMapItem = generateString(ErrorLogHelper.MAX_PROPERTY_ITEM_LENGTH + 1, '*');
         Crashes.trackException(EXCEPTION, new HashMap<String, String>() {{
@@ -592,7 +594,7 @@ public class CrashesTest {
                 }
                 return false;
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         HandledErrorLog mockLog = mock(HandledErrorLog.class);
         CrashesListener mockListener = mock(CrashesListener.class);
@@ -631,7 +633,7 @@ public class CrashesTest {
         Channel mockChannel = mock(Channel.class);
 
         WrapperSdkExceptionManager.trackException(exception);
-        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
         crashes.onStarting(mAppCenterHandler);
         crashes.onStarted(mock(Context.class), "", null, mockChannel);
         WrapperSdkExceptionManager.trackException(exception);
@@ -641,7 +643,7 @@ public class CrashesTest {
             public boolean matches(Object item) {
                 return item instanceof HandledErrorLog && exception.equals(((HandledErrorLog) item).getException());
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
         reset(mockChannel);
         WrapperSdkExceptionManager.trackException(exception, new HashMap<String, String>() {{
             put(null, null);
@@ -656,7 +658,7 @@ public class CrashesTest {
                 return item instanceof HandledErrorLog && exception.equals(((HandledErrorLog) item).getException())
                         && ((HandledErrorLog) item).getProperties().size() == 0;
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
         reset(mockChannel);
         WrapperSdkExceptionManager.trackException(exception, new HashMap<String, String>() {{
             for (int i = 0; i < 30; i++) {
@@ -670,7 +672,7 @@ public class CrashesTest {
                 return item instanceof HandledErrorLog && exception.equals(((HandledErrorLog) item).getException())
                         && ((HandledErrorLog) item).getProperties().size() == 20;
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
         reset(mockChannel);
         final String longerMapItem = generateString(ErrorLogHelper.MAX_PROPERTY_ITEM_LENGTH + 1, '*');
         WrapperSdkExceptionManager.trackException(exception, new HashMap<String, String>() {{
@@ -692,7 +694,7 @@ public class CrashesTest {
                 }
                 return false;
             }
-        }), eq(crashes.getGroupName()));
+        }), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
     }
 
     @Test
@@ -1173,7 +1175,7 @@ public class CrashesTest {
         crashes.onStarted(mockContext, "", null, mockChannel);
 
         /* No log queued. */
-        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         /* Get crash reports. */
         Collection<ErrorReport> reports = WrapperSdkExceptionManager.getUnprocessedErrorReports().get();
@@ -1193,7 +1195,7 @@ public class CrashesTest {
         verifyZeroInteractions(listener);
 
         /* No log sent until manual user confirmation in that mode (we are not in always send). */
-        verify(mockChannel, never()).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         /* Confirm with always send. */
         Crashes.notifyUserConfirmation(Crashes.ALWAYS_SEND);
@@ -1202,7 +1204,7 @@ public class CrashesTest {
         when(StorageHelper.PreferencesStorage.getBoolean(eq(Crashes.PREF_KEY_ALWAYS_SEND), anyBoolean())).thenReturn(true);
 
         /* 1 log sent. Other one is filtered. */
-        verify(mockChannel).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()));
+        verify(mockChannel).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         /* We can send attachments via wrapper instead of using listener (both work but irrelevant to test with listener). */
         ErrorAttachmentLog mockAttachment = mock(ErrorAttachmentLog.class);
@@ -1210,7 +1212,7 @@ public class CrashesTest {
         when(mockAttachment.getData()).thenReturn(new byte[0]);
         when(mockAttachment.isValid()).thenReturn(true);
         WrapperSdkExceptionManager.sendErrorAttachments(report1.getId(), Collections.singletonList(mockAttachment));
-        verify(mockChannel).enqueue(eq(mockAttachment), eq(crashes.getGroupName()));
+        verify(mockChannel).enqueue(eq(mockAttachment), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         /* Send attachment with invalid UUID format for report identifier. */
         mockAttachment = mock(ErrorAttachmentLog.class);
@@ -1218,7 +1220,7 @@ public class CrashesTest {
         when(mockAttachment.getData()).thenReturn(new byte[0]);
         when(mockAttachment.isValid()).thenReturn(true);
         WrapperSdkExceptionManager.sendErrorAttachments("not-a-uuid", Collections.singletonList(mockAttachment));
-        verify(mockChannel, never()).enqueue(eq(mockAttachment), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(eq(mockAttachment), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         /* We used manual process function, listener not called and our mock channel does not send events. */
         verifyZeroInteractions(listener);
@@ -1233,11 +1235,11 @@ public class CrashesTest {
         mockChannel = mock(Channel.class);
         crashes.onStarted(mockContext, "", null, mockChannel);
         assertTrue(Crashes.isEnabled().get());
-        verify(mockChannel, never()).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         /* Get crash reports, check always sent was returned and sent without confirmation. */
         assertTrue(WrapperSdkExceptionManager.sendCrashReportsOrAwaitUserConfirmation(Collections.singletonList(report2.getId())).get());
-        verify(mockChannel).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()));
+        verify(mockChannel).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
     }
 
     @Test
@@ -1277,7 +1279,7 @@ public class CrashesTest {
         crashes.onStarted(mockContext, "", null, mockChannel);
 
         /* No log queued. */
-        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(any(Log.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
 
         /* Get crash reports. */
         Collection<ErrorReport> reports = WrapperSdkExceptionManager.getUnprocessedErrorReports().get();
@@ -1291,7 +1293,7 @@ public class CrashesTest {
         assertFalse(WrapperSdkExceptionManager.sendCrashReportsOrAwaitUserConfirmation(null).get());
 
         /* No log sent. */
-        verify(mockChannel, never()).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()));
+        verify(mockChannel, never()).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()), eq(Flags.CRITICAL));
     }
 
     private ManagedErrorLog testNativeCrashLog(long appStartTime, long crashTime, boolean correlateSession) throws Exception {
@@ -0,0 +1,215 @@
+package com.microsoft.appcenter.channel;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Printer;
+
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLog;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.persistence.InMemoryPersistence;
+import com.microsoft.appcenter.utils.UUIDUtils;
+import com.microsoft.appcenter.utils.storage.StorageHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class DefaultChannelAndroidTest {
+
+    private static final String TEST_GROUP = "group_test";
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    private ServerSocket mServerSocket;
+
+    private Thread mServerThread;
+
+    private HandlerThread mAppCenterThread;
+
+    private Handler mAppCenterHandler;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        StorageHelper.initialize(sContext);
+    }
+
+    /**
+     * Read a request, supporting both fixed length and chunked bodies.
+     */
+    private static void readRequest(BufferedReader reader) throws IOException {
+        int contentLength = 0;
+        boolean chunked = false;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            String lowerCaseLine = line.toLowerCase();
+            if (lowerCaseLine.startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+            } else if (lowerCaseLine.startsWith("transfer-encoding:") && lowerCaseLine.contains("chunked")) {
+                chunked = true;
+            }
+        }
+        if (chunked) {
+            int chunkSize;
+            do {
+                chunkSize = Integer.parseInt(reader.readLine().trim(), 16);
+                skip(reader, chunkSize);
+
+                /* Line ending after chunk. */
+                reader.readLine();
+            } while (chunkSize > 0);
+        } else {
+            skip(reader, contentLength);
+        }
+    }
+
+    private static void skip(BufferedReader reader, int length) throws IOException {
+        while (length > 0) {
+            long skipped = reader.skip(length);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of request");
+            }
+            length -= skipped;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+
+        /* Local ingestion stub accepting everything. */
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mServerThread = new Thread("DefaultChannelAndroidTest.server") {
+
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    try {
+                        Socket socket = mServerSocket.accept();
+                        try {
+                            readRequest(new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1")));
+                            OutputStream out = socket.getOutputStream();
+                            out.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+                            out.flush();
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        mServerThread.start();
+        mAppCenterThread = new HandlerThread("DefaultChannelAndroidTest.AppCenter");
+        mAppCenterThread.start();
+        mAppCenterHandler = new Handler(mAppCenterThread.getLooper());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Looper.getMainLooper().setMessageLogging(null);
+        mServerThread.interrupt();
+        mServerSocket.close();
+        mAppCenterThread.quit();
+    }
+
+    @Test
+    public void sendCycleDoesNotUseMainLooper() throws Exception {
+
+        /* Record every message dispatched by the main looper that comes from the SDK. */
+        final List<String> mainLooperMessages = Collections.synchronizedList(new ArrayList<String>());
+        Looper.getMainLooper().setMessageLogging(new Printer() {
+
+            @Override
+            public void println(String message) {
+                if (message.startsWith(">>>>> Dispatching") && message.contains("com.microsoft.appcenter")) {
+                    mainLooperMessages.add(message);
+                }
+            }
+        });
+
+        /* Wire a channel to the local server. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockLog.MOCK_LOG_TYPE, new MockLogFactory());
+        InMemoryPersistence persistence = new InMemoryPersistence();
+        persistence.setLogSerializer(logSerializer);
+        AppCenterIngestion ingestion = new AppCenterIngestion(sContext, logSerializer);
+        ingestion.setLogUrl("http://127.0.0.1:" + mServerSocket.getLocalPort());
+        final DefaultChannel channel = new DefaultChannel(sContext, UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        final CountDownLatch sent = new CountDownLatch(1);
+        final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Channel.GroupListener listener = new Channel.GroupListener() {
+
+            @Override
+            public void onBeforeSending(Log log) {
+            }
+
+            @Override
+            public void onSuccess(Log log) {
+                callbackThread.set(Thread.currentThread());
+                sent.countDown();
+            }
+
+            @Override
+            public void onFailure(Log log, Exception e) {
+                failure.set(e);
+                sent.countDown();
+            }
+        };
+
+        /* Send a log, like services do from the App Center thread. */
+        mAppCenterHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                channel.addGroup(TEST_GROUP, 1, 3000, 1, null, listener);
+                channel.enqueue(new MockLog(), TEST_GROUP);
+            }
+        });
+        assertTrue(sent.await(20, TimeUnit.SECONDS));
+        assertEquals(null, failure.get());
+
+        /* The whole cycle ran on SDK threads. */
+        assertNotNull(callbackThread.get());
+        assertNotEquals(Looper.getMainLooper().getThread(), callbackThread.get());
+        assertEquals(Collections.emptyList(), mainLooperMessages);
+    }
+}
@@ -0,0 +1,248 @@
+package com.microsoft.appcenter.channel;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.utils.UUIDUtils;
+import com.microsoft.appcenter.utils.storage.StorageHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures enqueue contention between threads, results are printed in logcat.
+ * Logs are persisted on the App Center thread in every mode, only the way producers hand them off changes.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class DefaultChannelBenchmarkAndroidTest {
+
+    /**
+     * Log tag for results.
+     */
+    private static final String TAG = "AppCenterBenchmark";
+
+    /**
+     * Group name.
+     */
+    private static final String TEST_GROUP = "group_test";
+
+    /**
+     * Number of threads enqueuing logs.
+     */
+    private static final int THREAD_COUNT = 8;
+
+    /**
+     * Number of logs enqueued by each thread.
+     */
+    private static final int LOGS_PER_THREAD = 250;
+
+    /**
+     * Each producer waits for its log to be processed on the App Center thread.
+     */
+    private static final int MODE_WAIT = 0;
+
+    /**
+     * Each producer posts the enqueue call to the App Center thread, like services do.
+     */
+    private static final int MODE_POST = 1;
+
+    /**
+     * Each producer calls enqueue directly, logs go through the channel hand-off queue.
+     */
+    private static final int MODE_HAND_OFF = 2;
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    private HandlerThread mAppCenterThread;
+
+    private Handler mAppCenterHandler;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        StorageHelper.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    public void setUp() {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        mAppCenterThread = new HandlerThread("DefaultChannelBenchmarkAndroidTest.AppCenter");
+        mAppCenterThread.start();
+        mAppCenterHandler = new Handler(mAppCenterThread.getLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mAppCenterThread.quit();
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+    }
+
+    /**
+     * Run code on the App Center thread, where the channel uses persistence, and wait for it.
+     *
+     * @param runnable code to run.
+     */
+    private void runOnAppCenterThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mAppCenterHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        done.await();
+    }
+
+    /**
+     * Enqueue logs from several threads.
+     *
+     * @param mode one of the MODE constants.
+     * @return results to print.
+     */
+    private String enqueueLogs(final int mode) throws InterruptedException {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        final DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        AppCenterIngestion ingestion = new AppCenterIngestion(sContext, logSerializer);
+        final DefaultChannel channel = new DefaultChannel(sContext, UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        try {
+
+            /* Nothing is sent during the measure. */
+            channel.addGroup(TEST_GROUP, THREAD_COUNT * LOGS_PER_THREAD + 1, Long.MAX_VALUE / 2, 1, null, null);
+            final List<List<Log>> logs = new ArrayList<>(THREAD_COUNT);
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                List<Log> threadLogs = new ArrayList<>(LOGS_PER_THREAD);
+                for (int j = 0; j < LOGS_PER_THREAD; j++) {
+                    threadLogs.add(AndroidTestUtils.generateMockLog());
+                }
+                logs.add(threadLogs);
+            }
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+            final AtomicLong maxCallTime = new AtomicLong();
+            final AtomicLong totalCallTime = new AtomicLong();
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                final List<Log> threadLogs = logs.get(i);
+                new Thread() {
+
+                    @Override
+                    public void run() {
+                        start.countDown();
+                        try {
+                            start.await();
+                        } catch (InterruptedException ignored) {
+                            return;
+                        }
+                        for (final Log log : threadLogs) {
+                            long callStart = System.nanoTime();
+                            Runnable enqueue = new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    channel.enqueue(log, TEST_GROUP);
+                                }
+                            };
+                            if (mode == MODE_WAIT) {
+                                try {
+                                    runOnAppCenterThread(enqueue);
+                                } catch (InterruptedException ignored) {
+                                    return;
+                                }
+                            } else if (mode == MODE_POST) {
+                                mAppCenterHandler.post(enqueue);
+                            } else {
+                                enqueue.run();
+                            }
+                            long callTime = System.nanoTime() - callStart;
+                            totalCallTime.addAndGet(callTime);
+                            long max;
+                            do {
+                                max = maxCallTime.get();
+                            } while (callTime > max && !maxCallTime.compareAndSet(max, callTime));
+                        }
+                        done.countDown();
+                    }
+                }.start();
+            }
+            long startTime = System.nanoTime();
+            done.await();
+
+            /* Wait for the last logs handed off to be processed and committed, from the thread owning the transaction. */
+            runOnAppCenterThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    persistence.flush();
+                }
+            });
+            long elapsed = System.nanoTime() - startTime;
+            int logCount = THREAD_COUNT * LOGS_PER_THREAD;
+            assertEquals(logCount, persistence.countLogs(TEST_GROUP));
+
+            /* Logs must be on disk, not in the in-memory fallback. */
+            DatabasePersistence reopenedPersistence = new DatabasePersistence(sContext);
+            try {
+                assertEquals(logCount, reopenedPersistence.countLogs(TEST_GROUP));
+            } finally {
+                reopenedPersistence.close();
+            }
+            return String.format(Locale.US, "%.0f logs/s, average enqueue call %.3f ms, max %.3f ms",
+                    logCount * 1e9 / elapsed, totalCallTime.get() / 1e6 / logCount, maxCallTime.get() / 1e6);
+        } finally {
+            runOnAppCenterThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    channel.setEnabled(false);
+                }
+            });
+            persistence.close();
+            sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        }
+    }
+
+    @Test
+    public void enqueueContention() throws InterruptedException {
+        String waiting = enqueueLogs(MODE_WAIT);
+        String posting = enqueueLogs(MODE_POST);
+        String handOff = enqueueLogs(MODE_HAND_OFF);
+        android.util.Log.i(TAG, String.format(Locale.US, "enqueue from %d threads: %s waiting for each log, %s posting like services, %s with hand-off.", THREAD_COUNT, waiting, posting, handOff));
+    }
+}
@@ -3,6 +3,7 @@ package com.microsoft.appcenter.persistence;
 import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.MediumTest;
@@ -11,6 +12,7 @@ import android.support.test.runner.AndroidJUnit4;
 import com.microsoft.appcenter.AndroidTestUtils;
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
@@ -18,6 +20,7 @@ import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
 import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.CompressionUtils;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import com.microsoft.appcenter.utils.storage.StorageHelper;
@@ -32,9 +35,11 @@ import org.junit.runner.RunWith;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -76,6 +81,7 @@ public class DatabasePersistenceAndroidTest {
 
         /* Clean up database. */
         sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        sContext.deleteDatabase(DatabasePersistence.TARGET_TOKENS_DATABASE);
     }
 
     private static int getIteratorSize(Iterator iterator) {
@@ -85,6 +91,61 @@ public class DatabasePersistenceAndroidTest {
         return count;
     }
 
+    /**
+     * Replace a database by a directory that cannot be deleted, so that its storage switches to memory.
+     *
+     * @param database database name.
+     * @return directory to remove with {@link #unblockDatabase(File)}.
+     */
+    private static File blockDatabase(String database) throws IOException {
+        File directory = sContext.getDatabasePath(database);
+        assertTrue(directory.mkdirs());
+        assertTrue(new File(directory, "block").createNewFile());
+        return directory;
+    }
+
+    /**
+     * Remove a directory created by {@link #blockDatabase(String)}.
+     *
+     * @param directory directory.
+     */
+    private static void unblockDatabase(File directory) {
+        assertTrue(new File(directory, "block").delete());
+        assertTrue(directory.delete());
+    }
+
+    /**
+     * Rename a table of the logs database.
+     *
+     * @param table   table name.
+     * @param newName new table name.
+     */
+    private static void renameTable(String table, String newName) {
+        SQLiteDatabase database = sContext.openOrCreateDatabase(DatabasePersistence.DATABASE, Context.MODE_PRIVATE, null);
+        try {
+            database.execSQL("ALTER TABLE `" + table + "` RENAME TO `" + newName + "`");
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Create a common schema log.
+     *
+     * @param name        log name.
+     * @param targetToken target token.
+     * @return log.
+     */
+    private static MockCommonSchemaLog generateCommonSchemaLog(String name, String targetToken) {
+        MockCommonSchemaLog commonSchemaLog = new MockCommonSchemaLog();
+        commonSchemaLog.setName(name);
+        commonSchemaLog.setIKey("o:test");
+        commonSchemaLog.setTimestamp(new Date());
+        commonSchemaLog.setVer("3.0");
+        commonSchemaLog.addTransmissionTarget(targetToken);
+        return commonSchemaLog;
+    }
+
     @After
     public void tearDown() {
 
@@ -233,7 +294,7 @@ public class DatabasePersistenceAndroidTest {
     public void putLargeLogFailsToRead() throws PersistenceException {
 
         /* Initialize database persistence. */
-        DatabasePersistence persistence = new DatabasePersistence(sContext, 1, DatabasePersistence.SCHEMA, Persistence.DEFAULT_CAPACITY);
+        DatabasePersistence persistence = new DatabasePersistence(sContext, 1, DatabasePersistence.SCHEMA, 0);
 
         /* Set a mock log serializer. */
         LogSerializer logSerializer = new DefaultLogSerializer();
@@ -279,6 +340,55 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void deleteBatchWithLargeLog() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Persist a small log then a large one. */
+            long smallId = persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            LogWithProperties log = AndroidTestUtils.generateMockLog();
+            int size = 2 * 1024 * 1024;
+            StringBuilder largeValue = new StringBuilder(size);
+            for (int i = 0; i < size; i++) {
+                largeValue.append("x");
+            }
+            Map<String, String> properties = new HashMap<>();
+            properties.put("key", largeValue.toString());
+            log.setProperties(properties);
+            long largeId = persistence.putLog("test-p1", log);
+
+            /* Only the large log is flagged. */
+            persistence.flush();
+            assertEquals(0, (int) persistence.mDatabaseStorage.get(smallId).getAsInteger(DatabasePersistence.COLUMN_LARGE_PAYLOAD));
+            assertEquals(1, (int) persistence.mDatabaseStorage.get(largeId).getAsInteger(DatabasePersistence.COLUMN_LARGE_PAYLOAD));
+            File file = persistence.getLargePayloadFile(persistence.getLargePayloadGroupDirectory("test-p1"), largeId);
+            assertTrue(file.exists());
+
+            /* Deleting the batch deletes both rows and the file. */
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test-p1", 2, outputLogs);
+            assertNotNull(batchId);
+            assertEquals(2, outputLogs.size());
+            assertEquals(2, persistence.countLogs("test-p1", batchId));
+            persistence.deleteLogs("test-p1", batchId);
+            assertEquals(0, persistence.countLogs("test-p1"));
+            assertEquals(0, persistence.mDatabaseStorage.size());
+            assertFalse(file.exists());
+        } finally {
+
+            /* Close. */
+            persistence.close();
+        }
+    }
+
     @Test
     public void putTooManyLogs() throws PersistenceException {
 
@@ -316,6 +426,305 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void putTooManyLogsEvictsLowPriorityGroupFirst() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext, 2, DatabasePersistence.SCHEMA, 4);
+        persistence.setGroupEviction("test-p1", EvictionPolicy.PRIORITY_HIGH, 0);
+        persistence.setGroupEviction("test-p2", EvictionPolicy.PRIORITY_LOW, 0);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Fill high priority group first, then overflow with low priority logs. */
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p2", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p2", AndroidTestUtils.generateMockLog());
+            Log lastLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test-p2", lastLog);
+
+            /* Verify only oldest low priority logs were evicted. */
+            assertEquals(2, persistence.countLogs("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+            assertEquals(0, persistence.getEvictedLogCount("test-p1"));
+            assertEquals(2, persistence.getEvictedLogCount("test-p2"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p2", 4, outputLogs);
+            assertEquals(1, outputLogs.size());
+            assertEquals(lastLog, outputLogs.get(0));
+        } finally {
+
+            /* Close. */
+            //noinspection ThrowFromFinallyBlock
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void setMaxStorageSizeEvictsOldestLogs() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Initialize database persistence without log count limit. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext, 2, DatabasePersistence.SCHEMA, 0);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Put 3 logs and compute their total size. */
+            long totalSize = 0;
+            Log lastLog = null;
+            for (int i = 0; i < 3; i++) {
+                lastLog = AndroidTestUtils.generateMockLog();
+                totalSize += logSerializer.serializeLog(lastLog).getBytes("UTF-8").length;
+                persistence.putLog("test", lastLog);
+            }
+
+            /* Shrinking budget by a single byte evicts oldest logs but always keeps the newest one. */
+            persistence.setMaxStorageSize(totalSize - 1);
+            assertEquals(1, persistence.countLogs("test"));
+            assertEquals(2, persistence.getEvictedLogCount("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", 3, outputLogs);
+            assertEquals(1, outputLogs.size());
+            assertEquals(lastLog, outputLogs.get(0));
+        } finally {
+
+            /* Close. */
+            //noinspection ThrowFromFinallyBlock
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void storageSizeCountsCompressedPayloads() throws PersistenceException, JSONException {
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Put 3 compressed logs and compute the size they take in storage. */
+        long compressedSize = 0;
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            persistence.setPayloadCompressionEnabled(true);
+            for (int i = 0; i < 3; i++) {
+                Log log = AndroidTestUtils.generateMockLog();
+                compressedSize += CompressionUtils.compress(logSerializer.serializeLog(log)).length;
+                persistence.putLog("test", log);
+            }
+
+            /* They fit in a budget of their compressed size. */
+            persistence.setMaxStorageSize(compressedSize);
+            assertEquals(3, persistence.countLogs("test"));
+            assertEquals(0, persistence.getEvictedLogCount("test"));
+        } finally {
+            persistence.close();
+        }
+
+        /* Size loaded from the database is the compressed one too, a byte less evicts oldest logs but keeps the newest one. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            persistence.setMaxStorageSize(compressedSize);
+            assertEquals(3, persistence.countLogs("test"));
+            persistence.setMaxStorageSize(compressedSize - 1);
+            assertEquals(1, persistence.countLogs("test"));
+            assertEquals(2, persistence.getEvictedLogCount("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void upgradeCountsCompressedSize() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Store a compressed log with its uncompressed size like version 8 could. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        Log log = AndroidTestUtils.generateMockLog();
+        String payload = logSerializer.serializeLog(log);
+        byte[] compressedPayload = CompressionUtils.compress(payload);
+        StorageHelper.DatabaseStorage databaseStorage = StorageHelper.DatabaseStorage.getDatabaseStorage(DatabasePersistence.DATABASE, DatabasePersistence.TABLE, 8, DatabasePersistence.SCHEMA, new DatabaseManager.Listener() {
+
+            @Override
+            public boolean onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                return false;
+            }
+
+            @Override
+            public void onError(String operation, RuntimeException e) {
+                throw e;
+            }
+        });
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG_COMPRESSED, compressedPayload);
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, log.getType());
+            contentValues.put(DatabasePersistence.COLUMN_SIZE, payload.getBytes("UTF-8").length);
+            contentValues.put(DatabasePersistence.COLUMN_LARGE_PAYLOAD, 0);
+            contentValues.put(DatabasePersistence.COLUMN_CLAIMED, 0);
+            databaseStorage.put(contentValues);
+        } finally {
+            databaseStorage.close();
+        }
+
+        /* Upgrade replaces the size by the compressed one and the log is still readable. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            DatabaseScanner scanner = persistence.mDatabaseStorage.getScanner(DatabasePersistence.COLUMN_GROUP, "test");
+            Iterator<ContentValues> iterator = scanner.iterator();
+            assertEquals(compressedPayload.length, (long) iterator.next().getAsLong(DatabasePersistence.COLUMN_SIZE));
+            assertFalse(iterator.hasNext());
+            scanner.close();
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", 1, outputLogs);
+            assertEquals(1, outputLogs.size());
+            assertEquals(log, outputLogs.get(0));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void setMaxBatchSizeLimitsLogsReturned() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Put 3 logs, compressed or not the batch size counts their serialized size. */
+            long logSize = 0;
+            for (int i = 0; i < 3; i++) {
+                persistence.setPayloadCompressionEnabled(i == 1);
+                Log log = AndroidTestUtils.generateMockLog();
+                logSize = Math.max(logSize, logSerializer.serializeLog(log).getBytes("UTF-8").length);
+                persistence.putLog("test", log);
+            }
+
+            /* Only 2 logs fit. */
+            persistence.setMaxBatchSize(logSize * 2 + 1);
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test", 3, outputLogs));
+            assertEquals(2, outputLogs.size());
+
+            /* A log larger than the limit is still returned alone. */
+            persistence.setMaxBatchSize(1);
+            outputLogs.clear();
+            assertNotNull(persistence.getLogs("test", 3, outputLogs));
+            assertEquals(1, outputLogs.size());
+        } finally {
+
+            /* Close. */
+            //noinspection ThrowFromFinallyBlock
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void readPlainAndCompressedLogs() throws PersistenceException, JSONException, UnsupportedEncodingException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a plain log then a compressed one. */
+            Log plainLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", plainLog);
+            persistence.setPayloadCompressionEnabled(true);
+            Log compressedLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", compressedLog);
+
+            /* Verify storage format. */
+            persistence.flush();
+            DatabaseScanner scanner = persistence.mDatabaseStorage.getScanner(DatabasePersistence.COLUMN_GROUP, "test");
+            Iterator<ContentValues> iterator = scanner.iterator();
+            ContentValues values = iterator.next();
+            assertNotNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+            assertNull(values.getAsByteArray(DatabasePersistence.COLUMN_LOG_COMPRESSED));
+            values = iterator.next();
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+            assertNotNull(values.getAsByteArray(DatabasePersistence.COLUMN_LOG_COMPRESSED));
+
+            /* Size is the compressed one, the bytes actually stored. */
+            assertEquals(values.getAsByteArray(DatabasePersistence.COLUMN_LOG_COMPRESSED).length, (long) values.getAsLong(DatabasePersistence.COLUMN_SIZE));
+            scanner.close();
+
+            /* Both logs can be read back whatever the current mode. */
+            persistence.setPayloadCompressionEnabled(false);
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", 2, outputLogs);
+            assertEquals(2, outputLogs.size());
+            assertEquals(plainLog, outputLogs.get(0));
+            assertEquals(compressedLog, outputLogs.get(1));
+        } finally {
+
+            /* Close. */
+            //noinspection ThrowFromFinallyBlock
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getSerializedLogs() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a plain log then a compressed one. */
+            Log plainLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", plainLog);
+            persistence.setPayloadCompressionEnabled(true);
+            Log compressedLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", compressedLog);
+
+            /* Payloads are returned as serialized. */
+            List<SerializedLog> serializedLogs = new ArrayList<>();
+            String batchId = persistence.getSerializedLogs("test", 2, serializedLogs);
+            assertNotNull(batchId);
+            assertEquals(2, serializedLogs.size());
+            assertEquals(logSerializer.serializeLog(plainLog), serializedLogs.get(0).getPayload());
+            assertEquals(logSerializer.serializeLog(compressedLog), serializedLogs.get(1).getPayload());
+            assertEquals(compressedLog, persistence.deserializeLog(serializedLogs.get(1)));
+
+            /* They are pending like logs returned by getLogs. */
+            List<Log> outputLogs = new ArrayList<>();
+            assertNull(persistence.getLogs("test", 2, outputLogs));
+            persistence.deleteLogs("test", batchId);
+            assertEquals(0, persistence.countLogs("test"));
+        } finally {
+
+            /* Close. */
+            //noinspection ThrowFromFinallyBlock
+            persistence.close();
+        }
+    }
+
     @Test(expected = PersistenceException.class)
     public void putLogException() throws PersistenceException, JSONException {
 
@@ -342,7 +751,7 @@ public class DatabasePersistenceAndroidTest {
     public void deleteLogs() throws PersistenceException {
 
         /* Initialize database persistence. */
-        DatabasePersistence persistence = new DatabasePersistence(sContext, 1, DatabasePersistence.SCHEMA, Persistence.DEFAULT_CAPACITY);
+        DatabasePersistence persistence = new DatabasePersistence(sContext, 1, DatabasePersistence.SCHEMA, 0);
 
         /* Set a mock log serializer. */
         LogSerializer logSerializer = new DefaultLogSerializer();
@@ -430,6 +839,47 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void countLogsAfterReopen() throws PersistenceException {
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Store logs in 2 groups. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p2", AndroidTestUtils.generateMockLog());
+        } finally {
+            persistence.close();
+        }
+
+        /* Counts are loaded from the database then kept up to date. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            assertEquals(2, persistence.countLogs("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+            assertEquals(0, persistence.countLogs("test-p3"));
+            persistence.putLog("test-p3", AndroidTestUtils.generateMockLog());
+            assertEquals(1, persistence.countLogs("test-p3"));
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test-p1", 1, outputLogs);
+            assertNotNull(batchId);
+            assertEquals(2, persistence.countLogs("test-p1"));
+            persistence.deleteLogs("test-p1", batchId);
+            assertEquals(1, persistence.countLogs("test-p1"));
+            persistence.deleteLogs("test-p2");
+            assertEquals(0, persistence.countLogs("test-p2"));
+            assertEquals(persistence.mDatabaseStorage.size(), persistence.countLogs("test-p1") + persistence.countLogs("test-p3"));
+        } finally {
+            persistence.close();
+        }
+    }
+
     @Test
     public void deleteLogsForGroup() throws PersistenceException {
 
@@ -472,6 +922,7 @@ public class DatabasePersistenceAndroidTest {
             assertNull(pendingGroups.get("test-p1" + id1));
             assertEquals(1, pendingGroups.get("test-p2" + id2).size());
             assertEquals(1, pendingGroups.size());
+            assertEquals(new HashSet<>(pendingGroups.get("test-p2" + id2)), persistence.mPendingDbIdentifiers);
             assertEquals(0, outputLogs.size());
             assertEquals(1, persistence.mDatabaseStorage.size());
 
@@ -493,6 +944,76 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void clearPendingLogStateOfOneBatch() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Claim 2 batches. */
+            Log log1 = AndroidTestUtils.generateMockLog();
+            Log log2 = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", log1);
+            persistence.putLog("test", log2);
+            List<Log> outputLogs = new ArrayList<>();
+            String id1 = persistence.getLogs("test", 1, outputLogs);
+            String id2 = persistence.getLogs("test", 1, outputLogs);
+            assertNotNull(id1);
+            assertNotNull(id2);
+
+            /* Only the released batch is returned again. */
+            persistence.clearPendingLogState("test", id1);
+            assertNull(persistence.mPendingDbIdentifiersGroups.get("test" + id1));
+            outputLogs.clear();
+            assertNotNull(persistence.getLogs("test", 2, outputLogs));
+            assertEquals(1, outputLogs.size());
+            assertEquals(log1, outputLogs.get(0));
+        } finally {
+
+            /* Close. */
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void claimedLogsReleasedAfterReopen() throws PersistenceException {
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Claim a batch, the claim is stored with the log. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            persistence.putLog("test", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test", AndroidTestUtils.generateMockLog());
+            assertNotNull(persistence.getLogs("test", 1, new ArrayList<Log>()));
+            assertEquals(1, persistence.mDatabaseStorage.getScanner(DatabasePersistence.COLUMN_CLAIMED, 1).getCount());
+            assertEquals(1, persistence.mDatabaseStorage.getScanner(DatabasePersistence.COLUMN_CLAIMED, 0).getCount());
+        } finally {
+            persistence.close();
+        }
+
+        /* The batch did not survive the restart, its log can be sent again. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            assertEquals(0, persistence.mDatabaseStorage.getScanner(DatabasePersistence.COLUMN_CLAIMED, 1).getCount());
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test", 5, outputLogs));
+            assertEquals(2, outputLogs.size());
+        } finally {
+            persistence.close();
+        }
+    }
+
     @Test
     public void getLogs() throws PersistenceException {
 
@@ -529,7 +1050,7 @@ public class DatabasePersistenceAndroidTest {
             assertEquals(10, persistence.countLogs("test"));
 
             /* Clear. Nothing to get after. */
-            persistence.mDatabaseStorage.clear();
+            persistence.deleteLogs("test");
             List<Log> outputLogs = new ArrayList<>();
             assertNull(persistence.getLogs("test", sizeForGetLogs, outputLogs));
             assertTrue(outputLogs.isEmpty());
@@ -609,7 +1130,12 @@ public class DatabasePersistenceAndroidTest {
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(DatabasePersistence.SCHEMA);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_DATA_TYPE);
+        oldSchema.remove(DatabasePersistence.COLUMN_SIZE);
+        oldSchema.remove(DatabasePersistence.COLUMN_LOG_COMPRESSED);
+        oldSchema.remove(DatabasePersistence.COLUMN_LARGE_PAYLOAD);
+        oldSchema.remove(DatabasePersistence.COLUMN_CLAIMED);
         StorageHelper.DatabaseStorage databaseStorage = StorageHelper.DatabaseStorage.getDatabaseStorage(DatabasePersistence.DATABASE, DatabasePersistence.TABLE, 1, oldSchema, new DatabaseManager.Listener() {
 
             @Override
@@ -671,6 +1197,17 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
 
+        /* Verify upgrade replaced the group index by the group and claimed index. */
+        SQLiteDatabase database = sContext.openOrCreateDatabase(DatabasePersistence.DATABASE, Context.MODE_PRIVATE, null);
+        try {
+            assertEquals(1, DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql LIKE ?",
+                    new String[]{DatabasePersistence.TABLE, "%" + DatabasePersistence.COLUMN_GROUP + "%"}));
+            assertEquals(1, DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql LIKE ?",
+                    new String[]{DatabasePersistence.TABLE, "%" + DatabasePersistence.COLUMN_GROUP + "%" + DatabasePersistence.COLUMN_CLAIMED + "%"}));
+        } finally {
+            database.close();
+        }
+
         /* Get new data after restart. */
         persistence = new DatabasePersistence(sContext);
         persistence.setLogSerializer(logSerializer);
@@ -685,7 +1222,10 @@ public class DatabasePersistenceAndroidTest {
 
             /* Verify target token is encrypted. */
             ContentValues values = persistence.mDatabaseStorage.get(DatabasePersistence.COLUMN_GROUP, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN));
+            Long tokenId = values.getAsLong(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+            assertNotNull(tokenId);
+            String token = persistence.mTargetTokenStorage.get(tokenId).getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -695,4 +1235,233 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
     }
+
+    @Test
+    public void targetTokensStoredOnce() throws PersistenceException, JSONException {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        List<Log> logs = new ArrayList<>();
+        String[] tokens = {"token-a", "token-b", "token-a", "token-a"};
+        try {
+            for (String token : tokens) {
+                MockCommonSchemaLog commonSchemaLog = new MockCommonSchemaLog();
+                commonSchemaLog.setName("test");
+                commonSchemaLog.setIKey("o:test");
+                commonSchemaLog.setTimestamp(new Date());
+                commonSchemaLog.setVer("3.0");
+                commonSchemaLog.addTransmissionTarget(token);
+                persistence.putLog("test/one", commonSchemaLog);
+                logs.add(commonSchemaLog);
+            }
+
+            /* Each distinct token is encrypted and stored once. */
+            assertEquals(2, persistence.mTargetTokenStorage.size());
+
+            /* A log stored before version 5 keeps its own encrypted token. */
+            MockCommonSchemaLog legacyLog = new MockCommonSchemaLog();
+            legacyLog.setName("legacy");
+            legacyLog.setIKey("o:test");
+            legacyLog.setTimestamp(new Date());
+            legacyLog.setVer("3.0");
+            legacyLog.addTransmissionTarget("token-c");
+            ContentValues legacyValues = new ContentValues();
+            legacyValues.put(DatabasePersistence.COLUMN_GROUP, "test/one");
+            legacyValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(legacyLog));
+            legacyValues.put(DatabasePersistence.COLUMN_DATA_TYPE, legacyLog.getType());
+            legacyValues.put(DatabasePersistence.COLUMN_TARGET_TOKEN, CryptoUtils.getInstance(sContext).encrypt("token-c"));
+            persistence.mDatabaseStorage.put(legacyValues);
+            logs.add(legacyLog);
+        } finally {
+            persistence.close();
+        }
+
+        /* Tokens are restored after restart. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test/one", 10, outputLogs);
+            assertEquals(logs, outputLogs);
+            assertEquals(2, persistence.mTargetTokenStorage.size());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getLogsWithoutTargetTokenInMemory() throws PersistenceException, IOException {
+
+        /* Logs database switches to memory. */
+        File blockedDatabase = blockDatabase(DatabasePersistence.DATABASE);
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* A log without target token is read back. */
+            Log log = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test-p1", log);
+            assertFalse(persistence.mDatabaseStorage.get(DatabasePersistence.COLUMN_GROUP, "test-p1").containsKey(DatabasePersistence.COLUMN_TARGET_TOKEN_ID));
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test-p1", 1, outputLogs));
+            assertEquals(1, outputLogs.size());
+            assertEquals(log, outputLogs.get(0));
+        } finally {
+            persistence.close();
+            unblockDatabase(blockedDatabase);
+        }
+    }
+
+    @Test
+    public void targetTokenKeptInLogWhenTargetTokensInMemory() throws PersistenceException, JSONException, IOException {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        List<Log> logs = new ArrayList<>();
+
+        /* First token gets the first identifier on disk. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            MockCommonSchemaLog firstLog = generateCommonSchemaLog("first", "token-a");
+            persistence.putLog("test/one", firstLog);
+            logs.add(firstLog);
+        } finally {
+            persistence.close();
+        }
+
+        /* Target tokens table switches to memory where identifiers restart. */
+        renameTable(DatabasePersistence.TARGET_TOKENS_TABLE, DatabasePersistence.TARGET_TOKENS_TABLE + "_moved");
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            MockCommonSchemaLog secondLog = generateCommonSchemaLog("second", "token-b");
+            persistence.putLog("test/one", secondLog);
+            logs.add(secondLog);
+        } finally {
+            persistence.close();
+            renameTable(DatabasePersistence.TARGET_TOKENS_TABLE + "_moved", DatabasePersistence.TARGET_TOKENS_TABLE);
+        }
+
+        /* Each log gets its own token back once the target tokens table works again. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test/one", 10, outputLogs);
+            assertEquals(logs, outputLogs);
+            assertEquals(1, persistence.mTargetTokenStorage.size());
+
+            /* Second log has an encrypted copy of its token instead of an identifier. */
+            DatabaseScanner scanner = persistence.mDatabaseStorage.getScanner(DatabasePersistence.COLUMN_GROUP, "test/one");
+            try {
+                Iterator<ContentValues> iterator = scanner.iterator();
+                assertTrue(iterator.next().containsKey(DatabasePersistence.COLUMN_TARGET_TOKEN_ID));
+                ContentValues values = iterator.next();
+                assertFalse(values.containsKey(DatabasePersistence.COLUMN_TARGET_TOKEN_ID));
+                assertEquals("token-b", CryptoUtils.getInstance(sContext).decrypt(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN), false).getDecryptedData());
+            } finally {
+                scanner.close();
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void targetTokensMovedFromOldDatabase() throws PersistenceException, JSONException {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+
+        /* Tokens were stored in their own database before version 10. */
+        ContentValues targetTokenSchema = new ContentValues();
+        targetTokenSchema.put(DatabasePersistence.COLUMN_TARGET_TOKEN, "");
+        StorageHelper.DatabaseStorage targetTokenStorage = StorageHelper.DatabaseStorage.getDatabaseStorage(DatabasePersistence.TARGET_TOKENS_DATABASE, DatabasePersistence.TARGET_TOKENS_TABLE, 1, targetTokenSchema, new DatabaseManager.Listener() {
+
+            @Override
+            public boolean onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                return false;
+            }
+
+            @Override
+            public void onError(String operation, RuntimeException e) {
+                throw e;
+            }
+        });
+        long targetTokenId;
+        try {
+            ContentValues targetTokenValues = new ContentValues();
+            targetTokenValues.put(DatabasePersistence.COLUMN_TARGET_TOKEN, CryptoUtils.getInstance(sContext).encrypt("token-a"));
+            targetTokenStorage.put(targetTokenValues);
+            targetTokenValues.put(DatabasePersistence.COLUMN_TARGET_TOKEN, CryptoUtils.getInstance(sContext).encrypt("token-b"));
+            targetTokenId = targetTokenStorage.put(targetTokenValues);
+        } finally {
+            targetTokenStorage.close();
+        }
+
+        /* A log references the second token of the old database. */
+        MockCommonSchemaLog log = generateCommonSchemaLog("test", "token-b");
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            ContentValues values = new ContentValues();
+            values.put(DatabasePersistence.COLUMN_GROUP, "test/one");
+            values.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(log));
+            values.put(DatabasePersistence.COLUMN_DATA_TYPE, log.getType());
+            values.put(DatabasePersistence.COLUMN_TARGET_TOKEN_ID, targetTokenId);
+            persistence.mDatabaseStorage.put(values);
+        } finally {
+            persistence.close();
+        }
+
+        /* Token keeps its identifier in the logs database, the unused one is deleted and so is the old database. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test/one", 10, outputLogs);
+            assertEquals(1, outputLogs.size());
+            assertEquals(log, outputLogs.get(0));
+            assertEquals(1, persistence.mTargetTokenStorage.size());
+            assertNotNull(persistence.mTargetTokenStorage.get(targetTokenId));
+            assertFalse(sContext.getDatabasePath(DatabasePersistence.TARGET_TOKENS_DATABASE).exists());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void unusedTargetTokensDeleted() throws PersistenceException {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            persistence.putLog("test/one", generateCommonSchemaLog("first", "token-a"));
+            persistence.putLog("test/one", generateCommonSchemaLog("second", "token-b"));
+            persistence.putLog("test/two", generateCommonSchemaLog("third", "token-a"));
+            assertEquals(2, persistence.mTargetTokenStorage.size());
+
+            /* Token still used by another group is kept. */
+            List<Log> outputLogs = new ArrayList<>();
+            String id = persistence.getLogs("test/one", 1, outputLogs);
+            assertNotNull(id);
+            persistence.deleteLogs("test/one", id);
+            assertEquals(2, persistence.mTargetTokenStorage.size());
+
+            /* Token of the last log of a batch is deleted. */
+            id = persistence.getLogs("test/one", 1, outputLogs);
+            assertNotNull(id);
+            persistence.deleteLogs("test/one", id);
+            assertEquals(1, persistence.mTargetTokenStorage.size());
+
+            /* Token of the last log of a group is deleted. */
+            persistence.deleteLogs("test/two");
+            assertEquals(0, persistence.mTargetTokenStorage.size());
+        } finally {
+            persistence.close();
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.storage.StorageHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures persistence throughput, results are printed in logcat.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class DatabasePersistenceBenchmarkAndroidTest {
+
+    /**
+     * Log tag for results.
+     */
+    private static final String TAG = "AppCenterBenchmark";
+
+    /**
+     * Number of logs written per run.
+     */
+    private static final int LOG_COUNT = 1000;
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        StorageHelper.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    @After
+    public void cleanUp() {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+    }
+
+    private static DatabasePersistence createPersistence() {
+        DatabasePersistence persistence = new DatabasePersistence(sContext, DatabasePersistence.VERSION, DatabasePersistence.SCHEMA, LOG_COUNT);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        return persistence;
+    }
+
+    private static List<Log> generateLogs() {
+        List<Log> logs = new ArrayList<>(LOG_COUNT);
+        for (int i = 0; i < LOG_COUNT; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+        }
+        return logs;
+    }
+
+    private static double putLogs(final DatabasePersistence persistence, final List<Log> logs) throws Exception {
+        final long[] elapsed = new long[1];
+        final Exception[] error = new Exception[1];
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /* Inserts are grouped only on a looper thread, like the channel one. */
+        HandlerThread thread = new HandlerThread("DatabasePersistenceBenchmark");
+        thread.start();
+        new Handler(thread.getLooper()).post(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    for (Log log : logs) {
+                        persistence.putLog("test", log);
+                    }
+                    persistence.flush();
+                    elapsed[0] = System.nanoTime() - start;
+                } catch (PersistenceException e) {
+                    error[0] = e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        done.await();
+        thread.quit();
+        if (error[0] != null) {
+            throw error[0];
+        }
+        assertEquals(LOG_COUNT, persistence.countLogs("test"));
+        return LOG_COUNT * 1e9 / elapsed[0];
+    }
+
+    @Test
+    public void putLogThroughput() throws Exception {
+        List<Log> logs = generateLogs();
+
+        /* One transaction per log. */
+        DatabasePersistence persistence = createPersistence();
+        double singleCommit;
+        try {
+            persistence.setGroupCommit(0, 0);
+            singleCommit = putLogs(persistence, logs);
+        } finally {
+            persistence.close();
+        }
+        cleanUp();
+
+        /* Grouped transactions. */
+        persistence = createPersistence();
+        double groupCommit;
+        try {
+            groupCommit = putLogs(persistence, logs);
+        } finally {
+            persistence.close();
+        }
+        android.util.Log.i(TAG, String.format(Locale.US, "putLog: %.0f logs/s with a commit per log, %.0f logs/s with group commit.", singleCommit, groupCommit));
+    }
+
+    private static double getLogs(DatabasePersistence persistence) {
+        long start = System.nanoTime();
+        int count = 0;
+        List<Log> outputLogs = new ArrayList<>();
+        while (persistence.getLogs("test", 100, outputLogs) != null) {
+            count += outputLogs.size();
+            outputLogs.clear();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(LOG_COUNT, count);
+        persistence.clearPendingLogState();
+        return LOG_COUNT * 1e9 / elapsed;
+    }
+
+    @Test
+    public void payloadCompression() throws Exception {
+        List<Log> logs = generateLogs();
+        String[] formats = {"plain text", "compressed"};
+        for (int i = 0; i < formats.length; i++) {
+            DatabasePersistence persistence = createPersistence();
+            double put;
+            double get;
+            try {
+                persistence.setPayloadCompressionEnabled(i == 1);
+                put = putLogs(persistence, logs);
+                get = getLogs(persistence);
+            } finally {
+                persistence.close();
+            }
+            long size = sContext.getDatabasePath(DatabasePersistence.DATABASE).length();
+            android.util.Log.i(TAG, String.format(Locale.US, "%s payloads: putLog %.0f logs/s, getLogs %.0f logs/s, database size %d bytes.", formats[i], put, get, size));
+            cleanUp();
+        }
+    }
+}
@@ -46,7 +46,7 @@ public class PersistenceAndroidTest {
     public void missingLogSerializer() throws Persistence.PersistenceException, IOException {
 
         /* Initialize database persistence. */
-        DatabasePersistence persistence = new DatabasePersistence(sContext, 1, DatabasePersistence.SCHEMA, Persistence.DEFAULT_CAPACITY);
+        DatabasePersistence persistence = new DatabasePersistence(sContext, 1, DatabasePersistence.SCHEMA, 0);
 
         //noinspection TryFinallyCanBeTryWithResources (try with resources statement is API >= 19)
         try {
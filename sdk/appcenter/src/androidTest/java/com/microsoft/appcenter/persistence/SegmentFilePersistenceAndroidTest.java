@@ -0,0 +1,432 @@
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogWithProperties;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.storage.StorageHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SegmentFilePersistenceAndroidTest {
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    /**
+     * Segments directory used by tests.
+     */
+    private static File sDirectory;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        StorageHelper.initialize(sContext);
+        Constants.loadFromContext(sContext);
+        sDirectory = new File(sContext.getFilesDir(), "test-segments");
+    }
+
+    @Before
+    @After
+    public void cleanUp() {
+        deleteRecursively(sDirectory);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static SegmentFilePersistence createPersistence() {
+        SegmentFilePersistence persistence = new SegmentFilePersistence(sContext, sDirectory);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        return persistence;
+    }
+
+    @Test
+    public void putLog() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+
+            /* Initial count is 0. */
+            assertEquals(0, persistence.countLogs("test-p1"));
+
+            /* Generate a log and persist. */
+            Log log = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test-p1", log);
+            assertEquals(1, persistence.countLogs("test-p1"));
+
+            /* Get a log from persistence. */
+            List<Log> outputLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test-p1", 1, outputLogs));
+            assertEquals(1, outputLogs.size());
+            assertEquals(log, outputLogs.get(0));
+            assertEquals(1, persistence.countLogs("test-p1"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLargeLogAndDeleteAll() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+
+            /* Generate a log larger than what a SQLite cursor supports and persist. */
+            LogWithProperties log = AndroidTestUtils.generateMockLog();
+            int size = 2 * 1024 * 1024;
+            StringBuilder largeValue = new StringBuilder(size);
+            for (int i = 0; i < size; i++) {
+                largeValue.append("x");
+            }
+            Map<String, String> properties = new HashMap<>();
+            properties.put("key", largeValue.toString());
+            log.setProperties(properties);
+            persistence.putLog("test-p1", log);
+            assertEquals(1, persistence.countLogs("test-p1"));
+
+            /* Get it back. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p1", 1, outputLogs);
+            assertEquals(1, outputLogs.size());
+            assertEquals(log, outputLogs.get(0));
+
+            /* Delete entire group, directory is deleted. */
+            File directory = persistence.getGroupDirectory("test-p1");
+            assertNotNull(directory);
+            assertTrue(directory.exists());
+            persistence.deleteLogs("test-p1");
+            assertEquals(0, persistence.countLogs("test-p1"));
+            assertFalse(directory.exists());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void deleteLogs() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p2", AndroidTestUtils.generateMockLog());
+            List<Log> outputLogs = new ArrayList<>();
+            String id = persistence.getLogs("test-p1", 5, outputLogs);
+            assertNotNull(id);
+            assertEquals(2, outputLogs.size());
+
+            /* Wrong group has no effect. */
+            persistence.deleteLogs("test-p2", id);
+            assertEquals(2, persistence.countLogs("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+
+            /* Delete batch. */
+            persistence.deleteLogs("test-p1", id);
+            assertEquals(0, persistence.countLogs("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+            assertTrue(persistence.mPendingIdentifiers.isEmpty());
+            assertTrue(persistence.mPendingIdentifiersGroups.isEmpty());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void deleteLogsForGroup() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            Log log3 = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test-p2", log3);
+            persistence.putLog("test-p3", AndroidTestUtils.generateMockLog());
+            List<Log> outputLogs = new ArrayList<>();
+            String id1 = persistence.getLogs("test-p1", 5, outputLogs);
+            String id2 = persistence.getLogs("test-p2", 5, outputLogs);
+            assertNotNull(id1);
+            assertNotNull(id2);
+
+            /* Delete. */
+            persistence.deleteLogs("test-p1");
+            persistence.deleteLogs("test-p3");
+            outputLogs.clear();
+            assertNull(persistence.getLogs("test-p3", 5, outputLogs));
+
+            /* Verify pending state. */
+            assertNull(persistence.mPendingIdentifiersGroups.get("test-p1" + id1));
+            assertEquals(1, persistence.mPendingIdentifiersGroups.get("test-p2" + id2).size());
+            assertEquals(1, persistence.mPendingIdentifiersGroups.size());
+
+            /* Verify remaining log. */
+            persistence.clearPendingLogState();
+            outputLogs.clear();
+            persistence.getLogs("test-p2", 5, outputLogs);
+            assertEquals(1, outputLogs.size());
+            assertEquals(log3, outputLogs.get(0));
+            assertEquals(0, persistence.countLogs("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+            assertEquals(0, persistence.countLogs("test-p3"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getLogsAndClearPendingLogState() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+            Log[] logs = new Log[10];
+            for (int i = 0; i < logs.length; i++) {
+                logs[i] = AndroidTestUtils.generateMockLog();
+                persistence.putLog("test", logs[i]);
+            }
+
+            /* Get all logs in order, in batches. */
+            for (int round = 0; round < 2; round++) {
+                List<Log> outputLogs = new ArrayList<>();
+                while (persistence.getLogs("test", 4, outputLogs) != null) {
+                    assertTrue(outputLogs.size() <= logs.length);
+                }
+                assertEquals(logs.length, outputLogs.size());
+                for (int i = 0; i < logs.length; i++) {
+                    assertEquals(logs[i], outputLogs.get(i));
+                }
+
+                /* Clear ids, we should be able to get the logs again in the same sequence. */
+                persistence.clearPendingLogState();
+            }
+            assertEquals(10, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void clearPendingLogStateOfOneBatch() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+            Log log1 = AndroidTestUtils.generateMockLog();
+            Log log2 = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", log1);
+            persistence.putLog("test", log2);
+            List<Log> outputLogs = new ArrayList<>();
+            String id1 = persistence.getLogs("test", 1, outputLogs);
+            String id2 = persistence.getLogs("test", 1, outputLogs);
+            assertNotNull(id1);
+            assertNotNull(id2);
+
+            /* Only the released batch is returned again. */
+            persistence.clearPendingLogState("test", id1);
+            outputLogs.clear();
+            assertNotNull(persistence.getLogs("test", 2, outputLogs));
+            assertEquals(1, outputLogs.size());
+            assertEquals(log1, outputLogs.get(0));
+            persistence.deleteLogs("test", id2);
+            assertEquals(1, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void reloadAfterRestart() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        Log log1 = AndroidTestUtils.generateMockLog();
+        Log log2 = AndroidTestUtils.generateMockLog();
+        MockCommonSchemaLog commonSchemaLog = new MockCommonSchemaLog();
+        commonSchemaLog.setName("test");
+        commonSchemaLog.setIKey("o:test");
+        commonSchemaLog.setTimestamp(new Date());
+        commonSchemaLog.setVer("3.0");
+        commonSchemaLog.addTransmissionTarget("test-guid");
+        try {
+            persistence.putLog("test/one", log1);
+            persistence.putLog("test/one", log2);
+            persistence.putLog("test/one", commonSchemaLog);
+
+            /* Delete first log. */
+            List<Log> outputLogs = new ArrayList<>();
+            String id = persistence.getLogs("test/one", 1, outputLogs);
+            assertNotNull(id);
+            persistence.deleteLogs("test/one", id);
+        } finally {
+            persistence.close();
+        }
+
+        /* Only non deleted logs are read after restart, with their target token. */
+        persistence = createPersistence();
+        try {
+            assertEquals(2, persistence.countLogs("test/one"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test/one", 5, outputLogs);
+            assertEquals(2, outputLogs.size());
+            assertEquals(log2, outputLogs.get(0));
+            assertEquals(commonSchemaLog, outputLogs.get(1));
+            assertEquals(commonSchemaLog.getTransmissionTargetTokens(), outputLogs.get(1).getTransmissionTargetTokens());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void ignoreIncompleteRecordAfterRestart() throws PersistenceException, IOException {
+        SegmentFilePersistence persistence = createPersistence();
+        Log log = AndroidTestUtils.generateMockLog();
+        File directory;
+        try {
+            persistence.putLog("test", log);
+            directory = persistence.getGroupDirectory("test");
+            assertNotNull(directory);
+        } finally {
+            persistence.close();
+        }
+
+        /* Simulate a write interrupted by a crash. */
+        FileOutputStream output = new FileOutputStream(new File(directory, "0" + SegmentFilePersistence.SEGMENT_FILE_EXTENSION), true);
+        try {
+            output.write(new byte[]{0, 0, 1, 0, 42});
+        } finally {
+            output.close();
+        }
+
+        /* Incomplete record is dropped and new logs are readable. */
+        persistence = createPersistence();
+        try {
+            assertEquals(1, persistence.countLogs("test"));
+            Log newLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", newLog);
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", 5, outputLogs);
+            assertEquals(2, outputLogs.size());
+            assertEquals(log, outputLogs.get(0));
+            assertEquals(newLog, outputLogs.get(1));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void compactSegments() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+
+            /* Write enough logs to fill several segments. */
+            int count = 0;
+            while (persistence.getSegmentCount("test") < 4) {
+                persistence.putLog("test", AndroidTestUtils.generateMockLog());
+                count++;
+            }
+
+            /* Acknowledge all but the last log, only the active segment remains. */
+            List<Log> outputLogs = new ArrayList<>();
+            String id = persistence.getLogs("test", count - 1, outputLogs);
+            assertNotNull(id);
+            persistence.deleteLogs("test", id);
+            assertEquals(1, persistence.countLogs("test"));
+            assertEquals(1, persistence.getSegmentCount("test"));
+        } finally {
+            persistence.close();
+        }
+
+        /* Tombstones were compacted as well and the remaining log is still there. */
+        persistence = createPersistence();
+        try {
+            assertEquals(1, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void evictLowPriorityGroupFirst() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        persistence.setGroupEviction("test-p1", EvictionPolicy.PRIORITY_HIGH, 0);
+        persistence.setGroupEviction("test-p2", EvictionPolicy.PRIORITY_LOW, 0);
+        try {
+            persistence.putLog("test-p1", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p2", AndroidTestUtils.generateMockLog());
+            persistence.putLog("test-p2", AndroidTestUtils.generateMockLog());
+            Log lastLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test-p2", lastLog);
+
+            /* Exceeding the budget by one byte evicts the oldest low priority logs. */
+            persistence.setMaxStorageSize(persistence.getStorageSize() - 1);
+            assertEquals(1, persistence.countLogs("test-p1"));
+            assertEquals(0, persistence.getEvictedLogCount("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+            assertEquals(2, persistence.getEvictedLogCount("test-p2"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p2", 5, outputLogs);
+            assertEquals(lastLog, outputLogs.get(0));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void readPlainAndCompressedLogs() throws PersistenceException {
+        SegmentFilePersistence persistence = createPersistence();
+        try {
+            Log plainLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", plainLog);
+            persistence.setPayloadCompressionEnabled(true);
+            Log compressedLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog("test", compressedLog);
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", 2, outputLogs);
+            assertEquals(2, outputLogs.size());
+            assertEquals(plainLog, outputLogs.get(0));
+            assertEquals(compressedLog, outputLogs.get(1));
+        } finally {
+            persistence.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.microsoft.appcenter.utils.crypto;
+
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures encryption throughput with the device key store, results are printed in logcat.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class CryptoUtilsBenchmarkAndroidTest {
+
+    /**
+     * Log tag for results.
+     */
+    private static final String TAG = "AppCenterBenchmark";
+
+    /**
+     * Number of values encrypted and decrypted per run.
+     */
+    private static final int VALUE_COUNT = 200;
+
+    /**
+     * Crypto factory counting the ciphers it creates.
+     */
+    private static class CountingCryptoFactory implements CryptoUtils.ICryptoFactory {
+
+        /**
+         * Number of ciphers created.
+         */
+        int mCipherCount;
+
+        @Override
+        public CryptoUtils.IKeyGenerator getKeyGenerator(String algorithm, String provider) throws Exception {
+            return CryptoUtils.DEFAULT_CRYPTO_FACTORY.getKeyGenerator(algorithm, provider);
+        }
+
+        @Override
+        public CryptoUtils.ICipher getCipher(String algorithm, String provider) throws Exception {
+            mCipherCount++;
+            return CryptoUtils.DEFAULT_CRYPTO_FACTORY.getCipher(algorithm, provider);
+        }
+    }
+
+    private static double opsPerSecond(long start) {
+        return VALUE_COUNT * 1e9 / (System.nanoTime() - start);
+    }
+
+    @Test
+    public void encryptAndDecryptThroughput() {
+        CountingCryptoFactory cryptoFactory = new CountingCryptoFactory();
+        CryptoUtils cryptoUtils = new CryptoUtils(InstrumentationRegistry.getTargetContext(), cryptoFactory, Build.VERSION.SDK_INT);
+        List<String> values = new ArrayList<>(VALUE_COUNT);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values.add(UUID.randomUUID().toString());
+        }
+
+        /* One call per value. */
+        long start = System.nanoTime();
+        List<String> encryptedValues = new ArrayList<>(VALUE_COUNT);
+        for (String value : values) {
+            encryptedValues.add(cryptoUtils.encrypt(value));
+        }
+        double encrypt = opsPerSecond(start);
+        start = System.nanoTime();
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            assertEquals(values.get(i), cryptoUtils.decrypt(encryptedValues.get(i), false).getDecryptedData());
+        }
+        double decrypt = opsPerSecond(start);
+
+        /* Batch calls. */
+        start = System.nanoTime();
+        encryptedValues = cryptoUtils.encrypt(values);
+        double batchEncrypt = opsPerSecond(start);
+        start = System.nanoTime();
+        List<CryptoUtils.DecryptedData> decryptedValues = cryptoUtils.decrypt(encryptedValues, false);
+        double batchDecrypt = opsPerSecond(start);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            assertEquals(values.get(i), decryptedValues.get(i).getDecryptedData());
+        }
+        android.util.Log.i(TAG, String.format(Locale.US, "CryptoUtils: encrypt %.0f ops/s, decrypt %.0f ops/s, batch encrypt %.0f ops/s, batch decrypt %.0f ops/s, %d cipher(s) created.",
+                encrypt, decrypt, batchEncrypt, batchDecrypt, cryptoFactory.mCipherCount));
+    }
+}
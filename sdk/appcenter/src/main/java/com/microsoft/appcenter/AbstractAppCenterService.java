@@ -7,6 +7,7 @@ import android.support.annotation.NonNull;
 
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
@@ -138,7 +139,7 @@ public abstract class AbstractAppCenterService implements AppCenterService {
 
             /* Register service to channel on enabling. */
             if (enabled) {
-                mChannel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), null, getChannelListener());
+                mChannel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), null, getChannelListener(), getEvictionPriority(), getEvictionQuota());
             }
 
             /* Otherwise, clear all persisted logs and remove a group for the service. */
@@ -189,7 +190,7 @@ public abstract class AbstractAppCenterService implements AppCenterService {
 
             /* Add a group to the channel if the service is enabled */
             if (enabled) {
-                channel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), null, getChannelListener());
+                channel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), null, getChannelListener(), getEvictionPriority(), getEvictionQuota());
             }
 
             /* Otherwise, clear all persisted logs for the service. */
@@ -255,6 +256,26 @@ public abstract class AbstractAppCenterService implements AppCenterService {
         return DEFAULT_TRIGGER_MAX_PARALLEL_REQUESTS;
     }
 
+    /**
+     * Gets the priority of the service logs when storage is full, lower priorities are evicted first.
+     *
+     * @return A priority as defined in {@link EvictionPolicy}.
+     */
+    @SuppressWarnings("WeakerAccess")
+    protected int getEvictionPriority() {
+        return EvictionPolicy.PRIORITY_NORMAL;
+    }
+
+    /**
+     * Gets the number of logs the service can keep before its logs are evicted first when storage is full.
+     *
+     * @return A number of logs, 0 for no quota.
+     */
+    @SuppressWarnings({"WeakerAccess", "SameReturnValue"})
+    protected int getEvictionQuota() {
+        return 0;
+    }
+
     /**
      * Gets a listener which will be called when channel completes synchronization.
      *
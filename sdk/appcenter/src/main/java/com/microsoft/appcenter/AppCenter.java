@@ -14,6 +14,7 @@ import android.util.Log;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.channel.DefaultChannel;
 import com.microsoft.appcenter.channel.OneCollectorChannelListener;
+import com.microsoft.appcenter.http.HttpExecutor;
 import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.WrapperSdk;
@@ -22,6 +23,7 @@ import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.StartServiceLogFactory;
+import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.IdHelper;
@@ -121,6 +123,51 @@ public class AppCenter {
      */
     private String mLogUrl;
 
+    /**
+     * Custom maximum storage size in bytes if any, 0 if not set.
+     */
+    private long mMaxStorageSize;
+
+    /**
+     * Whether persisted log payloads are compressed.
+     */
+    private boolean mPayloadCompressionEnabled;
+
+    /**
+     * Maximum size in bytes of a batch of logs.
+     */
+    private long mMaxBatchSize = Persistence.DEFAULT_MAX_BATCH_SIZE;
+
+    /**
+     * Whether persisted log payloads are sent as is.
+     */
+    private boolean mPayloadPassthroughEnabled;
+
+    /**
+     * Whether request bodies sent to the backend are compressed.
+     */
+    private boolean mHttpCompressionEnabled;
+
+    /**
+     * Whether batch size and interval are adapted.
+     */
+    private boolean mAdaptiveBatchingEnabled;
+
+    /**
+     * Minimum number of parallel batches per group, 0 if not adapted.
+     */
+    private int mMinParallelBatches;
+
+    /**
+     * Maximum number of parallel batches per group, 0 if not adapted.
+     */
+    private int mMaxParallelBatches;
+
+    /**
+     * Persistence type used when configuring the channel.
+     */
+    private int mPersistenceType = Persistence.TYPE_DATABASE;
+
     /**
      * Application context.
      */
@@ -234,6 +281,94 @@ public class AppCenter {
         getInstance().setInstanceLogUrl(logUrl);
     }
 
+    /**
+     * Set the maximum size in bytes used to persist logs before sending them.
+     * When exceeded, oldest logs are deleted, starting with the lowest priority services.
+     * Default is {@link Persistence#DEFAULT_MAX_STORAGE_SIZE}.
+     *
+     * @param maxStorageSize maximum size in bytes, must be positive.
+     */
+    public static void setMaxStorageSize(long maxStorageSize) {
+        getInstance().setInstanceMaxStorageSize(maxStorageSize);
+    }
+
+    /**
+     * Set the maximum size in bytes of the logs sent in a single request, in addition to the number of logs.
+     * A single log larger than this is still sent, alone.
+     * Default is {@link Persistence#DEFAULT_MAX_BATCH_SIZE}.
+     *
+     * @param maxBatchSize maximum size in bytes, must be positive.
+     */
+    public static void setMaxBatchSize(long maxBatchSize) {
+        getInstance().setInstanceMaxBatchSize(maxBatchSize);
+    }
+
+    /**
+     * Enable or disable compression of logs persisted before sending them.
+     * Compression reduces storage size and disk I/O at the cost of some CPU time.
+     * Logs stored in either format remain readable. Disabled by default.
+     *
+     * @param enabled true to compress logs stored from now on, false to store them as plain text.
+     */
+    public static void setPayloadCompressionEnabled(boolean enabled) {
+        getInstance().setInstancePayloadCompressionEnabled(enabled);
+    }
+
+    /**
+     * Enable or disable sending persisted logs to the backend as they are stored,
+     * instead of converting them back to objects and serializing them again.
+     * Logs are then only converted for services that need to be notified about them. Disabled by default.
+     *
+     * @param enabled true to send persisted logs as is.
+     */
+    public static void setPayloadPassthroughEnabled(boolean enabled) {
+        getInstance().setInstancePayloadPassthroughEnabled(enabled);
+    }
+
+    /**
+     * Enable or disable gzip compression of logs sent to the backend.
+     * Only requests big enough to benefit from it are compressed, which reduces upload size
+     * and radio time at the cost of some CPU time. Disabled by default.
+     *
+     * @param enabled true to compress requests.
+     */
+    public static void setHttpCompressionEnabled(boolean enabled) {
+        getInstance().setInstanceHttpCompressionEnabled(enabled);
+    }
+
+    /**
+     * Enable or disable adapting how many logs are sent at once and how long logs wait before being sent.
+     * Batches then grow while a large backlog is sent over a fast network, shrink after failures or slow requests,
+     * and logs wait longer on metered networks. Disabled by default.
+     *
+     * @param enabled true to adapt batching.
+     */
+    public static void setAdaptiveBatchingEnabled(boolean enabled) {
+        getInstance().setInstanceAdaptiveBatchingEnabled(enabled);
+    }
+
+    /**
+     * Adapt how many batches of logs are sent in parallel, within the given limits.
+     * The number increases while requests are fast and is halved after a recoverable error or a slow request.
+     * By default, a fixed number of batches is sent in parallel.
+     *
+     * @param minParallelBatches minimum number of parallel batches, at least 1.
+     * @param maxParallelBatches maximum number of parallel batches, at least the minimum.
+     */
+    public static void setParallelBatchesLimits(int minParallelBatches, int maxParallelBatches) {
+        getInstance().setInstanceParallelBatchesLimits(minParallelBatches, maxParallelBatches);
+    }
+
+    /**
+     * Choose how logs are persisted before sending them. Must be called before
+     * {@link #configure(Application, String)} or {@link #start(Application, String, Class[])}.
+     *
+     * @param persistenceType {@link Persistence#TYPE_DATABASE} (default) or {@link Persistence#TYPE_SEGMENT_FILE}.
+     */
+    public static void setPersistenceType(int persistenceType) {
+        getInstance().setInstancePersistenceType(persistenceType);
+    }
+
     /**
      * Get the current version of App Center SDK.
      *
@@ -401,6 +536,192 @@ public class AppCenter {
         }
     }
 
+    /**
+     * {@link #setMaxStorageSize(long)} implementation at instance level.
+     *
+     * @param maxStorageSize maximum storage size in bytes.
+     */
+    private synchronized void setInstanceMaxStorageSize(final long maxStorageSize) {
+        if (maxStorageSize <= 0) {
+            AppCenterLog.error(LOG_TAG, "Maximum storage size must be positive.");
+            return;
+        }
+        mMaxStorageSize = maxStorageSize;
+
+        /* If SDK already configured, set storage size. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks and accesses disks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setMaxStorageSize(maxStorageSize);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setMaxBatchSize(long)} implementation at instance level.
+     *
+     * @param maxBatchSize maximum batch size in bytes.
+     */
+    private synchronized void setInstanceMaxBatchSize(final long maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            AppCenterLog.error(LOG_TAG, "Maximum batch size must be positive.");
+            return;
+        }
+        mMaxBatchSize = maxBatchSize;
+
+        /* If SDK already configured, apply now. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setMaxBatchSize(maxBatchSize);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setPayloadCompressionEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to compress logs.
+     */
+    private synchronized void setInstancePayloadCompressionEnabled(final boolean enabled) {
+        mPayloadCompressionEnabled = enabled;
+
+        /* If SDK already configured, apply now. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks and accesses disks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setPayloadCompressionEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setPayloadPassthroughEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to send persisted logs as is.
+     */
+    private synchronized void setInstancePayloadPassthroughEnabled(final boolean enabled) {
+        mPayloadPassthroughEnabled = enabled;
+
+        /* If SDK already configured, apply now. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setPayloadPassthroughEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setHttpCompressionEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to compress requests.
+     */
+    private synchronized void setInstanceHttpCompressionEnabled(final boolean enabled) {
+        mHttpCompressionEnabled = enabled;
+
+        /* If SDK already configured, apply now. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setHttpCompressionEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setAdaptiveBatchingEnabled(boolean)} implementation at instance level.
+     *
+     * @param enabled true to adapt batching.
+     */
+    private synchronized void setInstanceAdaptiveBatchingEnabled(final boolean enabled) {
+        mAdaptiveBatchingEnabled = enabled;
+
+        /* If SDK already configured, apply now. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setAdaptiveBatchingEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setParallelBatchesLimits(int, int)} implementation at instance level.
+     *
+     * @param minParallelBatches minimum number of parallel batches.
+     * @param maxParallelBatches maximum number of parallel batches.
+     */
+    private synchronized void setInstanceParallelBatchesLimits(final int minParallelBatches, final int maxParallelBatches) {
+        if (minParallelBatches < 1 || maxParallelBatches < minParallelBatches) {
+            AppCenterLog.error(LOG_TAG, "Invalid parallel batches limits: " + minParallelBatches + "-" + maxParallelBatches);
+            return;
+        }
+        mMinParallelBatches = minParallelBatches;
+        mMaxParallelBatches = maxParallelBatches;
+
+        /* Have enough HTTP threads for the parallel batches of a group, waiting for a thread would count as latency. */
+        HttpExecutor.getSharedInstance().ensurePoolSize(maxParallelBatches);
+
+        /* If SDK already configured, apply now. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setParallelBatchesLimits(minParallelBatches, maxParallelBatches);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setPersistenceType(int)} implementation at instance level.
+     *
+     * @param persistenceType persistence type.
+     */
+    private synchronized void setInstancePersistenceType(int persistenceType) {
+        if (isInstanceConfigured()) {
+            AppCenterLog.error(LOG_TAG, "Persistence type must be set before App Center is configured.");
+        } else if (persistenceType != Persistence.TYPE_DATABASE && persistenceType != Persistence.TYPE_SEGMENT_FILE) {
+            AppCenterLog.error(LOG_TAG, "Invalid persistence type: " + persistenceType);
+        } else {
+            mPersistenceType = persistenceType;
+        }
+    }
+
     /**
      * {@link #setCustomProperties(CustomProperties)} implementation at instance level.
      *
@@ -575,12 +896,31 @@ public class AppCenter {
         mLogSerializer = new DefaultLogSerializer();
         mLogSerializer.addLogFactory(StartServiceLog.TYPE, new StartServiceLogFactory());
         mLogSerializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
-        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, mHandler);
+        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, mPersistenceType, mHandler);
         mChannel.setEnabled(enabled);
+        mChannel.setMaxBatchSize(mMaxBatchSize);
+        if (mAdaptiveBatchingEnabled) {
+            mChannel.setAdaptiveBatchingEnabled(true);
+        }
+        if (mMaxParallelBatches > 0) {
+            mChannel.setParallelBatchesLimits(mMinParallelBatches, mMaxParallelBatches);
+        }
         mChannel.addGroup(CORE_GROUP, DEFAULT_TRIGGER_COUNT, DEFAULT_TRIGGER_INTERVAL, DEFAULT_TRIGGER_MAX_PARALLEL_REQUESTS, null, null);
         if (mLogUrl != null) {
             mChannel.setLogUrl(mLogUrl);
         }
+        if (mMaxStorageSize > 0) {
+            mChannel.setMaxStorageSize(mMaxStorageSize);
+        }
+        if (mPayloadCompressionEnabled) {
+            mChannel.setPayloadCompressionEnabled(true);
+        }
+        if (mPayloadPassthroughEnabled) {
+            mChannel.setPayloadPassthroughEnabled(true);
+        }
+        if (mHttpCompressionEnabled) {
+            mChannel.setHttpCompressionEnabled(true);
+        }
         mChannel.addListener(new OneCollectorChannelListener(mApplication, mChannel, mLogSerializer, IdHelper.getInstallId()));
         if (!enabled) {
             NetworkStateHelper.getSharedInstance(mApplication).close();
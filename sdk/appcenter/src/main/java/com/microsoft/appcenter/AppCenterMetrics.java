@@ -0,0 +1,311 @@
+package com.microsoft.appcenter;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of counters, gauges and histograms about logs going through the SDK.
+ * Recording a value does not allocate memory, gauges are only read when taking a snapshot.
+ */
+public class AppCenterMetrics {
+
+    /**
+     * Counter of logs persisted to be sent.
+     */
+    public static final int COUNTER_LOGS_ENQUEUED = 0;
+
+    /**
+     * Counter of logs sent successfully.
+     */
+    public static final int COUNTER_LOGS_SENT = 1;
+
+    /**
+     * Counter of logs deleted after a non recoverable error.
+     */
+    public static final int COUNTER_LOGS_DROPPED = 2;
+
+    /**
+     * Counter of logs evicted because storage was full.
+     */
+    public static final int COUNTER_LOGS_EVICTED = 3;
+
+    /**
+     * Counter of batches sent successfully.
+     */
+    public static final int COUNTER_BATCHES_SENT = 4;
+
+    /**
+     * Counter of batches that failed.
+     */
+    public static final int COUNTER_BATCHES_FAILED = 5;
+
+    /**
+     * Counter of HTTP requests.
+     */
+    public static final int COUNTER_HTTP_REQUESTS = 6;
+
+    /**
+     * Counter of HTTP requests that failed, including the ones that are retried.
+     */
+    public static final int COUNTER_HTTP_FAILURES = 7;
+
+    /**
+     * Counter of HTTP retries.
+     */
+    public static final int COUNTER_HTTP_RETRIES = 8;
+
+    /**
+     * Counter of request body bytes sent, after compression.
+     */
+    public static final int COUNTER_BYTES_SENT = 9;
+
+    /**
+     * Number of counters.
+     */
+    static final int COUNTER_COUNT = 10;
+
+    /**
+     * Histogram of the number of logs per batch.
+     */
+    public static final int HISTOGRAM_BATCH_SIZE = 0;
+
+    /**
+     * Histogram of the time in milliseconds between sending a batch and its successful response, including retries.
+     */
+    public static final int HISTOGRAM_BATCH_LATENCY = 1;
+
+    /**
+     * Histogram of the time in milliseconds between a log timestamp and its successful sending.
+     */
+    public static final int HISTOGRAM_LOG_LATENCY = 2;
+
+    /**
+     * Histogram of the time in microseconds spent persisting a log in the database.
+     */
+    public static final int HISTOGRAM_PERSIST_TIME = 3;
+
+    /**
+     * Number of histograms.
+     */
+    static final int HISTOGRAM_COUNT = 4;
+
+    /**
+     * Prefix of gauge names for the number of logs of a group waiting to be sent, followed by the group name.
+     */
+    public static final String GAUGE_PENDING_LOGS_PREFIX = "pendingLogs.";
+
+    /**
+     * Minimum interval between two listener notifications, in milliseconds.
+     */
+    @VisibleForTesting
+    static final long LISTENER_INTERVAL = 10000;
+
+    /**
+     * Shared instance.
+     */
+    private static AppCenterMetrics sSharedInstance;
+
+    /**
+     * Counter values.
+     */
+    private final long[] mCounters = new long[COUNTER_COUNT];
+
+    /**
+     * Histograms.
+     */
+    private final Histogram[] mHistograms = new Histogram[HISTOGRAM_COUNT];
+
+    /**
+     * Gauges by name.
+     */
+    private final Map<String, Gauge> mGauges = new LinkedHashMap<>();
+
+    /**
+     * Listener.
+     */
+    private MetricsListener mListener;
+
+    /**
+     * Time of the last listener notification, as {@link SystemClock#elapsedRealtime()}.
+     */
+    private long mLastNotificationTime;
+
+    /**
+     * Whether the listener was notified at least once.
+     */
+    private boolean mNotified;
+
+    @VisibleForTesting
+    AppCenterMetrics() {
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    public static synchronized AppCenterMetrics getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new AppCenterMetrics();
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Increment a counter.
+     *
+     * @param counter one of the COUNTER constants.
+     * @param delta   value to add.
+     */
+    public synchronized void increment(int counter, long delta) {
+        mCounters[counter] += delta;
+    }
+
+    /**
+     * Record a value in a histogram.
+     *
+     * @param histogram one of the HISTOGRAM constants.
+     * @param value     value to record, negative values are recorded as 0.
+     */
+    public synchronized void record(int histogram, long value) {
+        mHistograms[histogram].record(Math.max(0, value));
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same name.
+     *
+     * @param name  gauge name.
+     * @param gauge gauge.
+     */
+    public synchronized void registerGauge(@NonNull String name, @NonNull Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    /**
+     * Unregister a gauge.
+     *
+     * @param name  gauge name.
+     * @param gauge gauge to unregister, a gauge registered since with the same name is kept.
+     */
+    public synchronized void unregisterGauge(@NonNull String name, @NonNull Gauge gauge) {
+        if (mGauges.get(name) == gauge) {
+            mGauges.remove(name);
+        }
+    }
+
+    /**
+     * Set a listener receiving snapshots, at most every {@link #LISTENER_INTERVAL} milliseconds
+     * while logs are being sent. The listener is called from a background thread and must return quickly.
+     *
+     * @param listener listener, null to remove it.
+     */
+    public synchronized void setListener(MetricsListener listener) {
+        mListener = listener;
+        mNotified = false;
+    }
+
+    /**
+     * Take a snapshot of all metrics.
+     *
+     * @return snapshot.
+     */
+    @NonNull
+    public MetricsSnapshot getSnapshot() {
+        long[] counters;
+        HistogramSnapshot[] histograms = new HistogramSnapshot[HISTOGRAM_COUNT];
+        List<Map.Entry<String, Gauge>> gauges;
+        synchronized (this) {
+            counters = mCounters.clone();
+            for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+                Histogram histogram = mHistograms[i];
+                histograms[i] = new HistogramSnapshot(histogram.mCount, histogram.mSum, histogram.mMax, histogram.mBuckets.clone());
+            }
+            gauges = new ArrayList<>(mGauges.entrySet());
+        }
+
+        /* Gauges can take their owner lock, which can be held while recording metrics. */
+        Map<String, Long> gaugeValues = new HashMap<>();
+        for (Map.Entry<String, Gauge> gauge : gauges) {
+            gaugeValues.put(gauge.getKey(), gauge.getValue().getValue());
+        }
+        return new MetricsSnapshot(counters, histograms, gaugeValues);
+    }
+
+    /**
+     * Notify the listener with a new snapshot if any and if the last notification is old enough.
+     */
+    public void notifyListener() {
+        MetricsListener listener;
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (mListener == null || (mNotified && now - mLastNotificationTime < LISTENER_INTERVAL)) {
+                return;
+            }
+            listener = mListener;
+            mNotified = true;
+            mLastNotificationTime = now;
+        }
+        listener.onMetrics(getSnapshot());
+    }
+
+    /**
+     * Value read when taking a snapshot.
+     */
+    public interface Gauge {
+
+        /**
+         * Get the current value.
+         *
+         * @return value.
+         */
+        long getValue();
+    }
+
+    /**
+     * Histogram with a bucket per power of 2.
+     */
+    private static class Histogram {
+
+        /**
+         * Number of recorded values by bucket, bucket i counts values having i significant bits.
+         */
+        final long[] mBuckets = new long[HistogramSnapshot.BUCKET_COUNT];
+
+        /**
+         * Number of recorded values.
+         */
+        long mCount;
+
+        /**
+         * Sum of recorded values.
+         */
+        long mSum;
+
+        /**
+         * Maximum recorded value.
+         */
+        long mMax;
+
+        void record(long value) {
+            mBuckets[Long.SIZE - Long.numberOfLeadingZeros(value)]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.microsoft.appcenter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+
+/**
+ * Optional tracing of the stages a log goes through between being tracked and being acknowledged by the server.
+ * Spans of a log carry the log, spans of a batch carry the batch identifier and
+ * {@link #STAGE_QUEUE} spans carry both to link a log to its batch.
+ * Nothing is timed while no tracer is set.
+ */
+public final class AppCenterTracing {
+
+    /**
+     * Channel listeners decorating a log, e.g. adding session or user identifiers.
+     */
+    public static final int STAGE_PREPARE = 0;
+
+    /**
+     * Serialization and compression of a log before persisting it in the database.
+     */
+    public static final int STAGE_SERIALIZE = 1;
+
+    /**
+     * Time between the log timestamp and the log being claimed in a batch.
+     */
+    public static final int STAGE_QUEUE = 2;
+
+    /**
+     * Claiming logs of a batch from persistence.
+     */
+    public static final int STAGE_CLAIM = 3;
+
+    /**
+     * One HTTP attempt sending a batch, a retried batch has several.
+     */
+    public static final int STAGE_HTTP_SEND = 4;
+
+    /**
+     * Wait before retrying a failed HTTP attempt.
+     */
+    public static final int STAGE_RETRY_WAIT = 5;
+
+    /**
+     * Group listener notified of the logs sent successfully.
+     */
+    public static final int STAGE_SUCCESS_CALLBACK = 6;
+
+    /**
+     * Current tracer.
+     */
+    private static volatile LogTracer sTracer;
+
+    private AppCenterTracing() {
+    }
+
+    /**
+     * Get the current tracer. Callers check it before timing a stage so that nothing is measured without a tracer.
+     *
+     * @return tracer or null.
+     */
+    @Nullable
+    public static LogTracer getTracer() {
+        return sTracer;
+    }
+
+    /**
+     * Set a tracer.
+     *
+     * @param tracer tracer, null to stop tracing.
+     */
+    public static void setTracer(@Nullable LogTracer tracer) {
+        sTracer = tracer;
+    }
+
+    /**
+     * Report a stage that just ended.
+     *
+     * @param tracer     tracer returned by {@link #getTracer()} when the stage started.
+     * @param stage      one of the STAGE constants.
+     * @param batchId    batch identifier if any.
+     * @param log        log if the stage is about a single log.
+     * @param startNanos {@link System#nanoTime()} when the stage started.
+     */
+    public static void endSpan(@NonNull LogTracer tracer, int stage, @Nullable String batchId, @Nullable Log log, long startNanos) {
+        long durationNanos = System.nanoTime() - startNanos;
+        long startTime = System.currentTimeMillis() - durationNanos / 1000000;
+        tracer.onSpan(stage, batchId, log, startTime, durationNanos);
+    }
+}
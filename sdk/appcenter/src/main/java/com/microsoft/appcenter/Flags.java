@@ -0,0 +1,28 @@
+package com.microsoft.appcenter;
+
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Flags that can be set when enqueuing a log.
+ */
+public final class Flags {
+
+    /**
+     * Normal log: the log can be committed to disk with other logs, slightly after it has been enqueued.
+     */
+    public static final int NORMAL = 0x01;
+
+    /**
+     * Critical log: the log is committed to disk before enqueuing returns.
+     */
+    public static final int CRITICAL = 0x02;
+
+    /**
+     * Flags used when not specified.
+     */
+    public static final int DEFAULTS = NORMAL;
+
+    @VisibleForTesting
+    Flags() {
+    }
+}
@@ -0,0 +1,105 @@
+package com.microsoft.appcenter;
+
+/**
+ * Snapshot of a histogram of {@link AppCenterMetrics}.
+ * Values are counted in buckets of powers of 2, percentiles are an upper bound within a factor of 2.
+ */
+public class HistogramSnapshot {
+
+    /**
+     * Number of buckets, bucket i counts values having i significant bits.
+     */
+    static final int BUCKET_COUNT = Long.SIZE;
+
+    /**
+     * Number of recorded values.
+     */
+    private final long mCount;
+
+    /**
+     * Sum of recorded values.
+     */
+    private final long mSum;
+
+    /**
+     * Maximum recorded value.
+     */
+    private final long mMax;
+
+    /**
+     * Number of recorded values by bucket.
+     */
+    private final long[] mBuckets;
+
+    /**
+     * Init.
+     *
+     * @param count   number of recorded values.
+     * @param sum     sum of recorded values.
+     * @param max     maximum recorded value.
+     * @param buckets number of recorded values by bucket.
+     */
+    HistogramSnapshot(long count, long sum, long max, long[] buckets) {
+        mCount = count;
+        mSum = sum;
+        mMax = max;
+        mBuckets = buckets;
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return count.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Get the sum of recorded values.
+     *
+     * @return sum.
+     */
+    public long getSum() {
+        return mSum;
+    }
+
+    /**
+     * Get the maximum recorded value.
+     *
+     * @return maximum, 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * Get the mean of recorded values.
+     *
+     * @return mean, 0 if nothing was recorded.
+     */
+    public double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * Get an upper bound of a percentile.
+     *
+     * @param percentile percentile between 0 and 100.
+     * @return value that at least this percentage of recorded values do not exceed, 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(mCount * Math.max(0, Math.min(100, percentile)) / 100);
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mBuckets[i];
+            if (count > 0 && count >= rank) {
+
+                /* Upper bound of the bucket, which cannot exceed the maximum. */
+                long upperBound = i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, mMax);
+            }
+        }
+        return 0;
+    }
+}
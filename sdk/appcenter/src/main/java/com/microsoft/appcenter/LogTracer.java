@@ -0,0 +1,24 @@
+package com.microsoft.appcenter;
+
+import android.support.annotation.Nullable;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+
+/**
+ * Receives timed spans of the stages a log goes through, see {@link AppCenterTracing}.
+ * Called synchronously from the thread doing the work, often while holding the channel lock:
+ * implementations must return quickly and must not call the SDK.
+ */
+public interface LogTracer {
+
+    /**
+     * Called when a stage ends.
+     *
+     * @param stage         one of the STAGE constants of {@link AppCenterTracing}.
+     * @param batchId       identifier of the batch, null before the log is part of a batch.
+     * @param log           log, null for stages about a whole batch.
+     * @param startTime     wall clock time when the stage started, in milliseconds since epoch.
+     * @param durationNanos duration of the stage in nanoseconds.
+     */
+    void onSpan(int stage, @Nullable String batchId, @Nullable Log log, long startTime, long durationNanos);
+}
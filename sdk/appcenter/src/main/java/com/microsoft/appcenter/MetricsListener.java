@@ -0,0 +1,16 @@
+package com.microsoft.appcenter;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Listener receiving periodic snapshots of {@link AppCenterMetrics}.
+ */
+public interface MetricsListener {
+
+    /**
+     * Called with a new snapshot while logs are being sent.
+     *
+     * @param snapshot metrics snapshot.
+     */
+    void onMetrics(@NonNull MetricsSnapshot snapshot);
+}
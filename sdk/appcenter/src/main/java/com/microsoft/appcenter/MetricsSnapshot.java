@@ -0,0 +1,86 @@
+package com.microsoft.appcenter;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Values of {@link AppCenterMetrics} at a point in time.
+ */
+public class MetricsSnapshot {
+
+    /**
+     * Counter values.
+     */
+    private final long[] mCounters;
+
+    /**
+     * Histogram snapshots.
+     */
+    private final HistogramSnapshot[] mHistograms;
+
+    /**
+     * Gauge values by name.
+     */
+    private final Map<String, Long> mGauges;
+
+    /**
+     * Init.
+     *
+     * @param counters   counter values.
+     * @param histograms histogram snapshots.
+     * @param gauges     gauge values by name.
+     */
+    MetricsSnapshot(long[] counters, HistogramSnapshot[] histograms, Map<String, Long> gauges) {
+        mCounters = counters;
+        mHistograms = histograms;
+        mGauges = Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Get a counter value.
+     *
+     * @param counter one of the {@link AppCenterMetrics} COUNTER constants.
+     * @return counter value.
+     */
+    public long getCounter(int counter) {
+        return mCounters[counter];
+    }
+
+    /**
+     * Get a histogram snapshot.
+     *
+     * @param histogram one of the {@link AppCenterMetrics} HISTOGRAM constants.
+     * @return histogram snapshot.
+     */
+    @NonNull
+    public HistogramSnapshot getHistogram(int histogram) {
+        return mHistograms[histogram];
+    }
+
+    /**
+     * Get gauge values.
+     *
+     * @return gauge values by name.
+     */
+    @NonNull
+    public Map<String, Long> getGauges() {
+        return mGauges;
+    }
+
+    /**
+     * Get the number of logs waiting to be sent in all groups.
+     *
+     * @return sum of the gauges named with {@link AppCenterMetrics#GAUGE_PENDING_LOGS_PREFIX}.
+     */
+    public long getTotalPendingLogCount() {
+        long total = 0;
+        for (Map.Entry<String, Long> gauge : mGauges.entrySet()) {
+            if (gauge.getKey().startsWith(AppCenterMetrics.GAUGE_PENDING_LOGS_PREFIX)) {
+                total += gauge.getValue();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,214 @@
+package com.microsoft.appcenter.channel;
+
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Adapts the batch size and the batch interval of a group.
+ * <p>
+ * Batches grow while the backlog is deep and the link is fast, shrink after failures or slow requests
+ * and come back to their configured size once the backlog is drained.
+ * Intervals are stretched on metered networks and slow links.
+ * When disabled, configured values are used as is but latency is still measured.
+ * <p>
+ * This class is not thread safe, {@link DefaultChannel} only uses it while holding its own lock.
+ */
+class AdaptiveBatchController {
+
+    /**
+     * Batch size can grow up to the configured size multiplied by this factor.
+     */
+    @VisibleForTesting
+    static final int MAX_BATCH_SIZE_FACTOR = 4;
+
+    /**
+     * Batch size can shrink down to the configured size divided by this factor.
+     */
+    @VisibleForTesting
+    static final int MIN_BATCH_SIZE_DIVISOR = 4;
+
+    /**
+     * Average latency under which the link is considered fast, in ms.
+     */
+    @VisibleForTesting
+    static final long FAST_LATENCY = 1000;
+
+    /**
+     * Latency above which a request is considered slow, in ms.
+     */
+    @VisibleForTesting
+    static final long SLOW_LATENCY = 10000;
+
+    /**
+     * Number of consecutive fast batches with a deep backlog needed to grow batch size.
+     */
+    @VisibleForTesting
+    static final int GROWTH_SAMPLES = 3;
+
+    /**
+     * Interval factor on metered networks.
+     */
+    @VisibleForTesting
+    static final int METERED_INTERVAL_FACTOR = 4;
+
+    /**
+     * Interval factor when the average latency is slow.
+     */
+    @VisibleForTesting
+    static final int SLOW_INTERVAL_FACTOR = 2;
+
+    /**
+     * Configured batch size.
+     */
+    private final int mBaseBatchSize;
+
+    /**
+     * Configured batch interval in ms.
+     */
+    private final long mBaseBatchTimeInterval;
+
+    /**
+     * Minimum batch size.
+     */
+    private final int mMinBatchSize;
+
+    /**
+     * Maximum batch size.
+     */
+    private final int mMaxBatchSize;
+
+    /**
+     * Whether values are adapted.
+     */
+    private boolean mEnabled;
+
+    /**
+     * Current batch size.
+     */
+    private int mBatchSize;
+
+    /**
+     * Moving average of batch latency in ms, -1 until the first successful batch.
+     */
+    private long mAverageLatency = -1;
+
+    /**
+     * Consecutive fast batches sent with a deep backlog.
+     */
+    private int mFastSamples;
+
+    /**
+     * Init.
+     *
+     * @param batchSize         configured batch size.
+     * @param batchTimeInterval configured batch interval in ms.
+     */
+    AdaptiveBatchController(int batchSize, long batchTimeInterval) {
+        mBaseBatchSize = batchSize;
+        mBaseBatchTimeInterval = batchTimeInterval;
+        mMinBatchSize = Math.max(1, batchSize / MIN_BATCH_SIZE_DIVISOR);
+        mMaxBatchSize = batchSize * MAX_BATCH_SIZE_FACTOR;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Enable or disable adaptation, disabling restores configured values.
+     *
+     * @param enabled true to adapt values.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            mBatchSize = mBaseBatchSize;
+            mFastSamples = 0;
+        }
+    }
+
+    /**
+     * Check whether values are adapted.
+     *
+     * @return true if enabled.
+     */
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Get the current maximum number of logs per batch.
+     *
+     * @return batch size.
+     */
+    int getMaxLogsPerBatch() {
+        return mBatchSize;
+    }
+
+    /**
+     * Get the current interval before sending an incomplete batch.
+     *
+     * @param metered whether the active network is metered.
+     * @return interval in ms.
+     */
+    long getBatchTimeInterval(boolean metered) {
+        long interval = mBaseBatchTimeInterval;
+        if (mEnabled) {
+            if (metered) {
+                interval *= METERED_INTERVAL_FACTOR;
+            }
+            if (mAverageLatency > SLOW_LATENCY) {
+                interval *= SLOW_INTERVAL_FACTOR;
+            }
+        }
+        return interval;
+    }
+
+    /**
+     * Get the moving average of batch latency.
+     *
+     * @return latency in ms, -1 if no batch succeeded yet.
+     */
+    long getAverageLatency() {
+        return mAverageLatency;
+    }
+
+    /**
+     * Report a successful batch.
+     *
+     * @param latency time between sending the batch and its response, in ms.
+     * @param backlog number of logs waiting to be sent.
+     */
+    void onBatchSucceeded(long latency, int backlog) {
+        latency = Math.max(0, latency);
+        mAverageLatency = mAverageLatency < 0 ? latency : (mAverageLatency * 3 + latency) / 4;
+        if (!mEnabled) {
+            return;
+        }
+        if (latency > SLOW_LATENCY) {
+            shrink();
+        } else if (backlog >= mBatchSize && mAverageLatency <= FAST_LATENCY) {
+            if (++mFastSamples >= GROWTH_SAMPLES) {
+                mFastSamples = 0;
+                mBatchSize = Math.min(mMaxBatchSize, mBatchSize * 2);
+            }
+        } else {
+            mFastSamples = 0;
+
+            /* Come back to the configured size once the backlog is drained. */
+            if (backlog < mBaseBatchSize && mBatchSize > mBaseBatchSize) {
+                mBatchSize = Math.max(mBaseBatchSize, mBatchSize / 2);
+            }
+        }
+    }
+
+    /**
+     * Report a failed batch, including timeouts.
+     */
+    void onBatchFailed() {
+        if (mEnabled) {
+            shrink();
+        }
+    }
+
+    private void shrink() {
+        mFastSamples = 0;
+        mBatchSize = Math.max(mMinBatchSize, mBatchSize / 2);
+    }
+}
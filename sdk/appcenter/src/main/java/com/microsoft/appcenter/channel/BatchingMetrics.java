@@ -0,0 +1,94 @@
+package com.microsoft.appcenter.channel;
+
+/**
+ * Snapshot of the batching values currently used by a group.
+ */
+public class BatchingMetrics {
+
+    /**
+     * Maximum number of logs per batch.
+     */
+    private final int mMaxLogsPerBatch;
+
+    /**
+     * Interval before sending an incomplete batch, in ms.
+     */
+    private final long mBatchTimeInterval;
+
+    /**
+     * Maximum number of batches sent in parallel.
+     */
+    private final int mMaxParallelBatches;
+
+    /**
+     * Moving average of batch latency in ms, -1 if unknown.
+     */
+    private final long mAverageLatency;
+
+    /**
+     * Number of logs waiting to be sent.
+     */
+    private final int mPendingLogCount;
+
+    /**
+     * Init.
+     *
+     * @param maxLogsPerBatch    maximum number of logs per batch.
+     * @param batchTimeInterval  interval before sending an incomplete batch, in ms.
+     * @param maxParallelBatches maximum number of batches sent in parallel.
+     * @param averageLatency     moving average of batch latency in ms, -1 if unknown.
+     * @param pendingLogCount    number of logs waiting to be sent.
+     */
+    BatchingMetrics(int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, long averageLatency, int pendingLogCount) {
+        mMaxLogsPerBatch = maxLogsPerBatch;
+        mBatchTimeInterval = batchTimeInterval;
+        mMaxParallelBatches = maxParallelBatches;
+        mAverageLatency = averageLatency;
+        mPendingLogCount = pendingLogCount;
+    }
+
+    /**
+     * Get the maximum number of logs per batch.
+     *
+     * @return maximum number of logs per batch.
+     */
+    public int getMaxLogsPerBatch() {
+        return mMaxLogsPerBatch;
+    }
+
+    /**
+     * Get the interval before sending an incomplete batch.
+     *
+     * @return interval in ms.
+     */
+    public long getBatchTimeInterval() {
+        return mBatchTimeInterval;
+    }
+
+    /**
+     * Get the maximum number of batches sent in parallel.
+     *
+     * @return maximum number of parallel batches.
+     */
+    public int getMaxParallelBatches() {
+        return mMaxParallelBatches;
+    }
+
+    /**
+     * Get the moving average of batch latency.
+     *
+     * @return latency in ms, -1 if no batch succeeded yet.
+     */
+    public long getAverageLatency() {
+        return mAverageLatency;
+    }
+
+    /**
+     * Get the number of logs waiting to be sent.
+     *
+     * @return pending log count.
+     */
+    public int getPendingLogCount() {
+        return mPendingLogCount;
+    }
+}
@@ -1,9 +1,13 @@
 package com.microsoft.appcenter.channel;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
+import com.microsoft.appcenter.persistence.Persistence;
 
 /**
  * The interface for Channel.
@@ -22,6 +26,30 @@ public interface Channel {
      */
     void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener);
 
+    /**
+     * Add a group for logs to be persisted and sent, with its eviction policy when storage is full.
+     *
+     * @param groupName          the name of a group.
+     * @param maxLogsPerBatch    maximum log count per batch.
+     * @param batchTimeInterval  time interval for a next batch.
+     * @param maxParallelBatches maximum number of batches in parallel.
+     * @param ingestion          ingestion for the channel. If null then the default ingestion will be used.
+     * @param groupListener      a listener for a service.
+     * @param evictionPriority   priority of logs when storage is full, as defined in {@link EvictionPolicy}.
+     * @param evictionQuota      number of logs the group can keep before being evicted first, 0 for no quota.
+     */
+    void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener, int evictionPriority, int evictionQuota);
+
+    /**
+     * Use a specific persistence for a group instead of the default one, for example
+     * an {@link com.microsoft.appcenter.persistence.InMemoryPersistence} for logs that do not need to survive a restart.
+     * Must be called before {@link #addGroup}.
+     *
+     * @param groupName   the group name.
+     * @param persistence persistence with its log serializer already set.
+     */
+    void setGroupPersistence(@NonNull String groupName, @NonNull Persistence persistence);
+
     /**
      * Remove a group for logs.
      *
@@ -37,6 +65,15 @@ public interface Channel {
      */
     void enqueue(@NonNull Log log, @NonNull String groupName);
 
+    /**
+     * Add Log to queue to be persisted and sent.
+     *
+     * @param log       the Log to be enqueued.
+     * @param groupName the group to use.
+     * @param flags     the flags for this log, as defined in {@link Flags}.
+     */
+    void enqueue(@NonNull Log log, @NonNull String groupName, int flags);
+
     /**
      * Check whether channel is enabled or disabled.
      *
@@ -59,6 +96,68 @@ public interface Channel {
      */
     void setLogUrl(String logUrl);
 
+    /**
+     * Set the maximum size in bytes of persisted logs, oldest logs are evicted when exceeded.
+     *
+     * @param maxStorageSize maximum size in bytes.
+     */
+    void setMaxStorageSize(long maxStorageSize);
+
+    /**
+     * Set the maximum size in bytes of the log payloads sent in a single batch, in addition to the log count.
+     *
+     * @param maxBatchSize maximum size in bytes, 0 for no limit.
+     */
+    void setMaxBatchSize(long maxBatchSize);
+
+    /**
+     * Enable or disable compression of persisted log payloads.
+     *
+     * @param enabled true to compress payloads stored from now on.
+     */
+    void setPayloadCompressionEnabled(boolean enabled);
+
+    /**
+     * Enable or disable sending persisted payloads to ingestion as is instead of deserializing and serializing them again.
+     * Logs are then only deserialized for group listeners.
+     *
+     * @param enabled true to send persisted payloads as is.
+     */
+    void setPayloadPassthroughEnabled(boolean enabled);
+
+    /**
+     * Enable or disable gzip compression of requests sent by every ingestion of this channel.
+     *
+     * @param enabled true to compress request bodies big enough to benefit from it.
+     */
+    void setHttpCompressionEnabled(boolean enabled);
+
+    /**
+     * Enable or disable adapting batch size and interval of every group to backlog, latency, failures and network type.
+     * Values passed to {@link #addGroup} are used as is when disabled and as a baseline when enabled.
+     *
+     * @param enabled true to adapt batching.
+     */
+    void setAdaptiveBatchingEnabled(boolean enabled);
+
+    /**
+     * Adapt the number of parallel batches of every group to batch latency and recoverable errors,
+     * within the given limits. The value passed to {@link #addGroup} is used as the starting point.
+     *
+     * @param minParallelBatches minimum number of parallel batches, at least 1.
+     * @param maxParallelBatches maximum number of parallel batches, at least the minimum.
+     */
+    void setParallelBatchesLimits(int minParallelBatches, int maxParallelBatches);
+
+    /**
+     * Get the batching values currently used by a group.
+     *
+     * @param groupName the group name.
+     * @return batching metrics, null if the group is unknown.
+     */
+    @Nullable
+    BatchingMetrics getBatchingMetrics(@NonNull String groupName);
+
     /**
      * Clear all persisted logs for the given group.
      *
@@ -178,4 +277,18 @@ public interface Channel {
          */
         void onFailure(Log log, Exception e);
     }
+
+    /**
+     * Group listener whose callbacks can be inactive, e.g. when they only forward to an optional user listener.
+     */
+    interface OptionalGroupListener extends GroupListener {
+
+        /**
+         * Check if callbacks currently have any effect.
+         * When they don't, logs deleted by disabling the channel are not read back from persistence to call them.
+         *
+         * @return true if {@link #onBeforeSending(Log)} and {@link #onFailure(Log, Exception)} must be called for each deleted log.
+         */
+        boolean hasCallbacks();
+    }
 }
@@ -0,0 +1,138 @@
+package com.microsoft.appcenter.channel;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker guarding one ingestion so that a failing destination cools down
+ * without stopping other destinations.
+ * <p>
+ * It starts closed. A failed batch opens it for a backoff period that doubles on every consecutive opening.
+ * Once the backoff is elapsed it is half open: a single trial batch is allowed,
+ * closing it again on success or re-opening it on failure.
+ * <p>
+ * This class is not thread safe, {@link DefaultChannel} only uses it while holding its own lock.
+ */
+class CircuitBreaker {
+
+    /**
+     * Requests are allowed.
+     */
+    static final int STATE_CLOSED = 0;
+
+    /**
+     * Requests are rejected until the backoff is elapsed.
+     */
+    static final int STATE_OPEN = 1;
+
+    /**
+     * A single trial request is allowed.
+     */
+    static final int STATE_HALF_OPEN = 2;
+
+    /**
+     * Backoff after the first failure, in ms.
+     */
+    @VisibleForTesting
+    static final long INITIAL_BACKOFF = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Maximum backoff, in ms.
+     */
+    @VisibleForTesting
+    static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Current state, one of the STATE_* constants. When open, it is half open once {@link #mOpenUntil} is elapsed.
+     */
+    private int mState = STATE_CLOSED;
+
+    /**
+     * Backoff used for the last opening, 0 if closed since.
+     */
+    private long mBackoff;
+
+    /**
+     * Time when the open state ends, as {@link SystemClock#elapsedRealtime()}.
+     */
+    private long mOpenUntil;
+
+    /**
+     * Whether the trial request of the half open state is in progress.
+     */
+    private boolean mTrialInProgress;
+
+    /**
+     * Get the current state.
+     *
+     * @return one of the STATE_* constants.
+     */
+    int getState() {
+        if (mState == STATE_OPEN && SystemClock.elapsedRealtime() >= mOpenUntil) {
+            mState = STATE_HALF_OPEN;
+            mTrialInProgress = false;
+        }
+        return mState;
+    }
+
+    /**
+     * Check if a request can be sent now, without reserving it.
+     *
+     * @return true if a request is allowed.
+     */
+    boolean isRequestAllowed() {
+        int state = getState();
+        return state == STATE_CLOSED || (state == STATE_HALF_OPEN && !mTrialInProgress);
+    }
+
+    /**
+     * Reserve a request, must be called when a request is sent after {@link #isRequestAllowed()} returned true.
+     */
+    void onRequestSent() {
+        if (getState() == STATE_HALF_OPEN) {
+            mTrialInProgress = true;
+        }
+    }
+
+    /**
+     * Report that the result of a request will never be reported, allowing another trial request if half open.
+     */
+    void onRequestCancelled() {
+        mTrialInProgress = false;
+    }
+
+    /**
+     * Report a successful request, closing the breaker.
+     */
+    void onSuccess() {
+        mState = STATE_CLOSED;
+        mBackoff = 0;
+        mTrialInProgress = false;
+    }
+
+    /**
+     * Report a failed request, opening the breaker unless it is already open.
+     *
+     * @return remaining open time in ms.
+     */
+    long onFailure() {
+        if (getState() != STATE_OPEN) {
+            mBackoff = mBackoff == 0 ? INITIAL_BACKOFF : Math.min(mBackoff * 2, MAX_BACKOFF);
+            mOpenUntil = SystemClock.elapsedRealtime() + mBackoff;
+            mState = STATE_OPEN;
+            mTrialInProgress = false;
+        }
+        return getRemainingOpenTime();
+    }
+
+    /**
+     * Get the remaining time before a trial request is allowed.
+     *
+     * @return remaining open time in ms, 0 if not open.
+     */
+    long getRemainingOpenTime() {
+        return getState() == STATE_OPEN ? mOpenUntil - SystemClock.elapsedRealtime() : 0;
+    }
+}
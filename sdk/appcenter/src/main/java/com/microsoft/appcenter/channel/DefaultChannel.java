@@ -2,11 +2,18 @@ package com.microsoft.appcenter.channel;
 
 import android.content.Context;
 import android.os.Handler;
-import android.support.annotation.MainThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 
+import com.microsoft.appcenter.AppCenterMetrics;
+import com.microsoft.appcenter.AppCenterTracing;
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.LogTracer;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
@@ -14,17 +21,23 @@ import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
 import com.microsoft.appcenter.persistence.Persistence;
+import com.microsoft.appcenter.persistence.SegmentFilePersistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
-import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.IdHelper;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import org.json.JSONException;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,8 +45,13 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 
@@ -45,6 +63,12 @@ public class DefaultChannel implements Channel {
     @VisibleForTesting
     static final int CLEAR_BATCH_SIZE = 100;
 
+    /**
+     * Maximum time in milliseconds a thread enqueuing a critical log waits for the App Center thread to persist it.
+     */
+    @VisibleForTesting
+    static final long CRITICAL_LOG_TIMEOUT = 1000;
+
     /**
      * Application context.
      */
@@ -75,6 +99,11 @@ public class DefaultChannel implements Channel {
      */
     private final Persistence mPersistence;
 
+    /**
+     * Persistence overrides by group name.
+     */
+    private final Map<String, Persistence> mGroupPersistences = new HashMap<>();
+
     /**
      * The ingestion object used to send batches to the server.
      */
@@ -85,6 +114,51 @@ public class DefaultChannel implements Channel {
      */
     private final Set<Ingestion> mIngestions;
 
+    /**
+     * Circuit breaker per ingestion, so that a failing destination does not stop the others.
+     */
+    private final Map<Ingestion, CircuitBreaker> mCircuitBreakers = new HashMap<>();
+
+    /**
+     * Timers checking pending logs again when a circuit breaker becomes half open, per ingestion.
+     */
+    private final Map<Ingestion, Runnable> mCircuitBreakerTimers = new HashMap<>();
+
+    /**
+     * Logs handed off by {@link #enqueue(Log, String, int)} and not processed yet.
+     */
+    private final Queue<EnqueuedLog> mEnqueuedLogs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether processing {@link #mEnqueuedLogs} is already posted to the App Center handler.
+     */
+    private final AtomicBoolean mProcessingEnqueuedLogs = new AtomicBoolean();
+
+    /**
+     * Process logs handed off by other threads, on the App Center handler.
+     */
+    private final Runnable mProcessEnqueuedLogsRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+
+            /* Reset first so that a log added while processing posts again. */
+            mProcessingEnqueuedLogs.set(false);
+            processEnqueuedLogs();
+        }
+    };
+
+    /**
+     * Notify metrics listener, posted so that the listener is not called while holding the channel lock.
+     */
+    private final Runnable mNotifyMetricsRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            AppCenterMetrics.getSharedInstance().notifyListener();
+        }
+    };
+
     /**
      * App Center core handler.
      */
@@ -101,6 +175,36 @@ public class DefaultChannel implements Channel {
      */
     private boolean mDiscardLogs;
 
+    /**
+     * Are persisted payloads sent to ingestion as is?
+     */
+    private boolean mPayloadPassthroughEnabled;
+
+    /**
+     * Are request bodies compressed by ingestions?
+     */
+    private boolean mHttpCompressionEnabled;
+
+    /**
+     * Are batch size and interval adapted?
+     */
+    private boolean mAdaptiveBatchingEnabled;
+
+    /**
+     * Minimum number of parallel batches per group, 0 if parallel batches are not adapted.
+     */
+    private int mMinParallelBatches;
+
+    /**
+     * Maximum number of parallel batches per group, 0 if parallel batches are not adapted.
+     */
+    private int mMaxParallelBatches;
+
+    /**
+     * Maximum size in bytes of a batch, 0 for no limit.
+     */
+    private long mMaxBatchSize;
+
     /**
      * Device properties.
      */
@@ -121,7 +225,20 @@ public class DefaultChannel implements Channel {
      * @param appCenterHandler App Center looper thread handler.
      */
     public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, @NonNull Handler appCenterHandler) {
-        this(context, appSecret, buildDefaultPersistence(context, logSerializer), new AppCenterIngestion(context, logSerializer), appCenterHandler);
+        this(context, appSecret, logSerializer, Persistence.TYPE_DATABASE, appCenterHandler);
+    }
+
+    /**
+     * Creates and initializes a new instance with the given persistence type.
+     *
+     * @param context          The context.
+     * @param appSecret        The application secret.
+     * @param logSerializer    The log serializer.
+     * @param persistenceType  The persistence type, {@link Persistence#TYPE_DATABASE} or {@link Persistence#TYPE_SEGMENT_FILE}.
+     * @param appCenterHandler App Center looper thread handler.
+     */
+    public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, int persistenceType, @NonNull Handler appCenterHandler) {
+        this(context, appSecret, buildDefaultPersistence(context, logSerializer, persistenceType), new AppCenterIngestion(context, logSerializer), appCenterHandler);
     }
 
     /**
@@ -154,8 +271,13 @@ public class DefaultChannel implements Channel {
     /**
      * Init Persistence for default constructor.
      */
-    private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer) {
-        Persistence persistence = new DatabasePersistence(context);
+    private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer, int persistenceType) {
+        Persistence persistence;
+        if (persistenceType == Persistence.TYPE_SEGMENT_FILE) {
+            persistence = new SegmentFilePersistence(context);
+        } else {
+            persistence = new DatabasePersistence(context);
+        }
         persistence.setLogSerializer(logSerializer);
         return persistence;
     }
@@ -175,19 +297,33 @@ public class DefaultChannel implements Channel {
     }
 
     @Override
-    public synchronized void addGroup(final String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener) {
+    public synchronized void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener) {
+        addGroup(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener, EvictionPolicy.PRIORITY_NORMAL, 0);
+    }
+
+    @Override
+    public synchronized void addGroup(final String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener, int evictionPriority, int evictionQuota) {
 
         /* Init group. */
         AppCenterLog.debug(LOG_TAG, "addGroup(" + groupName + ")");
         ingestion = ingestion == null ? mIngestion : ingestion;
-        if (ingestion != null) {
-            mIngestions.add(ingestion);
+        if (ingestion != null && mIngestions.add(ingestion)) {
+            ingestion.setCompressionEnabled(mHttpCompressionEnabled);
+        }
+        final GroupState groupState = new GroupState(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener, evictionPriority);
+        groupState.mBatchController.setEnabled(mAdaptiveBatchingEnabled);
+        if (mMaxParallelBatches > 0) {
+            groupState.mParallelBatchesController.setLimits(mMinParallelBatches, mMaxParallelBatches);
         }
-        final GroupState groupState = new GroupState(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener);
         mGroupStates.put(groupName, groupState);
+        AppCenterMetrics.getSharedInstance().registerGauge(AppCenterMetrics.GAUGE_PENDING_LOGS_PREFIX + groupName, groupState.mPendingLogsGauge);
+
+        /* Configure eviction when storage is full. */
+        Persistence persistence = getPersistence(groupName);
+        persistence.setGroupEviction(groupName, evictionPriority, evictionQuota);
 
         /* Count pending logs. */
-        groupState.mPendingLogCount = mPersistence.countLogs(groupName);
+        groupState.mPendingLogCount = persistence.countLogs(groupName);
 
         /* Schedule sending any pending log. */
         checkPendingLogs(groupState.mName);
@@ -204,6 +340,13 @@ public class DefaultChannel implements Channel {
         GroupState groupState = mGroupStates.remove(groupName);
         if (groupState != null) {
             cancelTimer(groupState);
+            finishDeletingLogs(groupState);
+            AppCenterMetrics.getSharedInstance().unregisterGauge(AppCenterMetrics.GAUGE_PENDING_LOGS_PREFIX + groupName, groupState.mPendingLogsGauge);
+
+            /* Results of batches in progress are ignored, don't let a trial batch block the ingestion. */
+            if (!groupState.mSendingBatches.isEmpty()) {
+                getCircuitBreaker(groupState.mIngestion).onRequestCancelled();
+            }
         }
 
         /* Call listeners so that they can react on group removed. */
@@ -219,8 +362,7 @@ public class DefaultChannel implements Channel {
 
     /**
      * Set the enabled flag. If false, the channel will continue to persist data but not forward any item to ingestion.
-     * The most common use-case would be to set it to false and enable sending again after the channel has disabled itself after receiving
-     * a recoverable error (most likely related to a server issue).
+     * Sending failures do not disable the channel, they only pause the failing ingestion, see {@link CircuitBreaker}.
      *
      * @param enabled flag to enable or disable the channel.
      */
@@ -230,6 +372,11 @@ public class DefaultChannel implements Channel {
             return;
         }
         if (enabled) {
+
+            /* Logs of the previous disable must be gone before accepting new ones. */
+            for (GroupState groupState : mGroupStates.values()) {
+                finishDeletingLogs(groupState);
+            }
             mEnabled = true;
             mDiscardLogs = false;
             mCurrentState++;
@@ -257,6 +404,107 @@ public class DefaultChannel implements Channel {
         mIngestion.setLogUrl(logUrl);
     }
 
+    @Override
+    public synchronized void setGroupPersistence(@NonNull String groupName, @NonNull Persistence persistence) {
+        mGroupPersistences.put(groupName, persistence);
+        persistence.setMaxBatchSize(mMaxBatchSize);
+    }
+
+    /**
+     * Get the persistence used by a group.
+     *
+     * @param groupName the group name.
+     * @return the group persistence override if any, the default persistence otherwise.
+     */
+    private Persistence getPersistence(String groupName) {
+        Persistence persistence = mGroupPersistences.get(groupName);
+        return persistence == null ? mPersistence : persistence;
+    }
+
+    /**
+     * Get all persistence instances, default one first.
+     *
+     * @return persistence instances.
+     */
+    private Collection<Persistence> getPersistences() {
+        Set<Persistence> persistences = new LinkedHashSet<>();
+        persistences.add(mPersistence);
+        persistences.addAll(mGroupPersistences.values());
+        return persistences;
+    }
+
+    @Override
+    public synchronized void setMaxStorageSize(long maxStorageSize) {
+        mPersistence.setMaxStorageSize(maxStorageSize);
+    }
+
+    @Override
+    public synchronized void setMaxBatchSize(long maxBatchSize) {
+        mMaxBatchSize = maxBatchSize;
+        for (Persistence persistence : getPersistences()) {
+            persistence.setMaxBatchSize(maxBatchSize);
+        }
+    }
+
+    @Override
+    public synchronized void setPayloadCompressionEnabled(boolean enabled) {
+        mPersistence.setPayloadCompressionEnabled(enabled);
+    }
+
+    @Override
+    public synchronized void setPayloadPassthroughEnabled(boolean enabled) {
+        mPayloadPassthroughEnabled = enabled;
+    }
+
+    @Override
+    public synchronized void setHttpCompressionEnabled(boolean enabled) {
+        mHttpCompressionEnabled = enabled;
+        for (Ingestion ingestion : mIngestions) {
+            ingestion.setCompressionEnabled(enabled);
+        }
+    }
+
+    @Override
+    public synchronized void setAdaptiveBatchingEnabled(boolean enabled) {
+        mAdaptiveBatchingEnabled = enabled;
+        for (GroupState groupState : mGroupStates.values()) {
+            groupState.mBatchController.setEnabled(enabled);
+        }
+    }
+
+    @Override
+    public synchronized void setParallelBatchesLimits(int minParallelBatches, int maxParallelBatches) {
+        mMinParallelBatches = minParallelBatches;
+        mMaxParallelBatches = maxParallelBatches;
+        for (GroupState groupState : mGroupStates.values()) {
+            groupState.mParallelBatchesController.setLimits(minParallelBatches, maxParallelBatches);
+            checkPendingLogs(groupState.mName);
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized BatchingMetrics getBatchingMetrics(@NonNull String groupName) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
+            return null;
+        }
+        AdaptiveBatchController batchController = groupState.mBatchController;
+        return new BatchingMetrics(batchController.getMaxLogsPerBatch(), getBatchTimeInterval(groupState), groupState.mParallelBatchesController.getMaxParallelBatches(), batchController.getAverageLatency(), groupState.mPendingLogCount);
+    }
+
+    /**
+     * Get the current interval before sending an incomplete batch of a group.
+     *
+     * @param groupState the group state.
+     * @return interval in ms.
+     */
+    private long getBatchTimeInterval(GroupState groupState) {
+        AdaptiveBatchController batchController = groupState.mBatchController;
+        boolean metered = batchController.isEnabled() && NetworkStateHelper.getSharedInstance(mContext).isNetworkMetered();
+        return batchController.getBatchTimeInterval(metered);
+    }
+
     /**
      * Delete all persisted logs for the given group.
      *
@@ -268,7 +516,7 @@ public class DefaultChannel implements Channel {
             return;
         }
         AppCenterLog.debug(LOG_TAG, "clear(" + groupName + ")");
-        mPersistence.deleteLogs(groupName);
+        getPersistence(groupName).deleteLogs(groupName);
 
         /* Call listeners so that they can react on group clearing. */
         for (Listener listener : mListeners) {
@@ -303,12 +551,19 @@ public class DefaultChannel implements Channel {
                     GroupListener groupListener = groupState.mListener;
                     if (groupListener != null) {
                         for (Log log : removedLogsForBatchId) {
-                            groupListener.onFailure(log, exception);
+                            if (log != null) {
+                                groupListener.onFailure(log, exception);
+                            }
                         }
                     }
                 }
             }
         }
+        for (Runnable runnable : mCircuitBreakerTimers.values()) {
+            mAppCenterHandler.removeCallbacks(runnable);
+        }
+        mCircuitBreakerTimers.clear();
+        mCircuitBreakers.clear();
         for (Ingestion ingestion : mIngestions) {
             try {
                 ingestion.close();
@@ -321,26 +576,180 @@ public class DefaultChannel implements Channel {
                 deleteLogsOnSuspended(groupState);
             }
         } else {
-            mPersistence.clearPendingLogState();
+
+            /* Skip remaining callbacks of a deletion in progress, the process is about to stop. */
+            for (GroupState groupState : mGroupStates.values()) {
+                if (groupState.mDeletingLogs) {
+                    groupState.mDeletingLogs = false;
+                    getPersistence(groupState.mName).deleteLogs(groupState.mName);
+                }
+            }
+            for (Persistence persistence : getPersistences()) {
+                persistence.flush();
+                persistence.clearPendingLogState();
+            }
         }
     }
 
-    private void deleteLogsOnSuspended(final GroupState groupState) {
-        final List<Log> logs = new ArrayList<>();
-        mPersistence.getLogs(groupState.mName, CLEAR_BATCH_SIZE, logs);
-        if (logs.size() > 0 && groupState.mListener != null) {
-            for (Log log : logs) {
-                groupState.mListener.onBeforeSending(log);
-                groupState.mListener.onFailure(log, new CancellationException());
+    /**
+     * Get the circuit breaker of an ingestion, creating it if needed.
+     *
+     * @param ingestion the ingestion.
+     * @return the circuit breaker.
+     */
+    private CircuitBreaker getCircuitBreaker(Ingestion ingestion) {
+        CircuitBreaker circuitBreaker = mCircuitBreakers.get(ingestion);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker();
+            mCircuitBreakers.put(ingestion, circuitBreaker);
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Schedule sending pending logs of an ingestion again once its circuit breaker is half open.
+     *
+     * @param ingestion the ingestion.
+     * @param delay     the delay in ms.
+     */
+    private void scheduleCircuitBreakerTimer(final Ingestion ingestion, long delay) {
+        Runnable previousRunnable = mCircuitBreakerTimers.get(ingestion);
+        if (previousRunnable != null) {
+            mAppCenterHandler.removeCallbacks(previousRunnable);
+        }
+        final int stateSnapshot = mCurrentState;
+        Runnable runnable = new Runnable() {
+
+            @Override
+            public void run() {
+                onCircuitBreakerTimer(ingestion, stateSnapshot);
+            }
+        };
+        mCircuitBreakerTimers.put(ingestion, runnable);
+        mAppCenterHandler.postDelayed(runnable, delay);
+    }
+
+    /**
+     * Send a trial batch after an ingestion cooled down.
+     *
+     * @param ingestion     the ingestion.
+     * @param stateSnapshot state when the timer was scheduled.
+     */
+    private synchronized void onCircuitBreakerTimer(Ingestion ingestion, int stateSnapshot) {
+        mCircuitBreakerTimers.remove(ingestion);
+        if (stateSnapshot == mCurrentState) {
+            for (GroupState groupState : new ArrayList<>(mGroupStates.values())) {
+                if (groupState.mIngestion == ingestion && groupState.mPendingLogCount > 0) {
+                    triggerIngestion(groupState.mName);
+                }
             }
         }
-        if (logs.size() >= CLEAR_BATCH_SIZE && groupState.mListener != null) {
-            deleteLogsOnSuspended(groupState);
-        } else {
-            mPersistence.deleteLogs(groupState.mName);
+    }
+
+    /**
+     * Check pending logs of all groups sharing an ingestion.
+     *
+     * @param ingestion the ingestion.
+     */
+    private void checkPendingLogs(Ingestion ingestion) {
+        for (GroupState groupState : new ArrayList<>(mGroupStates.values())) {
+            if (groupState.mIngestion == ingestion) {
+                checkPendingLogs(groupState.mName);
+            }
+        }
+    }
+
+    /**
+     * Check if a group listener needs a log object for each of its callbacks.
+     *
+     * @param listener group listener, can be null.
+     * @return true if the listener has callbacks, false if logs can stay serialized or be skipped.
+     */
+    private static boolean needsLogs(GroupListener listener) {
+        return listener != null && !(listener instanceof OptionalGroupListener && !((OptionalGroupListener) listener).hasCallbacks());
+    }
+
+    /**
+     * Delete logs of a group after the channel was disabled.
+     * Logs are read back only if the group listener needs a callback for each of them,
+     * in that case a batch is processed per handler message so that disabling returns quickly.
+     *
+     * @param groupState the group state.
+     */
+    private void deleteLogsOnSuspended(GroupState groupState) {
+        if (!needsLogs(groupState.mListener)) {
+            getPersistence(groupState.mName).deleteLogs(groupState.mName);
+        } else if (!groupState.mDeletingLogs) {
+            groupState.mDeletingLogs = true;
+            scheduleDeleteLogs(groupState);
+        }
+    }
+
+    /**
+     * Post the next batch of logs to delete with callbacks.
+     *
+     * @param groupState the group state.
+     */
+    private void scheduleDeleteLogs(final GroupState groupState) {
+        mAppCenterHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                onDeleteLogs(groupState);
+            }
+        });
+    }
+
+    /**
+     * Delete the next batch of logs unless the deletion was already completed.
+     *
+     * @param groupState the group state.
+     */
+    private synchronized void onDeleteLogs(GroupState groupState) {
+        if (groupState.mDeletingLogs && deleteNextLogs(groupState)) {
+            scheduleDeleteLogs(groupState);
         }
     }
 
+    /**
+     * Complete a deletion in progress without waiting for the handler.
+     *
+     * @param groupState the group state.
+     */
+    private void finishDeletingLogs(GroupState groupState) {
+        boolean moreLogs = groupState.mDeletingLogs;
+        while (moreLogs) {
+            moreLogs = deleteNextLogs(groupState);
+        }
+    }
+
+    /**
+     * Call back the group listener for the next batch of logs, deleting all logs of the group after the last batch.
+     *
+     * @param groupState the group state.
+     * @return true if more logs remain.
+     */
+    private boolean deleteNextLogs(GroupState groupState) {
+        List<Log> logs = new ArrayList<>();
+        Persistence persistence = getPersistence(groupState.mName);
+
+        /*
+         * A batch can be smaller than requested, for example because of the batch size cap,
+         * so only an empty result means we went through all logs.
+         */
+        String batchId = persistence.getLogs(groupState.mName, CLEAR_BATCH_SIZE, logs);
+        for (Log log : logs) {
+            groupState.mListener.onBeforeSending(log);
+            groupState.mListener.onFailure(log, new CancellationException());
+        }
+        if (batchId != null) {
+            return true;
+        }
+        persistence.deleteLogs(groupState.mName);
+        groupState.mDeletingLogs = false;
+        return false;
+    }
+
     private void cancelTimer(GroupState groupState) {
         if (groupState.mIngestion == null) {
             return;
@@ -371,77 +780,114 @@ public class DefaultChannel implements Channel {
         }
         final GroupState groupState = mGroupStates.get(groupName);
         int pendingLogCount = groupState.mPendingLogCount;
-        int maxFetch = Math.min(pendingLogCount, groupState.mMaxLogsPerBatch);
+        int maxFetch = Math.min(pendingLogCount, groupState.mBatchController.getMaxLogsPerBatch());
         AppCenterLog.debug(LOG_TAG, "triggerIngestion(" + groupName + ") pendingLogCount=" + pendingLogCount);
         cancelTimer(groupState);
 
         /* Check if we have reached the maximum number of pending batches, log to LogCat and don't trigger another sending. */
-        if (groupState.mSendingBatches.size() == groupState.mMaxParallelBatches) {
-            AppCenterLog.debug(LOG_TAG, "Already sending " + groupState.mMaxParallelBatches + " batches of analytics data to the server.");
+        int maxParallelBatches = groupState.mParallelBatchesController.getMaxParallelBatches();
+        if (groupState.mSendingBatches.size() >= maxParallelBatches) {
+            AppCenterLog.debug(LOG_TAG, "Already sending " + maxParallelBatches + " batches of analytics data to the server.");
+            return;
+        }
+
+        /* Wait for the circuit breaker timer if the ingestion is failing. */
+        CircuitBreaker circuitBreaker = getCircuitBreaker(groupState.mIngestion);
+        if (!circuitBreaker.isRequestAllowed()) {
+            AppCenterLog.debug(LOG_TAG, "Ingestion of " + groupName + " is paused after a failure.");
             return;
         }
 
         /* Get a batch from Persistence. */
-        final List<Log> batch = new ArrayList<>(maxFetch);
+        List<Log> batch = new ArrayList<>(maxFetch);
+        final List<SerializedLog> serializedBatch;
         final int stateSnapshot = mCurrentState;
-        final String batchId = mPersistence.getLogs(groupName, maxFetch, batch);
+        final String batchId;
+        Persistence persistence = getPersistence(groupName);
+        LogTracer tracer = AppCenterTracing.getTracer();
+        long claimStart = tracer != null ? System.nanoTime() : 0;
+        if (mPayloadPassthroughEnabled) {
+            serializedBatch = new ArrayList<>(maxFetch);
+            batchId = persistence.getSerializedLogs(groupName, maxFetch, serializedBatch);
+
+            /* Only deserialize logs if the group listener needs them. */
+            if (needsLogs(groupState.mListener)) {
+                for (SerializedLog serializedLog : serializedBatch) {
+                    try {
+                        batch.add(persistence.deserializeLog(serializedLog));
+                    } catch (JSONException e) {
+                        AppCenterLog.error(LOG_TAG, "Cannot deserialize a log for group listener", e);
+                    }
+                }
+            } else {
 
-        /* Decrement counter. */
-        groupState.mPendingLogCount -= maxFetch;
+                /* Placeholders: without callbacks, the batch is only used to count its logs. */
+                batch = Collections.nCopies(serializedBatch.size(), null);
+            }
+        } else {
+            serializedBatch = null;
+            batchId = persistence.getLogs(groupName, maxFetch, batch);
+        }
 
         /* Nothing more to do if no logs. */
         if (batchId == null) {
+            groupState.mPendingLogCount -= maxFetch;
             return;
         }
+
+        /*
+         * Decrement counter by the logs the batch claimed: it can be shorter than requested because of the batch size,
+         * and logs that could not be converted are still part of it.
+         */
+        groupState.mPendingLogCount -= persistence.countLogs(groupName, batchId);
         AppCenterLog.debug(LOG_TAG, "ingestLogs(" + groupState.mName + "," + batchId + ") pendingLogCount=" + groupState.mPendingLogCount);
+        AppCenterMetrics.getSharedInstance().record(AppCenterMetrics.HISTOGRAM_BATCH_SIZE, batch.size());
+        if (tracer != null) {
+            traceClaim(tracer, batchId, batch, claimStart);
+        }
 
         /* Call group listener before sending logs to ingestion service. */
         if (groupState.mListener != null) {
             for (Log log : batch) {
-                groupState.mListener.onBeforeSending(log);
+                if (log != null) {
+                    groupState.mListener.onBeforeSending(log);
+                }
             }
         }
 
         /* Remember this batch. */
         groupState.mSendingBatches.put(batchId, batch);
+        circuitBreaker.onRequestSent();
+        int sendSequence = groupState.mParallelBatchesController.onBatchSent();
 
-        /*
-         * Due to bug on old Android versions (verified on 4.0.4),
-         * if we start an async task from here, i.e. the async handler thread,
-         * we end up with AsyncTask configured with the wrong Handler to use for onPostExecute
-         * instead of using main thread as advertised in Javadoc (and its a static field there).
-         *
-         * Our SDK guards against an application that would make a first async task in non UI
-         * thread before SDK is initialized, but we should also avoid corrupting AsyncTask
-         * with our wrong handler to avoid creating bugs in the application code since we are
-         * a library.
-         *
-         * So make sure we execute the async task from UI thread to avoid any issue.
-         */
-        HandlerUtils.runOnUiThread(new Runnable() {
-
-            @Override
-            public void run() {
-                sendLogs(groupState, stateSnapshot, batch, batchId);
-            }
-        });
+        /* Send right away from this background thread, the HTTP layer owns its own threads. */
+        sendLogs(groupState, stateSnapshot, batch, serializedBatch, batchId, sendSequence);
     }
 
     /**
      * Send logs.
      *
-     * @param groupState   The group state.
-     * @param currentState The current state.
-     * @param batch        The log batch.
-     * @param batchId      The batch ID.
+     * @param groupState      The group state.
+     * @param currentState    The current state.
+     * @param batch           The log batch.
+     * @param serializedBatch The log batch as persisted if sent as is, null otherwise.
+     * @param batchId         The batch ID.
+     * @param sendSequence    The sequence number of the batch for parallel batches control.
      */
-    @MainThread
-    private synchronized void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, final String batchId) {
+    @WorkerThread
+    private synchronized void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, List<SerializedLog> serializedBatch, final String batchId, final int sendSequence) {
         if (checkStateDidNotChange(groupState, currentState)) {
 
             /* Send logs. */
             LogContainer logContainer = new LogContainer();
-            logContainer.setLogs(batch);
+            if (serializedBatch != null) {
+                logContainer.setSerializedLogs(serializedBatch);
+            } else {
+                logContainer.setLogs(batch);
+            }
+            logContainer.setPriority(groupState.mPriority);
+            logContainer.setBatchId(batchId);
+            final long sendTime = SystemClock.elapsedRealtime();
             groupState.mIngestion.sendAsync(mAppSecret, mInstallId, logContainer, new ServiceCallback() {
 
                 @Override
@@ -450,7 +896,7 @@ public class DefaultChannel implements Channel {
 
                         @Override
                         public void run() {
-                            handleSendingSuccess(groupState, currentState, batchId);
+                            handleSendingSuccess(groupState, currentState, batchId, sendTime, sendSequence);
                         }
                     });
                 }
@@ -461,7 +907,7 @@ public class DefaultChannel implements Channel {
 
                         @Override
                         public void run() {
-                            handleSendingFailure(groupState, currentState, batchId, e);
+                            handleSendingFailure(groupState, currentState, batchId, sendSequence, e);
                         }
                     });
                 }
@@ -490,60 +936,218 @@ public class DefaultChannel implements Channel {
      * @param groupState   The group state.
      * @param currentState The current state.
      * @param batchId      The batch ID.
+     * @param sendTime     The time when the batch was sent, as {@link SystemClock#elapsedRealtime()}.
+     * @param sendSequence The sequence number of the batch for parallel batches control.
      */
-    private synchronized void handleSendingSuccess(@NonNull final GroupState groupState, int currentState, @NonNull final String batchId) {
+    private synchronized void handleSendingSuccess(@NonNull final GroupState groupState, int currentState, @NonNull final String batchId, long sendTime, int sendSequence) {
         if (checkStateDidNotChange(groupState, currentState)) {
             String groupName = groupState.mName;
-            mPersistence.deleteLogs(groupName, batchId);
+            getPersistence(groupName).deleteLogs(groupName, batchId);
             List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
+            long latency = SystemClock.elapsedRealtime() - sendTime;
+            groupState.mBatchController.onBatchSucceeded(latency, groupState.mPendingLogCount);
+            groupState.mParallelBatchesController.onBatchSucceeded(sendSequence, latency);
+            recordBatchSucceeded(removedLogsForBatchId, latency);
             GroupListener groupListener = groupState.mListener;
             if (groupListener != null) {
+                LogTracer tracer = AppCenterTracing.getTracer();
+                long callbackStart = tracer != null ? System.nanoTime() : 0;
                 for (Log log : removedLogsForBatchId) {
-                    groupListener.onSuccess(log);
+                    if (log != null) {
+                        groupListener.onSuccess(log);
+                    }
+                }
+                if (tracer != null) {
+                    AppCenterTracing.endSpan(tracer, AppCenterTracing.STAGE_SUCCESS_CALLBACK, batchId, null, callbackStart);
                 }
             }
-            checkPendingLogs(groupName);
+
+            /* If the ingestion recovered, resume all the groups that were waiting for it. */
+            CircuitBreaker circuitBreaker = getCircuitBreaker(groupState.mIngestion);
+            if (circuitBreaker.getState() == CircuitBreaker.STATE_CLOSED) {
+                checkPendingLogs(groupName);
+            } else {
+                AppCenterLog.info(LOG_TAG, "Ingestion of " + groupName + " recovered.");
+                circuitBreaker.onSuccess();
+                checkPendingLogs(groupState.mIngestion);
+            }
         }
     }
 
     /**
      * The actual implementation to react to not being able to send a batch to the server.
-     * Will disable the sender in case of a recoverable error.
+     * Will keep the batch of data for a later retry in case of a recoverable error.
      * Will delete batch of data in case of a non-recoverable error.
+     * In both cases, only the ingestion of the group is paused by opening its circuit breaker.
      *
      * @param groupState   the group state
      * @param currentState the current state
      * @param batchId      the batch ID
+     * @param sendSequence the sequence number of the batch for parallel batches control
      * @param e            the exception
      */
-    private synchronized void handleSendingFailure(@NonNull final GroupState groupState, int currentState, @NonNull final String batchId, @NonNull final Exception e) {
+    private synchronized void handleSendingFailure(@NonNull final GroupState groupState, int currentState, @NonNull final String batchId, int sendSequence, @NonNull final Exception e) {
         if (checkStateDidNotChange(groupState, currentState)) {
             String groupName = groupState.mName;
             AppCenterLog.error(LOG_TAG, "Sending logs groupName=" + groupName + " id=" + batchId + " failed", e);
             List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
+            groupState.mBatchController.onBatchFailed();
             boolean recoverableError = HttpUtils.isRecoverableError(e);
+            groupState.mParallelBatchesController.onBatchFailed(sendSequence, recoverableError);
+            AppCenterMetrics metrics = AppCenterMetrics.getSharedInstance();
+            metrics.increment(AppCenterMetrics.COUNTER_BATCHES_FAILED, 1);
+            Persistence persistence = getPersistence(groupName);
             if (recoverableError) {
-                groupState.mPendingLogCount += removedLogsForBatchId.size();
+                int claimedLogCount = persistence.countLogs(groupName, batchId);
+                persistence.clearPendingLogState(groupName, batchId);
+                groupState.mPendingLogCount += claimedLogCount;
             } else {
+                persistence.deleteLogs(groupName, batchId);
+                metrics.increment(AppCenterMetrics.COUNTER_LOGS_DROPPED, removedLogsForBatchId.size());
                 GroupListener groupListener = groupState.mListener;
                 if (groupListener != null) {
                     for (Log log : removedLogsForBatchId) {
-                        groupListener.onFailure(log, e);
+                        if (log != null) {
+                            groupListener.onFailure(log, e);
+                        }
                     }
                 }
             }
-            suspend(!recoverableError, e);
+
+            /* Pause this ingestion only, other groups keep sending. */
+            long delay = getCircuitBreaker(groupState.mIngestion).onFailure();
+            AppCenterLog.warn(LOG_TAG, "Ingestion of " + groupName + " is paused for " + delay + "ms.");
+            cancelTimer(groupState);
+            scheduleCircuitBreakerTimer(groupState.mIngestion, delay);
+            mAppCenterHandler.post(mNotifyMetricsRunnable);
         }
     }
 
     /**
-     * Actual implementation of enqueue logic. Will increase counters, triggers of batching logic.
+     * Trace claiming a batch and the time its logs waited before it.
+     *
+     * @param tracer     tracer.
+     * @param batchId    batch identifier.
+     * @param batch      logs of the batch, null placeholders are not traced individually.
+     * @param claimStart {@link System#nanoTime()} before claiming the batch.
+     */
+    private static void traceClaim(@NonNull LogTracer tracer, @NonNull String batchId, @NonNull List<Log> batch, long claimStart) {
+        AppCenterTracing.endSpan(tracer, AppCenterTracing.STAGE_CLAIM, batchId, null, claimStart);
+        long now = System.currentTimeMillis();
+        for (Log log : batch) {
+            if (log != null && log.getTimestamp() != null) {
+                long timestamp = log.getTimestamp().getTime();
+                tracer.onSpan(AppCenterTracing.STAGE_QUEUE, batchId, log, timestamp, (now - timestamp) * 1000000);
+            }
+        }
+    }
+
+    /**
+     * Record metrics of a batch sent successfully.
+     *
+     * @param batch   logs of the batch, null placeholders when only counted.
+     * @param latency batch latency in milliseconds.
+     */
+    private void recordBatchSucceeded(List<Log> batch, long latency) {
+        AppCenterMetrics metrics = AppCenterMetrics.getSharedInstance();
+        metrics.increment(AppCenterMetrics.COUNTER_BATCHES_SENT, 1);
+        metrics.increment(AppCenterMetrics.COUNTER_LOGS_SENT, batch.size());
+        metrics.record(AppCenterMetrics.HISTOGRAM_BATCH_LATENCY, latency);
+        long now = System.currentTimeMillis();
+        for (Log log : batch) {
+            if (log != null && log.getTimestamp() != null) {
+                metrics.record(AppCenterMetrics.HISTOGRAM_LOG_LATENCY, now - log.getTimestamp().getTime());
+            }
+        }
+        mAppCenterHandler.post(mNotifyMetricsRunnable);
+    }
+
+    @Override
+    public void enqueue(@NonNull Log log, @NonNull String groupName) {
+        enqueue(log, groupName, Flags.DEFAULTS);
+    }
+
+    /**
+     * Process the log on the App Center handler thread, where persistence is used and logs are sent.
+     * When called from another thread, the log is handed off to a lock-free queue processed on the handler
+     * and this returns right away, unless the log is critical: it then waits for the log to be persisted,
+     * up to {@link #CRITICAL_LOG_TIMEOUT} milliseconds.
      *
      * @param log       the Log to be enqueued
      * @param groupName the queue to use
+     * @param flags     the flags for this log.
      */
     @Override
-    public synchronized void enqueue(@NonNull Log log, @NonNull final String groupName) {
+    public void enqueue(@NonNull final Log log, @NonNull final String groupName, final int flags) {
+
+        /* Process right away on the handler thread, after logs handed off before. */
+        if (Looper.myLooper() == mAppCenterHandler.getLooper()) {
+            synchronized (this) {
+                processEnqueuedLogs();
+                processLog(log, groupName, flags);
+            }
+            return;
+        }
+
+        /* Critical logs should be persisted when this returns. */
+        if ((flags & Flags.CRITICAL) != 0) {
+            final CountDownLatch processed = new CountDownLatch(1);
+            boolean posted = mAppCenterHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        synchronized (DefaultChannel.this) {
+                            processEnqueuedLogs();
+                            processLog(log, groupName, flags);
+                        }
+                    } finally {
+                        processed.countDown();
+                    }
+                }
+            });
+
+            /* Handler is not running anymore, nothing else uses persistence. */
+            if (!posted) {
+                synchronized (this) {
+                    processLog(log, groupName, flags);
+                }
+                return;
+            }
+            try {
+                if (!processed.await(CRITICAL_LOG_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    AppCenterLog.warn(LOG_TAG, "App Center thread is busy, a critical log will be persisted later.");
+                }
+            } catch (InterruptedException e) {
+                AppCenterLog.warn(LOG_TAG, "Interrupted while waiting for a critical log to be persisted.");
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        mEnqueuedLogs.add(new EnqueuedLog(log, groupName, flags));
+        if (mProcessingEnqueuedLogs.compareAndSet(false, true)) {
+            mAppCenterHandler.post(mProcessEnqueuedLogsRunnable);
+        }
+    }
+
+    /**
+     * Process the logs handed off by {@link #enqueue(Log, String, int)}.
+     */
+    private synchronized void processEnqueuedLogs() {
+        EnqueuedLog enqueuedLog;
+        while ((enqueuedLog = mEnqueuedLogs.poll()) != null) {
+            processLog(enqueuedLog.mLog, enqueuedLog.mGroupName, enqueuedLog.mFlags);
+        }
+    }
+
+    /**
+     * Actual implementation of enqueue logic. Will increase counters, triggers of batching logic.
+     *
+     * @param log       the Log to be enqueued
+     * @param groupName the queue to use
+     * @param flags     the flags for this log.
+     */
+    private synchronized void processLog(@NonNull Log log, @NonNull final String groupName, int flags) {
 
         /* Check group name is registered. */
         final GroupState groupState = mGroupStates.get(groupName);
@@ -563,9 +1167,14 @@ public class DefaultChannel implements Channel {
         }
 
         /* Call listeners so that they can decorate the log. */
+        LogTracer tracer = AppCenterTracing.getTracer();
+        long prepareStart = tracer != null ? System.nanoTime() : 0;
         for (Listener listener : mListeners) {
             listener.onPreparingLog(log, groupName);
         }
+        if (tracer != null) {
+            AppCenterTracing.endSpan(tracer, AppCenterTracing.STAGE_PREPARE, null, log, prepareStart);
+        }
 
         /* Attach device properties to every log if its not already attached by a service. */
         if (log.getDevice() == null) {
@@ -615,12 +1224,22 @@ public class DefaultChannel implements Channel {
             try {
 
                 /* Increment counters and schedule ingestion if we are enabled. */
-                mPersistence.putLog(groupName, log);
+                Persistence persistence = getPersistence(groupName);
+                persistence.putLog(groupName, log);
                 groupState.mPendingLogCount++;
+                AppCenterMetrics.getSharedInstance().increment(AppCenterMetrics.COUNTER_LOGS_ENQUEUED, 1);
                 AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
                 if (mEnabled) {
+
+                    /* Critical logs must not wait for other logs to be committed to disk. */
+                    if ((flags & Flags.CRITICAL) != 0) {
+                        persistence.flush();
+                    }
                     checkPendingLogs(groupState.mName);
                 } else {
+
+                    /* No batch will commit the log soon, do it now. */
+                    persistence.flush();
                     AppCenterLog.warn(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
                 }
             } catch (Persistence.PersistenceException e) {
@@ -638,11 +1257,16 @@ public class DefaultChannel implements Channel {
         GroupState groupState = mGroupStates.get(groupName);
         long pendingLogCount = groupState.mPendingLogCount;
         AppCenterLog.debug(LOG_TAG, "checkPendingLogs(" + groupName + ") pendingLogCount=" + pendingLogCount);
-        if (pendingLogCount >= groupState.mMaxLogsPerBatch) {
+
+        /* A paused ingestion is resumed by its circuit breaker timer. */
+        if (!getCircuitBreaker(groupState.mIngestion).isRequestAllowed()) {
+            return;
+        }
+        if (pendingLogCount >= groupState.mBatchController.getMaxLogsPerBatch()) {
             triggerIngestion(groupName);
         } else if (pendingLogCount > 0 && !groupState.mScheduled) {
             groupState.mScheduled = true;
-            mAppCenterHandler.postDelayed(groupState.mRunnable, groupState.mBatchTimeInterval);
+            mAppCenterHandler.postDelayed(groupState.mRunnable, getBatchTimeInterval(groupState));
         }
     }
 
@@ -661,6 +1285,40 @@ public class DefaultChannel implements Channel {
         suspend(false, new CancellationException());
     }
 
+    /**
+     * Log handed off by {@link #enqueue(Log, String, int)}.
+     */
+    private static class EnqueuedLog {
+
+        /**
+         * Log.
+         */
+        final Log mLog;
+
+        /**
+         * Group name.
+         */
+        final String mGroupName;
+
+        /**
+         * Flags, as defined in {@link Flags}.
+         */
+        final int mFlags;
+
+        /**
+         * Init.
+         *
+         * @param log       log.
+         * @param groupName group name.
+         * @param flags     flags.
+         */
+        EnqueuedLog(Log log, String groupName, int flags) {
+            mLog = log;
+            mGroupName = groupName;
+            mFlags = flags;
+        }
+    }
+
     /**
      * State for a specific log group.
      */
@@ -672,19 +1330,14 @@ public class DefaultChannel implements Channel {
         final String mName;
 
         /**
-         * Maximum log count per batch.
+         * Batch size and interval, as configured or adapted.
          */
-        final int mMaxLogsPerBatch;
+        final AdaptiveBatchController mBatchController;
 
         /**
-         * Time to wait before 2 batches, in ms.
+         * Maximum number of batches in parallel, as configured or adapted.
          */
-        final long mBatchTimeInterval;
-
-        /**
-         * Maximum number of batches in parallel.
-         */
-        final int mMaxParallelBatches;
+        final ParallelBatchesController mParallelBatchesController;
 
         /**
          * Batches being currently sent to ingestion.
@@ -701,19 +1354,42 @@ public class DefaultChannel implements Channel {
          */
         final GroupListener mListener;
 
+        /**
+         * Priority of the group, used both when storage is full and when HTTP calls wait for a thread.
+         */
+        final int mPriority;
+
         /**
          * Pending log count not part of a batch yet.
          */
         int mPendingLogCount;
 
+        /**
+         * Gauge of {@link #mPendingLogCount} for {@link AppCenterMetrics}.
+         */
+        final AppCenterMetrics.Gauge mPendingLogsGauge = new AppCenterMetrics.Gauge() {
+
+            @Override
+            public long getValue() {
+                synchronized (DefaultChannel.this) {
+                    return mPendingLogCount;
+                }
+            }
+        };
+
         /**
          * Is timer scheduled.
          */
         boolean mScheduled;
 
+        /**
+         * Whether logs deleted by disabling the channel are still being passed to the listener.
+         */
+        boolean mDeletingLogs;
+
         /**
          * Runnable that triggers ingestion of this group data
-         * and triggers itself in {@link #mBatchTimeInterval} ms.
+         * when the batch interval is elapsed.
          */
         final Runnable mRunnable = new Runnable() {
 
@@ -733,14 +1409,15 @@ public class DefaultChannel implements Channel {
          * @param maxParallelBatches max number of parallel batches.
          * @param ingestion          ingestion for the group state.
          * @param listener           listener for a service.
+         * @param priority           priority as defined in {@link EvictionPolicy}.
          */
-        GroupState(String name, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener listener) {
+        GroupState(String name, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener listener, int priority) {
             mName = name;
-            mMaxLogsPerBatch = maxLogsPerBatch;
-            mBatchTimeInterval = batchTimeInterval;
-            mMaxParallelBatches = maxParallelBatches;
+            mBatchController = new AdaptiveBatchController(maxLogsPerBatch, batchTimeInterval);
+            mParallelBatchesController = new ParallelBatchesController(maxParallelBatches);
             mIngestion = ingestion;
             mListener = listener;
+            mPriority = priority;
         }
     }
 }
@@ -0,0 +1,137 @@
+package com.microsoft.appcenter.channel;
+
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Controls how many batches of a group can be sent in parallel,
+ * using additive increase and multiplicative decrease (AIMD).
+ * <p>
+ * The limit increases by 1 after a full window of fast successful batches, and is halved
+ * after a recoverable error or a slow batch, staying within a floor and a ceiling.
+ * Until limits are set, the configured value is used as is.
+ * <p>
+ * This class is not thread safe, {@link DefaultChannel} only uses it while holding its own lock.
+ */
+class ParallelBatchesController {
+
+    /**
+     * Batch latency above which the link is considered congested, in ms.
+     */
+    @VisibleForTesting
+    static final long TARGET_LATENCY = 5000;
+
+    /**
+     * Whether limits were set.
+     */
+    private boolean mEnabled;
+
+    /**
+     * Minimum number of parallel batches.
+     */
+    private int mFloor;
+
+    /**
+     * Maximum number of parallel batches.
+     */
+    private int mCeiling;
+
+    /**
+     * Current maximum number of parallel batches.
+     */
+    private int mMaxParallelBatches;
+
+    /**
+     * Fast successful batches since the last change of {@link #mMaxParallelBatches}.
+     */
+    private int mSuccessCount;
+
+    /**
+     * Number of batches sent so far, used as a sequence number.
+     */
+    private int mSentCount;
+
+    /**
+     * Value of {@link #mSentCount} at the last decrease.
+     * Batches sent before were sized for the previous limit and must not decrease it again.
+     */
+    private int mLastDecreaseSequence;
+
+    /**
+     * Init.
+     *
+     * @param maxParallelBatches configured maximum number of parallel batches.
+     */
+    ParallelBatchesController(int maxParallelBatches) {
+        mMaxParallelBatches = maxParallelBatches;
+    }
+
+    /**
+     * Set limits, which enables adapting the number of parallel batches.
+     *
+     * @param floor   minimum number of parallel batches.
+     * @param ceiling maximum number of parallel batches.
+     */
+    void setLimits(int floor, int ceiling) {
+        mEnabled = true;
+        mFloor = floor;
+        mCeiling = ceiling;
+        mMaxParallelBatches = Math.max(floor, Math.min(ceiling, mMaxParallelBatches));
+        mSuccessCount = 0;
+    }
+
+    /**
+     * Get the current maximum number of parallel batches.
+     *
+     * @return maximum number of parallel batches.
+     */
+    int getMaxParallelBatches() {
+        return mMaxParallelBatches;
+    }
+
+    /**
+     * Report a batch being sent.
+     *
+     * @return sequence number to pass when reporting the batch result.
+     */
+    int onBatchSent() {
+        return ++mSentCount;
+    }
+
+    /**
+     * Report a successful batch.
+     *
+     * @param sequence sequence number returned by {@link #onBatchSent()}.
+     * @param latency  time between sending the batch and its response, in ms.
+     */
+    void onBatchSucceeded(int sequence, long latency) {
+        if (!mEnabled) {
+            return;
+        }
+        if (latency > TARGET_LATENCY) {
+            decrease(sequence);
+        } else if (++mSuccessCount >= mMaxParallelBatches) {
+            mSuccessCount = 0;
+            mMaxParallelBatches = Math.min(mCeiling, mMaxParallelBatches + 1);
+        }
+    }
+
+    /**
+     * Report a failed batch.
+     *
+     * @param sequence    sequence number returned by {@link #onBatchSent()}.
+     * @param recoverable whether the error is recoverable, only those are a sign of congestion.
+     */
+    void onBatchFailed(int sequence, boolean recoverable) {
+        if (mEnabled && recoverable) {
+            decrease(sequence);
+        }
+    }
+
+    private void decrease(int sequence) {
+        if (sequence > mLastDecreaseSequence) {
+            mLastDecreaseSequence = mSentCount;
+            mSuccessCount = 0;
+            mMaxParallelBatches = Math.max(mFloor, mMaxParallelBatches / 2);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Counters about gzip compression of HTTP request bodies.
+ */
+public class CompressionStats {
+
+    /**
+     * Shared instance.
+     */
+    private static CompressionStats sSharedInstance;
+
+    /**
+     * Number of compressed requests.
+     */
+    private long mRequestCount;
+
+    /**
+     * Total size in bytes of request bodies before compression.
+     */
+    private long mOriginalSize;
+
+    /**
+     * Total size in bytes of request bodies after compression.
+     */
+    private long mCompressedSize;
+
+    /**
+     * Total thread CPU time spent compressing, in nanoseconds.
+     */
+    private long mCpuTimeNanos;
+
+    @VisibleForTesting
+    CompressionStats() {
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    public static synchronized CompressionStats getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new CompressionStats();
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Record a compressed request body.
+     *
+     * @param originalSize   size in bytes before compression.
+     * @param compressedSize size in bytes after compression.
+     * @param cpuTimeNanos   thread CPU time spent compressing, in nanoseconds.
+     */
+    synchronized void onRequestCompressed(long originalSize, long compressedSize, long cpuTimeNanos) {
+        mRequestCount++;
+        mOriginalSize += originalSize;
+        mCompressedSize += compressedSize;
+        mCpuTimeNanos += Math.max(0, cpuTimeNanos);
+    }
+
+    /**
+     * Get the number of compressed requests.
+     *
+     * @return number of compressed requests.
+     */
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Get the total size of request bodies before compression.
+     *
+     * @return size in bytes.
+     */
+    public synchronized long getOriginalSize() {
+        return mOriginalSize;
+    }
+
+    /**
+     * Get the total size of request bodies after compression.
+     *
+     * @return size in bytes.
+     */
+    public synchronized long getCompressedSize() {
+        return mCompressedSize;
+    }
+
+    /**
+     * Get the compression ratio, original size divided by compressed size.
+     *
+     * @return compression ratio, 0 if nothing was compressed yet.
+     */
+    public synchronized double getCompressionRatio() {
+        return mCompressedSize == 0 ? 0 : (double) mOriginalSize / mCompressedSize;
+    }
+
+    /**
+     * Get the total thread CPU time spent compressing.
+     *
+     * @return CPU time in nanoseconds.
+     */
+    public synchronized long getCpuTimeNanos() {
+        return mCpuTimeNanos;
+    }
+}
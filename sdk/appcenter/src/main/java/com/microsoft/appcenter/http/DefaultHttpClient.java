@@ -1,21 +1,33 @@
 package com.microsoft.appcenter.http;
 
 import android.net.TrafficStats;
-import android.os.AsyncTask;
+import android.os.Debug;
+import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import com.microsoft.appcenter.AppCenterMetrics;
+import com.microsoft.appcenter.AppCenterTracing;
+import com.microsoft.appcenter.LogTracer;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.HandlerUtils;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 
+import static android.util.Log.VERBOSE;
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static java.lang.Math.max;
 
@@ -54,6 +66,23 @@ public class DefaultHttpClient implements HttpClient {
      */
     public static final String CONTENT_TYPE_KEY = "Content-Type";
 
+    /**
+     * Content encoding header key.
+     */
+    public static final String CONTENT_ENCODING_KEY = "Content-Encoding";
+
+    /**
+     * Gzip content encoding value, set as {@link #CONTENT_ENCODING_KEY} header only once the body is actually compressed.
+     */
+    public static final String CONTENT_ENCODING_GZIP = "gzip";
+
+    /**
+     * Minimum request body size in bytes to compress it when requested.
+     * Smaller bodies fit in a single TCP segment anyway.
+     */
+    @VisibleForTesting
+    static final int MIN_GZIP_SIZE = 1400;
+
     /**
      * Character encoding.
      */
@@ -64,6 +93,11 @@ public class DefaultHttpClient implements HttpClient {
      */
     private static final int READ_BUFFER_SIZE = 1024;
 
+    /**
+     * Chunk size when streaming request body, also used as write buffer size.
+     */
+    private static final int STREAMING_CHUNK_SIZE = 8 * 1024;
+
     /**
      * HTTP connection timeout.
      */
@@ -74,6 +108,39 @@ public class DefaultHttpClient implements HttpClient {
      */
     private static final int READ_TIMEOUT = 20000;
 
+    /**
+     * Delivers callbacks on the main thread.
+     */
+    private static final Executor MAIN_THREAD_EXECUTOR = new Executor() {
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            HandlerUtils.runOnUiThread(command);
+        }
+    };
+
+    /**
+     * Executor used to deliver callbacks.
+     */
+    private final Executor mCallbackExecutor;
+
+    /**
+     * Init with callbacks delivered on the main thread.
+     */
+    public DefaultHttpClient() {
+        this(MAIN_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Init.
+     *
+     * @param callbackExecutor executor used to deliver callbacks. It must not run them synchronously:
+     *                         {@link #callAsync} can fail right away and the callback must run after it returns.
+     */
+    public DefaultHttpClient(@NonNull Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor;
+    }
+
     /**
      * Dump stream to string.
      *
@@ -136,7 +203,8 @@ public class DefaultHttpClient implements HttpClient {
             urlConnection.setReadTimeout(READ_TIMEOUT);
             urlConnection.setRequestMethod(method);
 
-            /* Set headers. */
+            /* Set headers. Content encoding is only set once we know the body is big enough to be compressed. */
+            boolean compressionRequested = method.equals(METHOD_POST) && callTemplate instanceof CompressedCallTemplate && ((CompressedCallTemplate) callTemplate).isCompressionEnabled();
             urlConnection.setRequestProperty(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE);
             for (Map.Entry<String, String> header : headers.entrySet()) {
                 urlConnection.setRequestProperty(header.getKey(), header.getValue());
@@ -149,16 +217,51 @@ public class DefaultHttpClient implements HttpClient {
 
             /* Build payload. */
             if (method.equals(METHOD_POST) && callTemplate != null) {
-                String payload = callTemplate.buildRequestBody();
-                AppCenterLog.verbose(LOG_TAG, payload);
-
-                /* Send payload through the wire. */
-                byte[] binaryPayload = payload.getBytes(CHARSET_NAME);
-                urlConnection.setDoOutput(true);
-                urlConnection.setFixedLengthStreamingMode(binaryPayload.length);
-                OutputStream out = urlConnection.getOutputStream();
-                out.write(binaryPayload);
-                out.close();
+
+                /* Stream payload unless we need to log it as a whole. */
+                if (callTemplate instanceof StreamingCallTemplate && AppCenterLog.getLogLevel() > VERBOSE) {
+                    urlConnection.setDoOutput(true);
+                    OutputStream out;
+                    CountingOutputStream countingStream = null;
+                    if (compressionRequested) {
+                        out = new GzipRequestOutputStream(urlConnection);
+                    } else {
+                        urlConnection.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
+                        countingStream = new CountingOutputStream(urlConnection.getOutputStream());
+                        out = countingStream;
+                    }
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(out, CHARSET_NAME), STREAMING_CHUNK_SIZE);
+                    ((StreamingCallTemplate) callTemplate).writeRequestBody(writer);
+
+                    /*
+                     * Close only on success: closing terminates the chunked body and
+                     * a partial payload must not be received as a complete request.
+                     * On failure, disconnect aborts the request instead.
+                     */
+                    writer.close();
+                    if (countingStream != null) {
+                        AppCenterMetrics.getSharedInstance().increment(AppCenterMetrics.COUNTER_BYTES_SENT, countingStream.mCount);
+                    }
+                } else {
+                    String payload = callTemplate.buildRequestBody();
+                    AppCenterLog.verbose(LOG_TAG, payload);
+
+                    /* Send payload through the wire. */
+                    byte[] binaryPayload = payload.getBytes(CHARSET_NAME);
+                    urlConnection.setDoOutput(true);
+                    OutputStream out;
+                    if (compressionRequested) {
+                        out = new GzipRequestOutputStream(urlConnection);
+                    } else {
+                        urlConnection.setFixedLengthStreamingMode(binaryPayload.length);
+                        out = urlConnection.getOutputStream();
+                    }
+                    out.write(binaryPayload);
+                    out.close();
+                    if (!compressionRequested) {
+                        AppCenterMetrics.getSharedInstance().increment(AppCenterMetrics.COUNTER_BYTES_SENT, binaryPayload.length);
+                    }
+                }
             }
 
             /* Read response. */
@@ -189,18 +292,22 @@ public class DefaultHttpClient implements HttpClient {
 
     @Override
     public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, final ServiceCallback serviceCallback) {
-        final Call call = new Call(url, method, headers, callTemplate, serviceCallback);
+        final Call call = new Call(url, method, headers, callTemplate, serviceCallback, mCallbackExecutor);
+        int priority = HttpExecutor.PRIORITY_NORMAL;
+        if (callTemplate instanceof PrioritizedCallTemplate) {
+            priority = ((PrioritizedCallTemplate) callTemplate).getPriority();
+        }
         try {
-            call.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            HttpExecutor.getSharedInstance().execute(call, priority);
         } catch (final RejectedExecutionException e) {
 
             /*
-             * When executor saturated (shared with app), we should use the retry mechanism
+             * When executor saturated, we should use the retry mechanism
              * rather than creating more threads to avoid putting too much pressure on the hosting app.
              * Also we need to return the method before calling the listener,
-             * so we post the callback on handler to make sure of that.
+             * so we post the callback on the callback executor to make sure of that.
              */
-            HandlerUtils.runOnUiThread(new Runnable() {
+            mCallbackExecutor.execute(new Runnable() {
 
                 @Override
                 public void run() {
@@ -213,7 +320,7 @@ public class DefaultHttpClient implements HttpClient {
             @Override
             public void cancel() {
                 if (!call.isCancelled()) {
-                    call.cancel(true);
+                    call.cancel();
                 }
             }
         };
@@ -231,8 +338,131 @@ public class DefaultHttpClient implements HttpClient {
         /* Nothing to do. */
     }
 
+    /**
+     * Request body stream compressing the body with gzip if it reaches {@link #MIN_GZIP_SIZE}.
+     * The beginning of the body is buffered until then, a smaller body is sent as is with a fixed length.
+     * A bigger body is compressed on the fly and sent chunked.
+     */
+    private static class GzipRequestOutputStream extends OutputStream {
+
+        /**
+         * URL connection, its output stream is opened once we know whether to compress.
+         */
+        private final HttpURLConnection mUrlConnection;
+
+        /**
+         * Beginning of the body, null once compression started.
+         */
+        private ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(MIN_GZIP_SIZE);
+
+        /**
+         * Connection output stream counting compressed bytes.
+         */
+        private CountingOutputStream mConnectionStream;
+
+        /**
+         * Gzip stream writing to {@link #mConnectionStream}.
+         */
+        private GZIPOutputStream mGzipStream;
+
+        /**
+         * Body size before compression.
+         */
+        private long mOriginalSize;
+
+        /**
+         * Thread CPU time spent compressing.
+         */
+        private long mCpuTimeNanos;
+
+        GzipRequestOutputStream(HttpURLConnection urlConnection) {
+            mUrlConnection = urlConnection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            mOriginalSize += len;
+            if (mBuffer != null) {
+                mBuffer.write(b, off, len);
+                if (mBuffer.size() < MIN_GZIP_SIZE) {
+                    return;
+                }
+
+                /* Big enough: switch to compression, headers must be set before opening the stream. */
+                mUrlConnection.setRequestProperty(CONTENT_ENCODING_KEY, CONTENT_ENCODING_GZIP);
+                mUrlConnection.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
+                mConnectionStream = new CountingOutputStream(mUrlConnection.getOutputStream());
+                long startTime = Debug.threadCpuTimeNanos();
+                mGzipStream = new GZIPOutputStream(mConnectionStream, STREAMING_CHUNK_SIZE);
+                mBuffer.writeTo(mGzipStream);
+                mCpuTimeNanos += Debug.threadCpuTimeNanos() - startTime;
+                mBuffer = null;
+            } else {
+                long startTime = Debug.threadCpuTimeNanos();
+                mGzipStream.write(b, off, len);
+                mCpuTimeNanos += Debug.threadCpuTimeNanos() - startTime;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer != null) {
+
+                /* Too small to be compressed. */
+                mUrlConnection.setFixedLengthStreamingMode(mBuffer.size());
+                OutputStream out = mUrlConnection.getOutputStream();
+                mBuffer.writeTo(out);
+                out.close();
+                AppCenterMetrics.getSharedInstance().increment(AppCenterMetrics.COUNTER_BYTES_SENT, mBuffer.size());
+            } else {
+                long startTime = Debug.threadCpuTimeNanos();
+                mGzipStream.finish();
+                mCpuTimeNanos += Debug.threadCpuTimeNanos() - startTime;
+                mGzipStream.close();
+                CompressionStats.getSharedInstance().onRequestCompressed(mOriginalSize, mConnectionStream.mCount, mCpuTimeNanos);
+                AppCenterMetrics.getSharedInstance().increment(AppCenterMetrics.COUNTER_BYTES_SENT, mConnectionStream.mCount);
+                AppCenterLog.verbose(LOG_TAG, "Compressed request body from " + mOriginalSize + " to " + mConnectionStream.mCount + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Output stream counting bytes written to it.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * Number of bytes written.
+         */
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+    }
+
+    /**
+     * HTTP call run on {@link HttpExecutor}, its callback is delivered on the callback executor.
+     */
     @VisibleForTesting
-    static class Call extends AsyncTask<Void, Void, Object> {
+    static class Call implements Runnable {
 
         private final String mUrl;
 
@@ -244,30 +474,71 @@ public class DefaultHttpClient implements HttpClient {
 
         private final ServiceCallback mServiceCallback;
 
-        public Call(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+        private final Executor mCallbackExecutor;
+
+        /**
+         * Set when the call is canceled, the callback is then not called.
+         */
+        private volatile boolean mCancelled;
+
+        public Call(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback, Executor callbackExecutor) {
             mUrl = url;
             mMethod = method;
             mHeaders = headers;
             mCallTemplate = callTemplate;
             mServiceCallback = serviceCallback;
+            mCallbackExecutor = callbackExecutor;
         }
 
         @Override
-        protected Object doInBackground(Void... params) {
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Object result = doInBackground();
+            mCallbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    onPostExecute(result);
+                }
+            });
+        }
+
+        Object doInBackground() {
+            AppCenterMetrics metrics = AppCenterMetrics.getSharedInstance();
+            metrics.increment(AppCenterMetrics.COUNTER_HTTP_REQUESTS, 1);
+            LogTracer tracer = AppCenterTracing.getTracer();
+            long startTime = tracer != null ? System.nanoTime() : 0;
             try {
                 return doCall(mUrl, mMethod, mHeaders, mCallTemplate);
             } catch (Exception e) {
+                metrics.increment(AppCenterMetrics.COUNTER_HTTP_FAILURES, 1);
                 return e;
+            } finally {
+                if (tracer != null && mCallTemplate instanceof TracedCallTemplate) {
+                    AppCenterTracing.endSpan(tracer, AppCenterTracing.STAGE_HTTP_SEND, ((TracedCallTemplate) mCallTemplate).getBatchId(), null, startTime);
+                }
             }
         }
 
-        @Override
-        protected void onPostExecute(Object result) {
+        void onPostExecute(Object result) {
+            if (mCancelled) {
+                return;
+            }
             if (result instanceof Exception) {
                 mServiceCallback.onCallFailed((Exception) result);
             } else {
                 mServiceCallback.onCallSucceeded(result.toString());
             }
         }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        void cancel() {
+            mCancelled = true;
+        }
     }
 }
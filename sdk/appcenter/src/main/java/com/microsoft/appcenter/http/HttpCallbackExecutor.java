@@ -0,0 +1,75 @@
+package com.microsoft.appcenter.http;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor running HTTP callbacks and retry timers on an SDK-owned background thread,
+ * so that sending logs never goes through the main thread.
+ */
+public class HttpCallbackExecutor implements Executor {
+
+    /**
+     * Thread name.
+     */
+    @VisibleForTesting
+    static final String THREAD_NAME = "AppCenter.HttpCallback";
+
+    /**
+     * Shared instance.
+     */
+    private static HttpCallbackExecutor sSharedInstance;
+
+    /**
+     * Handler of the background thread.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Init.
+     *
+     * @param handler handler of the background thread.
+     */
+    @VisibleForTesting
+    HttpCallbackExecutor(@NonNull Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Get shared instance, starting its thread the first time.
+     *
+     * @return shared instance.
+     */
+    public static synchronized HttpCallbackExecutor getSharedInstance() {
+        if (sSharedInstance == null) {
+            HandlerThread handlerThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+            handlerThread.start();
+            sSharedInstance = new HttpCallbackExecutor(new Handler(handlerThread.getLooper()));
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Get the handler of the background thread, to schedule timers.
+     *
+     * @return handler.
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        mHandler.post(command);
+    }
+}
@@ -3,6 +3,8 @@ package com.microsoft.appcenter.http;
 import org.json.JSONException;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.Map;
 
@@ -45,6 +47,63 @@ public interface HttpClient extends Closeable {
         void onBeforeCalling(URL url, Map<String, String> headers);
     }
 
+    /**
+     * Call callbacks able to write the request body directly to the connection.
+     * The body is then sent with chunked transfer encoding and never held in memory as a whole.
+     * {@link #buildRequestBody()} is still used when the whole body is needed, e.g. for verbose logging.
+     */
+    interface StreamingCallTemplate extends CallTemplate {
+
+        /**
+         * Called when the method is POST to write request body.
+         *
+         * @param writer writer to the connection, buffered and encoded as UTF-8. The caller closes it.
+         * @throws JSONException callback can throw this to make the call fail if a JSON error occurs.
+         * @throws IOException   if writing to the connection fails.
+         */
+        void writeRequestBody(Writer writer) throws JSONException, IOException;
+    }
+
+    /**
+     * Call callbacks providing a priority for the call, calls without one use {@link HttpExecutor#PRIORITY_NORMAL}.
+     */
+    interface PrioritizedCallTemplate extends CallTemplate {
+
+        /**
+         * Get the priority of the call when waiting for a thread.
+         *
+         * @return one of the PRIORITY constants of {@link HttpExecutor}.
+         */
+        int getPriority();
+    }
+
+    /**
+     * Call callbacks providing the identifier of the batch being sent, used to trace HTTP attempts and retries.
+     */
+    interface TracedCallTemplate extends CallTemplate {
+
+        /**
+         * Get the identifier of the batch sent by the call.
+         *
+         * @return batch identifier, null if unknown.
+         */
+        String getBatchId();
+    }
+
+    /**
+     * Call callbacks asking to compress the request body.
+     * Clients that do not support compression send the body as is, without any content encoding header.
+     */
+    interface CompressedCallTemplate extends CallTemplate {
+
+        /**
+         * Check whether the request body should be compressed.
+         *
+         * @return true to compress the request body with gzip when big enough to benefit from it.
+         */
+        boolean isCompressionEnabled();
+    }
+
     /**
      * Make this client active again after closing.
      */
@@ -1,10 +1,12 @@
 package com.microsoft.appcenter.http;
 
 import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.AppCenterMetrics;
+import com.microsoft.appcenter.AppCenterTracing;
+import com.microsoft.appcenter.LogTracer;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.net.UnknownHostException;
@@ -28,7 +30,7 @@ public class HttpClientRetryer extends HttpClientDecorator {
     };
 
     /**
-     * Android "timer" using the main thread loop.
+     * Android "timer" using a background thread loop.
      */
     private final Handler mHandler;
 
@@ -38,12 +40,12 @@ public class HttpClientRetryer extends HttpClientDecorator {
     private final Random mRandom = new Random();
 
     /**
-     * Init with default retry policy.
+     * Init with default retry policy, retries are timed on {@link HttpCallbackExecutor} thread.
      *
      * @param decoratedApi API to decorate.
      */
     public HttpClientRetryer(HttpClient decoratedApi) {
-        this(decoratedApi, new Handler(Looper.getMainLooper()));
+        this(decoratedApi, HttpCallbackExecutor.getSharedInstance().getHandler());
     }
 
     /**
@@ -78,10 +80,25 @@ public class HttpClientRetryer extends HttpClientDecorator {
          */
         private int mRetryCount;
 
+        /**
+         * {@link System#nanoTime()} when the last retry was scheduled.
+         */
+        private long mRetryScheduledTime;
+
         RetryableCall(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
             super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
         }
 
+        @Override
+        public synchronized void run() {
+            LogTracer tracer = AppCenterTracing.getTracer();
+            if (tracer != null && mRetryCount > 0) {
+                String batchId = mCallTemplate instanceof TracedCallTemplate ? ((TracedCallTemplate) mCallTemplate).getBatchId() : null;
+                AppCenterTracing.endSpan(tracer, AppCenterTracing.STAGE_RETRY_WAIT, batchId, null, mRetryScheduledTime);
+            }
+            super.run();
+        }
+
         @Override
         public synchronized void cancel() {
             mHandler.removeCallbacks(this);
@@ -98,6 +115,8 @@ public class HttpClientRetryer extends HttpClientDecorator {
                     message += " (UnknownHostException)";
                 }
                 AppCenterLog.warn(AppCenter.LOG_TAG, message, e);
+                AppCenterMetrics.getSharedInstance().increment(AppCenterMetrics.COUNTER_HTTP_RETRIES, 1);
+                mRetryScheduledTime = System.nanoTime();
                 mHandler.postDelayed(this, delay);
             } else {
                 mServiceCallback.onCallFailed(e);
@@ -0,0 +1,265 @@
+package com.microsoft.appcenter.http;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor dedicated to SDK HTTP calls, so that they don't compete with the application
+ * on {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR}.
+ * Queued calls are run by priority, then in submission order.
+ */
+public class HttpExecutor extends ThreadPoolExecutor {
+
+    /**
+     * Priority of calls that can wait, like one collector logs.
+     */
+    public static final int PRIORITY_LOW = -1;
+
+    /**
+     * Default priority.
+     */
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * Priority of calls sent ahead of others, like crashes.
+     */
+    public static final int PRIORITY_HIGH = 1;
+
+    /**
+     * Default number of threads, enough for the default number of parallel batches of a group.
+     */
+    @VisibleForTesting
+    static final int POOL_SIZE = 3;
+
+    /**
+     * Maximum number of calls waiting for a thread.
+     */
+    @VisibleForTesting
+    static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * Time in seconds an idle thread is kept.
+     */
+    private static final long KEEP_ALIVE_TIME = 30;
+
+    /**
+     * Thread name prefix.
+     */
+    @VisibleForTesting
+    static final String THREAD_NAME_PREFIX = "AppCenter.Http-";
+
+    /**
+     * Shared instance.
+     */
+    private static HttpExecutor sSharedInstance;
+
+    /**
+     * Maximum number of calls waiting for a thread.
+     */
+    private final int mQueueCapacity;
+
+    /**
+     * Number of calls submitted and not started yet, reserved before queuing to enforce the capacity.
+     */
+    private final AtomicInteger mQueuedCount = new AtomicInteger();
+
+    /**
+     * Submission counter, orders calls of the same priority.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Highest queue depth observed.
+     */
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    /**
+     * Number of calls rejected because the queue was full.
+     */
+    private final AtomicLong mRejectedCount = new AtomicLong();
+
+    /**
+     * Init.
+     *
+     * @param poolSize      number of threads.
+     * @param queueCapacity maximum number of calls waiting for a thread.
+     */
+    @VisibleForTesting
+    HttpExecutor(int poolSize, int queueCapacity) {
+        super(poolSize, poolSize, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new HttpThreadFactory());
+        allowCoreThreadTimeOut(true);
+        mQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    public static synchronized HttpExecutor getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new HttpExecutor(POOL_SIZE, QUEUE_CAPACITY);
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Grow the number of threads if needed, so that the given number of calls can run in parallel.
+     *
+     * @param poolSize minimum number of threads.
+     */
+    public synchronized void ensurePoolSize(int poolSize) {
+        if (poolSize > getMaximumPoolSize()) {
+
+            /* Maximum first, the core size cannot exceed it. */
+            setMaximumPoolSize(poolSize);
+            setCorePoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Execute a command with {@link #PRIORITY_NORMAL}.
+     *
+     * @param command command to execute.
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    @Override
+    public void execute(@NonNull Runnable command) {
+        execute(command, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Execute a command.
+     *
+     * @param command  command to execute.
+     * @param priority one of the PRIORITY constants, higher priorities are run first.
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    public void execute(@NonNull Runnable command, int priority) {
+
+        /* Reserve a place in the queue, released when the call starts. */
+        int queueDepth = mQueuedCount.incrementAndGet();
+        if (queueDepth > mQueueCapacity) {
+            mQueuedCount.decrementAndGet();
+            mRejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("HTTP executor queue is full");
+        }
+        try {
+            super.execute(new PrioritizedTask(command, priority, mSequence.getAndIncrement()));
+        } catch (RejectedExecutionException e) {
+            mQueuedCount.decrementAndGet();
+            throw e;
+        }
+
+        /* Update metrics. */
+        int maxQueueDepth;
+        do {
+            maxQueueDepth = mMaxQueueDepth.get();
+        } while (queueDepth > maxQueueDepth && !mMaxQueueDepth.compareAndSet(maxQueueDepth, queueDepth));
+    }
+
+    /**
+     * Get the number of calls waiting for a thread.
+     *
+     * @return queue depth.
+     */
+    public int getQueueDepth() {
+        return mQueuedCount.get();
+    }
+
+    /**
+     * Get the highest number of calls that waited for a thread at the same time.
+     *
+     * @return maximum queue depth.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * Get the number of calls rejected because the queue was full.
+     *
+     * @return rejected call count.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * Command with its priority as queued.
+     */
+    private class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+        /**
+         * Wrapped command.
+         */
+        private final Runnable mCommand;
+
+        /**
+         * Priority.
+         */
+        private final int mPriority;
+
+        /**
+         * Submission order.
+         */
+        private final long mSequence;
+
+        PrioritizedTask(Runnable command, int priority, long sequence) {
+            mCommand = command;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mQueuedCount.decrementAndGet();
+            mCommand.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask another) {
+            if (mPriority != another.mPriority) {
+                return mPriority > another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Creates named background threads.
+     */
+    private static class HttpThreadFactory implements ThreadFactory {
+
+        /**
+         * Thread counter, used in names.
+         */
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, THREAD_NAME_PREFIX + mCount.getAndIncrement());
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.http.DefaultHttpClient;
+import com.microsoft.appcenter.http.HttpCallbackExecutor;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientNetworkStateHandler;
 import com.microsoft.appcenter.http.HttpClientRetryer;
@@ -19,6 +20,7 @@ import com.microsoft.appcenter.utils.NetworkStateHelper;
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
@@ -69,6 +71,11 @@ public class AppCenterIngestion implements Ingestion {
      */
     private String mLogUrl;
 
+    /**
+     * Whether request bodies are compressed.
+     */
+    private boolean mCompressionEnabled;
+
     /**
      * Init.
      *
@@ -77,7 +84,7 @@ public class AppCenterIngestion implements Ingestion {
      */
     public AppCenterIngestion(@NonNull Context context, @NonNull LogSerializer logSerializer) {
         mLogSerializer = logSerializer;
-        HttpClientRetryer retryer = new HttpClientRetryer(new DefaultHttpClient());
+        HttpClientRetryer retryer = new HttpClientRetryer(new DefaultHttpClient(HttpCallbackExecutor.getSharedInstance()));
         NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
         mHttpClient = new HttpClientNetworkStateHandler(retryer, networkStateHelper);
         mLogUrl = DEFAULT_LOG_URL;
@@ -99,7 +106,7 @@ public class AppCenterIngestion implements Ingestion {
         Map<String, String> headers = new HashMap<>();
         headers.put(INSTALL_ID, installId.toString());
         headers.put(APP_SECRET, appSecret);
-        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer);
+        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer, mCompressionEnabled);
         return mHttpClient.callAsync(mLogUrl + API_PATH, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
@@ -108,6 +115,11 @@ public class AppCenterIngestion implements Ingestion {
         mHttpClient.close();
     }
 
+    @Override
+    public void setCompressionEnabled(boolean enabled) {
+        mCompressionEnabled = enabled;
+    }
+
     @Override
     public void reopen() {
         mHttpClient.reopen();
@@ -116,15 +128,18 @@ public class AppCenterIngestion implements Ingestion {
     /**
      * Inner class is used to be able to mock System.currentTimeMillis, does not work if using anonymous inner class...
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.StreamingCallTemplate, HttpClient.PrioritizedCallTemplate, HttpClient.TracedCallTemplate, HttpClient.CompressedCallTemplate {
 
         private final LogSerializer mLogSerializer;
 
         private final LogContainer mLogContainer;
 
-        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer) {
+        private final boolean mCompressionEnabled;
+
+        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer, boolean compressionEnabled) {
             mLogSerializer = logSerializer;
             mLogContainer = logContainer;
+            mCompressionEnabled = compressionEnabled;
         }
 
         @Override
@@ -134,6 +149,26 @@ public class AppCenterIngestion implements Ingestion {
             return mLogSerializer.serializeContainer(mLogContainer);
         }
 
+        @Override
+        public void writeRequestBody(Writer writer) throws JSONException, IOException {
+            mLogSerializer.writeContainer(writer, mLogContainer);
+        }
+
+        @Override
+        public int getPriority() {
+            return mLogContainer.getPriority();
+        }
+
+        @Override
+        public String getBatchId() {
+            return mLogContainer.getBatchId();
+        }
+
+        @Override
+        public boolean isCompressionEnabled() {
+            return mCompressionEnabled;
+        }
+
         @Override
         public void onBeforeCalling(URL url, Map<String, String> headers) {
             if (AppCenterLog.getLogLevel() <= VERBOSE) {
@@ -31,6 +31,13 @@ public interface Ingestion extends Closeable {
      */
     void setLogUrl(String logUrl);
 
+    /**
+     * Enable or disable gzip compression of request bodies big enough to benefit from it.
+     *
+     * @param enabled true to compress request bodies.
+     */
+    void setCompressionEnabled(boolean enabled);
+
     /**
      * Make ingestion active again after closing.
      */
@@ -5,6 +5,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.http.DefaultHttpClient;
+import com.microsoft.appcenter.http.HttpCallbackExecutor;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientNetworkStateHandler;
 import com.microsoft.appcenter.http.HttpClientRetryer;
@@ -13,6 +14,7 @@ import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
@@ -20,6 +22,7 @@ import com.microsoft.appcenter.utils.NetworkStateHelper;
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -83,6 +86,11 @@ public class OneCollectorIngestion implements Ingestion {
      */
     private String mLogUrl;
 
+    /**
+     * Whether request bodies are compressed.
+     */
+    private boolean mCompressionEnabled;
+
     /**
      * Init.
      *
@@ -91,7 +99,7 @@ public class OneCollectorIngestion implements Ingestion {
      */
     public OneCollectorIngestion(@NonNull Context context, @NonNull LogSerializer logSerializer) {
         mLogSerializer = logSerializer;
-        HttpClientRetryer retryer = new HttpClientRetryer(new DefaultHttpClient());
+        HttpClientRetryer retryer = new HttpClientRetryer(new DefaultHttpClient(HttpCallbackExecutor.getSharedInstance()));
         NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
         mHttpClient = new HttpClientNetworkStateHandler(retryer, networkStateHelper);
         mLogUrl = DEFAULT_LOG_URL;
@@ -103,8 +111,16 @@ public class OneCollectorIngestion implements Ingestion {
         /* Gather API keys from logs. */
         Map<String, String> headers = new HashMap<>();
         Set<String> apiKeys = new LinkedHashSet<>();
-        for (Log log : logContainer.getLogs()) {
-            apiKeys.addAll(log.getTransmissionTargetTokens());
+        if (logContainer.getLogs() == null && logContainer.getSerializedLogs() != null) {
+            for (SerializedLog serializedLog : logContainer.getSerializedLogs()) {
+                if (serializedLog.getTargetToken() != null) {
+                    apiKeys.add(serializedLog.getTargetToken());
+                }
+            }
+        } else {
+            for (Log log : logContainer.getLogs()) {
+                apiKeys.addAll(log.getTransmissionTargetTokens());
+            }
         }
 
         /* Build the header. String.join with iterable is only API level 26+. */
@@ -123,14 +139,11 @@ public class OneCollectorIngestion implements Ingestion {
         /* Client version */
         headers.put(CLIENT_VERSION_KEY, String.format(CLIENT_VERSION_FORMAT, VERSION_NAME));
 
-        /* Content encoding */
-        // TODO Android HttpUrlConnection should take care of this?  Need to verify in fiddler
-
         /* Upload time */
         headers.put(UPLOAD_TIME_KEY, String.valueOf(System.currentTimeMillis()));
 
         /* Make the call. */
-        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer);
+        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer, mCompressionEnabled);
         return mHttpClient.callAsync(mLogUrl, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
@@ -145,6 +158,11 @@ public class OneCollectorIngestion implements Ingestion {
         mLogUrl = logUrl;
     }
 
+    @Override
+    public void setCompressionEnabled(boolean enabled) {
+        mCompressionEnabled = enabled;
+    }
+
     @Override
     public void reopen() {
         mHttpClient.reopen();
@@ -158,7 +176,7 @@ public class OneCollectorIngestion implements Ingestion {
     /**
      * Call template implementation for One Collector.
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.StreamingCallTemplate, HttpClient.PrioritizedCallTemplate, HttpClient.TracedCallTemplate, HttpClient.CompressedCallTemplate {
 
         /**
          * Log serializer.
@@ -170,19 +188,33 @@ public class OneCollectorIngestion implements Ingestion {
          */
         private final LogContainer mLogContainer;
 
+        /**
+         * Whether the request body is compressed.
+         */
+        private final boolean mCompressionEnabled;
+
         /**
          * Init.
          */
-        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer) {
+        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer, boolean compressionEnabled) {
             mLogSerializer = logSerializer;
             mLogContainer = logContainer;
+            mCompressionEnabled = compressionEnabled;
         }
 
         @Override
         public String buildRequestBody() throws JSONException {
 
-            /* Serialize payload. */
+            /* Splice serialized logs as is if any. */
             StringBuilder jsonStream = new StringBuilder();
+            if (mLogContainer.getLogs() == null && mLogContainer.getSerializedLogs() != null) {
+                for (SerializedLog serializedLog : mLogContainer.getSerializedLogs()) {
+                    jsonStream.append(serializedLog.getPayload()).append('\n');
+                }
+                return jsonStream.toString();
+            }
+
+            /* Serialize payload. */
             for (Log log : mLogContainer.getLogs()) {
                 jsonStream.append(mLogSerializer.serializeLog(log));
 
@@ -192,6 +224,38 @@ public class OneCollectorIngestion implements Ingestion {
             return jsonStream.toString();
         }
 
+        @Override
+        public void writeRequestBody(Writer writer) throws JSONException, IOException {
+
+            /* Same as buildRequestBody, one log at a time. */
+            if (mLogContainer.getLogs() == null && mLogContainer.getSerializedLogs() != null) {
+                for (SerializedLog serializedLog : mLogContainer.getSerializedLogs()) {
+                    writer.write(serializedLog.getPayload());
+                    writer.write('\n');
+                }
+                return;
+            }
+            for (Log log : mLogContainer.getLogs()) {
+                writer.write(mLogSerializer.serializeLog(log));
+                writer.write('\n');
+            }
+        }
+
+        @Override
+        public int getPriority() {
+            return mLogContainer.getPriority();
+        }
+
+        @Override
+        public String getBatchId() {
+            return mLogContainer.getBatchId();
+        }
+
+        @Override
+        public boolean isCompressionEnabled() {
+            return mCompressionEnabled;
+        }
+
         @Override
         public void onBeforeCalling(URL url, Map<String, String> headers) {
             if (AppCenterLog.getLogLevel() <= VERBOSE) {
@@ -12,6 +12,21 @@ public class LogContainer {
      */
     private List<Log> logs;
 
+    /**
+     * The list of serialized logs, sent as is when {@link #logs} is not set.
+     */
+    private List<SerializedLog> serializedLogs;
+
+    /**
+     * Priority of the HTTP call sending the logs, not serialized.
+     */
+    private int priority;
+
+    /**
+     * Identifier of the batch for tracing, not serialized.
+     */
+    private String batchId;
+
     /**
      * Get the logs value.
      *
@@ -30,6 +45,60 @@ public class LogContainer {
         this.logs = logs;
     }
 
+    /**
+     * Get the serialized logs value.
+     *
+     * @return the serialized logs value
+     */
+    public List<SerializedLog> getSerializedLogs() {
+        return this.serializedLogs;
+    }
+
+    /**
+     * Set the serialized logs value.
+     *
+     * @param serializedLogs the serialized logs value to set
+     */
+    public void setSerializedLogs(List<SerializedLog> serializedLogs) {
+        this.serializedLogs = serializedLogs;
+    }
+
+    /**
+     * Get the priority value.
+     *
+     * @return the priority value
+     */
+    public int getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Set the priority value.
+     *
+     * @param priority the priority value to set, one of the PRIORITY constants of {@link com.microsoft.appcenter.http.HttpExecutor}.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Get the batch identifier value.
+     *
+     * @return the batch identifier value
+     */
+    public String getBatchId() {
+        return this.batchId;
+    }
+
+    /**
+     * Set the batch identifier value.
+     *
+     * @param batchId the batch identifier value to set, only used to trace the HTTP call.
+     */
+    public void setBatchId(String batchId) {
+        this.batchId = batchId;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -39,11 +108,20 @@ public class LogContainer {
             return false;
         }
         LogContainer container = (LogContainer) o;
-        return logs != null ? logs.equals(container.logs) : container.logs == null;
+        if (priority != container.priority) {
+            return false;
+        }
+        if (logs != null ? !logs.equals(container.logs) : container.logs != null) {
+            return false;
+        }
+        return serializedLogs != null ? serializedLogs.equals(container.serializedLogs) : container.serializedLogs == null;
     }
 
     @Override
     public int hashCode() {
-        return logs != null ? logs.hashCode() : 0;
+        int result = logs != null ? logs.hashCode() : 0;
+        result = 31 * result + (serializedLogs != null ? serializedLogs.hashCode() : 0);
+        result = 31 * result + priority;
+        return result;
     }
 }
@@ -0,0 +1,93 @@
+package com.microsoft.appcenter.ingestion.models;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A log as stored by persistence: its JSON payload, sent to ingestion as is.
+ */
+public class SerializedLog {
+
+    /**
+     * JSON payload.
+     */
+    private final String payload;
+
+    /**
+     * Log type.
+     */
+    private final String type;
+
+    /**
+     * Target token if the log is common schema.
+     */
+    private final String targetToken;
+
+    /**
+     * Init.
+     *
+     * @param payload     JSON payload.
+     * @param type        log type.
+     * @param targetToken target token if the log is common schema, null otherwise.
+     */
+    public SerializedLog(@NonNull String payload, String type, @Nullable String targetToken) {
+        this.payload = payload;
+        this.type = type;
+        this.targetToken = targetToken;
+    }
+
+    /**
+     * Get the payload value.
+     *
+     * @return the payload value
+     */
+    @NonNull
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Get the type value.
+     *
+     * @return the type value
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Get the target token value.
+     *
+     * @return the target token value, null if the log is not common schema.
+     */
+    @Nullable
+    public String getTargetToken() {
+        return targetToken;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SerializedLog that = (SerializedLog) o;
+        if (!payload.equals(that.payload)) {
+            return false;
+        }
+        if (type != null ? !type.equals(that.type) : that.type != null) {
+            return false;
+        }
+        return targetToken != null ? targetToken.equals(that.targetToken) : that.targetToken == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = payload.hashCode();
+        result = 31 * result + (type != null ? type.hashCode() : 0);
+        result = 31 * result + (targetToken != null ? targetToken.hashCode() : 0);
+        return result;
+    }
+}
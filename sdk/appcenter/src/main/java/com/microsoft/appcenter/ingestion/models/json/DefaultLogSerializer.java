@@ -5,6 +5,7 @@ import android.support.annotation.NonNull;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
@@ -13,6 +14,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -71,6 +74,23 @@ public class DefaultLogSerializer implements LogSerializer {
     @Override
     public String serializeContainer(@NonNull LogContainer logContainer) throws JSONException {
 
+        /* Splice serialized logs as is, they are already valid JSON objects. */
+        List<SerializedLog> serializedLogs = logContainer.getSerializedLogs();
+        if (logContainer.getLogs() == null && serializedLogs != null) {
+            int length = 0;
+            for (SerializedLog serializedLog : serializedLogs) {
+                length += serializedLog.getPayload().length() + 1;
+            }
+            StringBuilder builder = new StringBuilder(length + LOGS.length() + 8);
+            builder.append("{\"").append(LOGS).append("\":[");
+            String separator = "";
+            for (SerializedLog serializedLog : serializedLogs) {
+                builder.append(separator).append(serializedLog.getPayload());
+                separator = ",";
+            }
+            return builder.append("]}").toString();
+        }
+
         /* Init JSON serializer, in verbose: try to make it pretty. */
         JSONStringer writer = null;
         if (AppCenterLog.getLogLevel() <= android.util.Log.VERBOSE) {
@@ -98,6 +118,29 @@ public class DefaultLogSerializer implements LogSerializer {
         return writer.toString();
     }
 
+    @Override
+    public void writeContainer(@NonNull Writer writer, @NonNull LogContainer logContainer) throws JSONException, IOException {
+
+        /* Write logs one by one so that only one of them is serialized in memory at a time. */
+        writer.write("{\"" + LOGS + "\":[");
+        String separator = "";
+        List<SerializedLog> serializedLogs = logContainer.getSerializedLogs();
+        if (logContainer.getLogs() == null && serializedLogs != null) {
+            for (SerializedLog serializedLog : serializedLogs) {
+                writer.write(separator);
+                writer.write(serializedLog.getPayload());
+                separator = ",";
+            }
+        } else {
+            for (Log log : logContainer.getLogs()) {
+                writer.write(separator);
+                writer.write(serializeLog(log));
+                separator = ",";
+            }
+        }
+        writer.write("]}");
+    }
+
     @NonNull
     @Override
     public LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException {
@@ -8,6 +8,8 @@ import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 
 public interface LogSerializer {
@@ -23,6 +25,8 @@ public interface LogSerializer {
     @NonNull
     String serializeContainer(@NonNull LogContainer container) throws JSONException;
 
+    void writeContainer(@NonNull Writer writer, @NonNull LogContainer container) throws JSONException, IOException;
+
     @NonNull
     LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException;
 
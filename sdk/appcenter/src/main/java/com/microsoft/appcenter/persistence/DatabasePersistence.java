@@ -8,10 +8,15 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
+import com.microsoft.appcenter.AppCenterMetrics;
+import com.microsoft.appcenter.AppCenterTracing;
 import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.LogTracer;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.CompressionUtils;
 import com.microsoft.appcenter.utils.UUIDUtils;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
@@ -22,6 +27,7 @@ import org.json.JSONException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -29,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.utils.storage.StorageHelper.DatabaseStorage;
@@ -38,7 +45,8 @@ public class DatabasePersistence extends Persistence {
     /**
      * Version of the schema.
      */
-    private static final int VERSION = 2;
+    @VisibleForTesting
+    static final int VERSION = 10;
 
     /**
      * Name of group column in the table.
@@ -53,17 +61,48 @@ public class DatabasePersistence extends Persistence {
     static final String COLUMN_LOG = "log";
 
     /**
-     * Name of target token column in the table.
+     * Name of compressed log column in the table, used instead of the log column when compression is enabled.
+     */
+    @VisibleForTesting
+    static final String COLUMN_LOG_COMPRESSED = "log_compressed";
+
+    /**
+     * Name of encrypted target token column, in the target tokens table and in log rows stored before version 5.
      */
     @VisibleForTesting
     static final String COLUMN_TARGET_TOKEN = "target_token";
 
+    /**
+     * Name of the column referencing a row of the target tokens table.
+     */
+    @VisibleForTesting
+    static final String COLUMN_TARGET_TOKEN_ID = "target_token_id";
+
     /**
      * Name of target token column in the table.
      */
     @VisibleForTesting
     static final String COLUMN_DATA_TYPE = "type";
 
+    /**
+     * Name of the column flagging logs whose payload is stored in a separate file, 1 if so, 0 otherwise.
+     */
+    @VisibleForTesting
+    static final String COLUMN_LARGE_PAYLOAD = "large_payload";
+
+    /**
+     * Name of the column flagging logs claimed by a batch that is not deleted yet, 1 if so, 0 otherwise.
+     */
+    @VisibleForTesting
+    static final String COLUMN_CLAIMED = "claimed";
+
+    /**
+     * Name of payload size column in the table, the number of bytes stored: compressed payload size when compressed,
+     * UTF-8 size of the JSON payload otherwise, whether in the table or in a large payload file.
+     */
+    @VisibleForTesting
+    static final String COLUMN_SIZE = "size";
+
     /**
      * Database name.
      */
@@ -76,11 +115,54 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final String TABLE = "logs";
 
+    /**
+     * Index on the group and claimed columns, so that selecting, counting and deleting logs of a group does not scan
+     * other groups and selecting the next batch does not scan logs already claimed.
+     */
+    private static final String CREATE_GROUP_INDEX = "CREATE INDEX IF NOT EXISTS `ix_" + TABLE + "_" + COLUMN_GROUP + "_" + COLUMN_CLAIMED + "` ON `" + TABLE + "` (`" + COLUMN_GROUP + "`, `" + COLUMN_CLAIMED + "`)";
+
+    /**
+     * Drops the index of version 7 that was on the group column only.
+     */
+    private static final String DROP_GROUP_INDEX_V7 = "DROP INDEX IF EXISTS `ix_" + TABLE + "_" + COLUMN_GROUP + "`";
+
     /**
      * Table schema for Persistence.
      */
     @VisibleForTesting
-    static final ContentValues SCHEMA = getContentValues("", "", "", "");
+    static final ContentValues SCHEMA = getSchema();
+
+    /**
+     * Database name of the target tokens before version 10, they are moved to the logs database when first needed.
+     */
+    @VisibleForTesting
+    static final String TARGET_TOKENS_DATABASE = "com.microsoft.appcenter.persistence.target_tokens";
+
+    /**
+     * Target tokens table name, each distinct token is encrypted and stored once.
+     */
+    @VisibleForTesting
+    static final String TARGET_TOKENS_TABLE = "target_tokens";
+
+    /**
+     * Version of the schema of the target tokens database before version 10.
+     */
+    private static final int TARGET_TOKENS_VERSION = 1;
+
+    /**
+     * Creates the target tokens table in the logs database.
+     */
+    private static final String CREATE_TARGET_TOKENS_TABLE = "CREATE TABLE IF NOT EXISTS `" + TARGET_TOKENS_TABLE + "` (`" + DatabaseManager.PRIMARY_KEY + "` INTEGER PRIMARY KEY AUTOINCREMENT, `" + COLUMN_TARGET_TOKEN + "` TEXT)";
+
+    /**
+     * Index on the target token identifier, so that checking whether a target token is still used does not scan logs.
+     */
+    private static final String CREATE_TARGET_TOKEN_ID_INDEX = "CREATE INDEX IF NOT EXISTS `ix_" + TABLE + "_" + COLUMN_TARGET_TOKEN_ID + "` ON `" + TABLE + "` (`" + COLUMN_TARGET_TOKEN_ID + "`)";
+
+    /**
+     * Target tokens table schema.
+     */
+    private static final ContentValues TARGET_TOKENS_SCHEMA = getTargetTokenContentValues("");
 
     /**
      * Size limit (in bytes) for a database row log payload.
@@ -98,6 +180,24 @@ public class DatabasePersistence extends Persistence {
      */
     private static final String PAYLOAD_FILE_EXTENSION = ".json";
 
+    /**
+     * Maximum number of logs written in a single transaction.
+     */
+    @VisibleForTesting
+    static final int GROUP_COMMIT_MAX_LOGS = 50;
+
+    /**
+     * Maximum time in milliseconds a log can stay uncommitted.
+     */
+    @VisibleForTesting
+    static final long GROUP_COMMIT_INTERVAL = 1000;
+
+    /**
+     * Minimum number of oldest logs evicted at once when the database is full.
+     */
+    @VisibleForTesting
+    static final int EVICTION_CHUNK_SIZE = 10;
+
     /**
      * Application context.
      */
@@ -116,7 +216,7 @@ public class DatabasePersistence extends Persistence {
     final Map<String, List<Long>> mPendingDbIdentifiersGroups;
 
     /**
-     * Pending logs across all groups.
+     * Pending logs across all groups, they are also flagged as claimed in the database.
      */
     @VisibleForTesting
     final Set<Long> mPendingDbIdentifiers;
@@ -126,13 +226,86 @@ public class DatabasePersistence extends Persistence {
      */
     private final File mLargePayloadDirectory;
 
+    /**
+     * Maximum number of logs in the database, 0 for no limit.
+     */
+    private final int mMaxLogs;
+
+    /**
+     * Maximum size in bytes of all log payloads, including large payload files, 0 for no limit.
+     */
+    private long mMaxStorageSize = DEFAULT_MAX_STORAGE_SIZE;
+
+    /**
+     * Size in bytes of all log payloads, computed once when first needed then maintained. -1 if not computed yet.
+     */
+    private long mStorageSize = -1;
+
+    /**
+     * Number of logs by group, loaded with a single query when the database is opened then maintained.
+     */
+    private final Map<String, Long> mGroupCounts;
+
+    /**
+     * Whether new log payloads are stored compressed.
+     */
+    private boolean mPayloadCompressionEnabled;
+
+    /**
+     * Payload sizes of pending logs. Key is a database identifier.
+     */
+    private final Map<Long, Long> mPendingLogSizes;
+
+    /**
+     * Pending logs whose payload is stored in a separate file. Values are database identifiers.
+     */
+    private final Set<Long> mPendingLargePayloads;
+
+    /**
+     * Target token identifiers of pending logs. Key is a database identifier.
+     */
+    private final Map<Long, Long> mPendingTargetTokenIds;
+
+    /**
+     * Database storage of target tokens, a table of the logs database opened when first needed.
+     */
+    @VisibleForTesting
+    DatabaseStorage mTargetTokenStorage;
+
+    /**
+     * Identifiers of target tokens in {@link #mTargetTokenStorage}. Key is a decrypted target token.
+     */
+    private final Map<String, Long> mTargetTokenIds = new HashMap<>();
+
+    /**
+     * Decrypted target tokens. Key is an identifier in {@link #mTargetTokenStorage}.
+     */
+    private final Map<Long, String> mTargetTokens = new HashMap<>();
+
+    /**
+     * Whether {@link #mTargetTokenStorage} switched to memory after an error.
+     * Its new identifiers could then be the ones of other tokens on disk, so they are not used.
+     */
+    private boolean mTargetTokenStorageInMemory;
+
+    /**
+     * Encrypted target tokens kept in logs when they cannot get an identifier. Key is a decrypted target token.
+     */
+    private final Map<String, String> mEncryptedTargetTokens = new HashMap<>();
+
+    /**
+     * Whether {@link #mDatabaseStorage} switched to memory after an error.
+     * Logs on disk can then no longer be checked before deleting their target tokens.
+     */
+    private boolean mDatabaseStorageInMemory;
+
     /**
      * Initializes variables.
      *
      * @param context application context.
      */
     public DatabasePersistence(Context context) {
-        this(context, VERSION, SCHEMA, Persistence.DEFAULT_CAPACITY);
+        this(context, VERSION, SCHEMA, 0);
     }
 
     /**
@@ -141,32 +314,92 @@ public class DatabasePersistence extends Persistence {
      * @param context    application context.
      * @param version    The version of current schema.
      * @param schema     schema.
-     * @param maxRecords The maximum number of records allowed in the table.
+     * @param maxRecords The maximum number of records allowed in the table, 0 for no limit.
      */
     DatabasePersistence(Context context, int version, ContentValues schema, int maxRecords) {
         mContext = context;
+        mMaxLogs = maxRecords;
         mPendingDbIdentifiersGroups = new HashMap<>();
         mPendingDbIdentifiers = new HashSet<>();
-        mDatabaseStorage = DatabaseStorage.getDatabaseStorage(DATABASE, TABLE, version, schema, maxRecords,
-                new DatabaseManager.Listener() {
+        mPendingLogSizes = new HashMap<>();
+        mPendingLargePayloads = new HashSet<>();
+        mPendingTargetTokenIds = new HashMap<>();
+
+        /* Capacity is enforced here, per group, not by the database storage. */
+        mDatabaseStorage = DatabaseStorage.getDatabaseStorage(DATABASE, TABLE, version, schema, 0,
+                new DatabaseManager.CreateListener() {
+
+                    @Override
+                    public void onCreate(SQLiteDatabase db) {
+                        db.execSQL(CREATE_GROUP_INDEX);
+                        db.execSQL(CREATE_TARGET_TOKEN_ID_INDEX);
+                        db.execSQL(CREATE_TARGET_TOKENS_TABLE);
+                    }
 
                     @Override
                     public boolean onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
-                        /*
-                         * This is called only on upgrade and thus only if oldVersion is < 2.
-                         * Therefore we don't have to check anything to add the missing columns.
-                         */
-                        db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TARGET_TOKEN + "` TEXT");
-                        db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_DATA_TYPE + "` TEXT");
+                        /* Add the columns missing in the old version. */
+                        if (oldVersion < 2) {
+                            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TARGET_TOKEN + "` TEXT");
+                            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_DATA_TYPE + "` TEXT");
+                        }
+                        if (oldVersion < 3) {
+
+                            /* Sizes of large payloads stored as files are unknown and count as 0. */
+                            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_SIZE + "` INTEGER");
+                            db.execSQL("UPDATE " + TABLE + " SET `" + COLUMN_SIZE + "` = LENGTH(CAST(`" + COLUMN_LOG + "` AS BLOB))");
+                        }
+                        if (oldVersion < 4) {
+
+                            /* Existing rows keep their plain text payload and remain readable. */
+                            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_LOG_COMPRESSED + "` BLOB");
+                        }
+                        if (oldVersion < 5) {
+
+                            /* Existing rows keep their own encrypted target token. */
+                            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TARGET_TOKEN_ID + "` INTEGER");
+                        }
+                        if (oldVersion < 6) {
+
+                            /* Rows without payload in the table have it in a file. */
+                            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_LARGE_PAYLOAD + "` INTEGER");
+                            db.execSQL("UPDATE " + TABLE + " SET `" + COLUMN_LARGE_PAYLOAD + "` = `" + COLUMN_LOG + "` IS NULL AND `" + COLUMN_LOG_COMPRESSED + "` IS NULL");
+                        }
+                        if (oldVersion < 8) {
+
+                            /* No log is claimed when the database is opened, version 7 indexed only the group column. */
+                            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_CLAIMED + "` INTEGER DEFAULT 0");
+                            db.execSQL(DROP_GROUP_INDEX_V7);
+                            db.execSQL(CREATE_GROUP_INDEX);
+                        }
+                        if (oldVersion < 9) {
+
+                            /* Compressed rows may have their uncompressed size, count the bytes stored instead. */
+                            db.execSQL("UPDATE " + TABLE + " SET `" + COLUMN_SIZE + "` = LENGTH(`" + COLUMN_LOG_COMPRESSED + "`) WHERE `" + COLUMN_LOG_COMPRESSED + "` IS NOT NULL");
+                        }
+                        if (oldVersion < 10) {
+
+                            /* Target tokens move from their own database, which is copied when tokens are first needed. */
+                            db.execSQL(CREATE_TARGET_TOKEN_ID_INDEX);
+                            db.execSQL(CREATE_TARGET_TOKENS_TABLE);
+                        }
                         return true;
                     }
 
                     @Override
                     public void onError(String operation, RuntimeException e) {
                         AppCenterLog.error(LOG_TAG, "Cannot complete an operation (" + operation + ")", e);
+                        mDatabaseStorageInMemory = true;
                     }
                 });
+        mDatabaseStorage.setGroupCommit(GROUP_COMMIT_MAX_LOGS, GROUP_COMMIT_INTERVAL);
+
+        /* Batches of a previous process are gone, their logs can be sent again. */
+        mDatabaseStorage.update(COLUMN_CLAIMED, 1, getClaimedContentValues(false));
+
+        /* Count logs of all groups in a single query now, so that counting or adding a group does no I/O. */
+        mGroupCounts = mDatabaseStorage.sizeBy(COLUMN_GROUP);
         mLargePayloadDirectory = new File(Constants.FILES_PATH + PAYLOAD_LARGE_DIRECTORY);
 
         //noinspection ResultOfMethodCallIgnored we handle errors at read/write time for each file.
@@ -176,40 +409,281 @@ public class DatabasePersistence extends Persistence {
     /**
      * Instantiates {@link ContentValues} with the give values.
      *
-     * @param group       The group of the storage for the log.
-     * @param logJ        The JSON string for a log.
-     * @param targetToken target token if the log is common schema.
+     * @param group         The group of the storage for the log.
+     * @param logJ          The JSON string for a log.
+     * @param logCompressed The compressed JSON string for a log.
+     * @param targetTokenId identifier of the target token, null if none.
+     * @param type          The log type.
+     * @param size          The number of bytes stored for the payload.
+     * @param largePayload  true if the payload is stored in a separate file.
      * @return A {@link ContentValues} instance.
      */
-    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, String targetToken, String type) {
+    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, @Nullable byte[] logCompressed, Long targetTokenId, String type, long size, boolean largePayload) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_GROUP, group);
         values.put(COLUMN_LOG, logJ);
-        values.put(COLUMN_TARGET_TOKEN, targetToken);
+        values.put(COLUMN_LOG_COMPRESSED, logCompressed);
+        if (targetTokenId != null) {
+            values.put(COLUMN_TARGET_TOKEN_ID, targetTokenId);
+        }
         values.put(COLUMN_DATA_TYPE, type);
+        values.put(COLUMN_SIZE, size);
+        values.put(COLUMN_LARGE_PAYLOAD, largePayload ? 1 : 0);
+        values.put(COLUMN_CLAIMED, 0);
+        return values;
+    }
+
+    /**
+     * Instantiates {@link ContentValues} to flag logs as claimed by a batch or not.
+     *
+     * @param claimed true if logs are claimed by a batch.
+     * @return A {@link ContentValues} instance.
+     */
+    private static ContentValues getClaimedContentValues(boolean claimed) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_CLAIMED, claimed ? 1 : 0);
+        return values;
+    }
+
+    /**
+     * Gets the logs table schema, which keeps the target token column of logs stored before version 5.
+     *
+     * @return schema.
+     */
+    private static ContentValues getSchema() {
+        ContentValues schema = getContentValues("", "", new byte[0], 0L, "", 0, false);
+        schema.put(COLUMN_TARGET_TOKEN, "");
+        return schema;
+    }
+
+    /**
+     * Instantiates {@link ContentValues} for the target tokens table.
+     *
+     * @param encryptedTargetToken encrypted target token.
+     * @return A {@link ContentValues} instance.
+     */
+    private static ContentValues getTargetTokenContentValues(String encryptedTargetToken) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TARGET_TOKEN, encryptedTargetToken);
         return values;
     }
 
+    /**
+     * Opens the target tokens storage if not done yet and decrypts all tokens once.
+     */
+    private void loadTargetTokens() {
+        if (mTargetTokenStorage != null) {
+            return;
+        }
+
+        /* The table is created along with the logs table, using the same connection. */
+        mTargetTokenStorage = DatabaseStorage.getDatabaseStorage(mDatabaseStorage, TARGET_TOKENS_TABLE, TARGET_TOKENS_SCHEMA,
+                new DatabaseManager.Listener() {
+
+                    @Override
+                    public boolean onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                        return false;
+                    }
+
+                    @Override
+                    public void onError(String operation, RuntimeException e) {
+                        AppCenterLog.error(LOG_TAG, "Cannot complete an operation on target tokens (" + operation + ")", e);
+                        mTargetTokenStorageInMemory = true;
+                    }
+                });
+        moveTargetTokensDatabase();
+        List<Long> ids = new ArrayList<>();
+        List<String> encryptedTargetTokens = new ArrayList<>();
+        DatabaseStorage.DatabaseScanner scanner = mTargetTokenStorage.getScanner();
+        for (ContentValues values : scanner) {
+            ids.add(values.getAsLong(DatabaseManager.PRIMARY_KEY));
+            encryptedTargetTokens.add(values.getAsString(COLUMN_TARGET_TOKEN));
+        }
+        scanner.close();
+
+        /* Decrypt all tokens in one call. */
+        List<CryptoUtils.DecryptedData> decryptedTargetTokens = CryptoUtils.getInstance(mContext).decrypt(encryptedTargetTokens, false);
+        for (int i = 0; i < ids.size(); i++) {
+            Long id = ids.get(i);
+            String targetToken = decryptedTargetTokens.get(i).getDecryptedData();
+            if (id != null && targetToken != null) {
+                mTargetTokenIds.put(targetToken, id);
+                mTargetTokens.put(id, targetToken);
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Loaded " + mTargetTokens.size() + " target token(s).");
+
+        /* Tokens of logs deleted before tokens were loaded are not needed anymore. */
+        deleteUnusedTargetTokens(new ArrayList<>(mTargetTokens.keySet()));
+    }
+
+    /**
+     * Copies target tokens stored in their own database before version 10 to the logs database,
+     * keeping their identifiers, then deletes the old database.
+     */
+    private void moveTargetTokensDatabase() {
+        File database = mContext.getDatabasePath(TARGET_TOKENS_DATABASE);
+        if (database == null || !database.exists()) {
+            return;
+        }
+        Set<Long> ids = new HashSet<>();
+        DatabaseStorage.DatabaseScanner scanner = mTargetTokenStorage.getScanner(null, null, true);
+        for (ContentValues values : scanner) {
+            ids.add(values.getAsLong(DatabaseManager.PRIMARY_KEY));
+        }
+        scanner.close();
+        final AtomicBoolean failed = new AtomicBoolean();
+        DatabaseStorage oldStorage = DatabaseStorage.getDatabaseStorage(TARGET_TOKENS_DATABASE, TARGET_TOKENS_TABLE, TARGET_TOKENS_VERSION, TARGET_TOKENS_SCHEMA, 0,
+                new DatabaseManager.Listener() {
+
+                    @Override
+                    public boolean onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                        return false;
+                    }
+
+                    @Override
+                    public void onError(String operation, RuntimeException e) {
+                        AppCenterLog.error(LOG_TAG, "Cannot move target tokens (" + operation + ")", e);
+                        failed.set(true);
+                    }
+                });
+        int count = 0;
+        DatabaseStorage.DatabaseScanner oldScanner = oldStorage.getScanner();
+        for (ContentValues values : oldScanner) {
+            if (!ids.contains(values.getAsLong(DatabaseManager.PRIMARY_KEY))) {
+                mTargetTokenStorage.put(values);
+                count++;
+            }
+        }
+        oldScanner.close();
+        oldStorage.close();
+
+        /* Keep the old database to try again next time if any token could not be copied. */
+        if (!failed.get() && !mTargetTokenStorageInMemory) {
+            mContext.deleteDatabase(TARGET_TOKENS_DATABASE);
+            AppCenterLog.debug(LOG_TAG, "Moved " + count + " target token(s) to the logs database.");
+        }
+    }
+
+    /**
+     * Deletes the target tokens that no log references anymore.
+     * Nothing is deleted before tokens are loaded, loading them checks all of them.
+     *
+     * @param ids identifiers of target tokens that may not be used anymore.
+     */
+    private void deleteUnusedTargetTokens(Collection<Long> ids) {
+        if (ids.isEmpty() || mTargetTokenStorage == null || mTargetTokenStorageInMemory || mDatabaseStorageInMemory) {
+            return;
+        }
+
+        /* Each check reads at most one identifier from the target token index. */
+        List<Long> unusedIds = new ArrayList<>();
+        for (Long id : ids) {
+            DatabaseStorage.DatabaseScanner scanner = mDatabaseStorage.getScanner(COLUMN_TARGET_TOKEN_ID, id, null, true, 1);
+            if (!scanner.iterator().hasNext()) {
+                unusedIds.add(id);
+            }
+            scanner.close();
+        }
+        if (!unusedIds.isEmpty()) {
+            mTargetTokenStorage.delete(unusedIds);
+            for (Long id : unusedIds) {
+                mTargetTokenIds.remove(mTargetTokens.remove(id));
+            }
+            AppCenterLog.debug(LOG_TAG, "Deleted " + unusedIds.size() + " unused target token(s).");
+        }
+    }
+
+    /**
+     * Gets an encrypted copy of a target token, encrypting each token only once.
+     *
+     * @param targetToken decrypted target token.
+     * @return encrypted target token.
+     */
+    private String getEncryptedTargetToken(@NonNull String targetToken) {
+        String encryptedTargetToken = mEncryptedTargetTokens.get(targetToken);
+        if (encryptedTargetToken == null) {
+            encryptedTargetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+            mEncryptedTargetTokens.put(targetToken, encryptedTargetToken);
+        }
+        return encryptedTargetToken;
+    }
+
+    /**
+     * Gets the identifier of a target token, encrypting and storing it only if it was not stored yet.
+     *
+     * @param targetToken decrypted target token.
+     * @return identifier in the target tokens table, null if the token cannot be stored on disk.
+     */
+    @Nullable
+    private Long getTargetTokenId(@NonNull String targetToken) {
+        loadTargetTokens();
+        Long id = mTargetTokenIds.get(targetToken);
+        if (id == null && !mTargetTokenStorageInMemory) {
+            id = mTargetTokenStorage.put(getTargetTokenContentValues(getEncryptedTargetToken(targetToken)));
+
+            /* The identifier was given in memory, it may be the one of another token on disk. */
+            if (mTargetTokenStorageInMemory) {
+                return null;
+            }
+            mTargetTokenIds.put(targetToken, id);
+            mTargetTokens.put(id, targetToken);
+        }
+        return id;
+    }
+
+    /**
+     * Gets a decrypted target token.
+     *
+     * @param id identifier in the target tokens table.
+     * @return decrypted target token, null if not found.
+     */
+    @Nullable
+    private String getTargetToken(long id) {
+        loadTargetTokens();
+        return mTargetTokens.get(id);
+    }
+
     @Override
     public long putLog(@NonNull String group, @NonNull Log log) throws PersistenceException {
 
         /* Convert log to JSON string and put in the database. */
+        long startTime = System.nanoTime();
         try {
             AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type " + log.getType() + " with sid=" + log.getSid());
+            LogTracer tracer = AppCenterTracing.getTracer();
+            long serializeStart = tracer != null ? System.nanoTime() : 0;
             String payload = getLogSerializer().serializeLog(log);
             ContentValues contentValues;
-            boolean isLargePayload = payload.getBytes("UTF-8").length >= PAYLOAD_MAX_SIZE;
-            String targetToken;
+            byte[] compressedPayload = mPayloadCompressionEnabled ? CompressionUtils.compress(payload) : null;
+            if (tracer != null) {
+                AppCenterTracing.endSpan(tracer, AppCenterTracing.STAGE_SERIALIZE, null, log, serializeStart);
+            }
+            int payloadSize = payload.getBytes("UTF-8").length;
+            boolean isLargePayload = (compressedPayload != null ? compressedPayload.length : payloadSize) >= PAYLOAD_MAX_SIZE;
+
+            /* Account for the bytes actually written, large payload files are plain UTF-8 text. */
+            long storedSize = compressedPayload != null && !isLargePayload ? compressedPayload.length : payloadSize;
+            Long targetTokenId = null;
+            String encryptedTargetToken = null;
             if (log instanceof CommonSchemaLog) {
-                targetToken = log.getTransmissionTargetTokens().iterator().next();
-                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
-            } else {
-                targetToken = null;
+                String targetToken = log.getTransmissionTargetTokens().iterator().next();
+                targetTokenId = getTargetTokenId(targetToken);
+
+                /* Keep an encrypted copy in the log like before version 5 if the token has no identifier on disk. */
+                if (targetTokenId == null) {
+                    encryptedTargetToken = getEncryptedTargetToken(targetToken);
+                }
             }
             if (isLargePayload) {
-                contentValues = getContentValues(group, null, targetToken, log.getType());
+                contentValues = getContentValues(group, null, null, targetTokenId, log.getType(), storedSize, true);
+            } else if (compressedPayload != null) {
+                contentValues = getContentValues(group, null, compressedPayload, targetTokenId, log.getType(), storedSize, false);
             } else {
-                contentValues = getContentValues(group, payload, targetToken, log.getType());
+                contentValues = getContentValues(group, payload, null, targetTokenId, log.getType(), storedSize, false);
+            }
+            if (encryptedTargetToken != null) {
+                contentValues.put(COLUMN_TARGET_TOKEN, encryptedTargetToken);
             }
             long databaseId = mDatabaseStorage.put(contentValues);
             AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type " + log.getType() + " with databaseId=" + databaseId);
@@ -230,6 +704,12 @@ public class DatabasePersistence extends Persistence {
                 }
                 AppCenterLog.debug(LOG_TAG, "Payload written to " + payloadFile);
             }
+            if (mStorageSize >= 0) {
+                mStorageSize += storedSize;
+            }
+            updateGroupCount(group, 1);
+            evictLogs();
+            AppCenterMetrics.getSharedInstance().record(AppCenterMetrics.HISTOGRAM_PERSIST_TIME, (System.nanoTime() - startTime) / 1000);
             return databaseId;
         } catch (JSONException e) {
             throw new PersistenceException("Cannot convert to JSON string", e);
@@ -238,6 +718,123 @@ public class DatabasePersistence extends Persistence {
         }
     }
 
+    /**
+     * Gets the size in bytes of all log payloads.
+     *
+     * @return the storage size.
+     */
+    private long getStorageSize() {
+        if (mStorageSize < 0) {
+            mStorageSize = mDatabaseStorage.sum(COLUMN_SIZE);
+        }
+        return mStorageSize;
+    }
+
+    /**
+     * Updates the number of logs of a group.
+     *
+     * @param group group.
+     * @param delta number of logs added, negative if deleted.
+     */
+    private void updateGroupCount(String group, long delta) {
+        Long count = mGroupCounts.get(group);
+        long newCount = (count == null ? 0 : count) + delta;
+        if (newCount > 0) {
+            mGroupCounts.put(group, newCount);
+        } else {
+            mGroupCounts.remove(group);
+        }
+    }
+
+    /**
+     * Checks if the database exceeds its capacity.
+     *
+     * @return true if there are too many logs or if they are too big.
+     */
+    private boolean isFull() {
+        return (mMaxLogs > 0 && mDatabaseStorage.size() > mMaxLogs) || (mMaxStorageSize > 0 && getStorageSize() > mMaxStorageSize);
+    }
+
+    /**
+     * Deletes the oldest logs of the groups selected by the eviction policy if the database exceeds its capacity.
+     * Up to {@link #EVICTION_CHUNK_SIZE} logs are deleted from the selected group so that a full database
+     * does not delete on every insert, but the chunk alone never empties a group.
+     */
+    private void evictLogs() {
+        if (!isFull()) {
+            return;
+        }
+        while (isFull()) {
+
+            /* Select group. */
+            String group = getEvictionPolicy().selectGroup(mGroupCounts);
+            Long selectedGroupCount = group == null ? null : mGroupCounts.get(group);
+            if (selectedGroupCount == null) {
+                break;
+            }
+
+            /* Get oldest identifiers of the group until enough logs and bytes are freed. */
+            long groupCount = selectedGroupCount;
+            long minCount = Math.max(mMaxLogs > 0 ? mDatabaseStorage.size() - mMaxLogs : 0, Math.min(EVICTION_CHUNK_SIZE, groupCount - 1));
+            long minSize = mMaxStorageSize > 0 ? getStorageSize() - mMaxStorageSize : 0;
+            long freedSize = 0;
+            List<Long> dbIdentifiers = new ArrayList<>();
+            List<Long> largePayloadIdentifiers = new ArrayList<>();
+            Set<Long> targetTokenIds = new HashSet<>();
+            DatabaseStorage.DatabaseScanner scanner = mDatabaseStorage.getScanner(COLUMN_GROUP, group, null, new String[]{DatabaseManager.PRIMARY_KEY, COLUMN_SIZE, COLUMN_LARGE_PAYLOAD, COLUMN_TARGET_TOKEN_ID}, 0);
+            for (Iterator<ContentValues> iterator = scanner.iterator(); iterator.hasNext() && (dbIdentifiers.size() < minCount || freedSize < minSize); ) {
+                ContentValues values = iterator.next();
+                Long dbIdentifier = values.getAsLong(DatabaseManager.PRIMARY_KEY);
+                if (dbIdentifier != null) {
+                    Long size = values.getAsLong(COLUMN_SIZE);
+                    freedSize += size == null ? 0 : size;
+                    dbIdentifiers.add(dbIdentifier);
+                    if (isLargePayload(values)) {
+                        largePayloadIdentifiers.add(dbIdentifier);
+                    }
+                    Long targetTokenId = values.getAsLong(COLUMN_TARGET_TOKEN_ID);
+                    if (targetTokenId != null) {
+                        targetTokenIds.add(targetTokenId);
+                    }
+                }
+            }
+            scanner.close();
+            if (dbIdentifiers.isEmpty()) {
+                break;
+            }
+
+            /* Delete them in a single statement, along with large payload files. */
+            deleteLargePayloadFiles(group, largePayloadIdentifiers);
+            for (Long dbIdentifier : dbIdentifiers) {
+                mPendingDbIdentifiers.remove(dbIdentifier);
+                mPendingLogSizes.remove(dbIdentifier);
+                mPendingLargePayloads.remove(dbIdentifier);
+                mPendingTargetTokenIds.remove(dbIdentifier);
+            }
+            mDatabaseStorage.delete(dbIdentifiers);
+            deleteUnusedTargetTokens(targetTokenIds);
+            if (mStorageSize >= 0) {
+                mStorageSize -= freedSize;
+            }
+            onLogsEvicted(group, dbIdentifiers.size());
+            AppCenterLog.warn(LOG_TAG, "Storage is full, evicted " + dbIdentifiers.size() + " log(s) (" + freedSize + " bytes) from " + group);
+
+            /* Update counts for next group selection. */
+            updateGroupCount(group, -dbIdentifiers.size());
+        }
+    }
+
+    @Override
+    public void setPayloadCompressionEnabled(boolean enabled) {
+        mPayloadCompressionEnabled = enabled;
+    }
+
+    @Override
+    public void setMaxStorageSize(long maxStorageSize) {
+        mMaxStorageSize = maxStorageSize;
+        evictLogs();
+    }
+
     @NonNull
     @VisibleForTesting
     File getLargePayloadGroupDirectory(String group) {
@@ -250,6 +847,35 @@ public class DatabasePersistence extends Persistence {
         return new File(directory, databaseId + PAYLOAD_FILE_EXTENSION);
     }
 
+    /**
+     * Checks the flag of a row telling if its payload is stored in a separate file.
+     *
+     * @param values row values.
+     * @return true if the payload is in a file.
+     */
+    private static boolean isLargePayload(ContentValues values) {
+        Integer largePayload = values.getAsInteger(COLUMN_LARGE_PAYLOAD);
+        return largePayload != null && largePayload != 0;
+    }
+
+    /**
+     * Deletes the payload files of logs flagged as large.
+     *
+     * @param group         group of the logs.
+     * @param dbIdentifiers database identifiers of the logs.
+     */
+    private void deleteLargePayloadFiles(String group, List<Long> dbIdentifiers) {
+        if (dbIdentifiers.isEmpty()) {
+            return;
+        }
+        File directory = getLargePayloadGroupDirectory(group);
+        for (Long dbIdentifier : dbIdentifiers) {
+
+            //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
+            getLargePayloadFile(directory, dbIdentifier).delete();
+        }
+    }
+
     private void deleteLog(File groupLargePayloadDirectory, long id) {
         //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
         getLargePayloadFile(groupLargePayloadDirectory, id).delete();
@@ -264,13 +890,33 @@ public class DatabasePersistence extends Persistence {
         AppCenterLog.debug(LOG_TAG, "The IDs for deleting log(s) is/are:");
 
         List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(group + id);
-        File directory = getLargePayloadGroupDirectory(group);
         if (dbIdentifiers != null) {
+            List<Long> largePayloadIdentifiers = new ArrayList<>();
+            Set<Long> targetTokenIds = new HashSet<>();
             for (Long dbIdentifier : dbIdentifiers) {
                 AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifier);
-                deleteLog(directory, dbIdentifier);
-                mPendingDbIdentifiers.remove(dbIdentifier);
+                if (mPendingLargePayloads.remove(dbIdentifier)) {
+                    largePayloadIdentifiers.add(dbIdentifier);
+                }
+                Long targetTokenId = mPendingTargetTokenIds.remove(dbIdentifier);
+                if (targetTokenId != null) {
+                    targetTokenIds.add(targetTokenId);
+                }
+
+                /* Logs evicted while pending were already counted as deleted. */
+                if (mPendingDbIdentifiers.remove(dbIdentifier)) {
+                    updateGroupCount(group, -1);
+                }
+                Long size = mPendingLogSizes.remove(dbIdentifier);
+                if (size != null && mStorageSize >= 0) {
+                    mStorageSize -= size;
+                }
             }
+
+            /* Delete the whole batch in a single statement, only probing files of large payloads. */
+            mDatabaseStorage.delete(dbIdentifiers);
+            deleteLargePayloadFiles(group, largePayloadIdentifiers);
+            deleteUnusedTargetTokens(targetTokenIds);
         }
     }
 
@@ -294,42 +940,79 @@ public class DatabasePersistence extends Persistence {
         //noinspection ResultOfMethodCallIgnored we are not checking SQLite result either.
         directory.delete();
 
-        /* Delete from database. */
+        /* Delete from database, storage size will be computed again when needed. */
         mDatabaseStorage.delete(COLUMN_GROUP, group);
+        mStorageSize = -1;
+        mGroupCounts.remove(group);
 
         /* Delete from pending state. */
-        for (Iterator<String> iterator = mPendingDbIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
-            String key = iterator.next();
-            if (key.startsWith(group)) {
+        for (Iterator<Map.Entry<String, List<Long>>> iterator = mPendingDbIdentifiersGroups.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<Long>> entry = iterator.next();
+            if (entry.getKey().startsWith(group)) {
+                for (Long dbIdentifier : entry.getValue()) {
+                    mPendingDbIdentifiers.remove(dbIdentifier);
+                    mPendingLogSizes.remove(dbIdentifier);
+                    mPendingLargePayloads.remove(dbIdentifier);
+                    mPendingTargetTokenIds.remove(dbIdentifier);
+                }
                 iterator.remove();
             }
         }
+
+        /* Any loaded target token may only have been used by the group. */
+        deleteUnusedTargetTokens(new ArrayList<>(mTargetTokens.keySet()));
     }
 
     @Override
     public int countLogs(@NonNull String group) {
+        Long count = mGroupCounts.get(group);
+        return count == null ? 0 : count.intValue();
+    }
 
-        /* Query database and get scanner. */
-        DatabaseStorage.DatabaseScanner scanner = mDatabaseStorage.getScanner(COLUMN_GROUP, group, true);
-        int count = scanner.getCount();
-        scanner.close();
-        return count;
+    @Override
+    public int countLogs(@NonNull String group, @NonNull String id) {
+        List<Long> ids = mPendingDbIdentifiersGroups.get(group + id);
+        return ids == null ? 0 : ids.size();
     }
 
     @Override
     @Nullable
     public String getLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        return getLogs(group, limit, outLogs, null);
+    }
+
+    @Override
+    @Nullable
+    public String getSerializedLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<SerializedLog> outLogs) {
+        return getLogs(group, limit, null, outLogs);
+    }
+
+    /**
+     * Gets an array of logs for the given {@code group}, either as {@link Log} objects or as stored.
+     *
+     * @param group             The group of the storage for logs.
+     * @param limit             The max number of logs to be returned.
+     * @param outLogs           A list to receive {@link Log} objects, null to skip deserialization.
+     * @param outSerializedLogs A list to receive {@link SerializedLog} objects when {@code outLogs} is null.
+     * @return An ID for the logs. {@code null} if no logs exist.
+     */
+    @Nullable
+    private String getLogs(@NonNull String group, int limit, @Nullable List<Log> outLogs, @Nullable List<SerializedLog> outSerializedLogs) {
 
         /* Log. */
         AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the Persistence database for " + group);
 
-        /* Query database and get scanner. */
-        DatabaseStorage.DatabaseScanner scanner = mDatabaseStorage.getScanner(COLUMN_GROUP, group);
+        /* Query only the first logs of the group not claimed by another batch, the index covers both conditions. */
+        String[] unclaimedKeys = {COLUMN_GROUP, COLUMN_CLAIMED};
+        Object[] unclaimedValues = {group, 0};
+        DatabaseStorage.DatabaseScanner scanner = mDatabaseStorage.getScanner(unclaimedKeys, unclaimedValues, null, false, limit);
 
         /* Add logs to output parameter after deserialization if logs are not already sent. */
         int count = 0;
-        Map<Long, Log> candidates = new TreeMap<>();
+        long batchSize = 0;
+        Map<Long, Object> candidates = new TreeMap<>();
         List<Long> failedDbIdentifiers = new ArrayList<>();
+        Set<Long> failedTargetTokenIds = new HashSet<>();
         File largePayloadGroupDirectory = getLargePayloadGroupDirectory(group);
         for (Iterator<ContentValues> iterator = scanner.iterator(); iterator.hasNext() && count < limit; ) {
             ContentValues values = iterator.next();
@@ -343,13 +1026,15 @@ public class DatabasePersistence extends Persistence {
              */
             if (dbIdentifier == null) {
                 AppCenterLog.error(LOG_TAG, "Empty database record, probably content was larger than 2MB, need to delete as it's now corrupted.");
-                DatabaseStorage.DatabaseScanner idScanner = mDatabaseStorage.getScanner(COLUMN_GROUP, group, true);
+                DatabaseStorage.DatabaseScanner idScanner = mDatabaseStorage.getScanner(unclaimedKeys, unclaimedValues, candidates.keySet(), true, 1);
                 for (ContentValues idValues : idScanner) {
                     Long invalidId = idValues.getAsLong(DatabaseManager.PRIMARY_KEY);
                     if (!mPendingDbIdentifiers.contains(invalidId) && !candidates.containsKey(invalidId)) {
 
                         /* Found the record to delete that we could not read when selecting all fields. */
                         deleteLog(largePayloadGroupDirectory, invalidId);
+                        mStorageSize = -1;
+                        updateGroupCount(group, -1);
                         AppCenterLog.error(LOG_TAG, "Empty database corrupted empty record deleted, id=" + invalidId);
                         break;
                     }
@@ -360,12 +1045,28 @@ public class DatabasePersistence extends Persistence {
 
             /* If the log is already in pending state, then skip. Otherwise put the log to candidate container. */
             if (!mPendingDbIdentifiers.contains(dbIdentifier)) {
+
+                /* Use the stored size to stop before reading payloads that do not fit, including large payload files. */
+                Long size = values.getAsLong(COLUMN_SIZE);
+                long logSize = size == null ? 0 : size;
+                if (exceedsMaxBatchSize(count, batchSize, logSize)) {
+                    break;
+                }
                 try {
 
                     /* Deserialize JSON to Log. */
                     String logPayload;
                     String databasePayload = values.getAsString(COLUMN_LOG);
-                    if (databasePayload == null) {
+                    byte[] databaseCompressedPayload = values.getAsByteArray(COLUMN_LOG_COMPRESSED);
+                    if (databaseCompressedPayload != null) {
+                        logPayload = CompressionUtils.decompress(databaseCompressedPayload);
+
+                        /* The stored size is the compressed one, the batch is built from the decompressed payload. */
+                        logSize = logPayload.getBytes("UTF-8").length;
+                        if (exceedsMaxBatchSize(count, batchSize, logSize)) {
+                            break;
+                        }
+                    } else if (databasePayload == null) {
                         File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
                         AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
                         logPayload = StorageHelper.InternalStorage.read(file);
@@ -376,25 +1077,59 @@ public class DatabasePersistence extends Persistence {
                         logPayload = databasePayload;
                     }
                     String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
-                    Log log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
 
-                    /* Restore target token. */
+                    /* Restore target token, logs stored before version 5 have their own encrypted copy. */
                     String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
-                    if (targetToken != null) {
+                    Long targetTokenId = values.getAsLong(COLUMN_TARGET_TOKEN_ID);
+                    if (targetTokenId != null) {
+                        targetToken = getTargetToken(targetTokenId);
+                        if (targetToken == null) {
+                            throw new JSONException("Target token not found.");
+                        }
+                    } else if (targetToken != null) {
                         CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken, false);
-                        log.addTransmissionTarget(data.getDecryptedData());
+                        targetToken = data.getDecryptedData();
                     }
 
                     /* Add log to list and count. */
-                    candidates.put(dbIdentifier, log);
+                    if (outLogs != null) {
+                        Log log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
+                        if (targetToken != null) {
+                            log.addTransmissionTarget(targetToken);
+                        }
+                        candidates.put(dbIdentifier, log);
+                    } else {
+
+                        /* Payload is sent as is, only check it looks like a JSON object. */
+                        if (!logPayload.startsWith("{") || !logPayload.endsWith("}")) {
+                            throw new JSONException("Log payload is not a JSON object.");
+                        }
+                        candidates.put(dbIdentifier, new SerializedLog(logPayload, databasePayloadType, targetToken));
+                    }
                     count++;
-                } catch (JSONException e) {
+                    batchSize += logSize;
+
+                    /* Remember size to update storage size when deleted, and file to delete. */
+                    if (size != null) {
+                        mPendingLogSizes.put(dbIdentifier, size);
+                    }
+                    if (isLargePayload(values)) {
+                        mPendingLargePayloads.add(dbIdentifier);
+                    }
+                    if (targetTokenId != null) {
+                        mPendingTargetTokenIds.put(dbIdentifier, targetTokenId);
+                    }
+                } catch (JSONException | IOException e) {
 
                     /* If it is not able to deserialize, delete and get another log. */
                     AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
 
                     /* Put the failed identifier to delete. */
                     failedDbIdentifiers.add(dbIdentifier);
+                    Long failedTargetTokenId = values.getAsLong(COLUMN_TARGET_TOKEN_ID);
+                    if (failedTargetTokenId != null) {
+                        failedTargetTokenIds.add(failedTargetTokenId);
+                    }
                 }
             }
         }
@@ -405,6 +1140,9 @@ public class DatabasePersistence extends Persistence {
             for (long id : failedDbIdentifiers) {
                 deleteLog(largePayloadGroupDirectory, id);
             }
+            mStorageSize = -1;
+            updateGroupCount(group, -failedDbIdentifiers.size());
+            deleteUnusedTargetTokens(failedTargetTokenIds);
             AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
         }
 
@@ -422,7 +1160,7 @@ public class DatabasePersistence extends Persistence {
         AppCenterLog.debug(LOG_TAG, "The SID/ID pairs for returning log(s) is/are:");
 
         List<Long> pendingDbIdentifiersGroup = new ArrayList<>();
-        for (Map.Entry<Long, Log> entry : candidates.entrySet()) {
+        for (Map.Entry<Long, Object> entry : candidates.entrySet()) {
             Long dbIdentifier = entry.getKey();
 
             /* Change a database identifier to pending state. */
@@ -432,26 +1170,70 @@ public class DatabasePersistence extends Persistence {
             pendingDbIdentifiersGroup.add(dbIdentifier);
 
             /* Add to output parameter. */
-            outLogs.add(entry.getValue());
-
-            /* Log. */
-            AppCenterLog.debug(LOG_TAG, "\t" + entry.getValue().getSid() + " / " + dbIdentifier);
+            if (outLogs != null) {
+                Log log = (Log) entry.getValue();
+                outLogs.add(log);
+
+                /* Log. */
+                AppCenterLog.debug(LOG_TAG, "\t" + log.getSid() + " / " + dbIdentifier);
+            } else if (outSerializedLogs != null) {
+                outSerializedLogs.add((SerializedLog) entry.getValue());
+            }
         }
 
-        /* Update pending IDs. */
+        /* Update pending IDs and claim the logs in a single statement. */
         mPendingDbIdentifiersGroups.put(group + id, pendingDbIdentifiersGroup);
+        mDatabaseStorage.update(pendingDbIdentifiersGroup, getClaimedContentValues(true));
         return id;
     }
 
+    /**
+     * Sets how many logs can be written in a single transaction and how long they can stay uncommitted.
+     *
+     * @param maxLogs  maximum number of logs per transaction, {@code 0} to commit every log.
+     * @param interval maximum time in milliseconds a log can stay uncommitted.
+     */
+    @VisibleForTesting
+    void setGroupCommit(int maxLogs, long interval) {
+        mDatabaseStorage.setGroupCommit(maxLogs, interval);
+    }
+
+    @Override
+    public void flush() {
+        mDatabaseStorage.flush();
+    }
+
     @Override
     public void clearPendingLogState() {
+        mDatabaseStorage.update(COLUMN_CLAIMED, 1, getClaimedContentValues(false));
         mPendingDbIdentifiers.clear();
         mPendingDbIdentifiersGroups.clear();
+        mPendingLogSizes.clear();
+        mPendingLargePayloads.clear();
+        mPendingTargetTokenIds.clear();
         AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
     }
 
+    @Override
+    public void clearPendingLogState(@NonNull String group, @NonNull String id) {
+        List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(group + id);
+        if (dbIdentifiers != null) {
+            mDatabaseStorage.update(dbIdentifiers, getClaimedContentValues(false));
+            for (Long dbIdentifier : dbIdentifiers) {
+                mPendingDbIdentifiers.remove(dbIdentifier);
+                mPendingLogSizes.remove(dbIdentifier);
+                mPendingLargePayloads.remove(dbIdentifier);
+                mPendingTargetTokenIds.remove(dbIdentifier);
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log state for " + group + " with " + id);
+    }
+
     @Override
     public void close() {
         mDatabaseStorage.close();
+        if (mTargetTokenStorage != null) {
+            mTargetTokenStorage.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses which group loses its oldest logs when the persistence is full.
+ * By default, groups above their quota are evicted first, then groups with the lowest priority.
+ * Can be extended to implement a different policy.
+ */
+public class EvictionPolicy {
+
+    /**
+     * Priority for groups whose logs are evicted first.
+     */
+    public static final int PRIORITY_LOW = -1;
+
+    /**
+     * Default priority.
+     */
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * Priority for groups whose logs are evicted last.
+     */
+    public static final int PRIORITY_HIGH = 1;
+
+    /**
+     * Priority by group name.
+     */
+    private final Map<String, Integer> mPriorities = new HashMap<>();
+
+    /**
+     * Quota (number of logs) by group name.
+     */
+    private final Map<String, Integer> mQuotas = new HashMap<>();
+
+    /**
+     * Sets the eviction priority and quota of a group.
+     *
+     * @param group    the group name.
+     * @param priority the priority, groups with lower priorities are evicted first.
+     * @param quota    the number of logs the group can keep before being evicted first, 0 for no quota.
+     */
+    public synchronized void setGroup(@NonNull String group, int priority, int quota) {
+        mPriorities.put(group, priority);
+        mQuotas.put(group, quota);
+    }
+
+    /**
+     * Gets the eviction priority of a group.
+     *
+     * @param group the group name.
+     * @return the priority, {@link #PRIORITY_NORMAL} if not set.
+     */
+    protected synchronized int getPriority(@NonNull String group) {
+        Integer priority = mPriorities.get(group);
+        return priority == null ? PRIORITY_NORMAL : priority;
+    }
+
+    /**
+     * Gets the quota of a group.
+     *
+     * @param group the group name.
+     * @return the quota, 0 if not set.
+     */
+    protected synchronized int getQuota(@NonNull String group) {
+        Integer quota = mQuotas.get(group);
+        return quota == null ? 0 : quota;
+    }
+
+    /**
+     * Selects the group to evict logs from.
+     *
+     * @param logCounts number of logs by group, only for non empty groups.
+     * @return the group to evict logs from, or null to evict nothing.
+     */
+    @Nullable
+    public String selectGroup(@NonNull Map<String, Long> logCounts) {
+
+        /* Group the most above its quota first. */
+        String selectedGroup = null;
+        long maxExcess = 0;
+        for (Map.Entry<String, Long> entry : logCounts.entrySet()) {
+            int quota = getQuota(entry.getKey());
+            long excess = entry.getValue() - quota;
+            if (quota > 0 && excess > maxExcess) {
+                selectedGroup = entry.getKey();
+                maxExcess = excess;
+            }
+        }
+        if (selectedGroup != null) {
+            return selectedGroup;
+        }
+
+        /* Otherwise lowest priority, then biggest group. */
+        int selectedPriority = Integer.MAX_VALUE;
+        long selectedCount = 0;
+        for (Map.Entry<String, Long> entry : logCounts.entrySet()) {
+            int priority = getPriority(entry.getKey());
+            long count = entry.getValue();
+            if (count > 0 && (priority < selectedPriority || (priority == selectedPriority && count > selectedCount))) {
+                selectedGroup = entry.getKey();
+                selectedPriority = priority;
+                selectedCount = count;
+            }
+        }
+        return selectedGroup;
+    }
+}
@@ -0,0 +1,350 @@
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.UUIDUtils;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence keeping serialized logs in memory, for groups that do not need to survive a process restart.
+ * Each group is a bounded buffer: when full, its oldest log is dropped.
+ */
+public class InMemoryPersistence extends Persistence {
+
+    /**
+     * Default maximum number of logs kept per group.
+     */
+    public static final int DEFAULT_MAX_LOGS_PER_GROUP = 500;
+
+    /**
+     * Maximum number of logs kept per group.
+     */
+    private final int mMaxLogsPerGroup;
+
+    /**
+     * Logs by group, oldest first. Key is a log identifier.
+     */
+    private final Map<String, LinkedHashMap<Long, Entry>> mGroups = new HashMap<>();
+
+    /**
+     * Pending log groups. Key is a group name concatenated with a UUID and value is a list of log identifiers.
+     */
+    @VisibleForTesting
+    final Map<String, List<Long>> mPendingIdentifiersGroups = new HashMap<>();
+
+    /**
+     * Pending logs across all groups.
+     */
+    @VisibleForTesting
+    final Set<Long> mPendingIdentifiers = new HashSet<>();
+
+    /**
+     * Next log identifier.
+     */
+    private long mNextIdentifier;
+
+    /**
+     * Size in characters of all serialized logs.
+     */
+    private long mStorageSize;
+
+    /**
+     * Maximum size in characters of all serialized logs, 0 for no limit.
+     */
+    private long mMaxStorageSize;
+
+    /**
+     * Initializes with {@link #DEFAULT_MAX_LOGS_PER_GROUP}.
+     */
+    public InMemoryPersistence() {
+        this(DEFAULT_MAX_LOGS_PER_GROUP);
+    }
+
+    /**
+     * Initializes variables.
+     *
+     * @param maxLogsPerGroup maximum number of logs kept per group.
+     */
+    public InMemoryPersistence(@IntRange(from = 1) int maxLogsPerGroup) {
+        mMaxLogsPerGroup = maxLogsPerGroup;
+    }
+
+    @Override
+    public long putLog(@NonNull String group, @NonNull Log log) throws PersistenceException {
+        String payload;
+        try {
+            payload = getLogSerializer().serializeLog(log);
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string", e);
+        }
+        String targetToken = null;
+        if (log instanceof CommonSchemaLog) {
+            targetToken = log.getTransmissionTargetTokens().iterator().next();
+        }
+        LinkedHashMap<Long, Entry> entries = mGroups.get(group);
+        if (entries == null) {
+            entries = new LinkedHashMap<>();
+            mGroups.put(group, entries);
+        }
+
+        /* Drop oldest log of the group when full. */
+        if (entries.size() >= mMaxLogsPerGroup) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            remove(iterator, iterator.next());
+            onLogsEvicted(group, 1);
+            AppCenterLog.warn(LOG_TAG, "In memory buffer is full, evicted oldest log from " + group);
+        }
+        long id = mNextIdentifier++;
+        entries.put(id, new Entry(id, payload, log.getType(), targetToken));
+        mStorageSize += payload.length();
+        evictLogs();
+        return id;
+    }
+
+    /**
+     * Evict oldest logs until storage size fits the limit.
+     */
+    private void evictLogs() {
+        while (mMaxStorageSize > 0 && mStorageSize > mMaxStorageSize) {
+            Map<String, Long> logCounts = new HashMap<>();
+            for (Map.Entry<String, LinkedHashMap<Long, Entry>> group : mGroups.entrySet()) {
+                if (!group.getValue().isEmpty()) {
+                    logCounts.put(group.getKey(), (long) group.getValue().size());
+                }
+            }
+            String group = getEvictionPolicy().selectGroup(logCounts);
+            LinkedHashMap<Long, Entry> entries = group == null ? null : mGroups.get(group);
+            if (entries == null || entries.isEmpty()) {
+                break;
+            }
+            Iterator<Entry> iterator = entries.values().iterator();
+            remove(iterator, iterator.next());
+            onLogsEvicted(group, 1);
+        }
+    }
+
+    /**
+     * Remove an entry with its iterator and update state.
+     *
+     * @param iterator iterator positioned on the entry.
+     * @param entry    entry to remove.
+     */
+    private void remove(Iterator<Entry> iterator, Entry entry) {
+        iterator.remove();
+        mPendingIdentifiers.remove(entry.mId);
+        mStorageSize -= entry.mPayload.length();
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from memory for " + group + " with " + id);
+        List<Long> ids = mPendingIdentifiersGroups.remove(group + id);
+        LinkedHashMap<Long, Entry> entries = mGroups.get(group);
+        if (ids != null && entries != null) {
+            for (Long logId : ids) {
+                Entry entry = entries.remove(logId);
+                mPendingIdentifiers.remove(logId);
+                if (entry != null) {
+                    mStorageSize -= entry.mPayload.length();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from memory for " + group);
+        LinkedHashMap<Long, Entry> entries = mGroups.remove(group);
+        if (entries != null) {
+            for (Entry entry : entries.values()) {
+                mPendingIdentifiers.remove(entry.mId);
+                mStorageSize -= entry.mPayload.length();
+            }
+        }
+
+        /* Delete from pending state. */
+        for (Iterator<String> iterator = mPendingIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(group)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        LinkedHashMap<Long, Entry> entries = mGroups.get(group);
+        return entries == null ? 0 : entries.size();
+    }
+
+    @Override
+    public int countLogs(@NonNull String group, @NonNull String id) {
+        List<Long> ids = mPendingIdentifiersGroups.get(group + id);
+        return ids == null ? 0 : ids.size();
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        return getLogs(group, limit, outLogs, null);
+    }
+
+    @Override
+    @Nullable
+    public String getSerializedLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<SerializedLog> outLogs) {
+        return getLogs(group, limit, null, outLogs);
+    }
+
+    /**
+     * Gets an array of logs for the given {@code group}, either as {@link Log} objects or as stored.
+     *
+     * @param group             The group of the storage for logs.
+     * @param limit             The max number of logs to be returned.
+     * @param outLogs           A list to receive {@link Log} objects, null to skip deserialization.
+     * @param outSerializedLogs A list to receive {@link SerializedLog} objects when {@code outLogs} is null.
+     * @return An ID for the logs. {@code null} if no logs exist.
+     */
+    @Nullable
+    private String getLogs(@NonNull String group, int limit, @Nullable List<Log> outLogs, @Nullable List<SerializedLog> outSerializedLogs) {
+        LinkedHashMap<Long, Entry> entries = mGroups.get(group);
+        if (entries == null) {
+            return null;
+        }
+
+        /* Deserialize oldest non pending logs, dropping those that cannot be deserialized. */
+        List<Long> ids = new ArrayList<>();
+        List<Log> logs = new ArrayList<>();
+        List<SerializedLog> serializedLogs = new ArrayList<>();
+        long batchSize = 0;
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext() && ids.size() < limit; ) {
+            Entry entry = iterator.next();
+            if (mPendingIdentifiers.contains(entry.mId)) {
+                continue;
+            }
+            if (exceedsMaxBatchSize(ids.size(), batchSize, entry.mPayload.length())) {
+                break;
+            }
+            try {
+                SerializedLog serializedLog = new SerializedLog(entry.mPayload, entry.mType, entry.mTargetToken);
+                if (outLogs != null) {
+                    logs.add(deserializeLog(serializedLog));
+                } else {
+                    serializedLogs.add(serializedLog);
+                }
+                ids.add(entry.mId);
+                batchSize += entry.mPayload.length();
+            } catch (JSONException e) {
+                AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in memory", e);
+                remove(iterator, entry);
+            }
+        }
+        if (ids.isEmpty()) {
+            return null;
+        }
+        String id = UUIDUtils.randomUUID().toString();
+        mPendingIdentifiers.addAll(ids);
+        mPendingIdentifiersGroups.put(group + id, ids);
+        if (outLogs != null) {
+            outLogs.addAll(logs);
+        } else if (outSerializedLogs != null) {
+            outSerializedLogs.addAll(serializedLogs);
+        }
+        return id;
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        mPendingIdentifiers.clear();
+        mPendingIdentifiersGroups.clear();
+    }
+
+    @Override
+    public void clearPendingLogState(@NonNull String group, @NonNull String id) {
+        List<Long> ids = mPendingIdentifiersGroups.remove(group + id);
+        if (ids != null) {
+            mPendingIdentifiers.removeAll(ids);
+        }
+    }
+
+    /**
+     * Sets the maximum size of all serialized logs, counted in characters.
+     *
+     * @param maxStorageSize The maximum size, 0 for no limit.
+     */
+    @Override
+    public void setMaxStorageSize(long maxStorageSize) {
+        mMaxStorageSize = maxStorageSize;
+        evictLogs();
+    }
+
+    @Override
+    public void setPayloadCompressionEnabled(boolean enabled) {
+
+        /* Logs are kept uncompressed so that claiming batches stays cheap. */
+    }
+
+    @Override
+    public void flush() {
+
+        /* Nothing to commit. */
+    }
+
+    @Override
+    public void close() {
+        mGroups.clear();
+        clearPendingLogState();
+        mStorageSize = 0;
+    }
+
+    /**
+     * Serialized log.
+     */
+    private static class Entry {
+
+        /**
+         * Log identifier.
+         */
+        final long mId;
+
+        /**
+         * Serialized log.
+         */
+        final String mPayload;
+
+        /**
+         * Log type.
+         */
+        final String mType;
+
+        /**
+         * Target token if the log is common schema.
+         */
+        final String mTargetToken;
+
+        Entry(long id, String payload, String type, String targetToken) {
+            mId = id;
+            mPayload = payload;
+            mType = type;
+            mTargetToken = targetToken;
+        }
+    }
+}
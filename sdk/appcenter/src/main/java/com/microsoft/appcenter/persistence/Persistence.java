@@ -4,11 +4,22 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.microsoft.appcenter.AppCenterMetrics;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 
 /**
  * Abstract class for Persistence service.
@@ -16,15 +27,45 @@ import java.util.List;
 public abstract class Persistence implements Closeable {
 
     /**
-     * Storage capacity in number of logs.
+     * Default maximum size in bytes of all log payloads.
+     */
+    public static final long DEFAULT_MAX_STORAGE_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Default maximum size in bytes of the log payloads returned in a single batch.
+     */
+    public static final long DEFAULT_MAX_BATCH_SIZE = 1024 * 1024;
+
+    /**
+     * Persistence type storing logs in a SQLite database, the default.
+     */
+    public static final int TYPE_DATABASE = 0;
+
+    /**
+     * Persistence type storing logs in append-only segment files.
      */
-    static final int DEFAULT_CAPACITY = 300;
+    public static final int TYPE_SEGMENT_FILE = 1;
 
     /**
      * Log serializer override.
      */
     private LogSerializer mLogSerializer;
 
+    /**
+     * Policy choosing which group to evict logs from when storage is full.
+     */
+    private EvictionPolicy mEvictionPolicy = new EvictionPolicy();
+
+    /**
+     * Number of evicted logs by group.
+     */
+    private final Map<String, Long> mEvictedLogCounts = new HashMap<>();
+
+    /**
+     * Maximum size in bytes of the log payloads returned by a single call to {@link #getLogs(String, int, List)}, 0 for no limit.
+     */
+    private long mMaxBatchSize;
+
     /**
      * Writes a log to the storage with the given {@code group}.
      *
@@ -58,8 +99,20 @@ public abstract class Persistence implements Closeable {
      */
     public abstract int countLogs(@NonNull String group);
 
+    /**
+     * Gets the number of stored logs claimed by a batch returned by {@link #getLogs(String, int, List)}
+     * or {@link #getSerializedLogs(String, int, List)}.
+     * This can be more than the number of returned logs if some of them could not be converted.
+     *
+     * @param group The group of the storage for logs.
+     * @param id    The ID for a set of logs.
+     * @return The number of logs pending with the given {@code id}, 0 if unknown.
+     */
+    public abstract int countLogs(@NonNull String group, @NonNull String id);
+
     /**
      * Gets an array of logs for the given {@code group}.
+     * Fewer logs than {@code limit} are returned if their payloads would exceed {@link #setMaxBatchSize(long)}.
      *
      * @param group   The group of the storage for logs.
      * @param limit   The max number of logs to be returned.
@@ -69,11 +122,110 @@ public abstract class Persistence implements Closeable {
     @Nullable
     public abstract String getLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs);
 
+    /**
+     * Gets an array of logs for the given {@code group} as stored, without converting them to {@link Log} objects.
+     * Returned logs are pending exactly like the ones returned by {@link #getLogs(String, int, List)}.
+     * This implementation serializes what {@link #getLogs(String, int, List)} returns,
+     * subclasses storing JSON should return it directly.
+     *
+     * @param group   The group of the storage for logs.
+     * @param limit   The max number of logs to be returned.
+     * @param outLogs A list to receive {@link SerializedLog} objects.
+     * @return An ID for {@code outLogs}. {@code null} if no logs exist.
+     */
+    @Nullable
+    public String getSerializedLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<SerializedLog> outLogs) {
+        List<Log> logs = new ArrayList<>(limit);
+        String id = getLogs(group, limit, logs);
+        for (Log log : logs) {
+            try {
+                String targetToken = null;
+                if (log instanceof CommonSchemaLog) {
+                    targetToken = log.getTransmissionTargetTokens().iterator().next();
+                }
+                outLogs.add(new SerializedLog(getLogSerializer().serializeLog(log), log.getType(), targetToken));
+            } catch (JSONException e) {
+
+                /* The log stays part of the batch and is deleted with it. */
+                AppCenterLog.error(LOG_TAG, "Cannot serialize a log", e);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Converts a log returned by {@link #getSerializedLogs(String, int, List)} to a {@link Log} object.
+     *
+     * @param serializedLog serialized log.
+     * @return log, with its target token restored.
+     * @throws JSONException if the payload cannot be deserialized.
+     */
+    @NonNull
+    public Log deserializeLog(@NonNull SerializedLog serializedLog) throws JSONException {
+        Log log = getLogSerializer().deserializeLog(serializedLog.getPayload(), serializedLog.getType());
+        if (serializedLog.getTargetToken() != null) {
+            log.addTransmissionTarget(serializedLog.getTargetToken());
+        }
+        return log;
+    }
+
     /**
      * Clears all associations between logs of the {@code group} and ids returned by {@link #getLogs(String, int, List)}}.
      */
     public abstract void clearPendingLogState();
 
+    /**
+     * Clears the association between logs and a single id returned by {@link #getLogs(String, int, List)},
+     * so that they can be returned again by a later call.
+     *
+     * @param group The group of the logs.
+     * @param id    The id of the batch.
+     */
+    public abstract void clearPendingLogState(@NonNull String group, @NonNull String id);
+
+    /**
+     * Sets the maximum size in bytes of all log payloads. Oldest logs are evicted when it is exceeded.
+     *
+     * @param maxStorageSize The maximum size in bytes, 0 for no limit.
+     */
+    public abstract void setMaxStorageSize(long maxStorageSize);
+
+    /**
+     * Sets the maximum size in bytes of the log payloads returned in a single batch.
+     * The first log of a batch is always returned even if larger, so that it can still be sent.
+     *
+     * @param maxBatchSize The maximum size in bytes, 0 for no limit.
+     */
+    public void setMaxBatchSize(long maxBatchSize) {
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Checks if a log does not fit in a batch being built.
+     *
+     * @param logCount  The number of logs already in the batch.
+     * @param batchSize The size in bytes of the logs already in the batch.
+     * @param logSize   The size in bytes of the log to add.
+     * @return true if the log must be left for a next batch.
+     */
+    boolean exceedsMaxBatchSize(int logCount, long batchSize, long logSize) {
+        return mMaxBatchSize > 0 && logCount > 0 && batchSize + logSize > mMaxBatchSize;
+    }
+
+    /**
+     * Enables or disables compression of log payloads stored from now on.
+     * Logs already stored remain readable whatever the format.
+     *
+     * @param enabled true to compress new payloads, false to store them as plain text.
+     */
+    public abstract void setPayloadCompressionEnabled(boolean enabled);
+
+    /**
+     * Makes sure that every log written by {@link #putLog(String, Log)} so far is committed to the storage.
+     * Implementations may group writes and commit them later otherwise.
+     */
+    public abstract void flush();
+
     /**
      * Gets a {@link LogSerializer}.
      *
@@ -95,6 +247,57 @@ public abstract class Persistence implements Closeable {
         mLogSerializer = logSerializer;
     }
 
+    /**
+     * Gets the {@link EvictionPolicy}.
+     *
+     * @return The eviction policy.
+     */
+    EvictionPolicy getEvictionPolicy() {
+        return mEvictionPolicy;
+    }
+
+    /**
+     * Sets a custom {@link EvictionPolicy}.
+     *
+     * @param evictionPolicy The eviction policy.
+     */
+    public void setEvictionPolicy(@NonNull EvictionPolicy evictionPolicy) {
+        mEvictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * Sets the eviction priority and quota of a group.
+     *
+     * @param group    The group of the storage for logs.
+     * @param priority The priority, groups with lower priorities are evicted first.
+     * @param quota    The number of logs the group can keep before being evicted first, 0 for no quota.
+     */
+    public void setGroupEviction(@NonNull String group, int priority, int quota) {
+        mEvictionPolicy.setGroup(group, priority, quota);
+    }
+
+    /**
+     * Gets the number of logs evicted from a group because storage was full.
+     *
+     * @param group The group of the storage for logs.
+     * @return The number of evicted logs.
+     */
+    public synchronized long getEvictedLogCount(@NonNull String group) {
+        Long count = mEvictedLogCounts.get(group);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Counts logs evicted from a group.
+     *
+     * @param group The group of the storage for logs.
+     * @param count The number of evicted logs.
+     */
+    synchronized void onLogsEvicted(@NonNull String group, int count) {
+        mEvictedLogCounts.put(group, getEvictedLogCount(group) + count);
+        AppCenterMetrics.getSharedInstance().increment(AppCenterMetrics.COUNTER_LOGS_EVICTED, count);
+    }
+
     /**
      * Thrown when {@link Persistence} cannot write a log to the storage.
      */
@@ -0,0 +1,1018 @@
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.CompressionUtils;
+import com.microsoft.appcenter.utils.UUIDUtils;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence writing logs sequentially to append-only segment files, one directory per group.
+ * An in-memory index maps log identifiers to their location, acknowledged logs are recorded
+ * as tombstones and segments mostly made of deleted logs are compacted.
+ */
+public class SegmentFilePersistence extends Persistence {
+
+    /**
+     * Sub path for directory where to store segments.
+     */
+    @VisibleForTesting
+    static final String DIRECTORY = "/appcenter/segments";
+
+    /**
+     * Segment file extension.
+     */
+    @VisibleForTesting
+    static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+    /**
+     * Name of the file listing deleted log identifiers of a group.
+     */
+    @VisibleForTesting
+    static final String TOMBSTONE_FILE_NAME = "tombstones";
+
+    /**
+     * Size in bytes after which a new segment is started.
+     */
+    @VisibleForTesting
+    static final long SEGMENT_MAX_SIZE = 256 * 1024;
+
+    /**
+     * Minimum number of oldest logs evicted at once when the storage is full.
+     */
+    @VisibleForTesting
+    static final int EVICTION_CHUNK_SIZE = 10;
+
+    /**
+     * Record flag set when payload is compressed.
+     */
+    private static final int FLAG_COMPRESSED = 1;
+
+    /**
+     * Record header size: body length then body checksum.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Minimum record body size: identifier, flags and 2 empty strings.
+     */
+    private static final int RECORD_MIN_BODY_SIZE = 13;
+
+    /**
+     * Charset used for payloads and directory names.
+     */
+    private static final String CHARSET_NAME = "UTF-8";
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * Base directory containing one directory per group.
+     */
+    private final File mDirectory;
+
+    /**
+     * Groups by name.
+     */
+    private final Map<String, Group> mGroups = new HashMap<>();
+
+    /**
+     * Pending log groups. Key is a group name concatenated with a UUID and value is a list of log identifiers.
+     */
+    @VisibleForTesting
+    final Map<String, List<Long>> mPendingIdentifiersGroups = new HashMap<>();
+
+    /**
+     * Pending logs across all groups.
+     */
+    @VisibleForTesting
+    final Set<Long> mPendingIdentifiers = new HashSet<>();
+
+    /**
+     * Next log identifier.
+     */
+    private long mNextIdentifier;
+
+    /**
+     * Size in bytes of all records.
+     */
+    private long mStorageSize;
+
+    /**
+     * Maximum size in bytes of all records, 0 for no limit.
+     */
+    private long mMaxStorageSize = DEFAULT_MAX_STORAGE_SIZE;
+
+    /**
+     * Whether new log payloads are stored compressed.
+     */
+    private boolean mPayloadCompressionEnabled;
+
+    /**
+     * Initializes variables and loads the index of existing segments.
+     *
+     * @param context application context.
+     */
+    public SegmentFilePersistence(Context context) {
+        this(context, new File(Constants.FILES_PATH + DIRECTORY));
+    }
+
+    /**
+     * Initializes variables and loads the index of existing segments.
+     *
+     * @param context   application context.
+     * @param directory base directory.
+     */
+    @VisibleForTesting
+    SegmentFilePersistence(Context context, File directory) {
+        mContext = context;
+        mDirectory = directory;
+
+        //noinspection ResultOfMethodCallIgnored we handle errors at read/write time for each file.
+        mDirectory.mkdirs();
+        load();
+    }
+
+    /**
+     * Build the in-memory index from segment files.
+     */
+    private void load() {
+        File[] directories = mDirectory.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (!directory.isDirectory()) {
+                continue;
+            }
+            String name;
+            try {
+                name = URLDecoder.decode(directory.getName(), CHARSET_NAME);
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                AppCenterLog.error(LOG_TAG, "Ignoring unexpected directory " + directory, e);
+                continue;
+            }
+            Group group = new Group(name, directory);
+            Set<Long> tombstones = readTombstones(group);
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String fileName = file.getName();
+                    if (fileName.endsWith(SEGMENT_FILE_EXTENSION)) {
+                        try {
+                            long number = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_FILE_EXTENSION.length()));
+                            group.mSegments.put(number, new Segment(number, file));
+                        } catch (NumberFormatException e) {
+                            AppCenterLog.error(LOG_TAG, "Ignoring unexpected file " + file, e);
+                        }
+                    }
+                }
+            }
+            for (Segment segment : group.mSegments.values()) {
+                loadSegment(group, segment, tombstones);
+            }
+            mGroups.put(name, group);
+            compact(group);
+        }
+        AppCenterLog.debug(LOG_TAG, "Loaded " + mGroups.size() + " group(s) totaling " + mStorageSize + " bytes from segment files.");
+    }
+
+    /**
+     * Read the deleted log identifiers of a group.
+     *
+     * @param group group.
+     * @return identifiers of deleted logs.
+     */
+    private static Set<Long> readTombstones(Group group) {
+        Set<Long> tombstones = new HashSet<>();
+        File file = group.getTombstoneFile();
+        if (!file.exists()) {
+            return tombstones;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            //noinspection InfiniteLoopStatement ends with EOFException.
+            while (true) {
+                tombstones.add(input.readLong());
+            }
+        } catch (EOFException ignored) {
+
+            /* Normal end of file, a truncated last identifier is ignored. */
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot read tombstones " + file, e);
+        } finally {
+            closeQuietly(input);
+        }
+        return tombstones;
+    }
+
+    /**
+     * Index the records of a segment, truncating a partially written last record.
+     *
+     * @param group      group owning the segment.
+     * @param segment    segment to read.
+     * @param tombstones identifiers of deleted logs.
+     */
+    private void loadSegment(Group group, Segment segment, Set<Long> tombstones) {
+        long fileLength = segment.mFile.length();
+        long offset = 0;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.mFile)));
+            while (offset + RECORD_HEADER_SIZE + RECORD_MIN_BODY_SIZE <= fileLength) {
+
+                /* Checksum is verified when reading the record, only check boundaries here. */
+                int bodyLength = input.readInt();
+                input.readInt();
+                int recordLength = RECORD_HEADER_SIZE + bodyLength;
+                if (bodyLength < RECORD_MIN_BODY_SIZE || offset + recordLength > fileLength) {
+                    break;
+                }
+                long id = input.readLong();
+                skipFully(input, bodyLength - 8);
+                if (tombstones.contains(id)) {
+                    segment.mTombstones.add(id);
+                } else {
+
+                    /* A log copied by an interrupted compaction is found twice, keep the newest copy. */
+                    Record previous = group.mRecords.get(id);
+                    if (previous != null) {
+                        previous.mSegment.mLiveCount--;
+                        previous.mSegment.mLiveSize -= previous.mLength;
+                        mStorageSize -= previous.mLength;
+                    }
+                    group.add(new Record(id, segment, offset, recordLength));
+                    mStorageSize += recordLength;
+                }
+                mNextIdentifier = Math.max(mNextIdentifier, id + 1);
+                offset += recordLength;
+            }
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot read segment " + segment.mFile, e);
+        } finally {
+            closeQuietly(input);
+        }
+        segment.mSize = offset;
+        if (offset < fileLength) {
+            AppCenterLog.warn(LOG_TAG, "Truncating incomplete record at the end of " + segment.mFile);
+            truncate(segment);
+        }
+    }
+
+    @Override
+    public long putLog(@NonNull String group, @NonNull Log log) throws PersistenceException {
+        try {
+            AppCenterLog.debug(LOG_TAG, "Storing a log to segment files for log type " + log.getType() + " with sid=" + log.getSid());
+            String payload = getLogSerializer().serializeLog(log);
+            byte[] payloadBytes;
+            int flags = 0;
+            if (mPayloadCompressionEnabled) {
+                payloadBytes = CompressionUtils.compress(payload);
+                flags |= FLAG_COMPRESSED;
+            } else {
+                payloadBytes = payload.getBytes(CHARSET_NAME);
+            }
+            String targetToken = null;
+            if (log instanceof CommonSchemaLog) {
+                targetToken = log.getTransmissionTargetTokens().iterator().next();
+                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+            }
+            long id = mNextIdentifier++;
+            byte[] record = buildRecord(id, flags, log.getType(), targetToken, payloadBytes);
+            Group groupState = getOrCreateGroup(group);
+            groupState.add(append(groupState, id, record));
+            mStorageSize += record.length;
+            AppCenterLog.debug(LOG_TAG, "Stored a log to segment files for log type " + log.getType() + " with id=" + id);
+            evictLogs();
+            return id;
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string", e);
+        } catch (IOException e) {
+            throw new PersistenceException("Cannot write log to segment file", e);
+        }
+    }
+
+    /**
+     * Serialize a record.
+     *
+     * @param id          log identifier.
+     * @param flags       record flags.
+     * @param type        log type.
+     * @param targetToken encrypted target token if any.
+     * @param payload     payload bytes.
+     * @return record bytes.
+     * @throws IOException if a string is too long to be encoded.
+     */
+    private static byte[] buildRecord(long id, int flags, String type, String targetToken, byte[] payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(RECORD_HEADER_SIZE + RECORD_MIN_BODY_SIZE + payload.length + 64);
+        DataOutputStream output = new DataOutputStream(body);
+
+        /* Reserve header. */
+        output.writeLong(0);
+        output.writeLong(id);
+        output.writeByte(flags);
+        output.writeUTF(type == null ? "" : type);
+        output.writeUTF(targetToken == null ? "" : targetToken);
+        output.write(payload);
+        output.flush();
+        byte[] record = body.toByteArray();
+
+        /* Write header. */
+        int bodyLength = record.length - RECORD_HEADER_SIZE;
+        CRC32 checksum = new CRC32();
+        checksum.update(record, RECORD_HEADER_SIZE, bodyLength);
+        writeInt(record, 0, bodyLength);
+        writeInt(record, 4, (int) checksum.getValue());
+        return record;
+    }
+
+    /**
+     * Append a record to the active segment of a group, starting a new segment when needed.
+     *
+     * @param group  group.
+     * @param id     log identifier.
+     * @param record record bytes.
+     * @return record location.
+     * @throws IOException if the record could not be written.
+     */
+    private Record append(Group group, long id, byte[] record) throws IOException {
+        Segment segment = group.mSegments.isEmpty() ? null : group.mSegments.lastEntry().getValue();
+        if (segment == null || segment.mSize >= SEGMENT_MAX_SIZE) {
+            group.closeOutput();
+            long number = segment == null ? 0 : segment.mNumber + 1;
+            segment = new Segment(number, new File(group.mDirectory, number + SEGMENT_FILE_EXTENSION));
+            group.mSegments.put(number, segment);
+        }
+        if (group.mOutput == null) {
+
+            //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
+            group.mDirectory.mkdirs();
+            group.mOutput = new FileOutputStream(segment.mFile, true);
+        }
+        try {
+            group.mOutput.write(record);
+        } catch (IOException e) {
+
+            /* Remove what could have been written so that next record starts at a valid offset. */
+            group.closeOutput();
+            truncate(segment);
+            throw e;
+        }
+        Record location = new Record(id, segment, segment.mSize, record.length);
+        segment.mSize += record.length;
+        return location;
+    }
+
+    /**
+     * Evict oldest logs until storage size fits the limit.
+     */
+    private void evictLogs() {
+        while (mMaxStorageSize > 0 && mStorageSize > mMaxStorageSize) {
+
+            /* Select group. */
+            Map<String, Long> logCounts = new HashMap<>();
+            for (Group group : mGroups.values()) {
+                if (!group.mRecords.isEmpty()) {
+                    logCounts.put(group.mName, (long) group.mRecords.size());
+                }
+            }
+            String name = getEvictionPolicy().selectGroup(logCounts);
+            Group group = name == null ? null : mGroups.get(name);
+            if (group == null || group.mRecords.isEmpty()) {
+                break;
+            }
+
+            /* Take oldest logs of the group until enough logs and bytes are freed. */
+            int minCount = Math.min(EVICTION_CHUNK_SIZE, group.mRecords.size() - 1);
+            long minSize = mStorageSize - mMaxStorageSize;
+            long freedSize = 0;
+            List<Long> ids = new ArrayList<>();
+            for (Iterator<Record> iterator = group.mRecords.values().iterator(); iterator.hasNext() && (ids.size() < minCount || freedSize < minSize); ) {
+                Record record = iterator.next();
+                ids.add(record.mId);
+                freedSize += record.mLength;
+            }
+            removeRecords(group, ids);
+            onLogsEvicted(name, ids.size());
+            AppCenterLog.warn(LOG_TAG, "Storage is full, evicted " + ids.size() + " log(s) (" + freedSize + " bytes) from " + name);
+        }
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from segment files for " + group + " with " + id);
+        List<Long> ids = mPendingIdentifiersGroups.remove(group + id);
+        Group groupState = mGroups.get(group);
+        if (ids != null && groupState != null) {
+            removeRecords(groupState, ids);
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from segment files for " + group);
+        Group groupState = mGroups.remove(group);
+        if (groupState != null) {
+            for (Record record : groupState.mRecords.values()) {
+                mPendingIdentifiers.remove(record.mId);
+                mStorageSize -= record.mLength;
+            }
+            groupState.closeOutput();
+            deleteDirectory(groupState.mDirectory);
+        }
+
+        /* Delete from pending state. */
+        for (Iterator<String> iterator = mPendingIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(group)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        Group groupState = mGroups.get(group);
+        return groupState == null ? 0 : groupState.mRecords.size();
+    }
+
+    @Override
+    public int countLogs(@NonNull String group, @NonNull String id) {
+        List<Long> ids = mPendingIdentifiersGroups.get(group + id);
+        return ids == null ? 0 : ids.size();
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        return getLogs(group, limit, outLogs, null);
+    }
+
+    @Override
+    @Nullable
+    public String getSerializedLogs(@NonNull String group, @IntRange(from = 0) int limit, @NonNull List<SerializedLog> outLogs) {
+        return getLogs(group, limit, null, outLogs);
+    }
+
+    /**
+     * Gets an array of logs for the given {@code group}, either as {@link Log} objects or as stored.
+     *
+     * @param group             The group of the storage for logs.
+     * @param limit             The max number of logs to be returned.
+     * @param outLogs           A list to receive {@link Log} objects, null to skip deserialization.
+     * @param outSerializedLogs A list to receive {@link SerializedLog} objects when {@code outLogs} is null.
+     * @return An ID for the logs. {@code null} if no logs exist.
+     */
+    @Nullable
+    private String getLogs(@NonNull String group, int limit, @Nullable List<Log> outLogs, @Nullable List<SerializedLog> outSerializedLogs) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from segment files for " + group);
+        Group groupState = mGroups.get(group);
+        if (groupState == null) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in segment files at the moment");
+            return null;
+        }
+
+        /* Read oldest non pending logs, keeping segment files open for the duration of the scan. */
+        Map<Long, Object> candidates = new LinkedHashMap<>();
+        List<Long> failedIds = new ArrayList<>();
+        Map<Segment, RandomAccessFile> files = new HashMap<>();
+        long batchSize = 0;
+        try {
+            for (Iterator<Record> iterator = groupState.mRecords.values().iterator(); iterator.hasNext() && candidates.size() < limit; ) {
+                Record record = iterator.next();
+                if (mPendingIdentifiers.contains(record.mId)) {
+                    continue;
+                }
+                try {
+                    RandomAccessFile file = files.get(record.mSegment);
+                    if (file == null) {
+                        file = new RandomAccessFile(record.mSegment.mFile, "r");
+                        files.put(record.mSegment, file);
+                    }
+                    SerializedLog serializedLog = readLog(file, record);
+
+                    /* Leave the log for the next batch if it does not fit, counting its decompressed size. */
+                    int logSize = serializedLog.getPayload().length();
+                    if (exceedsMaxBatchSize(candidates.size(), batchSize, logSize)) {
+                        break;
+                    }
+                    batchSize += logSize;
+                    candidates.put(record.mId, outLogs != null ? deserializeLog(serializedLog) : serializedLog);
+                } catch (JSONException | IOException e) {
+
+                    /* If it is not able to deserialize, delete and get another log. */
+                    AppCenterLog.error(LOG_TAG, "Cannot read a log from segment files", e);
+                    failedIds.add(record.mId);
+                }
+            }
+        } finally {
+            for (RandomAccessFile file : files.values()) {
+                closeQuietly(file);
+            }
+        }
+
+        /* Delete any logs that cannot be read. */
+        if (failedIds.size() > 0) {
+            removeRecords(groupState, failedIds);
+            AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
+        }
+
+        /* No logs found. */
+        if (candidates.size() <= 0) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in segment files at the moment");
+            return null;
+        }
+
+        /* Mark logs as pending under a new batch identifier. */
+        String id = UUIDUtils.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
+        List<Long> pendingIdentifiersGroup = new ArrayList<>(candidates.size());
+        for (Map.Entry<Long, Object> entry : candidates.entrySet()) {
+            mPendingIdentifiers.add(entry.getKey());
+            pendingIdentifiersGroup.add(entry.getKey());
+            if (outLogs != null) {
+                outLogs.add((Log) entry.getValue());
+            } else if (outSerializedLogs != null) {
+                outSerializedLogs.add((SerializedLog) entry.getValue());
+            }
+        }
+        mPendingIdentifiersGroups.put(group + id, pendingIdentifiersGroup);
+        return id;
+    }
+
+    /**
+     * Read a log, its checksum guarantees the payload is what was written.
+     *
+     * @param file   opened segment file.
+     * @param record record location.
+     * @return serialized log.
+     * @throws IOException if the record cannot be read or is corrupted.
+     */
+    private SerializedLog readLog(RandomAccessFile file, Record record) throws IOException {
+        byte[] bytes = new byte[record.mLength];
+        file.seek(record.mOffset);
+        file.readFully(bytes);
+        int bodyLength = record.mLength - RECORD_HEADER_SIZE;
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, RECORD_HEADER_SIZE, bodyLength);
+        if (readInt(bytes, 0) != bodyLength || readInt(bytes, 4) != (int) checksum.getValue()) {
+            throw new IOException("Corrupted record " + record.mId + " in " + record.mSegment.mFile);
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes, RECORD_HEADER_SIZE, bodyLength));
+        long id = input.readLong();
+        if (id != record.mId) {
+            throw new IOException("Unexpected record " + id + " instead of " + record.mId + " in " + record.mSegment.mFile);
+        }
+        int flags = input.readByte();
+        String type = input.readUTF();
+        String targetToken = input.readUTF();
+        byte[] payloadBytes = new byte[input.available()];
+        input.readFully(payloadBytes);
+        String payload = (flags & FLAG_COMPRESSED) != 0 ? CompressionUtils.decompress(payloadBytes) : new String(payloadBytes, CHARSET_NAME);
+
+        /* Restore target token. */
+        if (targetToken.isEmpty()) {
+            targetToken = null;
+        } else {
+            CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken, false);
+            targetToken = data.getDecryptedData();
+        }
+        return new SerializedLog(payload, type.isEmpty() ? null : type, targetToken);
+    }
+
+    /**
+     * Remove logs from the index, record them as tombstones then compact segments.
+     *
+     * @param group group.
+     * @param ids   log identifiers.
+     */
+    private void removeRecords(Group group, Collection<Long> ids) {
+        List<Long> tombstones = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Record record = group.mRecords.remove(id);
+            mPendingIdentifiers.remove(id);
+            if (record != null) {
+                record.mSegment.mLiveCount--;
+                record.mSegment.mLiveSize -= record.mLength;
+                record.mSegment.mTombstones.add(id);
+                mStorageSize -= record.mLength;
+                tombstones.add(id);
+            }
+        }
+        if (tombstones.isEmpty()) {
+            return;
+        }
+        DataOutputStream output = null;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(tombstones.size() * 8);
+            DataOutputStream data = new DataOutputStream(buffer);
+            for (Long id : tombstones) {
+                data.writeLong(id);
+            }
+            output = new DataOutputStream(new FileOutputStream(group.getTombstoneFile(), true));
+            output.write(buffer.toByteArray());
+        } catch (IOException e) {
+
+            /* Logs would be sent again after restart, compaction might still remove them. */
+            AppCenterLog.error(LOG_TAG, "Cannot write tombstones for " + group.mName, e);
+        } finally {
+            closeQuietly(output);
+        }
+        compact(group);
+    }
+
+    /**
+     * Delete segments without live logs and rewrite sparse ones, then shrink the tombstone file.
+     *
+     * @param group group to compact.
+     */
+    private void compact(Group group) {
+        boolean deleted = false;
+        Segment active = group.mSegments.isEmpty() ? null : group.mSegments.lastEntry().getValue();
+        for (Segment segment : new ArrayList<>(group.mSegments.values())) {
+            boolean empty = segment.mLiveCount == 0;
+            boolean sparse = segment != active && segment.mLiveSize * 2 < segment.mSize;
+            if (empty || sparse) {
+                if (segment == active) {
+                    group.closeOutput();
+                }
+                if (!empty && !moveRecords(group, segment)) {
+                    continue;
+                }
+                group.mSegments.remove(segment.mNumber);
+
+                //noinspection ResultOfMethodCallIgnored a leftover file only contains deleted logs.
+                segment.mFile.delete();
+                deleted = true;
+            }
+        }
+        if (group.mSegments.isEmpty()) {
+            group.closeOutput();
+            mGroups.remove(group.mName);
+            deleteDirectory(group.mDirectory);
+        } else if (deleted) {
+            writeTombstones(group);
+        }
+    }
+
+    /**
+     * Copy live logs of a segment at the end of the active segment.
+     *
+     * @param group   group.
+     * @param segment segment to empty.
+     * @return true if all live logs were moved.
+     */
+    private boolean moveRecords(Group group, Segment segment) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(segment.mFile, "r");
+            for (Record record : new ArrayList<>(group.mRecords.values())) {
+                if (record.mSegment == segment) {
+                    byte[] bytes = new byte[record.mLength];
+                    file.seek(record.mOffset);
+                    file.readFully(bytes);
+                    Record moved = append(group, record.mId, bytes);
+                    segment.mLiveCount--;
+                    segment.mLiveSize -= record.mLength;
+                    group.add(moved);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot compact segment " + segment.mFile, e);
+            return false;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * Rewrite the tombstone file with only the identifiers still present in segment files.
+     *
+     * @param group group.
+     */
+    private static void writeTombstones(Group group) {
+        File file = group.getTombstoneFile();
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            for (Segment segment : group.mSegments.values()) {
+                for (Long id : segment.mTombstones) {
+                    output.writeLong(id);
+                }
+            }
+            output.close();
+            output = null;
+            if (!temporaryFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporaryFile);
+            }
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot rewrite tombstones for " + group.mName, e);
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        mPendingIdentifiers.clear();
+        mPendingIdentifiersGroups.clear();
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public void clearPendingLogState(@NonNull String group, @NonNull String id) {
+        List<Long> ids = mPendingIdentifiersGroups.remove(group + id);
+        if (ids != null) {
+            mPendingIdentifiers.removeAll(ids);
+        }
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log state for " + group + " with " + id);
+    }
+
+    @Override
+    public void setMaxStorageSize(long maxStorageSize) {
+        mMaxStorageSize = maxStorageSize;
+        evictLogs();
+    }
+
+    @Override
+    public void setPayloadCompressionEnabled(boolean enabled) {
+        mPayloadCompressionEnabled = enabled;
+    }
+
+    @Override
+    public void flush() {
+
+        /* Records are written to the file system without buffering. */
+    }
+
+    @Override
+    public void close() {
+        for (Group group : mGroups.values()) {
+            group.closeOutput();
+        }
+    }
+
+    /**
+     * Get a group, creating it if needed.
+     *
+     * @param name group name.
+     * @return group.
+     * @throws UnsupportedEncodingException never as UTF-8 is always supported.
+     */
+    private Group getOrCreateGroup(String name) throws UnsupportedEncodingException {
+        Group group = mGroups.get(name);
+        if (group == null) {
+            group = new Group(name, new File(mDirectory, URLEncoder.encode(name, CHARSET_NAME)));
+            mGroups.put(name, group);
+        }
+        return group;
+    }
+
+    @VisibleForTesting
+    @Nullable
+    File getGroupDirectory(String group) {
+        Group groupState = mGroups.get(group);
+        return groupState == null ? null : groupState.mDirectory;
+    }
+
+    @VisibleForTesting
+    long getStorageSize() {
+        return mStorageSize;
+    }
+
+    @VisibleForTesting
+    int getSegmentCount(String group) {
+        Group groupState = mGroups.get(group);
+        return groupState == null ? 0 : groupState.mSegments.size();
+    }
+
+    private static void truncate(Segment segment) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(segment.mFile, "rw");
+            file.setLength(segment.mSize);
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot truncate " + segment.mFile, e);
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+
+                //noinspection ResultOfMethodCallIgnored nothing we can do if it fails.
+                file.delete();
+            }
+        }
+
+        //noinspection ResultOfMethodCallIgnored nothing we can do if it fails.
+        directory.delete();
+    }
+
+    private static void skipFully(DataInputStream input, int count) throws IOException {
+        while (count > 0) {
+            int skipped = input.skipBytes(count);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+
+                /* Nothing to do. */
+            }
+        }
+    }
+
+    /**
+     * Segments and index of a group.
+     */
+    private static class Group {
+
+        /**
+         * Group name.
+         */
+        final String mName;
+
+        /**
+         * Directory containing segment files and tombstones.
+         */
+        final File mDirectory;
+
+        /**
+         * Segments by number, last one is the active segment.
+         */
+        final TreeMap<Long, Segment> mSegments = new TreeMap<>();
+
+        /**
+         * Live logs by identifier, oldest first.
+         */
+        final TreeMap<Long, Record> mRecords = new TreeMap<>();
+
+        /**
+         * Append stream on active segment, opened on first write.
+         */
+        FileOutputStream mOutput;
+
+        Group(String name, File directory) {
+            mName = name;
+            mDirectory = directory;
+        }
+
+        File getTombstoneFile() {
+            return new File(mDirectory, TOMBSTONE_FILE_NAME);
+        }
+
+        void add(Record record) {
+            mRecords.put(record.mId, record);
+            record.mSegment.mLiveCount++;
+            record.mSegment.mLiveSize += record.mLength;
+        }
+
+        void closeOutput() {
+            closeQuietly(mOutput);
+            mOutput = null;
+        }
+    }
+
+    /**
+     * Segment file state.
+     */
+    private static class Segment {
+
+        /**
+         * Segment number, increasing with time.
+         */
+        final long mNumber;
+
+        /**
+         * Segment file.
+         */
+        final File mFile;
+
+        /**
+         * Identifiers of deleted logs still present in the file.
+         */
+        final Set<Long> mTombstones = new HashSet<>();
+
+        /**
+         * Size of valid records in the file.
+         */
+        long mSize;
+
+        /**
+         * Number of live logs.
+         */
+        int mLiveCount;
+
+        /**
+         * Size of live records.
+         */
+        long mLiveSize;
+
+        Segment(long number, File file) {
+            mNumber = number;
+            mFile = file;
+        }
+    }
+
+    /**
+     * Location of a log in a segment file.
+     */
+    private static class Record {
+
+        /**
+         * Log identifier.
+         */
+        final long mId;
+
+        /**
+         * Segment containing the log.
+         */
+        final Segment mSegment;
+
+        /**
+         * Offset of the record in the segment file.
+         */
+        final long mOffset;
+
+        /**
+         * Record size, header included.
+         */
+        final int mLength;
+
+        Record(long id, Segment segment, long offset, int length) {
+            mId = id;
+            mSegment = segment;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.microsoft.appcenter.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utility class relating to payload compression.
+ */
+public class CompressionUtils {
+
+    /**
+     * Buffer size used when compressing or decompressing.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    @VisibleForTesting
+    CompressionUtils() {
+
+        /* Hide constructor in utils pattern. */
+    }
+
+    /**
+     * Compress a string with deflate.
+     *
+     * @param data string to compress, encoded as UTF-8.
+     * @return compressed bytes.
+     */
+    @NonNull
+    public static byte[] compress(@NonNull String data) {
+        byte[] input;
+        try {
+            input = data.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+
+            /* Never happens as every device has UTF-8 support. */
+            throw new RuntimeException(e);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress bytes produced by {@link #compress(String)}.
+     *
+     * @param data compressed bytes.
+     * @return decompressed string.
+     * @throws IOException if data is not valid compressed data.
+     */
+    @NonNull
+    public static String decompress(@NonNull byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed data is truncated.");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toString("UTF-8");
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
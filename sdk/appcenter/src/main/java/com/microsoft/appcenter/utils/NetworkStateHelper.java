@@ -147,6 +147,24 @@ public class NetworkStateHelper implements Closeable {
         return mNetworkType != null || !mAvailableNetworks.isEmpty();
     }
 
+    /**
+     * Check whether the active network is metered, such as a cellular network.
+     *
+     * @return true if metered, false if not metered or unknown.
+     */
+    public boolean isNetworkMetered() {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                return mConnectivityManager.isActiveNetworkMetered();
+            }
+            NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+            return networkInfo != null && networkInfo.getType() == ConnectivityManager.TYPE_MOBILE;
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot access network state information", e);
+            return false;
+        }
+    }
+
     /**
      * Handle network available update on API level >= 21.
      */
@@ -6,6 +6,7 @@ import java.security.KeyStore;
 
 /**
  * Specification for implementations of cryptographic utilities.
+ * {@link CryptoUtils} calls a handler from one thread at a time so implementations can reuse cipher state between calls.
  */
 interface CryptoHandler {
 
@@ -29,6 +29,11 @@ import static javax.crypto.Cipher.ENCRYPT_MODE;
 @RequiresApi(Build.VERSION_CODES.KITKAT)
 class CryptoRsaHandler implements CryptoHandler {
 
+    /**
+     * Cipher reused between calls, created on first use.
+     */
+    private CryptoUtils.ICipher mCipher;
+
     @Override
     public String getAlgorithm() {
         return CIPHER_RSA + "/" + RSA_KEY_SIZE;
@@ -56,16 +61,19 @@ class CryptoRsaHandler implements CryptoHandler {
     }
 
     /**
-     * Get new cipher.
+     * Get cipher, creating it the first time. Each call initializes it again with a key.
      */
     private CryptoUtils.ICipher getCipher(CryptoUtils.ICryptoFactory cipherFactory, int apiLevel) throws Exception {
-        String provider;
-        if (apiLevel >= Build.VERSION_CODES.M) {
-            provider = PROVIDER_ANDROID_M;
-        } else {
-            provider = PROVIDER_ANDROID_OLD;
+        if (mCipher == null) {
+            String provider;
+            if (apiLevel >= Build.VERSION_CODES.M) {
+                provider = PROVIDER_ANDROID_M;
+            } else {
+                provider = PROVIDER_ANDROID_OLD;
+            }
+            mCipher = cipherFactory.getCipher(CIPHER_RSA, provider);
         }
-        return cipherFactory.getCipher(CIPHER_RSA, provider);
+        return mCipher;
     }
 
     @Override
@@ -78,14 +86,28 @@ class CryptoRsaHandler implements CryptoHandler {
         } catch (CertificateExpiredException e) {
             throw new InvalidKeyException(e);
         }
-        cipher.init(ENCRYPT_MODE, certificate.getPublicKey());
-        return cipher.doFinal(input);
+        try {
+            cipher.init(ENCRYPT_MODE, certificate.getPublicKey());
+            return cipher.doFinal(input);
+        } catch (Exception e) {
+
+            /* Don't reuse a cipher left in an unknown state. */
+            mCipher = null;
+            throw e;
+        }
     }
 
     @Override
     public byte[] decrypt(CryptoUtils.ICryptoFactory cryptoFactory, int apiLevel, KeyStore.Entry keyStoreEntry, byte[] data) throws Exception {
         CryptoUtils.ICipher cipher = getCipher(cryptoFactory, apiLevel);
-        cipher.init(DECRYPT_MODE, ((KeyStore.PrivateKeyEntry) keyStoreEntry).getPrivateKey());
-        return cipher.doFinal(data);
+        try {
+            cipher.init(DECRYPT_MODE, ((KeyStore.PrivateKeyEntry) keyStoreEntry).getPrivateKey());
+            return cipher.doFinal(data);
+        } catch (Exception e) {
+
+            /* Don't reuse a cipher left in an unknown state. */
+            mCipher = null;
+            throw e;
+        }
     }
 }
@@ -16,8 +16,11 @@ import java.security.Key;
 import java.security.KeyStore;
 import java.security.Provider;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.crypto.Cipher;
@@ -33,6 +36,7 @@ import static com.microsoft.appcenter.utils.crypto.CryptoConstants.KEYSTORE_ALIA
 
 /**
  * Tool to encrypt/decrypt strings seamlessly.
+ * Key store entries and ciphers are reused between calls, encrypt and decrypt calls are serialized.
  */
 public class CryptoUtils {
 
@@ -136,6 +140,11 @@ public class CryptoUtils {
      */
     private final KeyStore mKeyStore;
 
+    /**
+     * Key store entries already loaded by alias, to avoid a key store call per operation.
+     */
+    private final Map<String, KeyStore.Entry> mKeyStoreEntries = new HashMap<>();
+
     /**
      * Init.
      *
@@ -252,7 +261,7 @@ public class CryptoUtils {
     }
 
     /**
-     * Get key store entry for the corresponding handler.
+     * Get key store entry for the corresponding handler, loading it from the key store only the first time.
      */
     @Nullable
     private KeyStore.Entry getKeyStoreEntry(@NonNull CryptoHandlerEntry handlerEntry, boolean mobileCenterFailOver) throws Exception {
@@ -260,7 +269,14 @@ public class CryptoUtils {
             return null;
         }
         String alias = getAlias(handlerEntry.mCryptoHandler, handlerEntry.mAliasIndex, mobileCenterFailOver);
-        return mKeyStore.getEntry(alias, null);
+        KeyStore.Entry keyStoreEntry = mKeyStoreEntries.get(alias);
+        if (keyStoreEntry == null) {
+            keyStoreEntry = mKeyStore.getEntry(alias, null);
+            if (keyStoreEntry != null) {
+                mKeyStoreEntries.put(alias, keyStoreEntry);
+            }
+        }
+        return keyStoreEntry;
     }
 
     /**
@@ -270,7 +286,7 @@ public class CryptoUtils {
      * @return encrypted data, or original data on internal failure or if null.
      */
     @Nullable
-    public String encrypt(@Nullable String data) {
+    public synchronized String encrypt(@Nullable String data) {
         if (data == null) {
             return null;
         }
@@ -295,8 +311,10 @@ public class CryptoUtils {
 
                 /* When key expires, switch to another alias. */
                 AppCenterLog.debug(LOG_TAG, "Alias expired: " + handlerEntry.mAliasIndex);
+                mKeyStoreEntries.remove(getAlias(handler, handlerEntry.mAliasIndex, false));
                 handlerEntry.mAliasIndex ^= 1;
                 String newAlias = getAlias(handler, handlerEntry.mAliasIndex, false);
+                mKeyStoreEntries.remove(newAlias);
 
                 /* If this is the second time we switch, we delete the previous key. */
                 if (mKeyStore.containsAlias(newAlias)) {
@@ -327,7 +345,7 @@ public class CryptoUtils {
      * @return decrypted data.
      */
     @NonNull
-    public DecryptedData decrypt(@Nullable String data, boolean mobileCenterFailOver) {
+    public synchronized DecryptedData decrypt(@Nullable String data, boolean mobileCenterFailOver) {
 
         /* Handle null for convenience. */
         if (data == null) {
@@ -352,12 +370,48 @@ public class CryptoUtils {
             return new DecryptedData(decryptedString, newEncryptedData);
         } catch (Exception e) {
 
+            /* The key might have been replaced behind our back, load it again next time. */
+            if (cryptoHandler != null) {
+                mKeyStoreEntries.remove(getAlias(cryptoHandler, handlerEntry.mAliasIndex, mobileCenterFailOver));
+            }
+
             /* Return data as is. */
             AppCenterLog.error(LOG_TAG, "Failed to decrypt data.");
             return new DecryptedData(data, null);
         }
     }
 
+    /**
+     * Encrypt several values at once.
+     *
+     * @param data values to encrypt.
+     * @return encrypted values in the same order, see {@link #encrypt(String)}.
+     */
+    @NonNull
+    public synchronized List<String> encrypt(@NonNull List<String> data) {
+        List<String> encryptedData = new ArrayList<>(data.size());
+        for (String value : data) {
+            encryptedData.add(encrypt(value));
+        }
+        return encryptedData;
+    }
+
+    /**
+     * Decrypt several values at once.
+     *
+     * @param data                 values to decrypt.
+     * @param mobileCenterFailOver if true, uses Mobile Center keystore instead of App Center keystore when false.
+     * @return decrypted values in the same order, see {@link #decrypt(String, boolean)}.
+     */
+    @NonNull
+    public synchronized List<DecryptedData> decrypt(@NonNull List<String> data, boolean mobileCenterFailOver) {
+        List<DecryptedData> decryptedData = new ArrayList<>(data.size());
+        for (String value : data) {
+            decryptedData.add(decrypt(value, mobileCenterFailOver));
+        }
+        return decryptedData;
+    }
+
     /**
      * Crypto factory.
      */
@@ -7,6 +7,8 @@ import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -17,11 +19,17 @@ import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Database manager for SQLite with fail-over to in-memory.
@@ -38,6 +46,19 @@ public class DatabaseManager implements Closeable {
      */
     private static final String PRIMARY_KEY_SELECTION = "oid = ?";
 
+    /**
+     * Maximum number of excluded identifiers bound as query arguments, SQLite accepts 999 arguments by default.
+     * Other excluded identifiers are skipped while iterating.
+     */
+    @VisibleForTesting
+    static final int MAX_BOUND_EXCLUDED_IDS = 500;
+
+    /**
+     * Maximum time in milliseconds a flush from another thread waits for the inserting thread to commit.
+     */
+    @VisibleForTesting
+    static final long GROUP_COMMIT_FLUSH_TIMEOUT = 1000;
+
     /**
      * Application context instance.
      */
@@ -68,6 +89,11 @@ public class DatabaseManager implements Closeable {
      */
     private final Listener mListener;
 
+    /**
+     * Manager that opens the database when this one manages another table of it, null otherwise.
+     */
+    private final DatabaseManager mDatabaseOwner;
+
     /**
      * SQLite helper instance.
      */
@@ -84,6 +110,62 @@ public class DatabaseManager implements Closeable {
      */
     private long mIMDBAutoInc;
 
+    /**
+     * Number of rows in the SQLite table, counted once when first needed then maintained. {@code -1} if not counted yet.
+     */
+    private long mRowCount = -1;
+
+    /**
+     * Minimum number of oldest rows deleted at once when the table exceeds the maximum number of records.
+     */
+    private int mEvictionChunkSize = 1;
+
+    /**
+     * Guards the state of grouped inserts, read by other threads when they flush.
+     */
+    private final Object mGroupCommitLock = new Object();
+
+    /**
+     * Maximum number of inserts grouped in a single transaction. {@code 0} to commit every insert.
+     */
+    private int mGroupCommitMaxWrites;
+
+    /**
+     * Maximum time in milliseconds an insert can stay uncommitted when grouping inserts.
+     */
+    private long mGroupCommitInterval;
+
+    /**
+     * Database holding the transaction of grouped inserts, {@code null} if no insert is pending.
+     */
+    private SQLiteDatabase mGroupCommitDatabase;
+
+    /**
+     * Number of inserts in the pending transaction.
+     */
+    private int mGroupCommitPendingWrites;
+
+    /**
+     * Time when the pending transaction was started.
+     */
+    private long mGroupCommitStartTime;
+
+    /**
+     * Handler of the thread holding the pending transaction, commits it when the interval elapses.
+     */
+    private Handler mGroupCommitHandler;
+
+    /**
+     * Commits the pending transaction when no other operation did it before the interval elapsed.
+     */
+    private final Runnable mGroupCommitRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
     /**
      * Initializes the table in the database.
      *
@@ -119,6 +201,7 @@ public class DatabaseManager implements Closeable {
         mSchema = schema;
         mMaxNumberOfRecords = maxRecords;
         mListener = listener;
+        mDatabaseOwner = null;
         mSQLiteOpenHelper = new SQLiteOpenHelper(context, database, null, version) {
 
             @Override
@@ -143,6 +226,9 @@ public class DatabaseManager implements Closeable {
                 }
                 sql.append(");");
                 db.execSQL(sql.toString());
+                if (mListener instanceof CreateListener) {
+                    ((CreateListener) mListener).onCreate(db);
+                }
             }
 
             @Override
@@ -157,6 +243,27 @@ public class DatabaseManager implements Closeable {
         };
     }
 
+    /**
+     * Initializes another table in the database of a manager, using the same connection.
+     * This manager does not create the table, the listener of the other manager has to create it
+     * when the database is created or upgraded.
+     *
+     * @param databaseManager The manager of the database.
+     * @param table           The table name.
+     * @param schema          The schema.
+     * @param listener        The error listener.
+     */
+    DatabaseManager(DatabaseManager databaseManager, String table, ContentValues schema, Listener listener) {
+        mContext = databaseManager.mContext;
+        mDatabase = databaseManager.mDatabase;
+        mTable = table;
+        mSchema = schema;
+        mMaxNumberOfRecords = 0;
+        mListener = listener;
+        mDatabaseOwner = databaseManager;
+        mSQLiteOpenHelper = databaseManager.mSQLiteOpenHelper;
+    }
+
     /**
      * Converts a cursor to an entry.
      *
@@ -204,22 +311,31 @@ public class DatabaseManager implements Closeable {
      */
     public long put(@NonNull ContentValues values) {
 
+        /* Inserts grouped by another thread must be committed first, only that thread can do it. */
+        flush(true);
+
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
 
-                /* Insert data. */
-                long id = getDatabase().insertOrThrow(mTable, null, values);
-
-                /* Purge oldest entry if it hits the limit. */
-                if (mMaxNumberOfRecords < getRowCount() && mMaxNumberOfRecords > 0) {
-                    Cursor cursor = getCursor(null, null, true);
-                    cursor.moveToNext();
-                    delete(cursor.getLong(0));
-                    cursor.close();
+                /* Insert data, in the pending transaction if grouping inserts. */
+                SQLiteDatabase database = getDatabase();
+                countRows(database);
+                beginGroupCommit(database);
+                long id = database.insertOrThrow(mTable, null, values);
+                mRowCount++;
+
+                /* Purge oldest entries if it hits the limit, a chunk at a time but never the new entry. */
+                if (mMaxNumberOfRecords < mRowCount && mMaxNumberOfRecords > 0) {
+                    long evictCount = Math.min(Math.max(mRowCount - mMaxNumberOfRecords, mEvictionChunkSize), mRowCount - 1);
+                    onRowsDeleted(database.delete(mTable, PRIMARY_KEY + " IN (SELECT " + PRIMARY_KEY + " FROM " + mTable + " ORDER BY " + PRIMARY_KEY + " LIMIT " + evictCount + ")", null));
                 }
+
+                /* Commit if the group is full or too old. */
+                endGroupCommit();
                 return id;
             } catch (RuntimeException e) {
+                abortGroupCommit();
                 switchToInMemory("put", e);
             }
         }
@@ -239,6 +355,9 @@ public class DatabaseManager implements Closeable {
      */
     public boolean update(@IntRange(from = 0) long id, @NonNull ContentValues values) {
 
+        /* Commit grouped inserts first. */
+        flush();
+
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
@@ -257,6 +376,71 @@ public class DatabaseManager implements Closeable {
         return true;
     }
 
+    /**
+     * Updates the entries for the identifiers.
+     *
+     * @param idList The list of existing database identifiers.
+     * @param values The values to set on each entry.
+     */
+    public void update(@NonNull List<Long> idList, @NonNull ContentValues values) {
+        if (idList.size() <= 0) {
+            return;
+        }
+
+        /* Commit grouped inserts first. */
+        flush();
+
+        /* Try SQLite. */
+        if (mIMDB == null) {
+            try {
+                getDatabase().update(mTable, values, PRIMARY_KEY + " IN (" + TextUtils.join(", ", idList) + ")", null);
+            } catch (RuntimeException e) {
+                switchToInMemory("update", e);
+            }
+        }
+
+        /* Updates the values in in-memory database. */
+        else {
+            for (Long id : idList) {
+                ContentValues existValues = mIMDB.get(id);
+                if (existValues != null) {
+                    existValues.putAll(values);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the entries that match key == value.
+     *
+     * @param key    The key for query.
+     * @param value  The value for query.
+     * @param values The values to set on each entry.
+     */
+    public void update(@NonNull String key, @NonNull Object value, @NonNull ContentValues values) {
+
+        /* Commit grouped inserts first. */
+        flush();
+
+        /* Try SQLite. */
+        if (mIMDB == null) {
+            try {
+                getDatabase().update(mTable, values, key + " = ?", new String[]{String.valueOf(value)});
+            } catch (RuntimeException e) {
+                switchToInMemory("update", e);
+            }
+        }
+
+        /* Updates the values in in-memory database. */
+        else {
+            for (ContentValues existValues : mIMDB.values()) {
+                if (value.equals(existValues.get(key))) {
+                    existValues.putAll(values);
+                }
+            }
+        }
+    }
+
     /**
      * Deletes the entry by the identifier from the database.
      *
@@ -276,10 +460,13 @@ public class DatabaseManager implements Closeable {
             return;
         }
 
+        /* Commit grouped inserts first. */
+        flush();
+
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
-                getDatabase().execSQL(String.format("DELETE FROM " + mTable + " WHERE " + PRIMARY_KEY + " IN (%s);", TextUtils.join(", ", idList)));
+                onRowsDeleted(getDatabase().delete(mTable, PRIMARY_KEY + " IN (" + TextUtils.join(", ", idList) + ")", null));
             } catch (RuntimeException e) {
                 switchToInMemory("delete", e);
             }
@@ -301,10 +488,13 @@ public class DatabaseManager implements Closeable {
      */
     public void delete(@Nullable String key, @Nullable Object value) {
 
+        /* Commit grouped inserts first. */
+        flush();
+
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
-                getDatabase().delete(mTable, key + " = ?", new String[]{String.valueOf(value)});
+                onRowsDeleted(getDatabase().delete(mTable, key + " = ?", new String[]{String.valueOf(value)}));
             } catch (RuntimeException e) {
                 switchToInMemory("delete", e);
             }
@@ -346,6 +536,9 @@ public class DatabaseManager implements Closeable {
      */
     public ContentValues get(@Nullable String key, @Nullable Object value) {
 
+        /* Commit grouped inserts first. */
+        flush();
+
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
@@ -386,7 +579,88 @@ public class DatabaseManager implements Closeable {
      * @return A scanner to iterate all values.
      */
     Scanner getScanner(String key, Object value, boolean idOnly) {
-        return new Scanner(key, value, idOnly);
+        return getScanner(key, value, null, idOnly, 0);
+    }
+
+    /**
+     * Gets a scanner to iterate values those match key == value, skipping the excluded identifiers.
+     *
+     * @param key         The optional key for query.
+     * @param value       The optional value for query.
+     * @param excludedIds The optional identifiers to skip.
+     * @param idOnly      true to return only identifier, false to return all fields.
+     *                    This flag is ignored if using in memory database.
+     * @param limit       The maximum number of values to iterate, 0 for no limit.
+     * @return A scanner to iterate values.
+     */
+    Scanner getScanner(String key, Object value, Collection<Long> excludedIds, boolean idOnly, int limit) {
+        return getScanner(key, value, excludedIds, idOnly ? new String[]{PRIMARY_KEY} : null, limit);
+    }
+
+    /**
+     * Gets a scanner to iterate only some columns of values those match key == value, skipping the excluded identifiers.
+     *
+     * @param key         The optional key for query.
+     * @param value       The optional value for query.
+     * @param excludedIds The optional identifiers to skip.
+     * @param columns     The columns to return, null to return all fields.
+     *                    This is ignored if using in memory database.
+     * @param limit       The maximum number of values to iterate, 0 for no limit.
+     * @return A scanner to iterate values.
+     */
+    Scanner getScanner(String key, Object value, Collection<Long> excludedIds, String[] columns, int limit) {
+        return getScanner(toArray(key), toArray(key, value), excludedIds, columns, limit);
+    }
+
+    /**
+     * Gets a scanner to iterate values those match all keys == values, skipping the excluded identifiers.
+     *
+     * @param keys        The keys for query.
+     * @param values      The values for query, one for each key.
+     * @param excludedIds The optional identifiers to skip.
+     * @param idOnly      true to return only identifier, false to return all fields.
+     *                    This flag is ignored if using in memory database.
+     * @param limit       The maximum number of values to iterate, 0 for no limit.
+     * @return A scanner to iterate values.
+     */
+    Scanner getScanner(String[] keys, Object[] values, Collection<Long> excludedIds, boolean idOnly, int limit) {
+        return getScanner(keys, values, excludedIds, idOnly ? new String[]{PRIMARY_KEY} : null, limit);
+    }
+
+    /**
+     * Gets a scanner to iterate only some columns of values those match all keys == values, skipping the excluded identifiers.
+     *
+     * @param keys        The keys for query.
+     * @param values      The values for query, one for each key.
+     * @param excludedIds The optional identifiers to skip.
+     * @param columns     The columns to return, null to return all fields.
+     *                    This is ignored if using in memory database.
+     * @param limit       The maximum number of values to iterate, 0 for no limit.
+     * @return A scanner to iterate values.
+     */
+    private Scanner getScanner(String[] keys, Object[] values, Collection<Long> excludedIds, String[] columns, int limit) {
+        return new Scanner(keys, values, excludedIds, columns, limit);
+    }
+
+    /**
+     * Converts an optional query key to an array of keys.
+     *
+     * @param key The optional key for query.
+     * @return An array containing the key, empty if the key is null.
+     */
+    private static String[] toArray(String key) {
+        return key == null ? new String[0] : new String[]{key};
+    }
+
+    /**
+     * Converts an optional query value to an array of values.
+     *
+     * @param key   The optional key for query.
+     * @param value The optional value for query.
+     * @return An array containing the value, empty if the key is null.
+     */
+    private static Object[] toArray(String key, Object value) {
+        return key == null ? new Object[0] : new Object[]{value};
     }
 
     /**
@@ -394,10 +668,14 @@ public class DatabaseManager implements Closeable {
      */
     public void clear() {
 
+        /* Commit grouped inserts first. */
+        flush();
+
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
                 getDatabase().delete(mTable, null, null);
+                mRowCount = 0;
             } catch (RuntimeException e) {
                 switchToInMemory("clear", e);
             }
@@ -415,10 +693,18 @@ public class DatabaseManager implements Closeable {
     @Override
     public void close() {
 
+        /* Commit grouped inserts first. */
+        flush();
+
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
-                getDatabase().close();
+
+                /* The database is closed by the manager that opened it. */
+                if (mDatabaseOwner == null) {
+                    getDatabase().close();
+                }
+                mRowCount = -1;
             } catch (RuntimeException e) {
                 switchToInMemory("close", e);
             }
@@ -431,6 +717,182 @@ public class DatabaseManager implements Closeable {
         }
     }
 
+    /**
+     * Sets the minimum number of oldest rows deleted at once when the table exceeds the maximum number of records.
+     * Deleting more than the overflow avoids paying for a delete on every insert once the table is full.
+     *
+     * @param evictionChunkSize minimum number of rows to delete, {@code 1} to only delete the overflow.
+     */
+    public void setEvictionChunkSize(@IntRange(from = 1) int evictionChunkSize) {
+        mEvictionChunkSize = evictionChunkSize;
+    }
+
+    /**
+     * Groups inserts in a single transaction, committed when {@code maxWrites} inserts are pending
+     * or when the oldest pending insert is older than {@code interval} milliseconds,
+     * whichever comes first. Any other operation or {@link #flush()} also commits pending inserts.
+     * The interval is enforced by a timer on the looper of the inserting thread, inserts made from
+     * a thread without a looper are committed one by one.
+     * Pending inserts are visible to the calling thread but other threads accessing the database
+     * wait for the commit, so the database should be used from a single thread in this mode.
+     * An operation from another thread asks the inserting thread to commit and waits for it,
+     * up to {@link #GROUP_COMMIT_FLUSH_TIMEOUT} milliseconds.
+     *
+     * @param maxWrites maximum number of inserts per transaction, {@code 0} or {@code 1} to commit every insert.
+     * @param interval  maximum time in milliseconds an insert can stay uncommitted.
+     */
+    public void setGroupCommit(@IntRange(from = 0) int maxWrites, @IntRange(from = 0) long interval) {
+        flush();
+        synchronized (mGroupCommitLock) {
+            mGroupCommitMaxWrites = maxWrites;
+            mGroupCommitInterval = interval;
+        }
+    }
+
+    /**
+     * Commits the inserts that are pending when grouping inserts.
+     * When they were made by another thread, waits for that thread to commit them.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    /**
+     * Commits the inserts that are pending when grouping inserts.
+     *
+     * @param otherThreadOnly true to commit only inserts made by another thread.
+     */
+    private void flush(boolean otherThreadOnly) {
+
+        /* Another table of the database only has inserts grouped by the manager that opens it. */
+        if (mDatabaseOwner != null) {
+            mDatabaseOwner.flush(otherThreadOnly);
+            return;
+        }
+        Handler groupCommitHandler;
+        synchronized (mGroupCommitLock) {
+            if (mGroupCommitDatabase == null) {
+                return;
+            }
+            groupCommitHandler = mGroupCommitHandler;
+            if (isGroupCommitThread()) {
+                if (!otherThreadOnly) {
+                    commitGroup();
+                }
+                return;
+            }
+        }
+
+        /* SQLite transactions belong to the thread that started them, wait for it to commit. */
+        final CountDownLatch committed = new CountDownLatch(1);
+        boolean posted = groupCommitHandler.postAtFrontOfQueue(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } finally {
+                    committed.countDown();
+                }
+            }
+        });
+        try {
+            if (!posted || !committed.await(GROUP_COMMIT_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                AppCenterLog.warn(AppCenter.LOG_TAG, "Grouped inserts in " + mTable + " were not committed by the thread that made them.");
+            }
+        } catch (InterruptedException e) {
+            AppCenterLog.warn(AppCenter.LOG_TAG, "Interrupted while waiting for grouped inserts in " + mTable + " to be committed.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks if a transaction of grouped inserts is pending and was started by the current thread.
+     * Must be called with {@link #mGroupCommitLock}.
+     *
+     * @return true if the current thread can end the pending transaction.
+     */
+    private boolean isGroupCommitThread() {
+        return mGroupCommitDatabase != null && Looper.myLooper() == mGroupCommitHandler.getLooper();
+    }
+
+    /**
+     * Ends the pending transaction, must be called with {@link #mGroupCommitLock} on the thread that started it.
+     */
+    private void commitGroup() {
+        SQLiteDatabase database = mGroupCommitDatabase;
+        int pendingWrites = mGroupCommitPendingWrites;
+        mGroupCommitDatabase = null;
+        mGroupCommitPendingWrites = 0;
+        mGroupCommitHandler.removeCallbacks(mGroupCommitRunnable);
+        try {
+            database.setTransactionSuccessful();
+            database.endTransaction();
+            AppCenterLog.verbose(AppCenter.LOG_TAG, "Committed " + pendingWrites + " grouped insert(s) in " + mTable);
+        } catch (RuntimeException e) {
+            switchToInMemory("flush", e);
+        }
+    }
+
+    /**
+     * Starts a transaction if grouping inserts and none is pending,
+     * and schedules its commit on the looper of the current thread.
+     *
+     * @param database database.
+     */
+    private void beginGroupCommit(SQLiteDatabase database) {
+        synchronized (mGroupCommitLock) {
+            if (mGroupCommitMaxWrites > 1 && mGroupCommitDatabase == null) {
+
+                /* Nothing could commit the group later without a looper. */
+                Looper looper = Looper.myLooper();
+                if (looper == null) {
+                    return;
+                }
+                if (mGroupCommitHandler == null || mGroupCommitHandler.getLooper() != looper) {
+                    mGroupCommitHandler = new Handler(looper);
+                }
+                database.beginTransactionNonExclusive();
+                mGroupCommitDatabase = database;
+                mGroupCommitStartTime = System.currentTimeMillis();
+                mGroupCommitHandler.postDelayed(mGroupCommitRunnable, mGroupCommitInterval);
+            }
+        }
+    }
+
+    /**
+     * Counts an insert in the pending transaction and commits if the group is full or too old.
+     */
+    private void endGroupCommit() {
+        synchronized (mGroupCommitLock) {
+            if (isGroupCommitThread()) {
+                mGroupCommitPendingWrites++;
+                if (mGroupCommitPendingWrites >= mGroupCommitMaxWrites || System.currentTimeMillis() - mGroupCommitStartTime >= mGroupCommitInterval) {
+                    commitGroup();
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits what has been inserted so far in the pending transaction after an insert failed.
+     */
+    private void abortGroupCommit() {
+        synchronized (mGroupCommitLock) {
+            if (isGroupCommitThread()) {
+                mGroupCommitHandler.removeCallbacks(mGroupCommitRunnable);
+                try {
+                    mGroupCommitDatabase.setTransactionSuccessful();
+                    mGroupCommitDatabase.endTransaction();
+                } catch (RuntimeException e) {
+                    AppCenterLog.warn(AppCenter.LOG_TAG, "Failed to commit grouped inserts", e);
+                }
+                mGroupCommitDatabase = null;
+                mGroupCommitPendingWrites = 0;
+            }
+        }
+    }
+
     /**
      * Gets the count of records in the table.
      *
@@ -441,7 +903,7 @@ public class DatabaseManager implements Closeable {
         /* Try SQLite. */
         if (mIMDB == null) {
             try {
-                return DatabaseUtils.queryNumEntries(getDatabase(), mTable);
+                return countRows(getDatabase());
             } catch (RuntimeException e) {
                 switchToInMemory("count", e);
             }
@@ -451,6 +913,110 @@ public class DatabaseManager implements Closeable {
         return mIMDB.size();
     }
 
+    /**
+     * Gets the count of records for each value of a column.
+     *
+     * @param key The column to group records by.
+     * @return The number of records by value, values are converted to strings.
+     */
+    public Map<String, Long> getRowCounts(@NonNull String key) {
+
+        /* Commit grouped inserts first. */
+        flush();
+        Map<String, Long> counts = new HashMap<>();
+
+        /* Try SQLite. */
+        if (mIMDB == null) {
+            try {
+                SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+                builder.setTables(mTable);
+                Cursor cursor = builder.query(getDatabase(), new String[]{key, "COUNT(*)"}, null, null, key, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        counts.put(cursor.getString(0), cursor.getLong(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return counts;
+            } catch (RuntimeException e) {
+                counts.clear();
+                switchToInMemory("count", e);
+            }
+        }
+
+        /* Count in-memory database. */
+        for (ContentValues values : mIMDB.values()) {
+            Object value = values.get(key);
+            String countKey = value == null ? null : value.toString();
+            Long count = counts.get(countKey);
+            counts.put(countKey, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the sum of a numeric column over all records, null values count as 0.
+     *
+     * @param key The column to sum.
+     * @return The sum.
+     */
+    public long getSum(@NonNull String key) {
+
+        /* Commit grouped inserts first. */
+        flush();
+
+        /* Try SQLite. */
+        if (mIMDB == null) {
+            try {
+                SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+                builder.setTables(mTable);
+                Cursor cursor = builder.query(getDatabase(), new String[]{"TOTAL(" + key + ")"}, null, null, null, null, null);
+                try {
+                    return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                switchToInMemory("sum", e);
+            }
+        }
+
+        /* Sum in-memory database. */
+        long sum = 0;
+        for (ContentValues values : mIMDB.values()) {
+            Long value = values.getAsLong(key);
+            if (value != null) {
+                sum += value;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Counts the records in the SQLite table if not already counted.
+     *
+     * @param database database.
+     * @return The number of records in the table.
+     */
+    private long countRows(SQLiteDatabase database) {
+        if (mRowCount < 0) {
+            mRowCount = DatabaseUtils.queryNumEntries(database, mTable);
+        }
+        return mRowCount;
+    }
+
+    /**
+     * Updates the row count after deleting records from the SQLite table.
+     *
+     * @param deletedRows number of deleted records.
+     */
+    private void onRowsDeleted(int deletedRows) {
+        if (mRowCount >= 0) {
+            mRowCount = Math.max(0, mRowCount - deletedRows);
+        }
+    }
+
     /**
      * Gets a cursor for all rows in the table, all rows where key matches value if specified.
      *
@@ -461,24 +1027,94 @@ public class DatabaseManager implements Closeable {
      * @throws RuntimeException If an error occurs.
      */
     Cursor getCursor(String key, Object value, boolean idOnly) throws RuntimeException {
+        return getCursor(key, value, null, idOnly ? new String[]{PRIMARY_KEY} : null, 0);
+    }
+
+    /**
+     * Gets a cursor for rows in the table, all rows where key matches value if specified,
+     * skipping excluded identifiers and returning at most limit rows.
+     *
+     * @param key         The optional key for query.
+     * @param value       The optional value for query.
+     * @param excludedIds The optional identifiers to skip.
+     * @param columns     The columns to return, null to return all fields.
+     * @param limit       The maximum number of rows to return, 0 for no limit.
+     * @return A cursor for all rows that matches the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    Cursor getCursor(String key, Object value, Collection<Long> excludedIds, String[] columns, int limit) throws RuntimeException {
+        return getCursor(toArray(key), toArray(key, value), excludedIds, columns, limit);
+    }
+
+    /**
+     * Gets a cursor for rows in the table where all keys match values,
+     * skipping excluded identifiers and returning at most limit rows.
+     *
+     * @param keys        The keys for query.
+     * @param values      The values for query, one for each key.
+     * @param excludedIds The optional identifiers to skip.
+     * @param columns     The columns to return, null to return all fields.
+     * @param limit       The maximum number of rows to return, 0 for no limit.
+     * @return A cursor for all rows that matches the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    private Cursor getCursor(String[] keys, Object[] values, Collection<Long> excludedIds, String[] columns, int limit) throws RuntimeException {
 
         /* Build a query to get values. */
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
         builder.setTables(mTable);
-        String[] selectionArgs;
-        if (key == null) {
-            selectionArgs = null;
-        } else if (value == null) {
-            builder.appendWhere(key + " IS NULL");
-            selectionArgs = null;
-        } else {
-            builder.appendWhere(key + " = ?");
-            selectionArgs = new String[]{String.valueOf(value.toString())};
+        List<String> selectionArgs = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                builder.appendWhere(" AND ");
+            }
+            if (values[i] == null) {
+                builder.appendWhere(keys[i] + " IS NULL");
+            } else {
+                builder.appendWhere(keys[i] + " = ?");
+                selectionArgs.add(String.valueOf(values[i].toString()));
+            }
+        }
+
+        /*
+         * Skip excluded identifiers in SQL rather than while iterating, as arguments so that the statement does not change.
+         * When there are too many, only the oldest are bound and the limit leaves room for the others, skipped by the scanner.
+         */
+        if (excludedIds != null && !excludedIds.isEmpty()) {
+            if (keys.length > 0) {
+                builder.appendWhere(" AND ");
+            }
+            List<Long> boundIds = getBoundExcludedIds(excludedIds);
+            StringBuilder placeholders = new StringBuilder();
+            for (Long id : boundIds) {
+                placeholders.append(placeholders.length() == 0 ? "?" : ", ?");
+                selectionArgs.add(String.valueOf(id));
+            }
+            builder.appendWhere(PRIMARY_KEY + " NOT IN (" + placeholders + ")");
+            if (limit > 0) {
+                limit += excludedIds.size() - boundIds.size();
+            }
         }
 
         /* Query database. */
-        String[] projectionIn = idOnly ? new String[]{PRIMARY_KEY} : null;
-        return builder.query(getDatabase(), projectionIn, null, selectionArgs, null, null, PRIMARY_KEY);
+        String limitArg = limit > 0 ? String.valueOf(limit) : null;
+        String[] selectionArgsArray = selectionArgs.isEmpty() ? null : selectionArgs.toArray(new String[selectionArgs.size()]);
+        return builder.query(getDatabase(), columns, null, selectionArgsArray, null, null, PRIMARY_KEY, limitArg);
+    }
+
+    /**
+     * Gets the excluded identifiers to bind as query arguments.
+     *
+     * @param excludedIds excluded identifiers.
+     * @return all of them or the {@link #MAX_BOUND_EXCLUDED_IDS} oldest ones.
+     */
+    private static List<Long> getBoundExcludedIds(Collection<Long> excludedIds) {
+        List<Long> ids = new ArrayList<>(excludedIds);
+        if (ids.size() > MAX_BOUND_EXCLUDED_IDS) {
+            Collections.sort(ids);
+            ids = ids.subList(0, MAX_BOUND_EXCLUDED_IDS);
+        }
+        return ids;
     }
 
     /**
@@ -490,6 +1126,11 @@ public class DatabaseManager implements Closeable {
     @VisibleForTesting
     SQLiteDatabase getDatabase() throws RuntimeException {
 
+        /* Share the connection of the manager that opens the database. */
+        if (mDatabaseOwner != null) {
+            return mDatabaseOwner.getDatabase();
+        }
+
         /* Try opening database. */
         try {
             return mSQLiteOpenHelper.getWritableDatabase();
@@ -564,25 +1205,53 @@ public class DatabaseManager implements Closeable {
         void onError(String operation, RuntimeException e);
     }
 
+    /**
+     * Database listener that is also notified when the table is created.
+     */
+    public interface CreateListener extends Listener {
+
+        /**
+         * Called after the table is created, e.g. to create indexes.
+         *
+         * @param db database being created.
+         */
+        void onCreate(SQLiteDatabase db);
+    }
+
     /**
      * Scanner specification.
      */
     class Scanner implements Iterable<ContentValues>, Closeable {
 
         /**
-         * Filter key.
+         * Filter keys.
          */
-        private final String key;
+        private final String[] keys;
 
         /**
-         * Filter value.
+         * Filter values, one for each key.
          */
-        private final Object value;
+        private final Object[] values;
 
         /**
-         * Return only IDs flags (SQLite implementation only).
+         * Identifiers to skip, can be null.
          */
-        private final boolean idOnly;
+        private final Collection<Long> excludedIds;
+
+        /**
+         * Columns to return, null for all (SQLite implementation only).
+         */
+        private final String[] columns;
+
+        /**
+         * Maximum number of values to iterate, 0 for no limit.
+         */
+        private final int limit;
+
+        /**
+         * True if some excluded identifiers are not bound in the query and have to be skipped while iterating.
+         */
+        private final boolean skipExcludedIds;
 
         /**
          * SQLite cursor.
@@ -592,10 +1261,13 @@ public class DatabaseManager implements Closeable {
         /**
          * Initializes a cursor with optional filter.
          */
-        private Scanner(String key, Object value, boolean idOnly) {
-            this.key = key;
-            this.value = value;
-            this.idOnly = idOnly;
+        private Scanner(String[] keys, Object[] values, Collection<Long> excludedIds, String[] columns, int limit) {
+            this.keys = keys;
+            this.values = values;
+            this.excludedIds = excludedIds;
+            this.columns = columns;
+            this.limit = limit;
+            skipExcludedIds = excludedIds != null && excludedIds.size() > MAX_BOUND_EXCLUDED_IDS;
         }
 
         @Override
@@ -616,12 +1288,15 @@ public class DatabaseManager implements Closeable {
         @Override
         public Iterator<ContentValues> iterator() {
 
+            /* Commit grouped inserts first. */
+            flush();
+
             /* Try SQLite. */
             if (mIMDB == null) {
                 try {
                     /* Close cursor first if it was being used. */
                     close();
-                    cursor = getCursor(key, value, idOnly);
+                    cursor = getCursor(keys, values, excludedIds, columns, limit);
 
                     /* Wrap cursor as iterator. */
                     return new Iterator<ContentValues>() {
@@ -631,11 +1306,18 @@ public class DatabaseManager implements Closeable {
                          */
                         Boolean hasNext;
 
+                        /**
+                         * Number of values returned so far.
+                         */
+                        int count;
+
                         @Override
                         public boolean hasNext() {
                             if (hasNext == null) {
                                 try {
-                                    hasNext = cursor.moveToNext();
+                                    do {
+                                        hasNext = (limit <= 0 || count < limit) && cursor.moveToNext();
+                                    } while (hasNext && isSkipped());
                                 } catch (RuntimeException e) {
 
                                     /* Consider no next on errors. */
@@ -664,6 +1346,7 @@ public class DatabaseManager implements Closeable {
                                 throw new NoSuchElementException();
                             }
                             hasNext = null;
+                            count++;
 
                             /* Build object. */
                             return buildValues(cursor, mSchema);
@@ -673,6 +1356,19 @@ public class DatabaseManager implements Closeable {
                         public void remove() {
                             throw new UnsupportedOperationException();
                         }
+
+                        /**
+                         * Checks if the current row is excluded but was not filtered by the query.
+                         *
+                         * @return true to skip the row.
+                         */
+                        private boolean isSkipped() {
+                            if (!skipExcludedIds) {
+                                return false;
+                            }
+                            int index = cursor.getColumnIndex(PRIMARY_KEY);
+                            return index >= 0 && excludedIds.contains(cursor.getLong(index));
+                        }
                     };
                 } catch (RuntimeException e) {
                     switchToInMemory("scan.iterator", e);
@@ -691,16 +1387,19 @@ public class DatabaseManager implements Closeable {
                 /** Next value. */
                 ContentValues next;
 
+                /** Number of values returned so far. */
+                int count;
+
                 @Override
                 public boolean hasNext() {
 
                     /* Iterator needs to be moved to the next. */
                     if (!advanced) {
                         next = null;
-                        while (iterator.hasNext()) {
+                        while ((limit <= 0 || count < limit) && iterator.hasNext()) {
                             ContentValues nextCandidate = iterator.next();
-                            Object candidateValue = nextCandidate.get(key);
-                            if (key == null || (value != null && value.equals(candidateValue)) || (value == null && candidateValue == null)) {
+                            boolean excluded = excludedIds != null && excludedIds.contains(nextCandidate.getAsLong(PRIMARY_KEY));
+                            if (!excluded && matches(nextCandidate)) {
                                 next = nextCandidate;
                                 break;
                             }
@@ -716,6 +1415,7 @@ public class DatabaseManager implements Closeable {
                         throw new NoSuchElementException();
                     }
                     advanced = false;
+                    count++;
                     return next;
                 }
 
@@ -723,14 +1423,33 @@ public class DatabaseManager implements Closeable {
                 public void remove() {
                     throw new UnsupportedOperationException();
                 }
+
+                /**
+                 * Checks if in-memory values match all filter keys.
+                 *
+                 * @param candidate values to check.
+                 * @return true if the values match.
+                 */
+                private boolean matches(ContentValues candidate) {
+                    for (int i = 0; i < keys.length; i++) {
+                        Object candidateValue = candidate.get(keys[i]);
+                        if (values[i] == null ? candidateValue != null : !values[i].equals(candidateValue)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
             };
         }
 
         public int getCount() {
-            if (mIMDB == null) {
+
+            /* Commit grouped inserts first. */
+            flush();
+            if (mIMDB == null && !skipExcludedIds) {
                 try {
                     if (cursor == null) {
-                        cursor = getCursor(key, value, idOnly);
+                        cursor = getCursor(keys, values, excludedIds, columns, limit);
                     }
                     return cursor.getCount();
                 } catch (RuntimeException e) {
@@ -27,8 +27,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -602,6 +604,23 @@ public class StorageHelper {
             return new DatabaseStorage(new DatabaseManager(sContext, database, table, version, schema, maxRecords, listener));
         }
 
+        /**
+         * Get a new instance of {@code DatabaseManager} for another table in the database of a storage.
+         * Both use the same connection, the listener of that storage has to create the table.
+         *
+         * @param databaseStorage The storage of the database.
+         * @param table           The table name.
+         * @param schema          The schema of the table.
+         * @param listener        The database listener, its upgrade callback is not used.
+         * @return database storage.
+         */
+        public static DatabaseStorage getDatabaseStorage(@NonNull DatabaseStorage databaseStorage,
+                                                         @NonNull String table,
+                                                         @NonNull ContentValues schema,
+                                                         @NonNull DatabaseManager.Listener listener) {
+            return new DatabaseStorage(new DatabaseManager(databaseStorage.mDatabaseManager, table, schema, listener));
+        }
+
         /**
          * Store an entry in a table.
          *
@@ -623,6 +642,27 @@ public class StorageHelper {
             return mDatabaseManager.update(id, values);
         }
 
+        /**
+         * Update entries in a table.
+         *
+         * @param idList The list of existing database identifiers.
+         * @param values The values to update.
+         */
+        public void update(@NonNull List<Long> idList, @NonNull ContentValues values) {
+            mDatabaseManager.update(idList, values);
+        }
+
+        /**
+         * Update the entries that match key == value.
+         *
+         * @param key    The key for query.
+         * @param value  The value for query.
+         * @param values The values to update.
+         */
+        public void update(@NonNull String key, @NonNull Object value, @NonNull ContentValues values) {
+            mDatabaseManager.update(key, value, values);
+        }
+
         /**
          * Delete an entry in a table.
          *
@@ -707,6 +747,54 @@ public class StorageHelper {
             return new DatabaseScanner(mDatabaseManager.getScanner(key, value, idOnly));
         }
 
+        /**
+         * Gets a scanner to iterate at most limit values those match key == value, ordered by
+         * identifier, skipping the excluded identifiers.
+         *
+         * @param key         The optional key for query.
+         * @param value       The optional value for query.
+         * @param excludedIds The optional identifiers to skip.
+         * @param idOnly      True to return only identifiers, false to return all fields.
+         *                    This flag is ignored if using in memory database.
+         * @param limit       The maximum number of values to iterate, 0 for no limit.
+         * @return A scanner to iterate values.
+         */
+        public DatabaseScanner getScanner(@Nullable String key, @Nullable Object value, @Nullable Collection<Long> excludedIds, boolean idOnly, int limit) {
+            return new DatabaseScanner(mDatabaseManager.getScanner(key, value, excludedIds, idOnly, limit));
+        }
+
+        /**
+         * Gets a scanner to iterate at most limit values those match key == value, ordered by
+         * identifier, skipping the excluded identifiers and returning only some columns.
+         *
+         * @param key         The optional key for query.
+         * @param value       The optional value for query.
+         * @param excludedIds The optional identifiers to skip.
+         * @param columns     The columns to return, null to return all fields.
+         *                    This is ignored if using in memory database.
+         * @param limit       The maximum number of values to iterate, 0 for no limit.
+         * @return A scanner to iterate values.
+         */
+        public DatabaseScanner getScanner(@Nullable String key, @Nullable Object value, @Nullable Collection<Long> excludedIds, @Nullable String[] columns, int limit) {
+            return new DatabaseScanner(mDatabaseManager.getScanner(key, value, excludedIds, columns, limit));
+        }
+
+        /**
+         * Gets a scanner to iterate at most limit values those match all keys == values, ordered by
+         * identifier, skipping the excluded identifiers.
+         *
+         * @param keys        The keys for query.
+         * @param values      The values for query, one for each key.
+         * @param excludedIds The optional identifiers to skip.
+         * @param idOnly      True to return only identifiers, false to return all fields.
+         *                    This flag is ignored if using in memory database.
+         * @param limit       The maximum number of values to iterate, 0 for no limit.
+         * @return A scanner to iterate values.
+         */
+        public DatabaseScanner getScanner(@NonNull String[] keys, @NonNull Object[] values, @Nullable Collection<Long> excludedIds, boolean idOnly, int limit) {
+            return new DatabaseScanner(mDatabaseManager.getScanner(keys, values, excludedIds, idOnly, limit));
+        }
+
         /**
          * Clears the table in the database.
          */
@@ -722,6 +810,33 @@ public class StorageHelper {
             mDatabaseManager.close();
         }
 
+        /**
+         * Groups inserts in a single transaction, committed when {@code maxWrites} inserts are pending
+         * or when the oldest pending insert is older than {@code interval} milliseconds.
+         *
+         * @param maxWrites maximum number of inserts per transaction, {@code 0} to commit every insert.
+         * @param interval  maximum time in milliseconds an insert can stay uncommitted.
+         */
+        public void setGroupCommit(@IntRange(from = 0) int maxWrites, @IntRange(from = 0) long interval) {
+            mDatabaseManager.setGroupCommit(maxWrites, interval);
+        }
+
+        /**
+         * Sets the minimum number of oldest rows deleted at once when the table exceeds its capacity.
+         *
+         * @param evictionChunkSize minimum number of rows to delete, {@code 1} to only delete the overflow.
+         */
+        public void setEvictionChunkSize(@IntRange(from = 1) int evictionChunkSize) {
+            mDatabaseManager.setEvictionChunkSize(evictionChunkSize);
+        }
+
+        /**
+         * Commits the inserts that are pending when grouping inserts.
+         */
+        public void flush() {
+            mDatabaseManager.flush();
+        }
+
         /**
          * Gets the count of records in the table.
          *
@@ -731,6 +846,26 @@ public class StorageHelper {
             return mDatabaseManager.getRowCount();
         }
 
+        /**
+         * Gets the sum of a numeric column over all records, null values count as 0.
+         *
+         * @param key The column to sum.
+         * @return The sum.
+         */
+        public long sum(@NonNull String key) {
+            return mDatabaseManager.getSum(key);
+        }
+
+        /**
+         * Gets the count of records for each value of a column.
+         *
+         * @param key The column to group records by.
+         * @return The number of records by value, values are converted to strings.
+         */
+        public Map<String, Long> sizeBy(@NonNull String key) {
+            return mDatabaseManager.getRowCounts(key);
+        }
+
         /**
          * Gets an array of column names in the table.
          *
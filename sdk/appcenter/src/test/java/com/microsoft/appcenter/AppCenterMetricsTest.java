@@ -0,0 +1,184 @@
+package com.microsoft.appcenter;
+
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import static com.microsoft.appcenter.AppCenterMetrics.COUNTER_LOGS_ENQUEUED;
+import static com.microsoft.appcenter.AppCenterMetrics.COUNTER_LOGS_SENT;
+import static com.microsoft.appcenter.AppCenterMetrics.GAUGE_PENDING_LOGS_PREFIX;
+import static com.microsoft.appcenter.AppCenterMetrics.HISTOGRAM_BATCH_LATENCY;
+import static com.microsoft.appcenter.AppCenterMetrics.HISTOGRAM_BATCH_SIZE;
+import static com.microsoft.appcenter.AppCenterMetrics.LISTENER_INTERVAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({AppCenterMetrics.class, SystemClock.class})
+public class AppCenterMetricsTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    private long mTime;
+
+    @Before
+    public void setUp() {
+        mockStatic(SystemClock.class);
+        mTime = 1000;
+        when(SystemClock.elapsedRealtime()).thenReturn(mTime);
+    }
+
+    @After
+    public void tearDown() {
+        AppCenterMetrics.unsetInstance();
+    }
+
+    private void elapse(long duration) {
+        mTime += duration;
+        when(SystemClock.elapsedRealtime()).thenReturn(mTime);
+    }
+
+    @Test
+    public void sharedInstance() {
+        AppCenterMetrics metrics = AppCenterMetrics.getSharedInstance();
+        assertSame(metrics, AppCenterMetrics.getSharedInstance());
+        AppCenterMetrics.unsetInstance();
+        assertNotSame(metrics, AppCenterMetrics.getSharedInstance());
+    }
+
+    @Test
+    public void counters() {
+        AppCenterMetrics metrics = new AppCenterMetrics();
+        metrics.increment(COUNTER_LOGS_ENQUEUED, 1);
+        metrics.increment(COUNTER_LOGS_ENQUEUED, 2);
+        metrics.increment(COUNTER_LOGS_SENT, 5);
+        MetricsSnapshot snapshot = metrics.getSnapshot();
+        assertEquals(3, snapshot.getCounter(COUNTER_LOGS_ENQUEUED));
+        assertEquals(5, snapshot.getCounter(COUNTER_LOGS_SENT));
+
+        /* Snapshot does not change afterwards. */
+        metrics.increment(COUNTER_LOGS_SENT, 1);
+        assertEquals(5, snapshot.getCounter(COUNTER_LOGS_SENT));
+        assertEquals(6, metrics.getSnapshot().getCounter(COUNTER_LOGS_SENT));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        HistogramSnapshot histogram = new AppCenterMetrics().getSnapshot().getHistogram(HISTOGRAM_BATCH_SIZE);
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        AppCenterMetrics metrics = new AppCenterMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(HISTOGRAM_BATCH_LATENCY, i);
+        }
+
+        /* Negative values are recorded as 0. */
+        metrics.record(HISTOGRAM_BATCH_SIZE, -5);
+        MetricsSnapshot snapshot = metrics.getSnapshot();
+        HistogramSnapshot histogram = snapshot.getHistogram(HISTOGRAM_BATCH_LATENCY);
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0);
+
+        /* Percentiles are bucket upper bounds: 50th value is in 32..63, 90th and 100th in 64..127 capped by max. */
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(90));
+        assertEquals(100, histogram.getPercentile(100));
+        HistogramSnapshot sizes = snapshot.getHistogram(HISTOGRAM_BATCH_SIZE);
+        assertEquals(1, sizes.getCount());
+        assertEquals(0, sizes.getMax());
+        assertEquals(0, sizes.getPercentile(99));
+    }
+
+    @Test
+    public void largeValues() {
+        AppCenterMetrics metrics = new AppCenterMetrics();
+        metrics.record(HISTOGRAM_BATCH_LATENCY, Long.MAX_VALUE);
+        HistogramSnapshot histogram = metrics.getSnapshot().getHistogram(HISTOGRAM_BATCH_LATENCY);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void gauges() {
+        AppCenterMetrics metrics = new AppCenterMetrics();
+        AppCenterMetrics.Gauge first = mock(AppCenterMetrics.Gauge.class);
+        when(first.getValue()).thenReturn(3L);
+        AppCenterMetrics.Gauge second = mock(AppCenterMetrics.Gauge.class);
+        when(second.getValue()).thenReturn(4L);
+        AppCenterMetrics.Gauge other = mock(AppCenterMetrics.Gauge.class);
+        when(other.getValue()).thenReturn(10L);
+        metrics.registerGauge(GAUGE_PENDING_LOGS_PREFIX + "a", first);
+        metrics.registerGauge(GAUGE_PENDING_LOGS_PREFIX + "b", second);
+        metrics.registerGauge("other", other);
+        MetricsSnapshot snapshot = metrics.getSnapshot();
+        assertEquals(3, snapshot.getGauges().size());
+        assertEquals(Long.valueOf(3), snapshot.getGauges().get(GAUGE_PENDING_LOGS_PREFIX + "a"));
+        assertEquals(7, snapshot.getTotalPendingLogCount());
+
+        /* Unregistering a replaced gauge keeps the new one. */
+        AppCenterMetrics.Gauge replacement = mock(AppCenterMetrics.Gauge.class);
+        when(replacement.getValue()).thenReturn(1L);
+        metrics.registerGauge(GAUGE_PENDING_LOGS_PREFIX + "a", replacement);
+        metrics.unregisterGauge(GAUGE_PENDING_LOGS_PREFIX + "a", first);
+        assertEquals(5, metrics.getSnapshot().getTotalPendingLogCount());
+        metrics.unregisterGauge(GAUGE_PENDING_LOGS_PREFIX + "a", replacement);
+        assertEquals(4, metrics.getSnapshot().getTotalPendingLogCount());
+    }
+
+    @Test
+    public void listenerIsThrottled() {
+        AppCenterMetrics metrics = new AppCenterMetrics();
+
+        /* No listener. */
+        metrics.notifyListener();
+
+        /* First notification is immediate. */
+        MetricsListener listener = mock(MetricsListener.class);
+        metrics.setListener(listener);
+        metrics.notifyListener();
+        verify(listener).onMetrics(any(MetricsSnapshot.class));
+
+        /* Then throttled. */
+        elapse(LISTENER_INTERVAL - 1);
+        metrics.notifyListener();
+        verify(listener).onMetrics(any(MetricsSnapshot.class));
+        elapse(1);
+        metrics.notifyListener();
+        verify(listener, times(2)).onMetrics(any(MetricsSnapshot.class));
+
+        /* Remove listener. */
+        metrics.setListener(null);
+        elapse(LISTENER_INTERVAL);
+        metrics.notifyListener();
+        verify(listener, times(2)).onMetrics(any(MetricsSnapshot.class));
+
+        /* A new listener is notified right away. */
+        MetricsListener newListener = mock(MetricsListener.class);
+        metrics.setListener(newListener);
+        metrics.notifyListener();
+        verify(newListener).onMetrics(any(MetricsSnapshot.class));
+        verify(listener, never()).onMetrics(null);
+    }
+}
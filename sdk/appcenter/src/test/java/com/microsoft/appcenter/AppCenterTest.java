@@ -12,10 +12,13 @@ import android.os.Looper;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.channel.DefaultChannel;
 import com.microsoft.appcenter.channel.OneCollectorChannelListener;
+import com.microsoft.appcenter.http.HttpExecutor;
 import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.WrapperSdk;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.IdHelper;
@@ -62,6 +65,7 @@ import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
@@ -70,6 +74,7 @@ import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -79,6 +84,7 @@ import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.doThrow;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
@@ -199,6 +205,7 @@ public class AppCenterTest {
         when(StorageHelper.DatabaseStorage.getDatabaseStorage(anyString(), anyString(), anyInt(), any(ContentValues.class), anyInt(), any(DatabaseManager.Listener.class))).thenReturn(databaseStorage);
         StorageHelper.DatabaseStorage.DatabaseScanner databaseScanner = mock(StorageHelper.DatabaseStorage.DatabaseScanner.class);
         when(databaseStorage.getScanner(anyString(), anyObject())).thenReturn(databaseScanner);
+        when(databaseStorage.getScanner(any(String[].class), any(Object[].class), anyCollectionOf(Long.class), anyBoolean(), anyInt())).thenReturn(databaseScanner);
         when(databaseScanner.iterator()).thenReturn(mDataBaseScannerIterator);
 
         /* Mock network state helper. */
@@ -910,6 +917,156 @@ public class AppCenterTest {
         verify(mChannel).setLogUrl(logUrl);
     }
 
+    @Test
+    public void setMaxStorageSize() {
+
+        /* Invalid values are ignored. */
+        AppCenter.setMaxStorageSize(0);
+        AppCenter.setMaxStorageSize(-1);
+
+        /* Change size before start. */
+        AppCenter.setMaxStorageSize(1024);
+
+        /* No effect for now. */
+        verify(mChannel, never()).setMaxStorageSize(anyLong());
+
+        /* Start should propagate the size. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setMaxStorageSize(1024);
+
+        /* Change it after, should work immediately. */
+        AppCenter.setMaxStorageSize(2048);
+        verify(mChannel).setMaxStorageSize(2048);
+        verify(mChannel, never()).setMaxStorageSize(0);
+    }
+
+    @Test
+    public void setPayloadCompressionEnabled() {
+
+        /* Enable before start, no effect for now. */
+        AppCenter.setPayloadCompressionEnabled(true);
+        verify(mChannel, never()).setPayloadCompressionEnabled(anyBoolean());
+
+        /* Start should propagate the setting. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setPayloadCompressionEnabled(true);
+
+        /* Change it after, should work immediately. */
+        AppCenter.setPayloadCompressionEnabled(false);
+        verify(mChannel).setPayloadCompressionEnabled(false);
+    }
+
+    @Test
+    public void setPayloadPassthroughEnabled() {
+
+        /* Enable before start, no effect for now. */
+        AppCenter.setPayloadPassthroughEnabled(true);
+        verify(mChannel, never()).setPayloadPassthroughEnabled(anyBoolean());
+
+        /* Start should propagate the setting. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setPayloadPassthroughEnabled(true);
+
+        /* Change it after, should work immediately. */
+        AppCenter.setPayloadPassthroughEnabled(false);
+        verify(mChannel).setPayloadPassthroughEnabled(false);
+    }
+
+    @Test
+    public void setHttpCompressionEnabled() {
+
+        /* Enable before start, no effect for now. */
+        AppCenter.setHttpCompressionEnabled(true);
+        verify(mChannel, never()).setHttpCompressionEnabled(anyBoolean());
+
+        /* Start should propagate the setting. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setHttpCompressionEnabled(true);
+
+        /* Change it after, should work immediately. */
+        AppCenter.setHttpCompressionEnabled(false);
+        verify(mChannel).setHttpCompressionEnabled(false);
+    }
+
+    @Test
+    public void setAdaptiveBatchingEnabled() {
+
+        /* Enable before start, no effect for now. */
+        AppCenter.setAdaptiveBatchingEnabled(true);
+        verify(mChannel, never()).setAdaptiveBatchingEnabled(anyBoolean());
+
+        /* Start should propagate the setting. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setAdaptiveBatchingEnabled(true);
+
+        /* Change it after, should work immediately. */
+        AppCenter.setAdaptiveBatchingEnabled(false);
+        verify(mChannel).setAdaptiveBatchingEnabled(false);
+    }
+
+    @Test
+    public void setMaxBatchSize() {
+
+        /* Invalid size is ignored. */
+        AppCenter.setMaxBatchSize(0);
+        verifyStatic();
+        AppCenterLog.error(LOG_TAG, "Maximum batch size must be positive.");
+
+        /* Default is applied at start. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setMaxBatchSize(Persistence.DEFAULT_MAX_BATCH_SIZE);
+
+        /* Change it after, should work immediately. */
+        AppCenter.setMaxBatchSize(4096);
+        verify(mChannel).setMaxBatchSize(4096);
+    }
+
+    @Test
+    public void setParallelBatchesLimits() {
+
+        /* Invalid limits are ignored. */
+        AppCenter.setParallelBatchesLimits(0, 3);
+        AppCenter.setParallelBatchesLimits(3, 2);
+        verifyStatic(times(2));
+        AppCenterLog.error(eq(LOG_TAG), startsWith("Invalid parallel batches limits"));
+
+        /* Set before start, no effect for now. */
+        AppCenter.setParallelBatchesLimits(1, 8);
+        verify(mChannel, never()).setParallelBatchesLimits(anyInt(), anyInt());
+
+        /* HTTP threads are enough for the maximum. */
+        assertTrue(HttpExecutor.getSharedInstance().getMaximumPoolSize() >= 8);
+
+        /* Start should propagate the limits. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setParallelBatchesLimits(1, 8);
+
+        /* Change them after, should work immediately. */
+        AppCenter.setParallelBatchesLimits(2, 4);
+        verify(mChannel).setParallelBatchesLimits(2, 4);
+        verify(mChannel, times(2)).setParallelBatchesLimits(anyInt(), anyInt());
+    }
+
+    @Test
+    public void setPersistenceType() throws Exception {
+
+        /* Invalid type is ignored. */
+        AppCenter.setPersistenceType(42);
+
+        /* Set segment files before start. */
+        AppCenter.setPersistenceType(Persistence.TYPE_SEGMENT_FILE);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), anyString(), any(LogSerializer.class), eq(Persistence.TYPE_SEGMENT_FILE), any(Handler.class));
+
+        verifyStatic();
+        AppCenterLog.error(LOG_TAG, "Invalid persistence type: 42");
+
+        /* Too late after configure. */
+        AppCenter.setPersistenceType(Persistence.TYPE_DATABASE);
+        verifyStatic();
+        AppCenterLog.error(LOG_TAG, "Persistence type must be set before App Center is configured.");
+    }
+
     @Test
     public void getSdkVersionTest() {
         assertEquals(BuildConfig.VERSION_NAME, AppCenter.getSdkVersion());
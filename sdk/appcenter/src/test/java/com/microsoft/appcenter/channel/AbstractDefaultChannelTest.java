@@ -2,14 +2,17 @@ package com.microsoft.appcenter.channel;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.IdHelper;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
 import org.junit.Before;
@@ -22,15 +25,18 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 @SuppressWarnings("WeakerAccess")
-@PrepareForTest({DefaultChannel.class, IdHelper.class, DeviceInfoHelper.class, AppCenterLog.class, HandlerUtils.class})
+@PrepareForTest({DefaultChannel.class, CircuitBreaker.class, IdHelper.class, DeviceInfoHelper.class, AppCenterLog.class, HandlerUtils.class, NetworkStateHelper.class, SystemClock.class})
 public class AbstractDefaultChannelTest {
 
     static final String TEST_GROUP = "group_test";
@@ -42,9 +48,30 @@ public class AbstractDefaultChannelTest {
     @Rule
     public PowerMockRule mPowerMockRule = new PowerMockRule();
 
+    /**
+     * Number of logs in the batches returned by {@link #getGetLogsAnswer(int)}, by batch identifier.
+     */
+    static final Map<String, Integer> sBatchLogCounts = new HashMap<>();
+
     @Mock
     protected Handler mAppCenterHandler;
 
+    /**
+     * Mock a persistence counting the logs of a batch like the ones returned by {@link #getGetLogsAnswer(int)}.
+     */
+    static Persistence mockPersistence() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.countLogs(anyString(), anyString())).then(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                Integer count = sBatchLogCounts.get(invocation.getArguments()[1]);
+                return count == null ? 0 : count;
+            }
+        });
+        return persistence;
+    }
+
     static Answer<String> getGetLogsAnswer() {
         return getGetLogsAnswer(-1);
     }
@@ -56,14 +83,19 @@ public class AbstractDefaultChannelTest {
             @SuppressWarnings("unchecked")
             public String answer(InvocationOnMock invocation) {
                 Object[] args = invocation.getArguments();
+                int length = size >= 0 ? size : (int) args[1];
                 if (args[2] instanceof ArrayList) {
                     ArrayList logs = (ArrayList) args[2];
-                    int length = size >= 0 ? size : (int) args[1];
                     for (int i = 0; i < length; i++) {
                         logs.add(mock(Log.class));
                     }
                 }
-                return UUIDUtils.randomUUID().toString();
+                if (length <= 0) {
+                    return null;
+                }
+                String batchId = UUIDUtils.randomUUID().toString();
+                sBatchLogCounts.put(batchId, length);
+                return batchId;
             }
         };
     }
@@ -90,6 +122,7 @@ public class AbstractDefaultChannelTest {
 
     @Before
     public void setUp() throws Exception {
+        sBatchLogCounts.clear();
         mockStatic(AppCenterLog.class);
         mockStatic(IdHelper.class, new Returns(UUIDUtils.randomUUID()));
         mockStatic(DeviceInfoHelper.class);
@@ -0,0 +1,109 @@
+package com.microsoft.appcenter.channel;
+
+import org.junit.Test;
+
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.FAST_LATENCY;
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.GROWTH_SAMPLES;
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.METERED_INTERVAL_FACTOR;
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.SLOW_INTERVAL_FACTOR;
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.SLOW_LATENCY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class AdaptiveBatchControllerTest {
+
+    private static AdaptiveBatchController createController() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 3000);
+        controller.setEnabled(true);
+        return controller;
+    }
+
+    private static void succeedFast(AdaptiveBatchController controller, int times, int backlog) {
+        for (int i = 0; i < times; i++) {
+            controller.onBatchSucceeded(FAST_LATENCY / 2, backlog);
+        }
+    }
+
+    @Test
+    public void disabledUsesConfiguredValues() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 3000);
+        assertFalse(controller.isEnabled());
+        succeedFast(controller, GROWTH_SAMPLES * 4, 1000);
+        controller.onBatchFailed();
+        assertEquals(40, controller.getMaxLogsPerBatch());
+        assertEquals(3000, controller.getBatchTimeInterval(true));
+
+        /* Latency is still measured. */
+        assertEquals(FAST_LATENCY / 2, controller.getAverageLatency());
+    }
+
+    @Test
+    public void growsWithDeepBacklogOnFastLink() {
+        AdaptiveBatchController controller = createController();
+        assertEquals(-1, controller.getAverageLatency());
+        succeedFast(controller, GROWTH_SAMPLES - 1, 1000);
+        assertEquals(40, controller.getMaxLogsPerBatch());
+        succeedFast(controller, 1, 1000);
+        assertEquals(80, controller.getMaxLogsPerBatch());
+
+        /* Up to the maximum. */
+        succeedFast(controller, GROWTH_SAMPLES * 10, 1000);
+        assertEquals(40 * AdaptiveBatchController.MAX_BATCH_SIZE_FACTOR, controller.getMaxLogsPerBatch());
+
+        /* Back to configured size once drained. */
+        succeedFast(controller, 1, 0);
+        assertEquals(80, controller.getMaxLogsPerBatch());
+        succeedFast(controller, 1, 0);
+        assertEquals(40, controller.getMaxLogsPerBatch());
+        succeedFast(controller, 1, 0);
+        assertEquals(40, controller.getMaxLogsPerBatch());
+    }
+
+    @Test
+    public void doesNotGrowWithShallowBacklog() {
+        AdaptiveBatchController controller = createController();
+        for (int i = 0; i < GROWTH_SAMPLES * 2; i++) {
+            succeedFast(controller, GROWTH_SAMPLES - 1, 1000);
+
+            /* One shallow backlog resets the growth samples. */
+            succeedFast(controller, 1, 10);
+        }
+        assertEquals(40, controller.getMaxLogsPerBatch());
+    }
+
+    @Test
+    public void shrinksOnFailureOrSlowLink() {
+        AdaptiveBatchController controller = createController();
+        controller.onBatchFailed();
+        assertEquals(20, controller.getMaxLogsPerBatch());
+        controller.onBatchSucceeded(SLOW_LATENCY + 1, 1000);
+        assertEquals(10, controller.getMaxLogsPerBatch());
+
+        /* Down to the minimum. */
+        controller.onBatchFailed();
+        controller.onBatchFailed();
+        assertEquals(40 / AdaptiveBatchController.MIN_BATCH_SIZE_DIVISOR, controller.getMaxLogsPerBatch());
+
+        /* Disabling restores configured size. */
+        controller.setEnabled(false);
+        assertEquals(40, controller.getMaxLogsPerBatch());
+    }
+
+    @Test
+    public void intervalStretchedOnMeteredNetworkAndSlowLink() {
+        AdaptiveBatchController controller = createController();
+        assertEquals(3000, controller.getBatchTimeInterval(false));
+        assertEquals(3000 * METERED_INTERVAL_FACTOR, controller.getBatchTimeInterval(true));
+        controller.onBatchSucceeded(SLOW_LATENCY * 2, 0);
+        assertEquals(3000 * SLOW_INTERVAL_FACTOR, controller.getBatchTimeInterval(false));
+        assertEquals(3000 * SLOW_INTERVAL_FACTOR * METERED_INTERVAL_FACTOR, controller.getBatchTimeInterval(true));
+    }
+
+    @Test
+    public void minimumBatchSizeIsOne() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(1, 3000);
+        controller.setEnabled(true);
+        controller.onBatchFailed();
+        assertEquals(1, controller.getMaxLogsPerBatch());
+    }
+}
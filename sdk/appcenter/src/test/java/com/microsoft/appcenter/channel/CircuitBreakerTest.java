@@ -0,0 +1,111 @@
+package com.microsoft.appcenter.channel;
+
+import android.os.SystemClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import static com.microsoft.appcenter.channel.CircuitBreaker.INITIAL_BACKOFF;
+import static com.microsoft.appcenter.channel.CircuitBreaker.MAX_BACKOFF;
+import static com.microsoft.appcenter.channel.CircuitBreaker.STATE_CLOSED;
+import static com.microsoft.appcenter.channel.CircuitBreaker.STATE_HALF_OPEN;
+import static com.microsoft.appcenter.channel.CircuitBreaker.STATE_OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest({CircuitBreaker.class, SystemClock.class})
+public class CircuitBreakerTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    private long mTime;
+
+    @Before
+    public void setUp() {
+        mockStatic(SystemClock.class);
+        mTime = 1000;
+        when(SystemClock.elapsedRealtime()).thenReturn(mTime);
+    }
+
+    private void elapse(long duration) {
+        mTime += duration;
+        when(SystemClock.elapsedRealtime()).thenReturn(mTime);
+    }
+
+    @Test
+    public void closedAllowsRequests() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        assertEquals(STATE_CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.isRequestAllowed());
+        circuitBreaker.onRequestSent();
+        circuitBreaker.onRequestSent();
+        assertTrue(circuitBreaker.isRequestAllowed());
+        assertEquals(0, circuitBreaker.getRemainingOpenTime());
+    }
+
+    @Test
+    public void openThenHalfOpenThenClosed() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+        /* Failure opens it. */
+        assertEquals(INITIAL_BACKOFF, circuitBreaker.onFailure());
+        assertEquals(STATE_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.isRequestAllowed());
+        elapse(INITIAL_BACKOFF - 1);
+        assertEquals(1, circuitBreaker.getRemainingOpenTime());
+        assertFalse(circuitBreaker.isRequestAllowed());
+
+        /* Other failures while open do not extend the backoff. */
+        assertEquals(1, circuitBreaker.onFailure());
+
+        /* After backoff, a single trial is allowed. */
+        elapse(1);
+        assertEquals(STATE_HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.isRequestAllowed());
+        circuitBreaker.onRequestSent();
+        assertFalse(circuitBreaker.isRequestAllowed());
+
+        /* Success closes it. */
+        circuitBreaker.onSuccess();
+        assertEquals(STATE_CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.isRequestAllowed());
+
+        /* Backoff was reset. */
+        assertEquals(INITIAL_BACKOFF, circuitBreaker.onFailure());
+    }
+
+    @Test
+    public void failedTrialDoublesBackoffUpToMaximum() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        long backoff = circuitBreaker.onFailure();
+        while (backoff < MAX_BACKOFF) {
+            elapse(backoff);
+            assertTrue(circuitBreaker.isRequestAllowed());
+            circuitBreaker.onRequestSent();
+            long nextBackoff = circuitBreaker.onFailure();
+            assertEquals(Math.min(backoff * 2, MAX_BACKOFF), nextBackoff);
+            backoff = nextBackoff;
+        }
+        elapse(backoff);
+        circuitBreaker.onRequestSent();
+        assertEquals(MAX_BACKOFF, circuitBreaker.onFailure());
+    }
+
+    @Test
+    public void cancelledTrialAllowsAnotherOne() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        circuitBreaker.onFailure();
+        elapse(INITIAL_BACKOFF);
+        circuitBreaker.onRequestSent();
+        assertFalse(circuitBreaker.isRequestAllowed());
+        circuitBreaker.onRequestCancelled();
+        assertTrue(circuitBreaker.isRequestAllowed());
+    }
+}
@@ -31,7 +31,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest {
 
@@ -39,46 +39,29 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
     public void disabledWhileSendingLogs() {
 
         /* Set up mocking. */
-        final Semaphore beforeCallSemaphore = new Semaphore(0);
-        final Semaphore afterCallSemaphore = new Semaphore(0);
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
         when(mockPersistence.getLogs(anyString(), eq(1), anyListOf(Log.class))).then(getGetLogsAnswer(1));
         when(mockPersistence.getLogs(anyString(), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class))).then(getGetLogsAnswer(0));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
-        doAnswer(new Answer<Void>() {
-
-            @Override
-            public Void answer(final InvocationOnMock invocation) {
-                new Thread() {
 
-                    @Override
-                    public void run() {
-                        beforeCallSemaphore.acquireUninterruptibly();
-                        ((Runnable) invocation.getArguments()[0]).run();
-                        afterCallSemaphore.release();
-                    }
-                }.start();
-                return null;
-            }
-        }).when(HandlerUtils.class);
-        HandlerUtils.runOnUiThread(any(Runnable.class));
-
-        /* Simulate enable module then disable. */
+        /* Logs are sent right away from the calling thread, without going through the main thread. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         Channel.GroupListener listener = mock(Channel.GroupListener.class);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
-        channel.setEnabled(false);
-        channel.setEnabled(true);
-
-        /* Release call to mock ingestion. */
-        beforeCallSemaphore.release();
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verifyStatic(never());
+        HandlerUtils.runOnUiThread(any(Runnable.class));
 
-        /* Wait for callback ingestion. */
-        afterCallSemaphore.acquireUninterruptibly();
+        /* Disabling cancels the batch being sent. */
+        channel.setEnabled(false);
+        verify(listener).onFailure(any(Log.class), argThat(new ArgumentMatcher<Exception>() {
 
-        /* Verify ingestion not sent. */
-        verify(mockIngestion, never()).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+            @Override
+            public boolean matches(Object argument) {
+                return argument instanceof CancellationException;
+            }
+        }));
     }
 
     @Test
@@ -87,7 +70,7 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         /* Set up mocking. */
         final Semaphore beforeCallSemaphore = new Semaphore(0);
         final Semaphore afterCallSemaphore = new Semaphore(0);
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
         when(mockPersistence.getLogs(anyString(), eq(1), anyListOf(Log.class))).then(getGetLogsAnswer(1));
         when(mockPersistence.getLogs(anyString(), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class))).then(getGetLogsAnswer(0));
@@ -139,7 +122,7 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         /* Set up mocking. */
         final Semaphore beforeCallSemaphore = new Semaphore(0);
         final Semaphore afterCallSemaphore = new Semaphore(0);
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         when(mockPersistence.countLogs(anyString())).thenReturn(1);
         when(mockPersistence.getLogs(anyString(), eq(1), anyListOf(Log.class))).then(getGetLogsAnswer(1));
         when(mockPersistence.getLogs(anyString(), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class))).then(getGetLogsAnswer(0));
@@ -2,9 +2,17 @@ package com.microsoft.appcenter.channel;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
+import com.microsoft.appcenter.AppCenterMetrics;
+import com.microsoft.appcenter.AppCenterTracing;
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.LogTracer;
+import com.microsoft.appcenter.MetricsSnapshot;
 import com.microsoft.appcenter.http.HttpException;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
@@ -12,11 +20,16 @@ import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
+import org.json.JSONException;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -24,6 +37,7 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -32,13 +46,20 @@ import java.util.concurrent.atomic.AtomicReference;
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -47,6 +68,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.spy;
 
 @SuppressWarnings("unused")
@@ -54,7 +76,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     public void invalidGroup() throws Persistence.PersistenceException {
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         Channel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
 
         /* Enqueue a log before group is registered = failure. */
@@ -69,10 +91,215 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         verify(mAppCenterHandler, never()).removeCallbacks(any(Runnable.class));
     }
 
+    @Test
+    public void criticalLogsAreFlushed() throws Persistence.PersistenceException {
+        Persistence persistence = mockPersistence();
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Normal logs can be committed later. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(persistence).putLog(eq(TEST_GROUP), any(Log.class));
+        verify(persistence, never()).flush();
+
+        /* Critical logs are committed right away. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        verify(persistence, times(2)).putLog(eq(TEST_GROUP), any(Log.class));
+        verify(persistence).flush();
+
+        /* Logs are committed on shutdown and then right away as no batch will commit them. */
+        channel.shutdown();
+        verify(persistence, times(2)).flush();
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(persistence, times(3)).putLog(eq(TEST_GROUP), any(Log.class));
+        verify(persistence, times(3)).flush();
+    }
+
+    @Test
+    public void groupPersistence() throws Persistence.PersistenceException {
+        Persistence persistence = mockPersistence();
+        Persistence groupPersistence = mockPersistence();
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        channel.setGroupPersistence(TEST_GROUP, groupPersistence);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup("other", 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        verify(groupPersistence).countLogs(TEST_GROUP);
+        verify(persistence).countLogs("other");
+
+        /* Logs go to the persistence of their group. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(groupPersistence).putLog(eq(TEST_GROUP), any(Log.class));
+        verify(persistence, never()).putLog(eq(TEST_GROUP), any(Log.class));
+        channel.enqueue(mock(Log.class), "other");
+        verify(persistence).putLog(eq("other"), any(Log.class));
+        channel.clear(TEST_GROUP);
+        verify(groupPersistence).deleteLogs(TEST_GROUP);
+        verify(persistence, never()).deleteLogs(TEST_GROUP);
+
+        /* Every persistence is flushed on shutdown. */
+        channel.shutdown();
+        verify(persistence).clearPendingLogState();
+        verify(groupPersistence).clearPendingLogState();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void payloadPassthrough() throws Exception {
+        Persistence persistence = mockPersistence();
+        Ingestion ingestion = mock(Ingestion.class);
+        Channel.GroupListener listener = mock(Channel.GroupListener.class);
+        final SerializedLog serializedLog = new SerializedLog("{}", "mock", null);
+        when(persistence.getSerializedLogs(anyString(), anyInt(), anyList())).then(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                List<SerializedLog> logs = (List<SerializedLog>) invocation.getArguments()[2];
+                logs.add(serializedLog);
+                logs.add(serializedLog);
+                String batchId = UUIDUtils.randomUUID().toString();
+                sBatchLogCounts.put(batchId, logs.size());
+                return batchId;
+            }
+        });
+        Log log = mock(Log.class);
+        when(persistence.deserializeLog(serializedLog)).thenReturn(log).thenThrow(new JSONException("mock"));
+        when(ingestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setPayloadPassthroughEnabled(true);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+
+        /* Persisted payloads are sent as is, logs are only deserialized for the listener. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(persistence, never()).getLogs(anyString(), anyInt(), anyList());
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(ingestion).sendAsync(anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertNull(container.getValue().getLogs());
+        assertEquals(Arrays.asList(serializedLog, serializedLog), container.getValue().getSerializedLogs());
+        verify(persistence, times(2)).deserializeLog(serializedLog);
+        verify(listener).onBeforeSending(log);
+        verify(listener).onSuccess(log);
+        verify(persistence).deleteLogs(eq(TEST_GROUP), anyString());
+
+        /* Without a listener, nothing is deserialized. */
+        channel.addGroup("other", 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.enqueue(mock(Log.class), "other");
+        channel.enqueue(mock(Log.class), "other");
+        verify(ingestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(persistence).deleteLogs(eq("other"), anyString());
+        verify(persistence, times(2)).deserializeLog(any(SerializedLog.class));
+
+        /* Back to deserializing logs when disabled. */
+        channel.setPayloadPassthroughEnabled(false);
+        channel.enqueue(mock(Log.class), "other");
+        channel.enqueue(mock(Log.class), "other");
+        verify(persistence).getLogs(eq("other"), anyInt(), anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void payloadPassthroughWithInactiveListener() throws Exception {
+        Persistence persistence = mockPersistence();
+        Ingestion ingestion = mock(Ingestion.class);
+        final SerializedLog serializedLog = new SerializedLog("{}", "mock", null);
+        when(persistence.getSerializedLogs(anyString(), anyInt(), anyList())).then(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                List<SerializedLog> logs = (List<SerializedLog>) invocation.getArguments()[2];
+                logs.add(serializedLog);
+                String batchId = UUIDUtils.randomUUID().toString();
+                sBatchLogCounts.put(batchId, logs.size());
+                return batchId;
+            }
+        });
+        Log log = mock(Log.class);
+        when(persistence.deserializeLog(serializedLog)).thenReturn(log);
+        when(ingestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+
+        /* Like analytics without a user listener. */
+        Channel.OptionalGroupListener listener = mock(Channel.OptionalGroupListener.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setPayloadPassthroughEnabled(true);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+
+        /* Batch is sent without deserializing its logs. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(ingestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(persistence).deleteLogs(eq(TEST_GROUP), anyString());
+        verify(persistence, never()).deserializeLog(any(SerializedLog.class));
+        verify(listener, never()).onBeforeSending(any(Log.class));
+        verify(listener, never()).onSuccess(any(Log.class));
+
+        /* Logs are deserialized once the listener has callbacks. */
+        when(listener.hasCallbacks()).thenReturn(true);
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(ingestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(persistence).deserializeLog(serializedLog);
+        verify(listener).onBeforeSending(log);
+        verify(listener).onSuccess(log);
+    }
+
+    @Test
+    public void httpCompression() {
+        Ingestion ingestion = mock(Ingestion.class);
+        Ingestion groupIngestion = mock(Ingestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mock(Persistence.class), ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Enabling applies to every known ingestion. */
+        channel.setHttpCompressionEnabled(true);
+        verify(ingestion).setCompressionEnabled(true);
+
+        /* Ingestions added later are configured once. */
+        channel.addGroup("other", 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, groupIngestion, null);
+        channel.addGroup("another", 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, groupIngestion, null);
+        verify(groupIngestion).setCompressionEnabled(true);
+
+        /* Disable. */
+        channel.setHttpCompressionEnabled(false);
+        verify(ingestion).setCompressionEnabled(false);
+        verify(groupIngestion).setCompressionEnabled(false);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void groupPriorityIsSentWithBatches() throws Exception {
+        Persistence persistence = mockPersistence();
+        Ingestion ingestion = mock(Ingestion.class);
+        when(persistence.getLogs(anyString(), anyInt(), anyList())).then(getGetLogsAnswer(1));
+        when(ingestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null, EvictionPolicy.PRIORITY_HIGH, 0);
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(ingestion).sendAsync(anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertEquals(EvictionPolicy.PRIORITY_HIGH, container.getValue().getPriority());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void pendingLogCountDecrementedByClaimedLogs() {
+        Persistence persistence = mockPersistence();
+        Ingestion ingestion = mock(Ingestion.class);
+
+        /* Batch size cap makes the batch shorter than requested. */
+        when(persistence.getLogs(anyString(), anyInt(), anyList())).then(getGetLogsAnswer(2));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 3, BATCH_TIME_INTERVAL, 1, null, null);
+        for (int i = 0; i < 3; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP);
+        }
+
+        /* The log left out is still pending. */
+        verify(ingestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(1, channel.getCounter(TEST_GROUP));
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void analyticsSuccess() throws Persistence.PersistenceException {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -165,7 +392,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     public void lessLogsThanExpected() {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -193,8 +420,12 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @NonNull
     private AtomicReference<Runnable> catchPostRunnable() {
+        return catchPostRunnable(BATCH_TIME_INTERVAL);
+    }
+
+    private AtomicReference<Runnable> catchPostRunnable(long delay) {
         final AtomicReference<Runnable> runnable = new AtomicReference<>();
-        when(mAppCenterHandler.postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL))).then(new Answer<Boolean>() {
+        when(mAppCenterHandler.postDelayed(any(Runnable.class), eq(delay))).then(new Answer<Boolean>() {
 
             @Override
             public Boolean answer(InvocationOnMock invocation) {
@@ -208,7 +439,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     @SuppressWarnings("unchecked")
     public void maxRequests() throws Persistence.PersistenceException {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
 
         /* We make second request return less logs than expected to make sure counter is reset properly. */
@@ -260,7 +491,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     @SuppressWarnings("unchecked")
     public void maxRequestsInitial() throws Persistence.PersistenceException {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
 
         when(mockPersistence.countLogs(any(String.class))).thenReturn(100);
@@ -314,7 +545,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     @SuppressWarnings("unchecked")
     public void analyticsRecoverable() throws Persistence.PersistenceException {
-        Persistence mockPersistence = mock(Persistence.class);
+        mockStatic(SystemClock.class);
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -326,6 +558,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        AtomicReference<Runnable> circuitBreakerRunnable = catchPostRunnable(CircuitBreaker.INITIAL_BACKOFF);
 
         /* Enqueuing 50 events. */
         for (int i = 0; i < 50; i++) {
@@ -343,9 +576,10 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Verify that we have not called deleteLogs on the Persistence. */
         verify(mockPersistence, never()).deleteLogs(any(String.class), any(String.class));
 
-        /* Verify that the Channel is disabled. */
-        assertFalse(channel.isEnabled());
-        verify(mockPersistence).clearPendingLogState();
+        /* Verify that only the failed batch can be retrieved again and that the Channel is still enabled. */
+        assertTrue(channel.isEnabled());
+        verify(mockPersistence).clearPendingLogState(eq(TEST_GROUP), anyString());
+        verify(mockPersistence, never()).clearPendingLogState();
         verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
 
         /* Enqueuing 20 more events. */
@@ -353,16 +587,18 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
             channel.enqueue(mock(Log.class), TEST_GROUP);
         }
 
-        /* The counter keeps being increased. */
+        /* The counter keeps being increased but nothing is sent while the ingestion is paused. */
         assertEquals(70, channel.getCounter(TEST_GROUP));
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
 
         /* Prepare to mock timer. */
         AtomicReference<Runnable> runnable = catchPostRunnable();
 
-        /* Enable channel. */
-        channel.setEnabled(true);
-
-        /* Upon enabling, 1st batch of 50 is sent immediately, 20 logs are remaining. */
+        /* After the backoff, 1st batch of 50 is sent as a trial, 20 logs are remaining. */
+        assertNotNull(circuitBreakerRunnable.get());
+        when(SystemClock.elapsedRealtime()).thenReturn(CircuitBreaker.INITIAL_BACKOFF);
+        circuitBreakerRunnable.get().run();
         assertEquals(20, channel.getCounter(TEST_GROUP));
 
         /* Wait for timer. */
@@ -389,22 +625,22 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         verify(mAppCenterHandler, times(2)).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
         verify(mAppCenterHandler).removeCallbacks(any(Runnable.class));
     }
-
     @Test
     @SuppressWarnings("unchecked")
     public void analyticsFatal() throws Exception {
-        Persistence mockPersistence = mock(Persistence.class);
+        mockStatic(SystemClock.class);
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
         when(mockPersistence.getLogs(any(String.class), anyInt(), any(ArrayList.class)))
-                .then(getGetLogsAnswer(50))
-                /* Second 50 logs will be used for clearing pending states. */
                 .then(getGetLogsAnswer(50))
                 .then(getGetLogsAnswer(20));
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new HttpException(403))).then(getSendAsyncAnswer());
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        AtomicReference<Runnable> circuitBreakerRunnable = catchPostRunnable(CircuitBreaker.INITIAL_BACKOFF);
 
         /* Enqueuing 50 events. */
         for (int i = 0; i < 50; i++) {
@@ -419,42 +655,30 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Verify that we have called sendAsync on the ingestion. */
         verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
 
-        /* Verify that the Channel is disabled. */
-        assertFalse(channel.isEnabled());
-
-        /* Verify that we have cleared the logs. */
-        verify(mockPersistence).deleteLogs(TEST_GROUP);
+        /* Verify that only the rejected batch was deleted and reported, the Channel is still enabled. */
+        assertTrue(channel.isEnabled());
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+        verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        verify(mockListener, times(50)).onFailure(any(Log.class), any(HttpException.class));
 
         /* Verify counter. */
         assertEquals(0, channel.getCounter(TEST_GROUP));
 
-        /* Enqueuing 20 more events. */
+        /* Enqueuing 20 more events, they are kept while the ingestion is paused. */
         for (int i = 0; i < 20; i++) {
             channel.enqueue(mock(Log.class), TEST_GROUP);
         }
-
-        /* The counter should still be 0 as logs are discarded by channel now. */
-        assertEquals(0, channel.getCounter(TEST_GROUP));
+        assertEquals(20, channel.getCounter(TEST_GROUP));
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
 
         /* No more timer yet at this point. */
         verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
         verify(mAppCenterHandler).removeCallbacks(any(Runnable.class));
 
-        /* Prepare to mock timer. */
-        AtomicReference<Runnable> runnable = catchPostRunnable();
-
-        /* Enable channel to see if it can work again after that error state. */
-        channel.setEnabled(true);
-
-        /* Enqueuing 20 more events. */
-        for (int i = 0; i < 20; i++) {
-            channel.enqueue(mock(Log.class), TEST_GROUP);
-        }
-        assertEquals(20, channel.getCounter(TEST_GROUP));
-
-        /* Wait for timer. */
-        assertNotNull(runnable.get());
-        runnable.get().run();
+        /* After the backoff, remaining logs are sent as a trial batch. */
+        assertNotNull(circuitBreakerRunnable.get());
+        when(SystemClock.elapsedRealtime()).thenReturn(CircuitBreaker.INITIAL_BACKOFF);
+        circuitBreakerRunnable.get().run();
 
         /* The counter should back to 0 now. */
         assertEquals(0, channel.getCounter(TEST_GROUP));
@@ -462,20 +686,18 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Verify that we have called sendAsync on the ingestion 2 times total: 1 earlier failure then 1 success. */
         verify(mockIngestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
 
-        /* Verify that we have called deleteLogs on the Persistence for the successful batch after re-enabling. */
-        verify(mockPersistence).deleteLogs(any(String.class), any(String.class));
+        /* Verify that we have called deleteLogs on the Persistence for both the rejected and the successful batch. */
+        verify(mockPersistence, times(2)).deleteLogs(eq(TEST_GROUP), anyString());
+        verify(mockListener, times(20)).onSuccess(any(Log.class));
 
-        /* Verify 1 more timer call. */
-        verify(mAppCenterHandler, times(2)).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
-
-        /* Verify no more cancel timer. */
+        /* Verify no more timer. */
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
         verify(mAppCenterHandler).removeCallbacks(any(Runnable.class));
     }
-
     @Test
     @SuppressWarnings("unchecked")
     public void errorLogSuccess() throws Persistence.PersistenceException {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         Ingestion mockIngestion = mock(Ingestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -515,7 +737,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @Test
     @SuppressWarnings("unchecked")
     public void errorLogRecoverable() throws Persistence.PersistenceException {
-        Persistence mockPersistence = mock(Persistence.class);
+        mockStatic(SystemClock.class);
+        Persistence mockPersistence = mockPersistence();
         Ingestion mockIngestion = mock(Ingestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -524,6 +747,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        AtomicReference<Runnable> circuitBreakerRunnable = catchPostRunnable(CircuitBreaker.INITIAL_BACKOFF);
 
         /* Enqueuing n errors. */
         int logNumber = 5;
@@ -542,31 +766,35 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Verify that we have called onBeforeSending in the listener. */
         verify(mockListener).onBeforeSending(any(Log.class));
 
-        /* Verify that we have not called the failure listener. It's a transient exception that will be retried later when the channel is re-enabled. */
+        /* Verify that we have not called the failure listener. It's a transient exception that will be retried later when the ingestion cools down. */
         verify(mockListener, never()).onFailure(any(Log.class), any(Exception.class));
 
-        /* Verify that the Channel is disabled. */
-        assertFalse(channel.isEnabled());
-        verify(mockPersistence).clearPendingLogState();
+        /* Verify that the Channel is still enabled and that the batch can be retrieved again. */
+        assertTrue(channel.isEnabled());
+        verify(mockPersistence).clearPendingLogState(eq(TEST_GROUP), anyString());
         verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        assertEquals(logNumber, channel.getCounter(TEST_GROUP));
 
         /* Verify timer. */
         verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
         verify(mAppCenterHandler, never()).removeCallbacks(any(Runnable.class));
 
-        channel.setEnabled(true);
+        /* Wait for the backoff. */
+        assertNotNull(circuitBreakerRunnable.get());
+        when(SystemClock.elapsedRealtime()).thenReturn(CircuitBreaker.INITIAL_BACKOFF);
+        circuitBreakerRunnable.get().run();
 
-        /* Verify that we have called sendAsync on the ingestion n+1 times total: 1 failure before re-enabling, n success after. */
+        /* Verify that we have called sendAsync on the ingestion n+1 times total: 1 failure before the backoff, n success after. */
         verify(mockIngestion, times(logNumber + 1)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
 
         /* Verify that we have called deleteLogs on the Persistence n times. */
         verify(mockPersistence, times(logNumber)).deleteLogs(any(String.class), any(String.class));
+        verify(mockListener, times(logNumber)).onSuccess(any(Log.class));
 
         /* Verify timer. */
         verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
         verify(mAppCenterHandler, never()).removeCallbacks(any(Runnable.class));
     }
-
     @Test
     public void errorLogDiscarded() {
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
@@ -579,9 +807,9 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     @SuppressWarnings("unchecked")
-    public void suspendWithFailureCallback() {
+    public void fatalFailureOnlyFailsItsBatch() {
         Ingestion mockIngestion = mock(Ingestion.class);
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
         when(mockPersistence.countLogs(anyString())).thenReturn(30);
@@ -607,17 +835,22 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
 
-        /* 30 from countLogs and 10 new logs from getLogs. */
-        verify(mockListener, times(40)).onBeforeSending(any(Log.class));
-        verify(mockListener, times(40)).onFailure(any(Log.class), any(SocketException.class));
-        assertFalse(channel.isEnabled());
-    }
+        /* 3 batches of 10 logs, only the last one failed. */
+        verify(mockListener, times(30)).onBeforeSending(any(Log.class));
+        verify(mockListener, times(10)).onFailure(any(Log.class), any(HttpException.class));
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+        verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        assertTrue(channel.isEnabled());
 
+        /* Ingestion is paused. */
+        verify(mockIngestion, times(3)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(CircuitBreaker.INITIAL_BACKOFF));
+    }
     @Test
     @SuppressWarnings("unchecked")
-    public void suspendWithoutFailureCallback() {
+    public void recoverableFailureKeepsOtherBatches() throws IOException {
         Ingestion mockIngestion = mock(Ingestion.class);
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
 
         when(mockPersistence.countLogs(anyString())).thenReturn(3);
         when(mockPersistence.getLogs(anyString(), anyInt(), anyList())).thenAnswer(getGetLogsAnswer(1));
@@ -642,12 +875,411 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
 
-        assertFalse(channel.isEnabled());
+        /* Only the failed batch is pending again, ingestion is not closed. */
+        assertTrue(channel.isEnabled());
+        assertEquals(1, channel.getCounter(TEST_GROUP));
+        verify(mockPersistence).clearPendingLogState(eq(TEST_GROUP), anyString());
+        verify(mockPersistence, never()).clearPendingLogState();
+        verify(mockIngestion, never()).close();
+    }
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failingIngestionDoesNotPauseOtherIngestions() throws IOException {
+        Persistence mockPersistence = mockPersistence();
+        Ingestion failingIngestion = mock(Ingestion.class);
+        Ingestion healthyIngestion = mock(Ingestion.class);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
+        when(failingIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException()));
+        when(healthyIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, failingIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup("other", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, healthyIngestion, null);
+
+        /* First ingestion fails and is paused. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(failingIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(2, channel.getCounter(TEST_GROUP));
+
+        /* Other ingestion keeps sending. */
+        channel.enqueue(mock(Log.class), "other");
+        channel.enqueue(mock(Log.class), "other");
+        verify(healthyIngestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mockPersistence, times(2)).deleteLogs(eq("other"), anyString());
+        assertEquals(0, channel.getCounter("other"));
+
+        /* Nothing was closed. */
+        assertTrue(channel.isEnabled());
+        verify(failingIngestion, never()).close();
+        verify(healthyIngestion, never()).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void fatalFailureDoesNotSuspendChannel() throws IOException {
+        Persistence mockPersistence = mockPersistence();
+        Ingestion failingIngestion = mock(Ingestion.class);
+        Ingestion healthyIngestion = mock(Ingestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
+        when(failingIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new HttpException(403)));
+        when(healthyIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, failingIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup("other", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, healthyIngestion, null);
+
+        /* First batch is rejected, the next log waits for the ingestion to cool down. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        verify(failingIngestion).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(CircuitBreaker.INITIAL_BACKOFF));
+        assertEquals(1, channel.getCounter(TEST_GROUP));
+
+        /* Only the rejected batch is deleted and reported, unlike suspending the channel which deleted every log. */
+        ArgumentCaptor<String> batchId = ArgumentCaptor.forClass(String.class);
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), batchId.capture());
+        assertNotNull(batchId.getValue());
+        verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        verify(mockPersistence, never()).clearPendingLogState();
+        verify(mockListener).onFailure(any(Log.class), isA(HttpException.class));
+        verify(mockListener, never()).onFailure(any(Log.class), isA(CancellationException.class));
+
+        /* Other ingestion keeps sending. */
+        channel.enqueue(mock(Log.class), "other");
+        channel.enqueue(mock(Log.class), "other");
+        verify(healthyIngestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mockPersistence, times(2)).deleteLogs(eq("other"), anyString());
+        assertEquals(0, channel.getCounter("other"));
+
+        /* Channel stays enabled and nothing was closed. */
+        assertTrue(channel.isEnabled());
+        verify(failingIngestion, never()).close();
+        verify(healthyIngestion, never()).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failedTrialDoublesBackoff() {
+        mockStatic(SystemClock.class);
+        Persistence mockPersistence = mockPersistence();
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException()));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        AtomicReference<Runnable> firstRunnable = catchPostRunnable(CircuitBreaker.INITIAL_BACKOFF);
+        AtomicReference<Runnable> secondRunnable = catchPostRunnable(CircuitBreaker.INITIAL_BACKOFF * 2);
+
+        /* First failure. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        assertNotNull(firstRunnable.get());
+        assertNull(secondRunnable.get());
+
+        /* Trial batch fails too. */
+        when(SystemClock.elapsedRealtime()).thenReturn(CircuitBreaker.INITIAL_BACKOFF);
+        firstRunnable.get().run();
+        verify(mockIngestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertNotNull(secondRunnable.get());
+
+        /* Disabling cancels the timer. */
+        channel.setEnabled(false);
+        verify(mAppCenterHandler).removeCallbacks(secondRunnable.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void adaptiveBatching() {
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        mockStatic(NetworkStateHelper.class);
+        when(NetworkStateHelper.getSharedInstance(any(Context.class))).thenReturn(networkStateHelper);
+        when(networkStateHelper.isNetworkMetered()).thenReturn(true);
+        Persistence mockPersistence = mockPersistence();
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(100);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer());
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.setAdaptiveBatchingEnabled(true);
+        channel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Batches grow after fast responses while the backlog is deep. */
+        ArgumentCaptor<Integer> limits = ArgumentCaptor.forClass(Integer.class);
+        verify(mockPersistence, times(6)).getLogs(eq(TEST_GROUP), limits.capture(), anyListOf(Log.class));
+        assertEquals(Arrays.asList(10, 10, 10, 20, 20, 20), limits.getAllValues());
+
+        /* Remaining logs wait longer on a metered network. */
+        long meteredInterval = BATCH_TIME_INTERVAL * AdaptiveBatchController.METERED_INTERVAL_FACTOR;
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(meteredInterval));
+        BatchingMetrics metrics = channel.getBatchingMetrics(TEST_GROUP);
+        assertNotNull(metrics);
+        assertEquals(20, metrics.getMaxLogsPerBatch());
+        assertEquals(meteredInterval, metrics.getBatchTimeInterval());
+        assertEquals(0, metrics.getAverageLatency());
+        assertEquals(10, metrics.getPendingLogCount());
+        assertNull(channel.getBatchingMetrics("unknown"));
+
+        /* Disabling restores configured values. */
+        channel.setAdaptiveBatchingEnabled(false);
+        metrics = channel.getBatchingMetrics(TEST_GROUP);
+        assertNotNull(metrics);
+        assertEquals(10, metrics.getMaxLogsPerBatch());
+        assertEquals(BATCH_TIME_INTERVAL, metrics.getBatchTimeInterval());
+    }
+
+    @Test
+    public void parallelBatchesAdapted() {
+        mockStatic(SystemClock.class);
+        Persistence mockPersistence = mockPersistence();
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(100);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer());
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                callbacks.add((ServiceCallback) invocation.getArguments()[3]);
+                return null;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.setParallelBatchesLimits(1, 5);
+        channel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Configured value is the starting point. */
+        assertEquals(MAX_PARALLEL_BATCHES, callbacks.size());
+        BatchingMetrics metrics = channel.getBatchingMetrics(TEST_GROUP);
+        assertNotNull(metrics);
+        assertEquals(MAX_PARALLEL_BATCHES, metrics.getMaxParallelBatches());
+
+        /* A full window of fast batches allows one more batch in parallel. */
+        for (int i = 0; i < MAX_PARALLEL_BATCHES; i++) {
+            callbacks.get(i).onCallSucceeded("");
+        }
+        assertEquals(MAX_PARALLEL_BATCHES * 2 + 1, callbacks.size());
+        metrics = channel.getBatchingMetrics(TEST_GROUP);
+        assertNotNull(metrics);
+        assertEquals(MAX_PARALLEL_BATCHES + 1, metrics.getMaxParallelBatches());
+
+        /* A recoverable error halves it. */
+        callbacks.get(MAX_PARALLEL_BATCHES).onCallFailed(new SocketException());
+        metrics = channel.getBatchingMetrics(TEST_GROUP);
+        assertNotNull(metrics);
+        assertEquals(2, metrics.getMaxParallelBatches());
+
+        /* Batches sent before the decrease do not halve it again. */
+        callbacks.get(MAX_PARALLEL_BATCHES + 1).onCallFailed(new SocketException());
+        metrics = channel.getBatchingMetrics(TEST_GROUP);
+        assertNotNull(metrics);
+        assertEquals(2, metrics.getMaxParallelBatches());
+
+        /* No more batches while over the limit and paused. */
+        assertEquals(MAX_PARALLEL_BATCHES * 2 + 1, callbacks.size());
+    }
+
+    @Test
+    public void logsLeftOutByBatchSizeStayPending() {
+        Persistence mockPersistence = mockPersistence();
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(10);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(2)).then(getGetLogsAnswer(5));
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.setMaxBatchSize(100);
+        verify(mockPersistence).setMaxBatchSize(100);
+        channel.addGroup(TEST_GROUP, 5, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* First batch only had room for 2 logs, the 3 others are sent in the next batch. */
+        verify(mockPersistence, times(2)).getLogs(eq(TEST_GROUP), eq(5), anyListOf(Log.class));
+        verify(mockIngestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+
+        /* Remaining logs wait for the timer. */
+        assertEquals(3, channel.getCounter(TEST_GROUP));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
+
+        /* Group persistence gets the limit too. */
+        Persistence groupPersistence = mockPersistence();
+        channel.setGroupPersistence("other", groupPersistence);
+        verify(groupPersistence).setMaxBatchSize(100);
+    }
+
+    @Test
+    public void metricsRecorded() {
+        Persistence mockPersistence = mockPersistence();
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer());
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer()).then(getSendAsyncAnswer(new HttpException(403)));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        AppCenterMetrics metrics = AppCenterMetrics.getSharedInstance();
+        MetricsSnapshot before = metrics.getSnapshot();
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        String gauge = AppCenterMetrics.GAUGE_PENDING_LOGS_PREFIX + TEST_GROUP;
+
+        /* Pending logs are a gauge. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        assertEquals(Long.valueOf(1), metrics.getSnapshot().getGauges().get(gauge));
+
+        /* First batch succeeds. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        MetricsSnapshot after = metrics.getSnapshot();
+        assertEquals(Long.valueOf(0), after.getGauges().get(gauge));
+        assertEquals(2, after.getCounter(AppCenterMetrics.COUNTER_LOGS_ENQUEUED) - before.getCounter(AppCenterMetrics.COUNTER_LOGS_ENQUEUED));
+        assertEquals(1, after.getCounter(AppCenterMetrics.COUNTER_BATCHES_SENT) - before.getCounter(AppCenterMetrics.COUNTER_BATCHES_SENT));
+        assertEquals(2, after.getCounter(AppCenterMetrics.COUNTER_LOGS_SENT) - before.getCounter(AppCenterMetrics.COUNTER_LOGS_SENT));
+        assertEquals(1, after.getHistogram(AppCenterMetrics.HISTOGRAM_BATCH_SIZE).getCount() - before.getHistogram(AppCenterMetrics.HISTOGRAM_BATCH_SIZE).getCount());
+        assertEquals(1, after.getHistogram(AppCenterMetrics.HISTOGRAM_BATCH_LATENCY).getCount() - before.getHistogram(AppCenterMetrics.HISTOGRAM_BATCH_LATENCY).getCount());
+
+        /* Second batch fails with a non recoverable error. */
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        channel.enqueue(mock(Log.class), TEST_GROUP);
+        after = metrics.getSnapshot();
+        assertEquals(1, after.getCounter(AppCenterMetrics.COUNTER_BATCHES_FAILED) - before.getCounter(AppCenterMetrics.COUNTER_BATCHES_FAILED));
+        assertEquals(2, after.getCounter(AppCenterMetrics.COUNTER_LOGS_DROPPED) - before.getCounter(AppCenterMetrics.COUNTER_LOGS_DROPPED));
+        assertEquals(2, after.getCounter(AppCenterMetrics.COUNTER_LOGS_SENT) - before.getCounter(AppCenterMetrics.COUNTER_LOGS_SENT));
+
+        /* Gauge goes away with the group. */
+        channel.removeGroup(TEST_GROUP);
+        assertNull(metrics.getSnapshot().getGauges().get(gauge));
+    }
+
+    @Test
+    public void stagesTraced() {
+        final Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date(System.currentTimeMillis() - 1000));
+        Persistence mockPersistence = mockPersistence();
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.getLogs(anyString(), anyInt(), anyListOf(Log.class))).then(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[2]).add(log);
+                sBatchLogCounts.put("batch", 1);
+                return "batch";
+            }
+        });
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        LogTracer tracer = mock(LogTracer.class);
+        AppCenterTracing.setTracer(tracer);
+        try {
+            DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+            channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mock(Channel.GroupListener.class));
+            channel.enqueue(log, TEST_GROUP);
+
+            /* Log stages carry the log, batch stages the batch identifier, queue stage both. */
+            verify(tracer).onSpan(eq(AppCenterTracing.STAGE_PREPARE), isNull(String.class), eq(log), anyLong(), anyLong());
+            verify(tracer).onSpan(eq(AppCenterTracing.STAGE_CLAIM), eq("batch"), isNull(Log.class), anyLong(), anyLong());
+            ArgumentCaptor<Long> queueDuration = ArgumentCaptor.forClass(Long.class);
+            verify(tracer).onSpan(eq(AppCenterTracing.STAGE_QUEUE), eq("batch"), eq(log), eq(log.getTimestamp().getTime()), queueDuration.capture());
+            assertTrue(queueDuration.getValue() >= 1000000000L);
+            verify(tracer).onSpan(eq(AppCenterTracing.STAGE_SUCCESS_CALLBACK), eq("batch"), isNull(Log.class), anyLong(), anyLong());
+
+            /* Batch identifier is passed to ingestion for HTTP stages. */
+            ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+            verify(mockIngestion).sendAsync(anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+            assertEquals("batch", container.getValue().getBatchId());
+        } finally {
+            AppCenterTracing.setTracer(null);
+        }
+    }
+
+    @Test
+    public void enqueueFromAnotherThreadIsProcessedOnHandler() throws Exception {
+        Persistence persistence = mockPersistence();
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Enqueue from a thread that is not the handler one. */
+        when(mAppCenterHandler.getLooper()).thenReturn(mock(Looper.class));
+        final List<Runnable> postedRunnables = new ArrayList<>();
+        doAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                postedRunnables.add((Runnable) invocation.getArguments()[0]);
+                return true;
+            }
+        }).when(mAppCenterHandler).post(any(Runnable.class));
+
+        /* Returns without persisting, processing is posted once. */
+        Log firstLog = mock(Log.class);
+        Log secondLog = mock(Log.class);
+        channel.enqueue(firstLog, TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(secondLog, TEST_GROUP, Flags.DEFAULTS);
+        verify(persistence, never()).putLog(anyString(), any(Log.class));
+        assertEquals(1, postedRunnables.size());
+
+        /* Process on handler. */
+        postedRunnables.remove(0).run();
+        verify(persistence).putLog(TEST_GROUP, firstLog);
+        verify(persistence).putLog(TEST_GROUP, secondLog);
+        assertEquals(2, channel.getCounter(TEST_GROUP));
+
+        /* Processing is posted again for the next log. */
+        Log thirdLog = mock(Log.class);
+        channel.enqueue(thirdLog, TEST_GROUP, Flags.DEFAULTS);
+        assertEquals(1, postedRunnables.size());
+        postedRunnables.remove(0).run();
+        verify(persistence).putLog(TEST_GROUP, thirdLog);
+        assertEquals(3, channel.getCounter(TEST_GROUP));
+    }
+
+    @Test
+    public void enqueueCriticalFromAnotherThreadWaitsForHandler() throws Exception {
+        Persistence persistence = mockPersistence();
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Enqueue from a thread that is not the handler one, the handler runs only the second posted code. */
+        when(mAppCenterHandler.getLooper()).thenReturn(mock(Looper.class));
+        doReturn(true).doAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return true;
+            }
+        }).when(mAppCenterHandler).post(any(Runnable.class));
+
+        /* Critical log is persisted with the log handed off before it, by code posted to handler. */
+        Log log = mock(Log.class);
+        Log criticalLog = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        verify(persistence, never()).putLog(TEST_GROUP, log);
+        channel.enqueue(criticalLog, TEST_GROUP, Flags.CRITICAL);
+        verify(persistence).putLog(TEST_GROUP, log);
+        verify(persistence).putLog(TEST_GROUP, criticalLog);
+        verify(mAppCenterHandler, times(2)).post(any(Runnable.class));
+
+        /* If handler is stopped, the critical log is persisted on the calling thread. */
+        doReturn(false).when(mAppCenterHandler).post(any(Runnable.class));
+        Log lastLog = mock(Log.class);
+        channel.enqueue(lastLog, TEST_GROUP, Flags.CRITICAL);
+        verify(persistence).putLog(TEST_GROUP, lastLog);
+
+        /* If handler is busy, stop waiting after the timeout, the log is persisted later. */
+        final List<Runnable> postedRunnables = new ArrayList<>();
+        doAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                postedRunnables.add((Runnable) invocation.getArguments()[0]);
+                return true;
+            }
+        }).when(mAppCenterHandler).post(any(Runnable.class));
+        Log delayedLog = mock(Log.class);
+        long startTime = System.currentTimeMillis();
+        channel.enqueue(delayedLog, TEST_GROUP, Flags.CRITICAL);
+        assertTrue(System.currentTimeMillis() - startTime >= DefaultChannel.CRITICAL_LOG_TIMEOUT);
+        verify(persistence, never()).putLog(TEST_GROUP, delayedLog);
+        assertEquals(1, postedRunnables.size());
+        postedRunnables.get(0).run();
+        verify(persistence).putLog(TEST_GROUP, delayedLog);
     }
 
     @Test
     public void enqueuePersistenceFailure() throws Persistence.PersistenceException {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
 
         /* Simulate Persistence failing. */
         doThrow(new Persistence.PersistenceException("mock", new IOException("mock"))).
@@ -674,7 +1306,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Send a log. */
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         when(persistence.getLogs(anyString(), anyInt(), anyList())).thenAnswer(getGetLogsAnswer(1));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         Channel.Listener listener = spy(new AbstractChannelListener());
@@ -706,7 +1338,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     @SuppressWarnings("unchecked")
     public void disableBeforeCheckingPendingLogs() {
         Ingestion ingestion = mock(Ingestion.class);
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         final DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         when(persistence.getLogs(anyString(), anyInt(), anyList())).thenAnswer(getGetLogsAnswer(1));
         when(ingestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).thenAnswer(new Answer<Void>() {
@@ -742,7 +1374,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         AtomicReference<Runnable> runnable = catchPostRunnable();
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         when(persistence.countLogs(anyString())).thenReturn(3);
         when(persistence.getLogs(anyString(), anyInt(), anyList())).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -762,7 +1394,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         AtomicReference<Runnable> runnable = catchPostRunnable();
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         when(persistence.countLogs(anyString())).thenReturn(103);
         when(persistence.getLogs(anyString(), anyInt(), anyList())).thenAnswer(getGetLogsAnswer(50)).thenAnswer(getGetLogsAnswer(50)).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -782,7 +1414,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         AtomicReference<Runnable> runnable = catchPostRunnable();
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         when(persistence.countLogs(anyString())).thenReturn(3);
         when(persistence.getLogs(anyString(), anyInt(), anyList())).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -829,7 +1461,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     public void clear() {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
 
@@ -848,7 +1480,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         /* Setup mocking to make device properties generation fail. */
         when(DeviceInfoHelper.getDeviceInfo(any(Context.class))).thenThrow(new DeviceInfoHelper.DeviceInfoException("mock", new PackageManager.NameNotFoundException()));
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
 
         @SuppressWarnings("ConstantConditions")
         DefaultChannel channel = new DefaultChannel(mock(Context.class), null, persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
@@ -872,7 +1504,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         AtomicReference<Runnable> runnable = catchPostRunnable();
         Ingestion ingestion = mock(Ingestion.class);
         doThrow(new IOException()).when(ingestion).close();
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         when(persistence.countLogs(anyString())).thenReturn(2);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
@@ -887,8 +1519,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     @SuppressWarnings("unchecked")
-    public void invokeCallbacksAfterSuspendFatal() {
-        Persistence mockPersistence = mock(Persistence.class);
+    public void invokeCallbacksAfterDisable() {
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -897,20 +1529,22 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 /* Logs from here will be used TEST_GROUP to clear pending states. */
                 .then(getGetLogsAnswer(DefaultChannel.CLEAR_BATCH_SIZE))
                 .then(getGetLogsAnswer(DefaultChannel.CLEAR_BATCH_SIZE - 1))
-                /* Logs from here will be used another group to skip callbacks. */
-                .then(getGetLogsAnswer(DefaultChannel.CLEAR_BATCH_SIZE));
-        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new HttpException(403)));
+                .then(getGetLogsAnswer(0));
+
+        /* Simulate waiting for response. */
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).thenReturn(null);
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
         channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
 
-        /* Enqueuing 1 event. */
+        /* Enqueuing 1 event and disable while sending it. */
         channel.enqueue(mock(Log.class), TEST_GROUP);
+        channel.setEnabled(false);
 
         /* Verify callbacks invoked (1 + DefaultChannel.CLEAR_BATCH_SIZE + DefaultChannel.CLEAR_BATCH_SIZE - 1) times. */
         verify(mockListener, times(DefaultChannel.CLEAR_BATCH_SIZE * 2)).onBeforeSending(any(Log.class));
-        verify(mockListener, times(DefaultChannel.CLEAR_BATCH_SIZE * 2)).onFailure(any(Log.class), any(Exception.class));
+        verify(mockListener, times(DefaultChannel.CLEAR_BATCH_SIZE * 2)).onFailure(any(Log.class), any(CancellationException.class));
 
         /* Verify logs were deleted. */
         verify(mockPersistence).deleteLogs(TEST_GROUP);
@@ -918,8 +1552,29 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     @SuppressWarnings("unchecked")
-    public void invokeCallbacksAfterSuspendFatalNoListener() {
-        Persistence mockPersistence = mock(Persistence.class);
+    public void invokeCallbacksForAllLogsWhenBatchesAreCapped() {
+        Persistence mockPersistence = mockPersistence();
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+
+        /* Batch size cap returns fewer logs than requested while more remain. */
+        when(mockPersistence.getLogs(eq(TEST_GROUP), anyInt(), any(ArrayList.class)))
+                .then(getGetLogsAnswer(3))
+                .then(getGetLogsAnswer(2))
+                .then(getGetLogsAnswer(0));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.setEnabled(false);
+
+        /* Verify callbacks invoked for every log before deleting them. */
+        verify(mockListener, times(5)).onFailure(any(Log.class), any(CancellationException.class));
+        verify(mockPersistence, times(3)).getLogs(eq(TEST_GROUP), anyInt(), any(ArrayList.class));
+        verify(mockPersistence).deleteLogs(TEST_GROUP);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void invokeCallbacksAfterDisableNoListener() {
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -929,16 +1584,17 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 .then(getGetLogsAnswer(1))
                 .then(getGetLogsAnswer(DefaultChannel.CLEAR_BATCH_SIZE));
 
-        /* Make first call hang, and the second call return a fatal error. */
-        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).thenReturn(null).then(getSendAsyncAnswer(new HttpException(403)));
+        /* Make calls hang. */
+        when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).thenReturn(null);
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, 1, MAX_PARALLEL_BATCHES, null, null);
         channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
 
-        /* Enqueuing 2 events. */
+        /* Enqueuing 2 events then disable. */
         channel.enqueue(mock(Log.class), TEST_GROUP);
         channel.enqueue(mock(Log.class), TEST_GROUP);
+        channel.setEnabled(false);
 
         /* Verify callbacks not invoked. */
         verify(mockListener, never()).onBeforeSending(any(Log.class));
@@ -950,8 +1606,72 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     @SuppressWarnings("unchecked")
-    public void invokeCallbacksAfterSuspendRecoverable() {
-        Persistence mockPersistence = mock(Persistence.class);
+    public void disableWithInactiveListenerDeletesWithoutReadingLogs() {
+        Persistence mockPersistence = mockPersistence();
+        Channel.OptionalGroupListener mockListener = mock(Channel.OptionalGroupListener.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.setEnabled(false);
+
+        /* Logs are deleted with a single call. */
+        verify(mockPersistence, never()).getLogs(anyString(), anyInt(), any(ArrayList.class));
+        verify(mockPersistence).deleteLogs(TEST_GROUP);
+        verify(mockListener, never()).onFailure(any(Log.class), any(Exception.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void disableStreamsCallbacksInBackground() {
+        Persistence mockPersistence = mockPersistence();
+        Channel.OptionalGroupListener mockListener = mock(Channel.OptionalGroupListener.class);
+        when(mockListener.hasCallbacks()).thenReturn(true);
+        when(mockPersistence.getLogs(eq(TEST_GROUP), anyInt(), any(ArrayList.class)))
+                .then(getGetLogsAnswer(DefaultChannel.CLEAR_BATCH_SIZE))
+                .then(getGetLogsAnswer(DefaultChannel.CLEAR_BATCH_SIZE))
+                .then(getGetLogsAnswer(1))
+                .then(getGetLogsAnswer(0));
+
+        /* Keep posted runnables instead of running them. */
+        Handler handler = mock(Handler.class);
+        final List<Runnable> runnables = new ArrayList<>();
+        when(handler.post(any(Runnable.class))).then(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                runnables.add((Runnable) invocation.getArguments()[0]);
+                return true;
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), handler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        runnables.clear();
+
+        /* Disabling returns before reading logs. */
+        channel.setEnabled(false);
+        verify(mockPersistence, never()).getLogs(anyString(), anyInt(), any(ArrayList.class));
+        assertEquals(1, runnables.size());
+
+        /* One batch per runnable. */
+        runnables.remove(0).run();
+        verify(mockListener, times(DefaultChannel.CLEAR_BATCH_SIZE)).onFailure(any(Log.class), any(CancellationException.class));
+        verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        assertEquals(1, runnables.size());
+
+        /* Enabling again completes the deletion first. */
+        channel.setEnabled(true);
+        verify(mockListener, times(DefaultChannel.CLEAR_BATCH_SIZE * 2 + 1)).onBeforeSending(any(Log.class));
+        verify(mockListener, times(DefaultChannel.CLEAR_BATCH_SIZE * 2 + 1)).onFailure(any(Log.class), any(CancellationException.class));
+        verify(mockPersistence).deleteLogs(TEST_GROUP);
+
+        /* Pending runnable does nothing. */
+        runnables.remove(0).run();
+        verify(mockPersistence, times(4)).getLogs(eq(TEST_GROUP), anyInt(), any(ArrayList.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void recoverableFailureDoesNotInvokeCallbacks() {
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -974,14 +1694,15 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         /* Verify no log was deleted. */
         verify(mockPersistence, never()).deleteLogs(TEST_GROUP);
+        verify(mockPersistence, never()).deleteLogs(eq(TEST_GROUP), anyString());
 
-        /* But that we cleared batch state. */
-        verify(mockPersistence).clearPendingLogState();
+        /* But that we cleared the state of that batch only. */
+        verify(mockPersistence).clearPendingLogState(eq(TEST_GROUP), anyString());
+        verify(mockPersistence, never()).clearPendingLogState();
     }
-
     @Test
     public void shutdown() {
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
 
@@ -1004,7 +1725,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     public void filter() throws Persistence.PersistenceException {
 
         /* Given a mock channel. */
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
 
         @SuppressWarnings("ConstantConditions")
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
@@ -1085,7 +1806,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     private void testChannelWithoutAppSecret(String appSecret) throws Persistence.PersistenceException {
 
         /* Given a mock channel. */
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         Ingestion ingestion = mock(Ingestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), appSecret, persistence, ingestion, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
@@ -1113,7 +1834,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     public void withoutIngestion() {
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, null, mAppCenterHandler);
         channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
         channel.enqueue(mock(Log.class), TEST_GROUP);
@@ -1126,7 +1847,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     @Test
     public void addRemoveGroupListener() {
-        Persistence persistence = mock(Persistence.class);
+        Persistence persistence = mockPersistence();
         Ingestion ingestion = mock(Ingestion.class);
         Channel.Listener listener = spy(new AbstractChannelListener());
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
@@ -1141,7 +1862,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     public void useAlternateIngestion() throws IOException {
 
         /* Set up channel with an alternate ingestion. */
-        Persistence mockPersistence = mock(Persistence.class);
+        Persistence mockPersistence = mockPersistence();
         Ingestion defaultIngestion = mock(Ingestion.class);
         Ingestion alternateIngestion = mock(Ingestion.class);
         when(mockPersistence.getLogs(any(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(1));
@@ -9,6 +9,7 @@ import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.Extensions;
 import com.microsoft.appcenter.ingestion.models.one.SdkExtension;
+import com.microsoft.appcenter.persistence.EvictionPolicy;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
 import org.junit.Test;
@@ -58,7 +59,7 @@ public class OneCollectorChannelListenerTest {
             public boolean matches(Object argument) {
                 return argument instanceof OneCollectorIngestion;
             }
-        }), isNull(Channel.GroupListener.class));
+        }), isNull(Channel.GroupListener.class), eq(EvictionPolicy.PRIORITY_LOW), eq(0));
 
         /* Mock one collector group added callback, should not loop indefinitely. */
         listener.onGroupAdded(TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX);
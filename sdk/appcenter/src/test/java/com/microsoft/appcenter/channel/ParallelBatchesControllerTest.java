@@ -0,0 +1,97 @@
+package com.microsoft.appcenter.channel;
+
+import org.junit.Test;
+
+import static com.microsoft.appcenter.channel.ParallelBatchesController.TARGET_LATENCY;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelBatchesControllerTest {
+
+    private static void succeedFast(ParallelBatchesController controller, int times) {
+        for (int i = 0; i < times; i++) {
+            controller.onBatchSucceeded(controller.onBatchSent(), TARGET_LATENCY);
+        }
+    }
+
+    @Test
+    public void noLimitsUsesConfiguredValue() {
+        ParallelBatchesController controller = new ParallelBatchesController(3);
+        succeedFast(controller, 20);
+        assertEquals(3, controller.getMaxParallelBatches());
+        controller.onBatchFailed(controller.onBatchSent(), true);
+        controller.onBatchSucceeded(controller.onBatchSent(), TARGET_LATENCY + 1);
+        assertEquals(3, controller.getMaxParallelBatches());
+    }
+
+    @Test
+    public void limitsClampConfiguredValue() {
+        ParallelBatchesController controller = new ParallelBatchesController(3);
+        controller.setLimits(4, 8);
+        assertEquals(4, controller.getMaxParallelBatches());
+        controller.setLimits(1, 2);
+        assertEquals(2, controller.getMaxParallelBatches());
+    }
+
+    @Test
+    public void additiveIncreaseUpToCeiling() {
+        ParallelBatchesController controller = new ParallelBatchesController(3);
+        controller.setLimits(1, 5);
+
+        /* One more after a full window of fast batches. */
+        succeedFast(controller, 2);
+        assertEquals(3, controller.getMaxParallelBatches());
+        succeedFast(controller, 1);
+        assertEquals(4, controller.getMaxParallelBatches());
+        succeedFast(controller, 4);
+        assertEquals(5, controller.getMaxParallelBatches());
+
+        /* Not above ceiling. */
+        succeedFast(controller, 20);
+        assertEquals(5, controller.getMaxParallelBatches());
+    }
+
+    @Test
+    public void multiplicativeDecreaseDownToFloor() {
+        ParallelBatchesController controller = new ParallelBatchesController(8);
+        controller.setLimits(2, 8);
+
+        /* Recoverable error halves it. */
+        controller.onBatchFailed(controller.onBatchSent(), true);
+        assertEquals(4, controller.getMaxParallelBatches());
+
+        /* So does a slow batch. */
+        controller.onBatchSucceeded(controller.onBatchSent(), TARGET_LATENCY + 1);
+        assertEquals(2, controller.getMaxParallelBatches());
+
+        /* Not below floor. */
+        controller.onBatchFailed(controller.onBatchSent(), true);
+        assertEquals(2, controller.getMaxParallelBatches());
+    }
+
+    @Test
+    public void nonRecoverableErrorIsNotCongestion() {
+        ParallelBatchesController controller = new ParallelBatchesController(4);
+        controller.setLimits(1, 8);
+        controller.onBatchFailed(controller.onBatchSent(), false);
+        assertEquals(4, controller.getMaxParallelBatches());
+    }
+
+    @Test
+    public void decreaseOncePerWindow() {
+        ParallelBatchesController controller = new ParallelBatchesController(8);
+        controller.setLimits(1, 8);
+        int first = controller.onBatchSent();
+        int second = controller.onBatchSent();
+        int third = controller.onBatchSent();
+
+        /* Batches in flight during the decrease fail for the same reason. */
+        controller.onBatchFailed(first, true);
+        controller.onBatchFailed(second, true);
+        controller.onBatchSucceeded(third, TARGET_LATENCY + 1);
+        assertEquals(4, controller.getMaxParallelBatches());
+
+        /* Batches sent after the decrease count again. */
+        controller.onBatchFailed(controller.onBatchSent(), true);
+        assertEquals(2, controller.getMaxParallelBatches());
+    }
+}
@@ -0,0 +1,214 @@
+package com.microsoft.appcenter.http;
+
+import android.util.Log;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_GZIP;
+import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_KEY;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static com.microsoft.appcenter.http.DefaultHttpClient.MIN_GZIP_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Sends requests to a local stub server that decompresses what it receives.
+ */
+public class DefaultHttpClientCompressionTest {
+
+    private static final String SMALL_BODY = "{\"logs\":[]}";
+
+    private HttpServer mServer;
+
+    private String mUrl;
+
+    private String mReceivedEncoding;
+
+    private String mReceivedBody;
+
+    private static String buildBigBody() {
+        StringBuilder body = new StringBuilder("{\"logs\":[");
+        for (int i = 0; i < 100; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"type\":\"event\",\"sid\":").append(i).append(",\"device\":{\"sdkName\":\"appcenter.android\",\"osName\":\"Android\",\"locale\":\"en_US\"}}");
+        }
+        return body.append("]}").toString();
+    }
+
+    private static String read(InputStream stream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] bytes = new byte[1024];
+        int length;
+        while ((length = stream.read(bytes)) > 0) {
+            buffer.write(bytes, 0, length);
+        }
+        return buffer.toString("UTF-8");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        AppCenterLog.setLogLevel(Log.ASSERT);
+        CompressionStats.unsetInstance();
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mReceivedEncoding = exchange.getRequestHeaders().getFirst(CONTENT_ENCODING_KEY);
+                InputStream body = exchange.getRequestBody();
+                if (CONTENT_ENCODING_GZIP.equals(mReceivedEncoding)) {
+                    body = new GZIPInputStream(body);
+                }
+                mReceivedBody = read(body);
+                byte[] response = "OK".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        mServer.start();
+        mUrl = new URL("http", "127.0.0.1", mServer.getAddress().getPort(), "/logs").toString();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        AppCenterLog.setLogLevel(Log.ASSERT);
+    }
+
+    private Object post(HttpClient.CallTemplate callTemplate) {
+        return new DefaultHttpClient.Call(mUrl, METHOD_POST, new HashMap<String, String>(), callTemplate, mock(ServiceCallback.class), mock(Executor.class)).doInBackground();
+    }
+
+    private static HttpClient.CallTemplate streaming(String body, boolean compress) {
+        return new MockStreamingCallTemplate(body, compress);
+    }
+
+    private static HttpClient.CallTemplate buffered(String body, boolean compress) {
+        return new MockCallTemplate(body, compress);
+    }
+
+    private static class MockCallTemplate implements HttpClient.CompressedCallTemplate {
+
+        final String mBody;
+
+        private final boolean mCompress;
+
+        MockCallTemplate(String body, boolean compress) {
+            mBody = body;
+            mCompress = compress;
+        }
+
+        @Override
+        public String buildRequestBody() throws JSONException {
+            return mBody;
+        }
+
+        @Override
+        public boolean isCompressionEnabled() {
+            return mCompress;
+        }
+
+        @Override
+        public void onBeforeCalling(URL url, Map<String, String> headers) {
+        }
+    }
+
+    private static class MockStreamingCallTemplate extends MockCallTemplate implements HttpClient.StreamingCallTemplate {
+
+        MockStreamingCallTemplate(String body, boolean compress) {
+            super(body, compress);
+        }
+
+        @Override
+        public void writeRequestBody(Writer writer) throws IOException {
+
+            /* Write in small pieces to go through buffering. */
+            for (int i = 0; i < mBody.length(); i += 100) {
+                writer.write(mBody, i, Math.min(100, mBody.length() - i));
+            }
+        }
+    }
+
+    @Test
+    public void streamingBigBodyIsCompressed() {
+        String body = buildBigBody();
+        assertTrue(body.length() > MIN_GZIP_SIZE);
+        assertEquals("OK", post(streaming(body, true)));
+        assertEquals(CONTENT_ENCODING_GZIP, mReceivedEncoding);
+        assertEquals(body, mReceivedBody);
+
+        /* Check counters, repetitive logs compress very well. */
+        CompressionStats stats = CompressionStats.getSharedInstance();
+        assertEquals(1, stats.getRequestCount());
+        assertEquals(body.length(), stats.getOriginalSize());
+        assertTrue(stats.getCompressionRatio() > 4);
+    }
+
+    @Test
+    public void bufferedBigBodyIsCompressed() {
+        AppCenterLog.setLogLevel(Log.VERBOSE);
+        String body = buildBigBody();
+        assertEquals("OK", post(buffered(body, true)));
+        assertEquals(CONTENT_ENCODING_GZIP, mReceivedEncoding);
+        assertEquals(body, mReceivedBody);
+        assertEquals(1, CompressionStats.getSharedInstance().getRequestCount());
+    }
+
+    @Test
+    public void smallBodyIsNotCompressed() {
+        assertEquals("OK", post(streaming(SMALL_BODY, true)));
+        assertNull(mReceivedEncoding);
+        assertEquals(SMALL_BODY, mReceivedBody);
+        assertEquals("OK", post(buffered(SMALL_BODY, true)));
+        assertNull(mReceivedEncoding);
+        assertEquals(SMALL_BODY, mReceivedBody);
+        assertEquals(0, CompressionStats.getSharedInstance().getRequestCount());
+        assertEquals(0, CompressionStats.getSharedInstance().getCompressionRatio(), 0);
+    }
+
+    @Test
+    public void notCompressedUnlessRequested() {
+        String body = buildBigBody();
+        assertEquals("OK", post(streaming(body, false)));
+        assertNull(mReceivedEncoding);
+        assertEquals(body, mReceivedBody);
+        assertEquals(0, CompressionStats.getSharedInstance().getRequestCount());
+    }
+
+    @Test
+    public void encodingHeaderAloneDoesNotCompress() {
+
+        /* A caller header is sent as is but does not turn compression on. */
+        String body = buildBigBody();
+        Map<String, String> headers = new HashMap<>();
+        headers.put(CONTENT_ENCODING_KEY, "identity");
+        assertEquals("OK", new DefaultHttpClient.Call(mUrl, METHOD_POST, headers, buffered(body, false), mock(ServiceCallback.class), mock(Executor.class)).doInBackground());
+        assertEquals("identity", mReceivedEncoding);
+        assertEquals(body, mReceivedBody);
+        assertEquals(0, CompressionStats.getSharedInstance().getRequestCount());
+    }
+}
@@ -1,6 +1,7 @@
 package com.microsoft.appcenter.http;
 
 import android.net.TrafficStats;
+import android.support.annotation.NonNull;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.utils.HandlerUtils;
@@ -21,6 +22,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
@@ -29,6 +31,7 @@ import java.util.UUID;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static android.util.Log.VERBOSE;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
@@ -42,6 +45,7 @@ import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -56,37 +60,41 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @SuppressWarnings("unused")
-@PrepareForTest({DefaultHttpClient.class, TrafficStats.class})
+@PrepareForTest({DefaultHttpClient.class, TrafficStats.class, HttpExecutor.class, HandlerUtils.class})
 public class DefaultHttpClientTest {
 
     @Rule
     public PowerMockRule rule = new PowerMockRule();
 
     /**
-     * Simulate ASyncTask. It's not in @Before because some tests like cancel must not use this.
+     * Run calls and callbacks synchronously. It's not in @Before because some tests like cancel must not use this.
      */
     private static void mockCall() throws Exception {
 
-        /* Mock AsyncTask... */
-        whenNew(DefaultHttpClient.Call.class).withAnyArguments().thenAnswer(new Answer<Object>() {
+        /* Mock executor... */
+        HttpExecutor executor = mock(HttpExecutor.class);
+        doAnswer(new Answer<Object>() {
 
             @Override
-            public Object answer(InvocationOnMock invocation) throws Throwable {
+            public Object answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(executor).execute(any(Runnable.class), anyInt());
+        mockStatic(HttpExecutor.class);
+        when(HttpExecutor.getSharedInstance()).thenReturn(executor);
 
-                @SuppressWarnings("unchecked")
-                final DefaultHttpClient.Call call = new DefaultHttpClient.Call(invocation.getArguments()[0].toString(), invocation.getArguments()[1].toString(), (Map<String, String>) invocation.getArguments()[2], (HttpClient.CallTemplate) invocation.getArguments()[3], (ServiceCallback) invocation.getArguments()[4]);
-                DefaultHttpClient.Call spyCall = spy(call);
-                when(spyCall.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClient.Call>() {
+        /* And main thread. */
+        mockStatic(HandlerUtils.class);
+        doAnswer(new Answer<Object>() {
 
-                    @Override
-                    public DefaultHttpClient.Call answer(InvocationOnMock invocation) throws Throwable {
-                        call.onPostExecute(call.doInBackground());
-                        return call;
-                    }
-                });
-                return spyCall;
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
             }
-        });
+        }).when(HandlerUtils.class);
+        HandlerUtils.runOnUiThread(any(Runnable.class));
         mockStatic(TrafficStats.class);
     }
 
@@ -145,6 +153,85 @@ public class DefaultHttpClientTest {
         TrafficStats.clearThreadStatsTag();
     }
 
+    @Test
+    public void postStreaming() throws Exception {
+
+        /* Streaming is not used in verbose as we log the whole payload. */
+        AppCenter.setLogLevel(android.util.Log.INFO);
+
+        /* Configure mock HTTP. */
+        String urlString = "http://mock/logs?api-version=1.0.0";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpURLConnection urlConnection = mock(HttpURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+
+        /* Configure API client. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Writer writer = (Writer) invocation.getArguments()[0];
+                writer.write("mock");
+                writer.write("Payload\u00e9");
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(Writer.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* Test calling code. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK");
+        verify(urlConnection).setDoOutput(true);
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        verify(urlConnection, never()).setFixedLengthStreamingMode(anyInt());
+        verify(callTemplate, never()).buildRequestBody();
+        verify(urlConnection).disconnect();
+        assertEquals("mockPayload\u00e9", buffer.toString("UTF-8"));
+
+        /* In verbose, the body is built as a whole to be logged. */
+        AppCenter.setLogLevel(VERBOSE);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        when(callTemplate.buildRequestBody()).thenReturn("mockPayload");
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(callTemplate).buildRequestBody();
+        verify(callTemplate).writeRequestBody(any(Writer.class));
+        verify(urlConnection).setFixedLengthStreamingMode(11);
+    }
+
+    @Test
+    public void failedStreaming() throws Exception {
+        AppCenter.setLogLevel(android.util.Log.INFO);
+
+        /* Configure mock HTTP. */
+        URL url = mock(URL.class);
+        whenNew(URL.class).withAnyArguments().thenReturn(url);
+        HttpURLConnection urlConnection = mock(HttpURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+        /* Configure API client. */
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        JSONException exception = new JSONException("mock");
+        doThrow(exception).when(callTemplate).writeRequestBody(any(Writer.class));
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        /* The request is aborted without reading a response. */
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        httpClient.callAsync("", METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallFailed(exception);
+        verify(urlConnection, never()).getResponseCode();
+        verify(urlConnection).disconnect();
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void post200WithoutCallTemplate() throws Exception {
@@ -490,22 +577,78 @@ public class DefaultHttpClientTest {
     @Test
     public void cancel() throws Exception {
 
-        /* Mock AsyncTask... */
+        /* Keep the call queued. */
+        HttpExecutor executor = mock(HttpExecutor.class);
+        mockStatic(HttpExecutor.class);
+        when(HttpExecutor.getSharedInstance()).thenReturn(executor);
         DefaultHttpClient.Call mockCall = mock(DefaultHttpClient.Call.class);
         whenNew(DefaultHttpClient.Call.class).withAnyArguments().thenReturn(mockCall);
         when(mockCall.isCancelled()).thenReturn(false).thenReturn(true);
         DefaultHttpClient httpClient = new DefaultHttpClient();
         ServiceCallback serviceCallback = mock(ServiceCallback.class);
         ServiceCall call = httpClient.callAsync("", "", new HashMap<String, String>(), mock(HttpClient.CallTemplate.class), serviceCallback);
+        verify(executor).execute(mockCall, HttpExecutor.PRIORITY_NORMAL);
 
         /* Cancel and verify. */
         call.cancel();
-        verify(mockCall).cancel(true);
+        verify(mockCall).cancel();
 
         /* Calling cancel a second time should be allowed and ignored. */
         call.cancel();
-        verify(mockCall, times(1)).cancel(true);
-        verify(mockCall, never()).cancel(false);
+        verify(mockCall, times(1)).cancel();
+    }
+
+    @Test
+    public void cancelledCallIsSkipped() throws Exception {
+        Executor callbackExecutor = mock(Executor.class);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        DefaultHttpClient.Call call = new DefaultHttpClient.Call("", METHOD_GET, new HashMap<String, String>(), null, serviceCallback, callbackExecutor);
+        call.cancel();
+        call.run();
+        verifyZeroInteractions(callbackExecutor);
+
+        /* Cancel after the call ran but before the callback. */
+        call = new DefaultHttpClient.Call("", METHOD_GET, new HashMap<String, String>(), null, serviceCallback, callbackExecutor);
+        call.onPostExecute("OK");
+        verify(serviceCallback).onCallSucceeded("OK");
+        call.cancel();
+        call.onPostExecute("OK");
+        verifyNoMoreInteractions(serviceCallback);
+    }
+
+    @Test
+    public void callbackExecutorAndPriority() throws Exception {
+
+        /* Configure mock HTTP. */
+        URL url = mock(URL.class);
+        whenNew(URL.class).withAnyArguments().thenReturn(url);
+        HttpURLConnection urlConnection = mock(HttpURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        mockCall();
+
+        /* Callbacks are delivered on the executor we provide. */
+        final AtomicReference<Runnable> callback = new AtomicReference<>();
+        Executor callbackExecutor = new Executor() {
+
+            @Override
+            public void execute(@NonNull Runnable command) {
+                callback.set(command);
+            }
+        };
+        DefaultHttpClient httpClient = new DefaultHttpClient(callbackExecutor);
+        HttpClient.PrioritizedCallTemplate callTemplate = mock(HttpClient.PrioritizedCallTemplate.class);
+        when(callTemplate.getPriority()).thenReturn(HttpExecutor.PRIORITY_HIGH);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        httpClient.callAsync("", METHOD_GET, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(HttpExecutor.getSharedInstance()).execute(any(Runnable.class), eq(HttpExecutor.PRIORITY_HIGH));
+        verifyZeroInteractions(serviceCallback);
+        assertNotNull(callback.get());
+        callback.get().run();
+        verify(serviceCallback).onCallSucceeded("OK");
+        verifyStatic(never());
+        HandlerUtils.runOnUiThread(any(Runnable.class));
     }
 
     @Test
@@ -580,8 +723,7 @@ public class DefaultHttpClientTest {
     }
 
     @Test
-    @PrepareForTest(HandlerUtils.class)
-    public void rejectedAsyncTask() throws Exception {
+    public void rejectedCall() throws Exception {
 
         /* Mock HandlerUtils to simulate call from background (this unit test) to main (mock) thread. */
         final Semaphore semaphore = new Semaphore(0);
@@ -590,7 +732,7 @@ public class DefaultHttpClientTest {
 
             @Override
             public Object answer(final InvocationOnMock invocation) throws Throwable {
-                new Thread("rejectedAsyncTask.handler") {
+                new Thread("rejectedCall.handler") {
 
                     @Override
                     public void run() {
@@ -603,11 +745,12 @@ public class DefaultHttpClientTest {
         }).when(HandlerUtils.class);
         HandlerUtils.runOnUiThread(any(Runnable.class));
 
-        /* Mock ingestion to fail on saturated executor in AsyncTask. */
-        DefaultHttpClient.Call call = mock(DefaultHttpClient.Call.class);
-        whenNew(DefaultHttpClient.Call.class).withAnyArguments().thenReturn(call);
+        /* Mock ingestion to fail on saturated executor. */
+        HttpExecutor executor = mock(HttpExecutor.class);
+        mockStatic(HttpExecutor.class);
+        when(HttpExecutor.getSharedInstance()).thenReturn(executor);
         RejectedExecutionException exception = new RejectedExecutionException();
-        when(call.executeOnExecutor(any(Executor.class))).thenThrow(exception);
+        doThrow(exception).when(executor).execute(any(Runnable.class), anyInt());
         DefaultHttpClient httpClient = new DefaultHttpClient();
 
         /* Test. */
@@ -0,0 +1,55 @@
+package com.microsoft.appcenter.http;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+@PrepareForTest(HttpCallbackExecutor.class)
+public class HttpCallbackExecutorTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @After
+    public void tearDown() {
+        HttpCallbackExecutor.unsetInstance();
+    }
+
+    @Test
+    public void sharedInstanceRunsOnBackgroundThread() throws Exception {
+        HandlerThread handlerThread = mock(HandlerThread.class);
+        whenNew(HandlerThread.class).withArguments(anyString(), anyInt()).thenReturn(handlerThread);
+        Looper looper = mock(Looper.class);
+        when(handlerThread.getLooper()).thenReturn(looper);
+        Handler handler = mock(Handler.class);
+        whenNew(Handler.class).withArguments(looper).thenReturn(handler);
+
+        /* Thread is started once. */
+        HttpCallbackExecutor executor = HttpCallbackExecutor.getSharedInstance();
+        assertSame(executor, HttpCallbackExecutor.getSharedInstance());
+        verifyNew(HandlerThread.class).withArguments(HttpCallbackExecutor.THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+        verify(handlerThread).start();
+        assertSame(handler, executor.getHandler());
+
+        /* Commands are posted to its handler. */
+        Runnable command = mock(Runnable.class);
+        executor.execute(command);
+        verify(handler).post(command);
+    }
+}
@@ -2,6 +2,11 @@ package com.microsoft.appcenter.http;
 
 import android.os.Handler;
 
+import com.microsoft.appcenter.AppCenterTracing;
+import com.microsoft.appcenter.LogTracer;
+import com.microsoft.appcenter.ingestion.models.Log;
+
+import org.junit.After;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 import org.mockito.invocation.InvocationOnMock;
@@ -13,16 +18,24 @@ import java.net.UnknownHostException;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.longThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 @SuppressWarnings("unused")
 public class HttpClientRetryerTest {
 
+    @After
+    public void tearDown() {
+        AppCenterTracing.setTracer(null);
+    }
+
     private static void simulateRetryAfterDelay(Handler handler) {
         doAnswer(new Answer() {
 
@@ -96,6 +109,38 @@ public class HttpClientRetryerTest {
         verifyNoMoreInteractions(callback);
     }
 
+    @Test
+    public void retryWaitIsTraced() {
+        LogTracer tracer = mock(LogTracer.class);
+        AppCenterTracing.setTracer(tracer);
+        HttpClient.TracedCallTemplate callTemplate = mock(HttpClient.TracedCallTemplate.class);
+        when(callTemplate.getBatchId()).thenReturn("batch");
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) throws Throwable {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallFailed(new SocketException());
+                return mock(ServiceCall.class);
+            }
+        }).doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) throws Throwable {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallSucceeded("mockSuccessPayload");
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+        simulateRetryAfterDelay(handler);
+        retryer.callAsync("", "", null, callTemplate, mock(ServiceCallback.class));
+
+        /* Only the retry waited. */
+        verify(tracer).onSpan(eq(AppCenterTracing.STAGE_RETRY_WAIT), eq("batch"), isNull(Log.class), anyLong(), anyLong());
+        verifyNoMoreInteractions(tracer);
+    }
+
     @Test
     public void retryOnceThenFail() {
         final HttpException expectedException = new HttpException(403);
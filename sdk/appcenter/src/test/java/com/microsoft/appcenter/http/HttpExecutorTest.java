@@ -0,0 +1,211 @@
+package com.microsoft.appcenter.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpExecutorTest {
+
+    private HttpExecutor mExecutor;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        HttpExecutor.unsetInstance();
+    }
+
+    /**
+     * Occupy the only thread until the returned latch is released.
+     */
+    private CountDownLatch block() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private Runnable record(final List<String> order, final String name, final CountDownLatch done) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void sharedInstance() {
+        HttpExecutor executor = HttpExecutor.getSharedInstance();
+        assertNotNull(executor);
+        assertSame(executor, HttpExecutor.getSharedInstance());
+        assertEquals(HttpExecutor.POOL_SIZE, executor.getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void runsByPriorityThenSubmissionOrder() throws InterruptedException {
+        mExecutor = new HttpExecutor(1, 10);
+        CountDownLatch release = block();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(5);
+        mExecutor.execute(record(order, "low", done), HttpExecutor.PRIORITY_LOW);
+        mExecutor.execute(record(order, "normal1", done));
+        mExecutor.execute(record(order, "high1", done), HttpExecutor.PRIORITY_HIGH);
+        mExecutor.execute(record(order, "normal2", done), HttpExecutor.PRIORITY_NORMAL);
+        mExecutor.execute(record(order, "high2", done), HttpExecutor.PRIORITY_HIGH);
+        assertEquals(5, mExecutor.getQueueDepth());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(5, order.size());
+        assertEquals("high1", order.get(0));
+        assertEquals("high2", order.get(1));
+        assertEquals("normal1", order.get(2));
+        assertEquals("normal2", order.get(3));
+        assertEquals("low", order.get(4));
+        assertEquals(5, mExecutor.getMaxQueueDepth());
+    }
+
+    @Test
+    public void boundedQueue() throws InterruptedException {
+        mExecutor = new HttpExecutor(1, 2);
+        CountDownLatch release = block();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(2);
+        mExecutor.execute(record(order, "1", done));
+        mExecutor.execute(record(order, "2", done));
+        try {
+            mExecutor.execute(record(order, "3", done), HttpExecutor.PRIORITY_HIGH);
+            fail("Expected rejection");
+        } catch (RejectedExecutionException ignored) {
+        }
+        assertEquals(1, mExecutor.getRejectedCount());
+        assertEquals(2, mExecutor.getMaxQueueDepth());
+
+        /* Queue accepts calls again once drained. */
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        final CountDownLatch last = new CountDownLatch(1);
+        mExecutor.execute(record(order, "4", last));
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        assertEquals(0, mExecutor.getQueueDepth());
+    }
+
+    @Test
+    public void boundedQueueWithConcurrentCalls() throws InterruptedException {
+        mExecutor = new HttpExecutor(1, 10);
+        CountDownLatch release = block();
+        final AtomicInteger acceptedCount = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ignored) {
+                        return;
+                    }
+                    for (int j = 0; j < 5; j++) {
+                        try {
+                            mExecutor.execute(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                }
+                            });
+                            acceptedCount.incrementAndGet();
+                        } catch (RejectedExecutionException ignored) {
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        /* Never more calls queued than the capacity. */
+        assertEquals(10, acceptedCount.get());
+        assertEquals(90, mExecutor.getRejectedCount());
+        assertEquals(10, mExecutor.getQueueDepth());
+        assertEquals(10, mExecutor.getMaxQueueDepth());
+        release.countDown();
+    }
+
+    @Test
+    public void ensurePoolSize() throws InterruptedException {
+        mExecutor = new HttpExecutor(1, 10);
+        CountDownLatch release = block();
+
+        /* A queued call starts once the pool grows. */
+        final CountDownLatch done = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        mExecutor.ensurePoolSize(2);
+        assertEquals(2, mExecutor.getCorePoolSize());
+        assertEquals(2, mExecutor.getMaximumPoolSize());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        /* Never shrinks. */
+        mExecutor.ensurePoolSize(1);
+        assertEquals(2, mExecutor.getMaximumPoolSize());
+        release.countDown();
+    }
+
+    @Test
+    public void namedThreads() throws InterruptedException {
+        mExecutor = new HttpExecutor(1, 1);
+        final AtomicReference<String> name = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                name.set(Thread.currentThread().getName());
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(name.get().startsWith(HttpExecutor.THREAD_NAME_PREFIX));
+    }
+}
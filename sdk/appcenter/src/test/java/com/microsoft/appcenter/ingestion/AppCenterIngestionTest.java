@@ -4,6 +4,7 @@ import android.content.Context;
 
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientNetworkStateHandler;
+import com.microsoft.appcenter.http.HttpExecutor;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
@@ -22,6 +23,8 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -32,7 +35,9 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
@@ -40,6 +45,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
@@ -96,6 +102,22 @@ public class AppCenterIngestionTest {
         assertNotNull(callTemplate.get());
         assertEquals("mockPayload", callTemplate.get().buildRequestBody());
 
+        /* Verify streaming delegates to serializer. */
+        Writer writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.get()).writeRequestBody(writer);
+        verify(serializer).writeContainer(writer, container);
+
+        /* Verify priority comes from the container. */
+        container.setPriority(HttpExecutor.PRIORITY_HIGH);
+        assertEquals(HttpExecutor.PRIORITY_HIGH, ((HttpClient.PrioritizedCallTemplate) callTemplate.get()).getPriority());
+
+        /* Verify compression is requested only when enabled, without any header. */
+        assertFalse(((HttpClient.CompressedCallTemplate) callTemplate.get()).isCompressionEnabled());
+        ingestion.setCompressionEnabled(true);
+        ingestion.sendAsync(appSecret, installId, container, serviceCallback);
+        verify(httpClient, times(2)).callAsync(eq("http://mock" + AppCenterIngestion.API_PATH), eq(METHOD_POST), eq(expectedHeaders), notNull(HttpClient.CallTemplate.class), eq(serviceCallback));
+        assertTrue(((HttpClient.CompressedCallTemplate) callTemplate.get()).isCompressionEnabled());
+
         /* Verify close. */
         ingestion.close();
         verify(httpClient).close();
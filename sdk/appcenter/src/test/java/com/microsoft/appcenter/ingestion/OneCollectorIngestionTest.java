@@ -5,11 +5,13 @@ import android.content.Context;
 import com.microsoft.appcenter.http.DefaultHttpClient;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientNetworkStateHandler;
+import com.microsoft.appcenter.http.HttpExecutor;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.UUIDUtils;
@@ -23,6 +25,7 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,7 +40,9 @@ import java.util.concurrent.atomic.AtomicReference;
 import static com.microsoft.appcenter.BuildConfig.VERSION_NAME;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
@@ -45,6 +50,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
@@ -109,6 +115,18 @@ public class OneCollectorIngestionTest {
         verify(httpClient).callAsync(eq("http://mock"), eq(METHOD_POST), eq(expectedHeaders), notNull(HttpClient.CallTemplate.class), eq(serviceCallback));
         assertNotNull(callTemplate.get());
         assertEquals("mockPayload1\nmockPayload2\n", callTemplate.get().buildRequestBody());
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.get()).writeRequestBody(writer);
+        assertEquals("mockPayload1\nmockPayload2\n", writer.toString());
+        container.setPriority(HttpExecutor.PRIORITY_LOW);
+        assertEquals(HttpExecutor.PRIORITY_LOW, ((HttpClient.PrioritizedCallTemplate) callTemplate.get()).getPriority());
+
+        /* Verify compression is requested only when enabled, without any header. */
+        assertFalse(((HttpClient.CompressedCallTemplate) callTemplate.get()).isCompressionEnabled());
+        ingestion.setCompressionEnabled(true);
+        ingestion.sendAsync(null, null, container, serviceCallback);
+        verify(httpClient, times(2)).callAsync(eq("http://mock"), eq(METHOD_POST), eq(expectedHeaders), notNull(HttpClient.CallTemplate.class), eq(serviceCallback));
+        assertTrue(((HttpClient.CompressedCallTemplate) callTemplate.get()).isCompressionEnabled());
 
         /* Verify close. */
         ingestion.close();
@@ -119,6 +137,44 @@ public class OneCollectorIngestionTest {
         verify(httpClient).reopen();
     }
 
+    @Test
+    public void sendSerializedLogs() throws Exception {
+
+        /* Build some payload already serialized. */
+        LogContainer container = new LogContainer();
+        container.setSerializedLogs(Arrays.asList(
+                new SerializedLog("mockPayload1", "mock", "token1"),
+                new SerializedLog("mockPayload2", "mock", "token2"),
+                new SerializedLog("mockPayload3", "mock", "token1")));
+        LogSerializer serializer = mock(LogSerializer.class);
+
+        /* Configure mock HTTP. */
+        HttpClientNetworkStateHandler httpClient = mock(HttpClientNetworkStateHandler.class);
+        whenNew(HttpClientNetworkStateHandler.class).withAnyArguments().thenReturn(httpClient);
+        final AtomicReference<HttpClient.CallTemplate> callTemplate = new AtomicReference<>();
+        final AtomicReference<Map<String, String>> headers = new AtomicReference<>();
+        when(httpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).then(new Answer<ServiceCall>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public ServiceCall answer(InvocationOnMock invocation) {
+                headers.set((Map<String, String>) invocation.getArguments()[2]);
+                callTemplate.set((HttpClient.CallTemplate) invocation.getArguments()[3]);
+                return mock(ServiceCall.class);
+            }
+        });
+
+        /* Payloads are spliced without serializer and API keys are read from serialized logs. */
+        OneCollectorIngestion ingestion = new OneCollectorIngestion(mock(Context.class), serializer);
+        ingestion.sendAsync(null, null, container, mock(ServiceCallback.class));
+        assertEquals("token1,token2", headers.get().get(OneCollectorIngestion.API_KEY));
+        assertEquals("mockPayload1\nmockPayload2\nmockPayload3\n", callTemplate.get().buildRequestBody());
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.get()).writeRequestBody(writer);
+        assertEquals("mockPayload1\nmockPayload2\nmockPayload3\n", writer.toString());
+        verify(serializer, never()).serializeLog(any(Log.class));
+    }
+
     @Test
     public void failedSerialization() throws Exception {
 
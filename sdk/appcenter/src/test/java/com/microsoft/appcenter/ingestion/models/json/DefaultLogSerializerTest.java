@@ -4,6 +4,7 @@ import android.util.Log;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import org.json.JSONStringer;
@@ -12,11 +13,17 @@ import org.junit.Test;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
@@ -56,4 +63,33 @@ public class DefaultLogSerializerTest {
         verifyStatic();
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(NoSuchMethodError.class));
     }
+
+    @Test
+    public void serializeSerializedLogs() throws Exception {
+        LogContainer container = new LogContainer();
+        container.setSerializedLogs(Arrays.asList(new SerializedLog("{\"a\":1}", "mock", null), new SerializedLog("{\"b\":2}", "mock", "token")));
+        assertEquals("{\"logs\":[{\"a\":1},{\"b\":2}]}", new DefaultLogSerializer().serializeContainer(container));
+
+        /* Empty batch. */
+        container.setSerializedLogs(Collections.<SerializedLog>emptyList());
+        assertEquals("{\"logs\":[]}", new DefaultLogSerializer().serializeContainer(container));
+    }
+
+    @Test
+    public void writeContainer() throws Exception {
+        LogContainer container = new LogContainer();
+        container.setSerializedLogs(Arrays.asList(new SerializedLog("{\"a\":1}", "mock", null), new SerializedLog("{\"b\":2}", "mock", null)));
+        StringWriter writer = new StringWriter();
+        new DefaultLogSerializer().writeContainer(writer, container);
+        assertEquals("{\"logs\":[{\"a\":1},{\"b\":2}]}", writer.toString());
+
+        /* Logs are serialized one by one. */
+        DefaultLogSerializer serializer = spy(new DefaultLogSerializer());
+        com.microsoft.appcenter.ingestion.models.Log log = mock(com.microsoft.appcenter.ingestion.models.Log.class);
+        doReturn("{}").when(serializer).serializeLog(log);
+        container.setLogs(Arrays.asList(log, log));
+        writer = new StringWriter();
+        serializer.writeContainer(writer, container);
+        assertEquals("{\"logs\":[{},{}]}", writer.toString());
+    }
 }
@@ -19,20 +19,30 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import static com.microsoft.appcenter.persistence.DatabasePersistence.COLUMN_CLAIMED;
 import static com.microsoft.appcenter.persistence.DatabasePersistence.COLUMN_GROUP;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -52,7 +62,7 @@ public class DatabasePersistenceTest {
         mockStatic(AppCenterLog.class);
         LogSerializer mockSerializer = mock(DefaultLogSerializer.class);
         when(mockSerializer.serializeLog(any(Log.class))).thenReturn("{}");
-        DatabasePersistence mockPersistence = spy(new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA, Persistence.DEFAULT_CAPACITY));
+        DatabasePersistence mockPersistence = spy(new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA, 0));
         doReturn(mockSerializer).when(mockPersistence).getLogSerializer();
         try {
 
@@ -99,7 +109,7 @@ public class DatabasePersistenceTest {
         for (int i = 0; i < groupCount; i++) {
             StorageHelper.DatabaseStorage.DatabaseScanner mockDatabaseScanner = mock(StorageHelper.DatabaseStorage.DatabaseScanner.class);
             when(mockDatabaseScanner.iterator()).thenReturn(list.get(i).iterator());
-            when(mockDatabaseStorage.getScanner(COLUMN_GROUP, String.valueOf(i))).thenReturn(mockDatabaseScanner);
+            when(mockDatabaseStorage.getScanner(eq(new String[]{COLUMN_GROUP, COLUMN_CLAIMED}), eq(new Object[]{String.valueOf(i), 0}), anyCollectionOf(Long.class), eq(false), eq(logCount))).thenReturn(mockDatabaseScanner);
         }
 
         LogSerializer mockLogSerializer = mock(LogSerializer.class);
@@ -114,14 +124,81 @@ public class DatabasePersistenceTest {
             persistence.getLogs(String.valueOf(i), logCount, new ArrayList<Log>());
         }
 
-        /* Verify there are 4 pending groups. */
+        /* Verify there are 4 pending groups, each claimed in a single statement. */
         assertEquals(groupCount, persistence.mPendingDbIdentifiersGroups.size());
         assertEquals(groupCount * logCount, persistence.mPendingDbIdentifiers.size());
+        verify(mockDatabaseStorage, times(groupCount)).update(anyListOf(Long.class), any(ContentValues.class));
 
-        /* Clear all pending groups and verify. */
+        /* Clear all pending groups and verify, claims are released at open and when clearing. */
         persistence.clearPendingLogState();
         assertEquals(0, persistence.mPendingDbIdentifiersGroups.size());
         assertEquals(0, persistence.mPendingDbIdentifiers.size());
+        verify(mockDatabaseStorage, times(2)).update(eq(COLUMN_CLAIMED), eq(1), any(ContentValues.class));
+    }
+
+    @Test
+    public void countLogsWithSingleQuery() {
+
+        /* Mock instances. */
+        mockStatic(StorageHelper.DatabaseStorage.class);
+        StorageHelper.DatabaseStorage databaseStorage = mock(StorageHelper.DatabaseStorage.class);
+        when(StorageHelper.DatabaseStorage.getDatabaseStorage(anyString(), anyString(), anyInt(), any(ContentValues.class),
+                anyInt(), any(DatabaseManager.Listener.class))).thenReturn(databaseStorage);
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("test-p1", 2L);
+        counts.put("test-p2", 3L);
+        when(databaseStorage.sizeBy(COLUMN_GROUP)).thenReturn(counts);
+
+        /* Counts of all groups come from the same query, made when opening the database. */
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        verify(databaseStorage).sizeBy(COLUMN_GROUP);
+        assertEquals(2, persistence.countLogs("test-p1"));
+        assertEquals(3, persistence.countLogs("test-p2"));
+        assertEquals(0, persistence.countLogs("test-p3"));
+        verify(databaseStorage).sizeBy(COLUMN_GROUP);
+        verify(databaseStorage, never()).getScanner(anyString(), any(), anyBoolean());
+
+        /* And are maintained without querying again. */
+        persistence.deleteLogs("test-p1");
+        assertEquals(0, persistence.countLogs("test-p1"));
+        assertEquals(3, persistence.countLogs("test-p2"));
+        verify(databaseStorage).sizeBy(COLUMN_GROUP);
+    }
+
+    @Test
+    public void deleteBatchInSingleStatement() throws JSONException {
+
+        /* Mock instances. */
+        mockStatic(StorageHelper.DatabaseStorage.class);
+        StorageHelper.DatabaseStorage databaseStorage = mock(StorageHelper.DatabaseStorage.class);
+        when(StorageHelper.DatabaseStorage.getDatabaseStorage(anyString(), anyString(), anyInt(), any(ContentValues.class),
+                anyInt(), any(DatabaseManager.Listener.class))).thenReturn(databaseStorage);
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (long i = 0; i < 3; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+            fieldValues.add(values);
+        }
+        StorageHelper.DatabaseStorage.DatabaseScanner databaseScanner = mock(StorageHelper.DatabaseStorage.DatabaseScanner.class);
+        when(databaseScanner.iterator()).thenReturn(fieldValues.iterator());
+        when(databaseStorage.getScanner(eq(new String[]{COLUMN_GROUP, COLUMN_CLAIMED}), eq(new Object[]{"test", 0}), anyCollectionOf(Long.class), eq(false), eq(50))).thenReturn(databaseScanner);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = spy(new DatabasePersistence(mock(Context.class)));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Get and delete a batch. */
+        ArrayList<Log> outLogs = new ArrayList<>();
+        String batchId = persistence.getLogs("test", 50, outLogs);
+        assertEquals(3, outLogs.size());
+        persistence.deleteLogs("test", batchId);
+
+        /* One delete statement for the batch and no payload file probed as none is flagged large. */
+        verify(databaseStorage).delete(Arrays.asList(0L, 1L, 2L));
+        verify(databaseStorage, never()).delete(anyLong());
+        verify(persistence, never()).getLargePayloadFile(any(File.class), anyLong());
+        assertEquals(0, persistence.mPendingDbIdentifiers.size());
     }
 
     @Test
@@ -159,8 +236,7 @@ public class DatabasePersistenceTest {
 
         /* Mock log sequence retrieved from scanner. */
         StorageHelper.DatabaseStorage.DatabaseScanner databaseScanner = mock(StorageHelper.DatabaseStorage.DatabaseScanner.class);
-        when(databaseStorage.getScanner(anyString(), anyString())).thenReturn(databaseScanner);
-        when(databaseStorage.getScanner(anyString(), anyString(), eq(false))).thenReturn(databaseScanner);
+        when(databaseStorage.getScanner(any(String[].class), any(Object[].class), anyCollectionOf(Long.class), eq(false), anyInt())).thenReturn(databaseScanner);
         when(databaseScanner.iterator()).thenReturn(fieldValues.iterator());
 
         /* Mock second scanner with identifiers only. */
@@ -171,7 +247,7 @@ public class DatabasePersistenceTest {
             idValues.add(contentValues);
         }
         StorageHelper.DatabaseStorage.DatabaseScanner idDatabaseScanner = mock(StorageHelper.DatabaseStorage.DatabaseScanner.class);
-        when(databaseStorage.getScanner(anyString(), anyString(), eq(true))).thenReturn(idDatabaseScanner);
+        when(databaseStorage.getScanner(any(String[].class), any(Object[].class), anyCollectionOf(Long.class), eq(true), eq(1))).thenReturn(idDatabaseScanner);
         when(idDatabaseScanner.iterator()).thenReturn(idValues.iterator());
 
         /* Mock serializer and eventually the database. */
@@ -0,0 +1,60 @@
+package com.microsoft.appcenter.persistence;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EvictionPolicyTest {
+
+    @Test
+    public void lowestPriorityFirst() {
+        EvictionPolicy policy = new EvictionPolicy();
+        policy.setGroup("crashes", EvictionPolicy.PRIORITY_HIGH, 0);
+        policy.setGroup("analytics", EvictionPolicy.PRIORITY_LOW, 0);
+        Map<String, Long> logCounts = new HashMap<>();
+        logCounts.put("crashes", 200L);
+        logCounts.put("analytics", 10L);
+        logCounts.put("other", 90L);
+        assertEquals("analytics", policy.selectGroup(logCounts));
+
+        /* Then default priority. */
+        logCounts.remove("analytics");
+        assertEquals("other", policy.selectGroup(logCounts));
+
+        /* Then high priority. */
+        logCounts.remove("other");
+        assertEquals("crashes", policy.selectGroup(logCounts));
+
+        /* Nothing to evict. */
+        logCounts.clear();
+        assertNull(policy.selectGroup(logCounts));
+    }
+
+    @Test
+    public void biggestGroupFirstWithSamePriority() {
+        EvictionPolicy policy = new EvictionPolicy();
+        Map<String, Long> logCounts = new HashMap<>();
+        logCounts.put("a", 10L);
+        logCounts.put("b", 20L);
+        assertEquals("b", policy.selectGroup(logCounts));
+    }
+
+    @Test
+    public void groupAboveQuotaFirst() {
+        EvictionPolicy policy = new EvictionPolicy();
+        policy.setGroup("crashes", EvictionPolicy.PRIORITY_HIGH, 50);
+        policy.setGroup("analytics", EvictionPolicy.PRIORITY_LOW, 0);
+        Map<String, Long> logCounts = new HashMap<>();
+        logCounts.put("crashes", 51L);
+        logCounts.put("analytics", 100L);
+        assertEquals("crashes", policy.selectGroup(logCounts));
+
+        /* Back to priority once under quota. */
+        logCounts.put("crashes", 50L);
+        assertEquals("analytics", policy.selectGroup(logCounts));
+    }
+}
@@ -0,0 +1,278 @@
+package com.microsoft.appcenter.persistence;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.SerializedLog;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(AppCenterLog.class)
+public class InMemoryPersistenceTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    private LogSerializer mLogSerializer;
+
+    @Before
+    public void setUp() throws JSONException {
+        mockStatic(AppCenterLog.class);
+
+        /* Serialize a log as its type and deserialize by creating a log of that type. */
+        mLogSerializer = mock(LogSerializer.class);
+        when(mLogSerializer.serializeLog(any(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return ((Log) invocation.getArguments()[0]).getType();
+            }
+        });
+        when(mLogSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) throws JSONException {
+                String payload = (String) invocation.getArguments()[0];
+                if ("invalid".equals(payload)) {
+                    throw new JSONException("mock");
+                }
+                return mockLog(payload);
+            }
+        });
+    }
+
+    private static Log mockLog(String type) {
+        Log log = mock(Log.class);
+        when(log.getType()).thenReturn(type);
+        return log;
+    }
+
+    private InMemoryPersistence createPersistence(int maxLogsPerGroup) {
+        InMemoryPersistence persistence = new InMemoryPersistence(maxLogsPerGroup);
+        persistence.setLogSerializer(mLogSerializer);
+        return persistence;
+    }
+
+    @Test
+    public void claimAndAcknowledge() throws Persistence.PersistenceException {
+        InMemoryPersistence persistence = createPersistence(10);
+        persistence.putLog("test", mockLog("1"));
+        persistence.putLog("test", mockLog("2"));
+        persistence.putLog("test", mockLog("3"));
+        persistence.putLog("other", mockLog("4"));
+        assertEquals(3, persistence.countLogs("test"));
+        assertEquals(0, persistence.countLogs("unknown"));
+
+        /* Claim first batch. */
+        List<Log> logs = new ArrayList<>();
+        String batchId = persistence.getLogs("test", 2, logs);
+        assertNotNull(batchId);
+        assertEquals(2, logs.size());
+        assertEquals("1", logs.get(0).getType());
+        assertEquals("2", logs.get(1).getType());
+        assertEquals(2, persistence.countLogs("test", batchId));
+
+        /* Pending logs are not claimed twice. */
+        logs.clear();
+        String secondBatchId = persistence.getLogs("test", 2, logs);
+        assertEquals(1, logs.size());
+        assertEquals("3", logs.get(0).getType());
+        assertNotNull(secondBatchId);
+        assertEquals(1, persistence.countLogs("test", secondBatchId));
+        logs.clear();
+        assertNull(persistence.getLogs("test", 2, logs));
+
+        /* Acknowledge first batch. */
+        persistence.deleteLogs("test", batchId);
+        assertEquals(1, persistence.countLogs("test"));
+        assertEquals(0, persistence.countLogs("test", batchId));
+
+        /* Clearing pending state makes second batch available again. */
+        persistence.clearPendingLogState();
+        persistence.getLogs("test", 2, logs);
+        assertEquals(1, logs.size());
+        assertEquals("3", logs.get(0).getType());
+
+        /* Delete group. */
+        persistence.deleteLogs("test");
+        assertEquals(0, persistence.countLogs("test"));
+        assertTrue(persistence.mPendingIdentifiers.isEmpty());
+        assertTrue(persistence.mPendingIdentifiersGroups.isEmpty());
+        assertEquals(1, persistence.countLogs("other"));
+        persistence.close();
+        assertEquals(0, persistence.countLogs("other"));
+    }
+
+    @Test
+    public void clearPendingLogStateOfOneBatch() throws Persistence.PersistenceException {
+        InMemoryPersistence persistence = createPersistence(10);
+        persistence.putLog("test", mockLog("1"));
+        persistence.putLog("test", mockLog("2"));
+        List<Log> logs = new ArrayList<>();
+        String firstBatchId = persistence.getLogs("test", 1, logs);
+        String secondBatchId = persistence.getLogs("test", 1, logs);
+        assertNotNull(firstBatchId);
+        assertNotNull(secondBatchId);
+
+        /* Only the released batch can be claimed again. */
+        persistence.clearPendingLogState("test", firstBatchId);
+        logs.clear();
+        assertNotNull(persistence.getLogs("test", 2, logs));
+        assertEquals(1, logs.size());
+        assertEquals("1", logs.get(0).getType());
+
+        /* The other batch is still acknowledged normally, unknown ids are ignored. */
+        persistence.clearPendingLogState("test", "unknown");
+        persistence.deleteLogs("test", secondBatchId);
+        assertEquals(1, persistence.countLogs("test"));
+    }
+
+    @Test
+    public void oldestLogDroppedWhenFull() throws Persistence.PersistenceException {
+        InMemoryPersistence persistence = createPersistence(2);
+        persistence.putLog("test", mockLog("1"));
+        persistence.putLog("test", mockLog("2"));
+
+        /* Claim oldest then overflow. */
+        List<Log> logs = new ArrayList<>();
+        String batchId = persistence.getLogs("test", 1, logs);
+        persistence.putLog("test", mockLog("3"));
+        assertEquals(2, persistence.countLogs("test"));
+        assertEquals(1, persistence.getEvictedLogCount("test"));
+
+        /* Acknowledging an evicted log is harmless. */
+        persistence.deleteLogs("test", batchId);
+        assertEquals(2, persistence.countLogs("test"));
+        logs.clear();
+        persistence.getLogs("test", 5, logs);
+        assertEquals(2, logs.size());
+        assertEquals("2", logs.get(0).getType());
+        assertEquals("3", logs.get(1).getType());
+    }
+
+    @Test
+    public void maxStorageSize() throws Persistence.PersistenceException {
+        InMemoryPersistence persistence = createPersistence(10);
+        persistence.setGroupEviction("low", EvictionPolicy.PRIORITY_LOW, 0);
+        persistence.putLog("low", mockLog("aa"));
+        persistence.putLog("normal", mockLog("bb"));
+        persistence.putLog("low", mockLog("cc"));
+
+        /* Low priority group is evicted first. */
+        persistence.setMaxStorageSize(4);
+        assertEquals(1, persistence.countLogs("low"));
+        assertEquals(1, persistence.countLogs("normal"));
+        persistence.setMaxStorageSize(0);
+    }
+
+    @Test
+    public void maxBatchSize() throws Persistence.PersistenceException {
+        InMemoryPersistence persistence = createPersistence(10);
+        persistence.putLog("test", mockLog("aaa"));
+        persistence.putLog("test", mockLog("bb"));
+        persistence.putLog("test", mockLog("cccccc"));
+        persistence.putLog("test", mockLog("d"));
+        persistence.setMaxBatchSize(5);
+
+        /* Stop before the log that does not fit, even if a later one would. */
+        List<Log> logs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("test", 10, logs));
+        assertEquals(2, logs.size());
+        assertEquals("aaa", logs.get(0).getType());
+        assertEquals("bb", logs.get(1).getType());
+
+        /* A larger log is still returned alone. */
+        logs.clear();
+        assertNotNull(persistence.getLogs("test", 10, logs));
+        assertEquals(1, logs.size());
+        assertEquals("cccccc", logs.get(0).getType());
+
+        /* No limit. */
+        persistence.putLog("test", mockLog("eeeeee"));
+        persistence.setMaxBatchSize(0);
+        logs.clear();
+        assertNotNull(persistence.getLogs("test", 10, logs));
+        assertEquals(2, logs.size());
+    }
+
+    @Test
+    public void invalidLogIsDropped() throws Persistence.PersistenceException {
+        InMemoryPersistence persistence = createPersistence(10);
+        persistence.putLog("test", mockLog("invalid"));
+        persistence.putLog("test", mockLog("valid"));
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs("test", 5, logs);
+        assertEquals(1, logs.size());
+        assertEquals("valid", logs.get(0).getType());
+        assertEquals(1, persistence.countLogs("test"));
+    }
+
+    @Test
+    public void restoreTargetToken() throws Persistence.PersistenceException {
+        InMemoryPersistence persistence = createPersistence(10);
+        CommonSchemaLog log = mock(CommonSchemaLog.class);
+        when(log.getType()).thenReturn("cs");
+        when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton("token"));
+        persistence.putLog("test", log);
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs("test", 5, logs);
+        verify(logs.get(0)).addTransmissionTarget(eq("token"));
+    }
+
+    @Test(expected = Persistence.PersistenceException.class)
+    public void serializationFails() throws Persistence.PersistenceException, JSONException {
+        InMemoryPersistence persistence = createPersistence(10);
+        when(mLogSerializer.serializeLog(any(Log.class))).thenThrow(new JSONException("mock"));
+        persistence.putLog("test", mockLog("1"));
+    }
+
+    @Test
+    public void getSerializedLogs() throws Exception {
+        InMemoryPersistence persistence = createPersistence(10);
+        persistence.putLog("test", mockLog("1"));
+        persistence.putLog("test", mockLog("2"));
+
+        /* Payloads are returned as stored, without deserialization. */
+        List<SerializedLog> serializedLogs = new ArrayList<>();
+        String batchId = persistence.getSerializedLogs("test", 10, serializedLogs);
+        assertNotNull(batchId);
+        assertEquals(2, serializedLogs.size());
+        assertEquals("1", serializedLogs.get(0).getPayload());
+        assertEquals("2", serializedLogs.get(1).getPayload());
+        verify(mLogSerializer, never()).deserializeLog(anyString(), anyString());
+
+        /* They are pending like logs. */
+        List<Log> logs = new ArrayList<>();
+        assertNull(persistence.getLogs("test", 10, logs));
+
+        /* And can be deserialized on demand. */
+        assertEquals("2", persistence.deserializeLog(serializedLogs.get(1)).getType());
+        persistence.deleteLogs("test", batchId);
+        assertEquals(0, persistence.countLogs("test"));
+    }
+}
@@ -0,0 +1,42 @@
+package com.microsoft.appcenter.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionUtilsTest {
+
+    @Test
+    public void init() {
+        assertNotNull(new CompressionUtils());
+    }
+
+    @Test
+    public void compressAndDecompress() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append("{\"device\":{\"sdkName\":\"appcenter.android\",\"locale\":\"en_US\"},\"name\":\"événement ").append(i).append("\"}");
+        }
+        String data = builder.toString();
+        byte[] compressed = CompressionUtils.compress(data);
+        assertTrue(compressed.length < data.length() / 4);
+        assertEquals(data, CompressionUtils.decompress(compressed));
+        assertEquals("", CompressionUtils.decompress(CompressionUtils.compress("")));
+    }
+
+    @Test(expected = IOException.class)
+    public void decompressInvalidData() throws IOException {
+        CompressionUtils.decompress(new byte[]{1, 2, 3, 4});
+    }
+
+    @Test(expected = IOException.class)
+    public void decompressTruncatedData() throws IOException {
+        byte[] compressed = CompressionUtils.compress("some data that is long enough to be truncated");
+        CompressionUtils.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+}
@@ -45,6 +45,20 @@ public class NetworkStateHelperTestBeforeLollipop extends AbstractNetworkStateHe
         }
     }
 
+    @Test
+    public void networkMetered() {
+        NetworkStateHelper helper = new NetworkStateHelper(mContext);
+        assertFalse(helper.isNetworkMetered());
+        NetworkInfo networkInfo = mock(NetworkInfo.class);
+        when(networkInfo.getType()).thenReturn(ConnectivityManager.TYPE_WIFI);
+        when(mConnectivityManager.getActiveNetworkInfo()).thenReturn(networkInfo);
+        assertFalse(helper.isNetworkMetered());
+        when(networkInfo.getType()).thenReturn(ConnectivityManager.TYPE_MOBILE);
+        assertTrue(helper.isNetworkMetered());
+        when(mConnectivityManager.getActiveNetworkInfo()).thenThrow(new SecurityException());
+        assertFalse(helper.isNetworkMetered());
+    }
+
     @Test
     public void permissionDenied() {
         when(mConnectivityManager.getActiveNetworkInfo()).thenThrow(new SecurityException());
@@ -26,6 +26,7 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @PrepareForTest(NetworkStateHelper.class)
@@ -54,6 +55,16 @@ public class NetworkStateHelperTestFromLollipop extends AbstractNetworkStateHelp
         assertFalse(new NetworkStateHelper(mContext).isNetworkConnected());
     }
 
+    @Test
+    public void networkMetered() {
+        NetworkStateHelper helper = new NetworkStateHelper(mContext);
+        assertFalse(helper.isNetworkMetered());
+        when(mConnectivityManager.isActiveNetworkMetered()).thenReturn(true);
+        assertTrue(helper.isNetworkMetered());
+        when(mConnectivityManager.isActiveNetworkMetered()).thenThrow(new SecurityException());
+        assertFalse(helper.isNetworkMetered());
+    }
+
     @Test
     @SuppressWarnings("deprecation")
     public void listenNetwork() {
@@ -25,8 +25,11 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 
 import javax.crypto.BadPaddingException;
 import javax.security.auth.x500.X500Principal;
@@ -39,6 +42,7 @@ import static com.microsoft.appcenter.utils.crypto.CryptoConstants.CIPHER_AES;
 import static com.microsoft.appcenter.utils.crypto.CryptoConstants.CIPHER_RSA;
 import static com.microsoft.appcenter.utils.crypto.CryptoConstants.KEYSTORE_ALIAS_PREFIX;
 import static com.microsoft.appcenter.utils.crypto.CryptoConstants.KEYSTORE_ALIAS_PREFIX_MOBILE_CENTER;
+import static com.microsoft.appcenter.utils.crypto.CryptoConstants.PROVIDER_ANDROID_M;
 import static com.microsoft.appcenter.utils.crypto.CryptoConstants.RSA_KEY_SIZE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -183,11 +187,11 @@ public class CryptoTest {
     @Test
     public void nullData() {
         CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1);
-        assertNull(cryptoUtils.encrypt(null));
-        CryptoUtils.DecryptedData nullDecryptedData = cryptoUtils.decrypt(null, false);
+        assertNull(cryptoUtils.encrypt((String) null));
+        CryptoUtils.DecryptedData nullDecryptedData = cryptoUtils.decrypt((String) null, false);
         assertNull(nullDecryptedData.getDecryptedData());
         assertNull(nullDecryptedData.getNewEncryptedData());
-        nullDecryptedData = cryptoUtils.decrypt(null, true);
+        nullDecryptedData = cryptoUtils.decrypt((String) null, true);
         assertNull(nullDecryptedData.getDecryptedData());
         assertNull(nullDecryptedData.getNewEncryptedData());
     }
@@ -341,7 +345,9 @@ public class CryptoTest {
         assertEquals(alias0, alias.getAllValues().get(2));
         verify(mKeyStore).deleteEntry(alias0);
         verify(mKeyStore, times(alias0count + 1)).getEntry(alias0, null);
-        verify(mKeyStore, times(3)).getEntry(alias1, null);
+
+        /* The expired alias1 entry was already loaded by this instance. */
+        verify(mKeyStore, times(2)).getEntry(alias1, null);
 
         /* Check that it will reload alias0 again after restart. */
         calendar.add(Calendar.YEAR, 1);
@@ -350,7 +356,7 @@ public class CryptoTest {
         encrypted = cryptoUtils.encrypt("anything");
         assertEquals(CIPHER_RSA + "/" + RSA_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "anything", encrypted);
         verify(mKeyStore, times(alias0count + 2)).getEntry(alias0, null);
-        verify(mKeyStore, times(3)).getEntry(alias1, null);
+        verify(mKeyStore, times(2)).getEntry(alias1, null);
     }
 
     @Test
@@ -394,6 +400,48 @@ public class CryptoTest {
         assertTrue(alias.getValue().contains(CIPHER_AES));
     }
 
+    @Test
+    public void keyStoreEntryAndCipherAreReused() throws Exception {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        for (int i = 0; i < 3; i++) {
+            String encrypted = cryptoUtils.encrypt("anything");
+            assertEquals(CIPHER_AES + "/" + AES_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "IV" + "anything", encrypted);
+            assertEquals("anything", cryptoUtils.decrypt(encrypted, false).getDecryptedData());
+        }
+        String alias = KEYSTORE_ALIAS_PREFIX + ALIAS_SEPARATOR + "0" + ALIAS_SEPARATOR + CIPHER_AES + "/" + AES_KEY_SIZE;
+        verify(mKeyStore).getEntry(alias, null);
+        verify(mCryptoFactory).getCipher(CIPHER_AES, PROVIDER_ANDROID_M);
+
+        /* A failed decryption drops both the cipher and the key store entry. */
+        doThrow(new BadPaddingException()).when(mCipher).doFinal(any(byte[].class), anyInt(), anyInt());
+        String encrypted = cryptoUtils.encrypt("anything");
+        assertEquals(encrypted, cryptoUtils.decrypt(encrypted, false).getDecryptedData());
+        cryptoUtils.encrypt("anything");
+        verify(mKeyStore, times(2)).getEntry(alias, null);
+        verify(mCryptoFactory, times(2)).getCipher(CIPHER_AES, PROVIDER_ANDROID_M);
+    }
+
+    @Test
+    public void batchEncryptAndDecrypt() {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.KITKAT);
+        List<String> encrypted = cryptoUtils.encrypt(Arrays.asList("a", null, "b"));
+        assertEquals(3, encrypted.size());
+        assertEquals(CIPHER_RSA + "/" + RSA_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "a", encrypted.get(0));
+        assertNull(encrypted.get(1));
+        assertEquals(CIPHER_RSA + "/" + RSA_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "b", encrypted.get(2));
+        List<String> data = new ArrayList<>(encrypted);
+        data.add("None:oldData");
+        List<CryptoUtils.DecryptedData> decrypted = cryptoUtils.decrypt(data, false);
+        assertEquals(4, decrypted.size());
+        assertEquals("a", decrypted.get(0).getDecryptedData());
+        assertNull(decrypted.get(1).getDecryptedData());
+        assertEquals("b", decrypted.get(2).getDecryptedData());
+        assertNull(decrypted.get(2).getNewEncryptedData());
+        assertEquals("oldData", decrypted.get(3).getDecryptedData());
+        assertEquals(CIPHER_RSA + "/" + RSA_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "oldData", decrypted.get(3).getNewEncryptedData());
+        assertTrue(cryptoUtils.decrypt(new ArrayList<String>(), true).isEmpty());
+    }
+
     @Test
     public void registerHandlerWithOldMCKeyStore() throws Exception {
 
@@ -3,40 +3,56 @@ package com.microsoft.appcenter.utils.storage;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Handler;
+import android.os.Looper;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.internal.stubbing.answers.Returns;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 
 @SuppressWarnings("unused")
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(SQLiteUtils.class)
+@PrepareForTest({SQLiteUtils.class, DatabaseUtils.class, DatabaseManager.class, Looper.class})
 public class DatabaseManagerTest {
 
     private static DatabaseManager getDatabaseManagerMock() {
@@ -62,6 +78,19 @@ public class DatabaseManagerTest {
         databaseManagerMock.update(0, new ContentValues());
         verify(databaseManagerMock).switchToInMemory(eq("update"), any(RuntimeException.class));
 
+        /* Update multiple IDs. */
+        databaseManagerMock = getDatabaseManagerMock();
+        databaseManagerMock.update(new ArrayList<Long>(), new ContentValues());
+        verify(databaseManagerMock, never()).switchToInMemory(eq("update"), any(RuntimeException.class));
+        databaseManagerMock = getDatabaseManagerMock();
+        databaseManagerMock.update(Arrays.asList(new Long[]{0L, 1L}), new ContentValues());
+        verify(databaseManagerMock).switchToInMemory(eq("update"), any(RuntimeException.class));
+
+        /* Update by key. */
+        databaseManagerMock = getDatabaseManagerMock();
+        databaseManagerMock.update("key", "value", new ContentValues());
+        verify(databaseManagerMock).switchToInMemory(eq("update"), any(RuntimeException.class));
+
         /* Get. */
         databaseManagerMock = getDatabaseManagerMock();
         databaseManagerMock.get(0);
@@ -263,6 +292,30 @@ public class DatabaseManagerTest {
         verify(contextMock).deleteDatabase("database");
     }
 
+    @Test
+    public void otherTableSharesDatabase() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase databaseMock = mock(SQLiteDatabase.class);
+        when(helperMock.getWritableDatabase()).thenReturn(databaseMock);
+
+        /* Instantiate real instances for DatabaseManager. */
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
+        databaseManager.setSQLiteOpenHelper(helperMock);
+        DatabaseManager otherTableManager = new DatabaseManager(databaseManager, "other", new ContentValues(), null);
+
+        /* Other table uses the same connection. */
+        assertEquals(databaseMock, otherTableManager.getDatabase());
+
+        /* Only the manager that opens the database closes it. */
+        otherTableManager.close();
+        verify(databaseMock, never()).close();
+        databaseManager.close();
+        verify(databaseMock).close();
+    }
+
     @Test(expected = RuntimeException.class)
     public void getDatabaseException() {
 
@@ -309,4 +362,389 @@ public class DatabaseManagerTest {
         assertNotNull(databaseManager.get(value2Id));
         assertNotNull(databaseManager.get(value3Id));
     }
-}
\ No newline at end of file
+
+    private static Handler mockLooper() throws Exception {
+        Looper looper = mock(Looper.class);
+        mockStatic(Looper.class);
+        when(Looper.myLooper()).thenReturn(looper);
+        Handler handler = mock(Handler.class);
+        when(handler.getLooper()).thenReturn(looper);
+        whenNew(Handler.class).withArguments(looper).thenReturn(handler);
+        return handler;
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        mockLooper();
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        databaseManager.setGroupCommit(3, Long.MAX_VALUE);
+
+        /* First 2 inserts are not committed. */
+        databaseManager.put(new ContentValues());
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock).beginTransactionNonExclusive();
+        verify(sQLiteDatabaseMock, never()).endTransaction();
+
+        /* Third one commits the group. */
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock).setTransactionSuccessful();
+        verify(sQLiteDatabaseMock).endTransaction();
+
+        /* Any other operation commits a partial group. */
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock, times(2)).beginTransactionNonExclusive();
+        databaseManager.delete(0);
+        verify(sQLiteDatabaseMock, times(2)).setTransactionSuccessful();
+        verify(sQLiteDatabaseMock, times(2)).endTransaction();
+
+        /* Explicit flush with nothing pending does nothing. */
+        databaseManager.flush();
+        verify(sQLiteDatabaseMock, times(2)).endTransaction();
+
+        /* Commit every insert when disabled. */
+        databaseManager.setGroupCommit(0, 0);
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock, times(2)).beginTransactionNonExclusive();
+    }
+
+    @Test
+    public void groupCommitInterval() throws Exception {
+        mockLooper();
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        databaseManager.setGroupCommit(100, 0);
+
+        /* An insert older than the interval is committed right away. */
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock).beginTransactionNonExclusive();
+        verify(sQLiteDatabaseMock).endTransaction();
+    }
+
+    @Test
+    public void groupCommitTimer() throws Exception {
+        Handler handler = mockLooper();
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        databaseManager.setGroupCommit(100, 1000);
+
+        /* Opening a group schedules its commit on the looper of the inserting thread. */
+        databaseManager.put(new ContentValues());
+        databaseManager.put(new ContentValues());
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler).postDelayed(runnable.capture(), eq(1000L));
+        verify(sQLiteDatabaseMock, never()).endTransaction();
+
+        /* Timer commits without waiting for another insert. */
+        runnable.getValue().run();
+        verify(sQLiteDatabaseMock).setTransactionSuccessful();
+        verify(sQLiteDatabaseMock).endTransaction();
+        verify(handler).removeCallbacks(runnable.getValue());
+
+        /* Next group is scheduled again. */
+        databaseManager.put(new ContentValues());
+        verify(handler, times(2)).postDelayed(runnable.getValue(), 1000L);
+    }
+
+    @Test
+    public void groupCommitFlushedFromAnotherThread() throws Exception {
+        Handler handler = mockLooper();
+        final Looper looper = Looper.myLooper();
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        final SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        databaseManager.setGroupCommit(100, 1000);
+        databaseManager.put(new ContentValues());
+
+        /* The inserting thread runs the commit posted by another thread. */
+        when(handler.postAtFrontOfQueue(any(Runnable.class))).then(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                verify(sQLiteDatabaseMock, never()).endTransaction();
+                when(Looper.myLooper()).thenReturn(looper);
+                ((Runnable) invocation.getArguments()[0]).run();
+                when(Looper.myLooper()).thenReturn(null);
+                return true;
+            }
+        });
+
+        /* Another thread cannot end the transaction, it waits for the inserting thread to commit. */
+        when(Looper.myLooper()).thenReturn(null);
+        databaseManager.flush();
+        verify(handler).postAtFrontOfQueue(any(Runnable.class));
+        verify(sQLiteDatabaseMock).setTransactionSuccessful();
+        verify(sQLiteDatabaseMock).endTransaction();
+        verify(databaseManager, never()).switchToInMemory(anyString(), any(RuntimeException.class));
+
+        /* Nothing to wait for after that. */
+        databaseManager.flush();
+        verify(handler).postAtFrontOfQueue(any(Runnable.class));
+    }
+
+    @Test
+    public void groupCommitNotFlushedByBusyThread() throws Exception {
+        Handler handler = mockLooper();
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        databaseManager.setGroupCommit(100, 1000);
+        databaseManager.put(new ContentValues());
+
+        /* Inserting thread is stopped: give up right away. */
+        when(Looper.myLooper()).thenReturn(null);
+        when(handler.postAtFrontOfQueue(any(Runnable.class))).thenReturn(false);
+        databaseManager.flush();
+        verify(sQLiteDatabaseMock, never()).endTransaction();
+
+        /* Inserting thread is busy: give up after the timeout. */
+        when(handler.postAtFrontOfQueue(any(Runnable.class))).thenReturn(true);
+        long startTime = System.currentTimeMillis();
+        databaseManager.flush();
+        assertTrue(System.currentTimeMillis() - startTime >= DatabaseManager.GROUP_COMMIT_FLUSH_TIMEOUT);
+        verify(sQLiteDatabaseMock, never()).endTransaction();
+        verify(databaseManager, never()).switchToInMemory(anyString(), any(RuntimeException.class));
+
+        /* Inserts from this thread do not end the transaction of the other one. */
+        when(handler.postAtFrontOfQueue(any(Runnable.class))).thenReturn(false);
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock, never()).endTransaction();
+    }
+
+    @Test
+    public void groupCommitWithoutLooper() {
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        databaseManager.setGroupCommit(100, 1000);
+
+        /* Nothing could commit later, every insert is committed right away. */
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock, never()).beginTransactionNonExclusive();
+        verify(sQLiteDatabaseMock).insertOrThrow(anyString(), isNull(String.class), any(ContentValues.class));
+    }
+
+    @Test
+    public void groupCommitFailure() throws Exception {
+        mockLooper();
+
+        /* Mock database failing to commit. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        doThrow(new RuntimeException()).when(sQLiteDatabaseMock).endTransaction();
+        databaseManager.setGroupCommit(2, Long.MAX_VALUE);
+        databaseManager.put(new ContentValues());
+        databaseManager.flush();
+        verify(databaseManager).switchToInMemory(eq("flush"), any(RuntimeException.class));
+    }
+
+    @Test
+    public void scannerWithExclusionAndLimit() {
+
+        /* Use in memory database. */
+        DatabaseManager databaseManager = new DatabaseManager(mock(Context.class), "database", "table", 1, null, null);
+        databaseManager.switchToInMemory("test", null);
+        ContentValues value1 = mock(ContentValues.class);
+        ContentValues value2 = mock(ContentValues.class);
+        ContentValues value3 = mock(ContentValues.class);
+        long value1Id = databaseManager.put(value1);
+        long value2Id = databaseManager.put(value2);
+        long value3Id = databaseManager.put(value3);
+        when(value1.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(value1Id);
+        when(value2.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(value2Id);
+        when(value3.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(value3Id);
+
+        /* Skip first value and stop after one value. */
+        DatabaseManager.Scanner scanner = databaseManager.getScanner((String) null, null, Collections.singleton(value1Id), false, 1);
+        Iterator<ContentValues> iterator = scanner.iterator();
+        assertTrue(iterator.hasNext());
+        assertEquals(value2, iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals(1, scanner.getCount());
+        scanner.close();
+    }
+
+    @Test
+    public void cursorWithLimit() {
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        mockStatic(SQLiteUtils.class);
+        SQLiteQueryBuilder sqLiteQueryBuilder = mock(SQLiteQueryBuilder.class, new Returns(mock(Cursor.class)));
+        when(SQLiteUtils.newSQLiteQueryBuilder()).thenReturn(sqLiteQueryBuilder);
+
+        /* Verify limit is passed to SQLite. */
+        databaseManager.getScanner("key", "value", Collections.singleton(1L), false, 5).getCount();
+        verify(sqLiteQueryBuilder).query(eq(sQLiteDatabaseMock), any(String[].class), anyString(), eq(new String[]{"value", "1"}), anyString(), anyString(), eq(DatabaseManager.PRIMARY_KEY), eq("5"));
+
+        /* No limit by default. */
+        databaseManager.getScanner("key", "value", false).getCount();
+        verify(sqLiteQueryBuilder).query(eq(sQLiteDatabaseMock), any(String[].class), anyString(), eq(new String[]{"value"}), anyString(), anyString(), eq(DatabaseManager.PRIMARY_KEY), (String) isNull());
+    }
+
+    @Test
+    public void cursorWithTooManyExcludedIds() {
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        mockStatic(SQLiteUtils.class);
+        SQLiteQueryBuilder sqLiteQueryBuilder = mock(SQLiteQueryBuilder.class, new Returns(mock(Cursor.class)));
+        when(SQLiteUtils.newSQLiteQueryBuilder()).thenReturn(sqLiteQueryBuilder);
+
+        /* Exclude more identifiers than we bind. */
+        Set<Long> excludedIds = new HashSet<>();
+        for (long id = 1; id <= DatabaseManager.MAX_BOUND_EXCLUDED_IDS + 10; id++) {
+            excludedIds.add(id);
+        }
+
+        /* Verify only the oldest ones are bound and the limit covers the others. */
+        databaseManager.getScanner("key", "value", excludedIds, false, 5).iterator();
+        ArgumentCaptor<String[]> argsCaptor = ArgumentCaptor.forClass(String[].class);
+        verify(sqLiteQueryBuilder).query(eq(sQLiteDatabaseMock), any(String[].class), anyString(), argsCaptor.capture(), anyString(), anyString(), eq(DatabaseManager.PRIMARY_KEY), eq("15"));
+        String[] args = argsCaptor.getValue();
+        assertEquals(DatabaseManager.MAX_BOUND_EXCLUDED_IDS + 1, args.length);
+        assertEquals("value", args[0]);
+        assertEquals("1", args[1]);
+        assertEquals(String.valueOf(DatabaseManager.MAX_BOUND_EXCLUDED_IDS), args[args.length - 1]);
+    }
+
+    @Test
+    public void cursorWithSeveralKeys() {
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        mockStatic(SQLiteUtils.class);
+        SQLiteQueryBuilder sqLiteQueryBuilder = mock(SQLiteQueryBuilder.class, new Returns(mock(Cursor.class)));
+        when(SQLiteUtils.newSQLiteQueryBuilder()).thenReturn(sqLiteQueryBuilder);
+
+        /* Verify all conditions are combined and bound. */
+        databaseManager.getScanner(new String[]{"key1", "key2", "key3"}, new Object[]{"value", 0, null}, Collections.singleton(1L), true, 5).getCount();
+        verify(sqLiteQueryBuilder).appendWhere("key1 = ?");
+        verify(sqLiteQueryBuilder).appendWhere("key2 = ?");
+        verify(sqLiteQueryBuilder).appendWhere("key3 IS NULL");
+        verify(sqLiteQueryBuilder, times(3)).appendWhere(" AND ");
+        verify(sqLiteQueryBuilder).query(eq(sQLiteDatabaseMock), eq(new String[]{DatabaseManager.PRIMARY_KEY}), anyString(), eq(new String[]{"value", "0", "1"}), anyString(), anyString(), eq(DatabaseManager.PRIMARY_KEY), eq("5"));
+    }
+
+    @Test
+    public void scannerWithSeveralKeysInMemory() {
+
+        /* Use in memory database. */
+        DatabaseManager databaseManager = new DatabaseManager(mock(Context.class), "database", "table", 1, null, null);
+        databaseManager.switchToInMemory("test", null);
+        ContentValues value1 = mock(ContentValues.class);
+        ContentValues value2 = mock(ContentValues.class);
+        ContentValues value3 = mock(ContentValues.class);
+        when(value1.get("key1")).thenReturn("a");
+        when(value1.get("key2")).thenReturn(1);
+        when(value2.get("key1")).thenReturn("a");
+        when(value2.get("key2")).thenReturn(0);
+        when(value3.get("key1")).thenReturn("b");
+        when(value3.get("key2")).thenReturn(0);
+        databaseManager.put(value1);
+        databaseManager.put(value2);
+        databaseManager.put(value3);
+
+        /* Only the values matching all keys are returned. */
+        DatabaseManager.Scanner scanner = databaseManager.getScanner(new String[]{"key1", "key2"}, new Object[]{"a", 0}, null, false, 0);
+        Iterator<ContentValues> iterator = scanner.iterator();
+        assertTrue(iterator.hasNext());
+        assertEquals(value2, iterator.next());
+        assertFalse(iterator.hasNext());
+        scanner.close();
+    }
+
+    @Test
+    public void updateSeveralEntries() {
+
+        /* Mock database. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        ContentValues values = mock(ContentValues.class);
+
+        /* Verify SQL statements. */
+        databaseManager.update(Arrays.asList(1L, 2L), values);
+        verify(sQLiteDatabaseMock).update("table", values, "oid IN (1, 2)", null);
+        databaseManager.update("key", 1, values);
+        verify(sQLiteDatabaseMock).update("table", values, "key = ?", new String[]{"1"});
+    }
+
+    @Test
+    public void updateSeveralEntriesInMemory() {
+
+        /* Use in memory database. */
+        DatabaseManager databaseManager = new DatabaseManager(mock(Context.class), "database", "table", 1, null, null);
+        databaseManager.switchToInMemory("test", null);
+        ContentValues value1 = mock(ContentValues.class);
+        ContentValues value2 = mock(ContentValues.class);
+        when(value1.get("key")).thenReturn(1);
+        when(value2.get("key")).thenReturn(2);
+        databaseManager.put(value1);
+        long value2Id = databaseManager.put(value2);
+
+        /* Update by identifiers, unknown ones are ignored. */
+        ContentValues values = mock(ContentValues.class);
+        databaseManager.update(Arrays.asList(value2Id, value2Id + 1), values);
+        verify(value1, never()).putAll(values);
+        verify(value2).putAll(values);
+
+        /* Update by key. */
+        databaseManager.update("key", 1, values);
+        verify(value1).putAll(values);
+        verify(value2).putAll(values);
+    }
+
+    @Test
+    public void rowCountMaintainedAndBulkEviction() {
+
+        /* Mock database with 2 rows and a capacity of 3. */
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, 3, null));
+        SQLiteDatabase sQLiteDatabaseMock = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(sQLiteDatabaseMock);
+        mockStatic(DatabaseUtils.class);
+        when(DatabaseUtils.queryNumEntries(sQLiteDatabaseMock, "table")).thenReturn(2L);
+        when(sQLiteDatabaseMock.delete(eq("table"), contains("LIMIT"), any(String[].class))).thenReturn(2);
+        databaseManager.setEvictionChunkSize(2);
+
+        /* Reaching capacity does not evict. */
+        databaseManager.put(new ContentValues());
+        assertEquals(3, databaseManager.getRowCount());
+        verify(sQLiteDatabaseMock, never()).delete(anyString(), anyString(), any(String[].class));
+
+        /* Exceeding capacity deletes a chunk in a single statement. */
+        databaseManager.put(new ContentValues());
+        verify(sQLiteDatabaseMock).delete(eq("table"), eq("oid IN (SELECT oid FROM table ORDER BY oid LIMIT 2)"), any(String[].class));
+        assertEquals(2, databaseManager.getRowCount());
+
+        /* Rows are counted only once. */
+        verifyStatic();
+        DatabaseUtils.queryNumEntries(sQLiteDatabaseMock, "table");
+
+        /* Clear resets the count. */
+        databaseManager.clear();
+        assertEquals(0, databaseManager.getRowCount());
+    }
+}